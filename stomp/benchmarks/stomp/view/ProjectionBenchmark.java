@@ -0,0 +1,214 @@
+package stomp.view;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.Random;
+import javax.vecmath.*;
+
+import stomp.FastVector;
+import stomp.Mode;
+import stomp.Stomp;
+import stomp.data3d.*;
+import stomp.data3d.file.StompReaderWriter;
+
+/**
+ * Times the perspective projection of every model in a directory, the
+ * old way (a Point4f and Matrix4f.transform per vertex, results in
+ * Vertex objects) against Projection.  Also checks they agree.  Then
+ * times a large made-up set of vertices with Projection on one thread
+ * against the ForkJoinPool.
+ *
+ * <p>
+ * Usage, from the benchmarks directory once stomp is built:
+ * java -classpath .:.. stomp.view.ProjectionBenchmark [dir] [frames] [vertices]
+ */
+public class ProjectionBenchmark
+{
+    public static void main(String args[]) throws Exception
+    {
+        File dir = new File(args.length > 0 ? args[0] : "../StompObjects");
+        int frames = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+        int bigSize = args.length > 2 ? Integer.parseInt(args[2]) : 1000000;
+        Stomp.statusBar = new QuietStatusBar();
+
+        //Something like what Perspective uses: a camera a few units
+        //back, then a perspective divide.
+        Matrix4f view = new Matrix4f();
+        view.setIdentity();
+        view.setTranslation(new Vector3f(0, 0, -10));
+        Matrix4f perspective = new Matrix4f();
+        perspective.setZero();
+        perspective.m00 = 400;
+        perspective.m11 = -400;
+        perspective.m02 = -300;
+        perspective.m12 = -200;
+        perspective.m22 = 1;
+        perspective.m32 = -1;
+        Matrix4f m = new Matrix4f();
+        m.mul(perspective, view);
+
+        String names[] = dir.list();
+        Arrays.sort(names);
+        for(int n = 0; n < names.length; n++)
+        {
+            if(!names[n].endsWith(".stomp"))
+            {
+                continue;
+            }
+
+            Scene scene = new Scene();
+            new StompReaderWriter().read(scene, new File(dir, names[n]).getPath());
+            scene.validateScene();
+            FastVector vertices = scene.getVerticesVector();
+
+            FastVector oldVertices = new FastVector();
+            FastVector newVertices = new FastVector();
+            Projection projection = new Projection();
+
+            //Warm up, and check both give the same answer.
+            for(int f = 0; f < frames/10 + 1; f++)
+            {
+                oldProject(m, vertices, oldVertices);
+                projection.project(m, vertices);
+                projection.copyTo(vertices, newVertices);
+            }
+            int mismatches = 0;
+            for(int i = 0; i < vertices.sizeFast(); i++)
+            {
+                Vertex a = (Vertex)oldVertices.elementAtFast(i);
+                Vertex b = (Vertex)newVertices.elementAtFast(i);
+                if(Float.floatToIntBits(a.x) != Float.floatToIntBits(b.x) ||
+                   Float.floatToIntBits(a.y) != Float.floatToIntBits(b.y) ||
+                   Float.floatToIntBits(a.z) != Float.floatToIntBits(b.z))
+                {
+                    mismatches++;
+                }
+            }
+
+            long start = System.currentTimeMillis();
+            for(int f = 0; f < frames; f++)
+            {
+                oldProject(m, vertices, oldVertices);
+            }
+            long oldTime = System.currentTimeMillis() - start;
+
+            start = System.currentTimeMillis();
+            for(int f = 0; f < frames; f++)
+            {
+                projection.project(m, vertices);
+                projection.copyTo(vertices, newVertices);
+            }
+            long newTime = System.currentTimeMillis() - start;
+
+            start = System.currentTimeMillis();
+            for(int f = 0; f < frames; f++)
+            {
+                projection.project(m, vertices);
+            }
+            long kernelTime = System.currentTimeMillis() - start;
+
+            System.out.println(names[n] + ": " + vertices.sizeFast() + " vertices, " +
+                               "old " + perFrame(oldTime, frames) +
+                               ", new " + perFrame(newTime, frames) +
+                               ", kernel only " + perFrame(kernelTime, frames) +
+                               " us/frame, " + mismatches + " mismatches");
+        }
+
+        parallel(m, bigSize);
+    }
+
+    /**
+     * Project a lot of random vertices serially and in parallel.
+     */
+    private static void parallel(Matrix4f m, int size)
+    {
+        FastVector vertices = new FastVector();
+        Random random = new Random(1);
+        for(int i = 0; i < size; i++)
+        {
+            vertices.addElement(new Vertex(random.nextFloat() * 10 - 5,
+                                           random.nextFloat() * 10 - 5,
+                                           random.nextFloat() * 10 - 5));
+        }
+
+        int threshold = Mode.PARALLEL_PROJECTION;
+        FastVector serialVertices = new FastVector();
+        FastVector parallelVertices = new FastVector();
+        Projection serial = new Projection();
+        Projection parallel = new Projection();
+        int frames = 20;
+
+        Mode.PARALLEL_PROJECTION = 0;
+        serial.project(m, vertices);
+        serial.copyTo(vertices, serialVertices);
+        long start = System.currentTimeMillis();
+        for(int f = 0; f < frames; f++)
+        {
+            serial.project(m, vertices);
+            serial.copyTo(vertices, serialVertices);
+        }
+        long serialTime = System.currentTimeMillis() - start;
+
+        Mode.PARALLEL_PROJECTION = 1;
+        parallel.project(m, vertices);
+        parallel.copyTo(vertices, parallelVertices);
+        start = System.currentTimeMillis();
+        for(int f = 0; f < frames; f++)
+        {
+            parallel.project(m, vertices);
+            parallel.copyTo(vertices, parallelVertices);
+        }
+        long parallelTime = System.currentTimeMillis() - start;
+        Mode.PARALLEL_PROJECTION = threshold;
+
+        int mismatches = 0;
+        for(int i = 0; i < size; i++)
+        {
+            Vertex a = (Vertex)serialVertices.elementAtFast(i);
+            Vertex b = (Vertex)parallelVertices.elementAtFast(i);
+            if(Float.floatToIntBits(a.x) != Float.floatToIntBits(b.x) ||
+               Float.floatToIntBits(a.y) != Float.floatToIntBits(b.y) ||
+               Float.floatToIntBits(a.z) != Float.floatToIntBits(b.z))
+            {
+                mismatches++;
+            }
+        }
+
+        System.out.println(size + " random vertices: serial " +
+                           perFrame(serialTime, frames) + ", parallel " +
+                           perFrame(parallelTime, frames) + " us/frame, " +
+                           mismatches + " mismatches");
+    }
+
+    private static String perFrame(long millis, int frames)
+    {
+        return "" + (millis * 1000 / frames);
+    }
+
+    /**
+     * The projection loop Perspective and CameraView used to have.
+     */
+    private static void oldProject(Matrix4f m, FastVector sceneVertices,
+                                   FastVector vertices)
+    {
+        int size = sceneVertices.sizeFast();
+        while(vertices.sizeFast() < size)
+        {
+            vertices.addElement(new Vertex());
+        }
+
+        Point4f temp = new Point4f();
+        Vertex dest, source;
+        for(int i = 0; i < size; ++i)
+        {
+            dest = (Vertex)vertices.elementAtFast(i);
+            source = (Vertex)sceneVertices.elementAtFast(i);
+            dest.set(source);
+            temp.set(source.x, source.y, source.z, 1);
+
+            m.transform(temp);
+            temp.project(temp);
+            dest.set(temp.x, temp.y, temp.z);
+        }
+    }
+}
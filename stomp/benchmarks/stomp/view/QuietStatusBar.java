@@ -0,0 +1,19 @@
+package stomp.view;
+
+import stomp.gui.StatusBar;
+
+/**
+ * A status bar that ignores progress reports.  The benchmarks install it
+ * as Stomp.statusBar before loading a model, since the file readers
+ * report their progress there and there is no window to draw it in.
+ */
+public class QuietStatusBar extends StatusBar
+{
+    public void startProgress(String message, double increment)
+    {
+    }
+
+    public void incrementProgress()
+    {
+    }
+}
@@ -0,0 +1,121 @@
+package stomp.view;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.util.Arrays;
+
+import stomp.FastVector;
+import stomp.Mode;
+import stomp.Stomp;
+import stomp.data3d.*;
+import stomp.data3d.file.StompReaderWriter;
+
+/**
+ * Times painting every model in a directory in a front and a perspective
+ * view, through the image's own Graphics against RasterGraphics, and
+ * counts the pixels where the two pictures differ.  Some primitives and
+ * vertices are selected so the highlighting is drawn too.
+ *
+ * <p>
+ * Usage, from the benchmarks directory once stomp is built:
+ * java -classpath .:.. stomp.view.RasterBenchmark [dir] [frames] [size]
+ */
+public class RasterBenchmark
+{
+    public static void main(String args[]) throws Exception
+    {
+        File dir = new File(args.length > 0 ? args[0] : "../StompObjects");
+        int frames = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int size = args.length > 2 ? Integer.parseInt(args[2]) : 600;
+        Stomp.statusBar = new QuietStatusBar();
+
+        Mode.setZoom(size / 15.0);
+
+        String names[] = dir.list();
+        Arrays.sort(names);
+        for(int n = 0; n < names.length; n++)
+        {
+            if(!names[n].endsWith(".stomp"))
+            {
+                continue;
+            }
+
+            Scene scene = new Scene();
+            new StompReaderWriter().read(scene, new File(dir, names[n]).getPath());
+            scene.validateScene();
+
+            FastVector primitives = scene.getPrimitivesVector();
+            for(int i = 0; i < primitives.sizeFast(); i += 5)
+            {
+                scene.select((Primitive)primitives.elementAtFast(i));
+            }
+            FastVector vertices = scene.getVerticesVector();
+            for(int i = 0; i < vertices.sizeFast(); i += 7)
+            {
+                scene.select((Vertex)vertices.elementAtFast(i));
+            }
+            scene.validateScene();
+
+            View views[] = { new Orthogonal("Front", true, true, false, scene),
+                             new Perspective("Perspective", scene) };
+            StringBuffer line = new StringBuffer(names[n] + ": " +
+                                                 primitives.sizeFast() +
+                                                 " primitives");
+            for(int v = 0; v < views.length; v++)
+            {
+                views[v].setSize(size, size);
+
+                BufferedImage plain = new BufferedImage(size, size,
+                                                        BufferedImage.TYPE_INT_RGB);
+                BufferedImage raster = new BufferedImage(size, size,
+                                                         BufferedImage.TYPE_INT_RGB);
+                Graphics plainGraphics = plain.getGraphics();
+                Graphics rasterGraphics = new RasterGraphics(raster);
+
+                //Warm up
+                for(int f = 0; f < frames/10 + 1; f++)
+                {
+                    views[v].paint(plainGraphics);
+                    views[v].paint(rasterGraphics);
+                }
+
+                long start = System.currentTimeMillis();
+                for(int f = 0; f < frames; f++)
+                {
+                    views[v].paint(plainGraphics);
+                }
+                long plainTime = System.currentTimeMillis() - start;
+
+                start = System.currentTimeMillis();
+                for(int f = 0; f < frames; f++)
+                {
+                    views[v].paint(rasterGraphics);
+                }
+                long rasterTime = System.currentTimeMillis() - start;
+
+                int a[] = plain.getRGB(0, 0, size, size, null, 0, size);
+                int b[] = raster.getRGB(0, 0, size, size, null, 0, size);
+                int differ = 0;
+                for(int i = 0; i < a.length; i++)
+                {
+                    if(a[i] != b[i])
+                    {
+                        differ++;
+                    }
+                }
+
+                line.append(", " + views[v].m_text + " graphics " +
+                            perFrame(plainTime, frames) + " raster " +
+                            perFrame(rasterTime, frames) + " us/frame, " +
+                            differ + " pixels differ");
+            }
+            System.out.println(line);
+        }
+    }
+
+    private static String perFrame(long millis, int frames)
+    {
+        return "" + (millis * 1000 / frames);
+    }
+}
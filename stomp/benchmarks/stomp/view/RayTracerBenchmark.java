@@ -0,0 +1,61 @@
+package stomp.view;
+
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.util.Arrays;
+import javax.imageio.ImageIO;
+
+import stomp.Stomp;
+import stomp.data3d.*;
+import stomp.data3d.file.StompReaderWriter;
+
+/**
+ * Times the built-in RayTracer on every model in a directory: building
+ * its BVH, and tracing a picture.  If an output directory is given the
+ * pictures are saved there as PNG files, to be looked at.
+ *
+ * <p>
+ * Usage, from the benchmarks directory once stomp is built:
+ * java -classpath .:.. stomp.view.RayTracerBenchmark [dir] [width] [height] [outdir]
+ */
+public class RayTracerBenchmark
+{
+    public static void main(String args[]) throws Exception
+    {
+        File dir = new File(args.length > 0 ? args[0] : "../StompObjects");
+        int width = args.length > 1 ? Integer.parseInt(args[1]) : 320;
+        int height = args.length > 2 ? Integer.parseInt(args[2]) : 240;
+        File outDir = args.length > 3 ? new File(args[3]) : null;
+        Stomp.statusBar = new QuietStatusBar();
+
+        String names[] = dir.list();
+        Arrays.sort(names);
+        for(int n = 0; n < names.length; n++)
+        {
+            if(!names[n].endsWith(".stomp"))
+            {
+                continue;
+            }
+
+            Scene scene = new Scene();
+            new StompReaderWriter().read(scene, new File(dir, names[n]).getPath());
+            scene.validateScene();
+
+            long start = System.currentTimeMillis();
+            RayTracer tracer = new RayTracer(scene, 30);
+            long built = System.currentTimeMillis();
+            BufferedImage image = tracer.render(width, height);
+            long done = System.currentTimeMillis();
+
+            if(outDir != null)
+            {
+                String name = names[n].substring(0, names[n].length() - 6);
+                ImageIO.write(image, "png", new File(outDir, name + ".png"));
+            }
+
+            System.out.println(names[n] + ": " + tracer.getNumTriangles() +
+                               " triangles, built in " + (built - start) +
+                               " ms, traced in " + (done - built) + " ms");
+        }
+    }
+}
@@ -28,4 +28,13 @@ public class FastVector extends Vector
     {
         return elementCount;
     }
+
+    /**
+     * Get the number of structural changes (adds, removes) made to the
+     * vector so far.  Useful for noticing that cached positions are stale.
+     */
+    public final int getModCount()
+    {
+        return modCount;
+    }
 }
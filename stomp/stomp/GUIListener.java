@@ -210,6 +210,12 @@ public class GUIListener implements ActionListener, WindowListener
             }
             m_viewContainer.setPerspective(ViewContainer.CAMERA);
         }
+        else if(command.equals("Shaded"))
+        {
+            //Toggle between shaded and wireframe preview.
+            Mode.SHADED = !Mode.SHADED;
+            m_viewContainer.forceRepaint();
+        }
         else if(command.equals("Print Views"))
         {
             PrintJob pj =
@@ -460,6 +466,9 @@ public class GUIListener implements ActionListener, WindowListener
             {
                 System.out.println("Calling execute");
                 CommandExecutor.execute(comm);
+
+                //Plugins can change vertices and primitives directly.
+                m_scene.sceneChanged();
                 m_scene.validateScene();
             }
         }
@@ -33,8 +33,19 @@ public class Mode extends java.util.Observable
 
     //User options
     public static int NURB_SUBDIVIDE = 1;
-    public static int STACK_SIZE = 20;   
+    public static int STACK_SIZE = 100;   
+    public static int UNDO_MEMORY = 16384;  //kilobytes
     public static float DISAPPEAR_THRESHHOLD = 500;
+    public static boolean INCREMENTAL_PROJECTION = true;
+    public static int PARALLEL_PROJECTION = 100000;  //vertices, 0 for never
+    public static boolean DIRECT_RASTER = false;
+    public static boolean EDGE_TABLE = true;
+    public static boolean CULLING = true;
+    public static float LOD_PIXELS = 3;  //0 for full detail while dragging
+    public static int FRAME_BUDGET = 40;  //milliseconds
+    public static int REFINE_DELAY = 150;  //milliseconds, 0 for never
+    public static boolean SHADED = false;
+    public static float SPLINE_TOLERANCE = 0.5f;  //pixels
 
     //Single instance of mode
     private static Mode m_actualMode;
@@ -247,6 +247,9 @@ public class Stomp extends java.awt.Frame
         MenuItem cameraView = new MenuItem("Camera");
         fourth.add(cameraView);
         cameraView.addActionListener(m_guiListener);
+        MenuItem shaded = new MenuItem("Shaded");
+        fourth.add(shaded);
+        shaded.addActionListener(m_guiListener);
         viewMenu.add(fourth);
 
         //Plugin Menu
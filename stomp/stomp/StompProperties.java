@@ -13,6 +13,7 @@ import java.text.*;
  * <ul>
  *   <li> PLUGIN_DIR
  *   <li> UNDO_LEVEL
+ *   <li> UNDO_MEMORY (kilobytes)
  *   <li> SUBDIVIDE
  *   <li> VRML_PROGRAM
  *   <li> PREVIEW_PATH
@@ -20,6 +21,16 @@ import java.text.*;
  *   <li> UPDATE_DELAY
  *   <li> POLYGON_THRESHHOLD
  *   <li> NO_CLIPPING
+ *   <li> INCREMENTAL_PROJECTION
+ *   <li> PARALLEL_PROJECTION (vertices)
+ *   <li> DIRECT_RASTER
+ *   <li> EDGE_TABLE
+ *   <li> CULLING
+ *   <li> LOD_PIXELS (pixels)
+ *   <li> FRAME_BUDGET (milliseconds)
+ *   <li> REFINE_DELAY (milliseconds)
+ *   <li> SHADED
+ *   <li> SPLINE_TOLERANCE (pixels)
  * </ul><p>
  * Note: The key value pairs are NOT separated with =
  */
@@ -108,6 +119,10 @@ public class StompProperties
             {
                 Mode.STACK_SIZE = numformat.parse(value).intValue();
             }
+            else if(key.equals("UNDO_MEMORY"))
+            {
+                Mode.UNDO_MEMORY = numformat.parse(value).intValue();
+            }
             else if(key.equals("SUBDIVIDE"))
             {
                 Mode.NURB_SUBDIVIDE = numformat.parse(value).intValue();
@@ -126,6 +141,7 @@ public class StompProperties
             }
             else if(key.equals("UPDATE_DELAY"))
             {
+                //Least time between renders of the views.
                 stomp.gui.ViewContainer.UPDATE_DELAY = numformat.parse(value).intValue();
             }
             else if(key.equals("POLYGON_THRESHHOLD"))
@@ -140,6 +156,60 @@ public class StompProperties
                     System.out.println("Warning: Not performing 2D clipping!");
                 }
             }
+            else if(key.equals("INCREMENTAL_PROJECTION"))
+            {
+                //Re-project only the vertices that changed since the
+                //last frame.
+                Mode.INCREMENTAL_PROJECTION = !value.equals("FALSE");
+            }
+            else if(key.equals("PARALLEL_PROJECTION"))
+            {
+                //Scenes with at least this many vertices are projected
+                //on every processor.  0 turns it off.
+                Mode.PARALLEL_PROJECTION = numformat.parse(value).intValue();
+            }
+            else if(key.equals("DIRECT_RASTER"))
+            {
+                //Draw wireframes straight into the views' pixels.
+                Mode.DIRECT_RASTER = value.equals("TRUE");
+            }
+            else if(key.equals("EDGE_TABLE"))
+            {
+                //Draw edges shared by several polygons once.
+                Mode.EDGE_TABLE = !value.equals("FALSE");
+            }
+            else if(key.equals("CULLING"))
+            {
+                //Skip groups that are outside a view.
+                Mode.CULLING = !value.equals("FALSE");
+            }
+            else if(key.equals("LOD_PIXELS"))
+            {
+                //How coarse the model may get while dragging.  0 draws
+                //it all.
+                Mode.LOD_PIXELS = numformat.parse(value).floatValue();
+            }
+            else if(key.equals("FRAME_BUDGET"))
+            {
+                //Draw coarser while dragging if frames take longer.
+                Mode.FRAME_BUDGET = numformat.parse(value).intValue();
+            }
+            else if(key.equals("REFINE_DELAY"))
+            {
+                //Draw coarse views at full detail once the user has
+                //stopped for this long.  0 turns it off.
+                Mode.REFINE_DELAY = numformat.parse(value).intValue();
+            }
+            else if(key.equals("SHADED"))
+            {
+                //Show the perspective and camera views as shaded solids.
+                Mode.SHADED = value.equals("TRUE");
+            }
+            else if(key.equals("SPLINE_TOLERANCE"))
+            {
+                //Furthest a spline may be drawn from its curve.
+                Mode.SPLINE_TOLERANCE = numformat.parse(value).floatValue();
+            }
         }
         catch(ParseException e)
         {
@@ -10,15 +10,33 @@ import stomp.data3d.Vertex;
  *
  * 2d clipping is used for the viewports.  3d clipping is implemented (z
  * axis only) but unused so far.
+ *
+ * The 2d clip bounds are kept per thread, since views may be painted on
+ * several threads at once, each with its own size.
  */
 public class SutherlandHodgman
 {
     public static boolean CLIP = true;
     
-    private static double m_yBottom = 0.0;
-    private static double m_yTop = 200.0;
-    private static double m_xLeft = 0.0;
-    private static double m_xRight = 200.0;
+    /**
+     * The 2d clip bounds set by the last setClipBounds on a thread.
+     */
+    private static class Bounds
+    {
+        double m_yBottom = 0.0;
+        double m_yTop = 200.0;
+        double m_xLeft = 0.0;
+        double m_xRight = 200.0;
+    }
+
+    private static ThreadLocal m_bounds = new ThreadLocal()
+    {
+        protected Object initialValue()
+        {
+            return new Bounds();
+        }
+    };
+
     private static double m_zFront = 1;
     private static double m_zBack = -5;
 
@@ -141,11 +159,12 @@ public class SutherlandHodgman
     {
         if(CLIP)
         {
-            if(clip2d_d(p0, p1, m_xLeft, m_xRight) == REJECT)
+            Bounds b = (Bounds)m_bounds.get();
+            if(clip2d_d(p0, p1, b.m_xLeft, b.m_xRight) == REJECT)
             {
                 return REJECT;
             }
-            if(clip2d_d2(p0, p1, m_yBottom, m_yTop) == REJECT)
+            if(clip2d_d2(p0, p1, b.m_yBottom, b.m_yTop) == REJECT)
             {
                 return REJECT;
             }
@@ -237,19 +256,20 @@ public class SutherlandHodgman
     {
         if(CLIP)
         {
-            if(x < m_xLeft)
+            Bounds b = (Bounds)m_bounds.get();
+            if(x < b.m_xLeft)
             {
                 return false;
             }
-            if(x > m_xRight)
+            if(x > b.m_xRight)
             {
                 return false;
             }
-            if(y < m_yBottom)
+            if(y < b.m_yBottom)
             {
                 return false;
             }
-            if(y > m_yTop)
+            if(y > b.m_yTop)
             {
                 return false;
             }
@@ -258,16 +278,20 @@ public class SutherlandHodgman
         return true;
     }
     
+    /**
+     * Set the 2d clip bounds for the calling thread.
+     */
     public static final void setClipBounds(double yBottom, double yTop,
                                      double xLeft, double xRight)
     {
         if(yTop > 100 &&
            xRight > 100)
         {
-            m_yBottom = yBottom;
-            m_yTop = yTop;
-            m_xRight = xRight;
-            m_xLeft = xLeft;
+            Bounds b = (Bounds)m_bounds.get();
+            b.m_yBottom = yBottom;
+            b.m_yTop = yTop;
+            b.m_xRight = xRight;
+            b.m_xLeft = xLeft;
         }
     }
 }
@@ -15,7 +15,7 @@ import javax.vecmath.*;
  * The center may be outside of the polygon and the scaling will be slightly
  * incorrect.
  */
-public class BevelCommand implements Command
+public class BevelCommand implements SizedCommand
 {
     private Scene m_scene;
     private Command m_deselectCommand;
@@ -37,19 +37,19 @@ public class BevelCommand implements Command
         boolean changed = false;
         m_addedElements = new FastVector();
         m_oldPolygon3ds = new FastVector();
-        FastVector selectedPrimitives = m_scene.getOrderedSelectedPrimitives();
+        int numSelected = m_scene.numSelectedPrimitives();
         FastVector transformedVertices = m_scene.getVerticesVector();
 
         Stomp.statusBar.startProgress("Beveling selected Polygons...",
-                                      100.0/selectedPrimitives.size());
-        for(int i = 0; i < selectedPrimitives.sizeFast(); i++)
+                                      100.0/numSelected);
+        for(int i = 0; i < numSelected; i++)
         {
-            if(selectedPrimitives.elementAtFast(i) instanceof Polygon3d)
+            if(m_scene.getSelectedPrimitive(i) instanceof Polygon3d)
             {
                 changed = true;
 
                 //Get the indices to the Polygon3d
-                Polygon3d Polygon3d = (Polygon3d)selectedPrimitives.elementAtFast(i);
+                Polygon3d Polygon3d = (Polygon3d)m_scene.getSelectedPrimitive(i);
                 Surface surf = Polygon3d.getSurface();
                 m_oldPolygon3ds.addElement(Polygon3d);
                 
@@ -107,6 +107,7 @@ public class BevelCommand implements Command
                 Polygon3d newTop = new Polygon3d(newIndices);
                 newTop.setSurface(surf);
                 Polygon3d.flip();                
+                m_scene.primitiveChanged(Polygon3d);
                 
                 m_scene.addPrimitive(newTop);
                 m_addedElements.addElement(newTop);
@@ -147,6 +148,7 @@ public class BevelCommand implements Command
         for(int i = 0; i < m_oldPolygon3ds.sizeFast(); i++)
         {
             ((Polygon3d)m_oldPolygon3ds.elementAtFast(i)).flip();
+            m_scene.primitiveChanged((Polygon3d)m_oldPolygon3ds.elementAtFast(i));
         }
 
         m_deselectCommand.unExecute();
@@ -154,6 +156,15 @@ public class BevelCommand implements Command
         m_scene.validateScene();
     }
 
+    public int getUndoSize()
+    {
+        int size = SceneDelta.sizeOf(m_addedElements) +
+            SceneDelta.sizeOf(m_oldPolygon3ds);
+        size += CommandExecutor.getUndoSize(m_deselectCommand);
+
+        return size;
+    }
+
     public String toString()
     {
         return "Extrude Selected";
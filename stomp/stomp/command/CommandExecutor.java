@@ -8,14 +8,25 @@ import java.util.*;
  * This class manages the command stack.  All commands should be
  * executed through the CommandExecutor so that they can be undone
  * and redone.
+ *
+ * <p>The stack is limited by Mode.UNDO_MEMORY, the number of kilobytes
+ * of undo information to keep, as well as by Mode.STACK_SIZE levels.
+ * The oldest commands are dropped first.
  */
 public class CommandExecutor
 {
     private static final boolean DEBUG = false;
+
+    //Assumed undo size, in bytes, of commands that don't report one.
+    private static final int DEFAULT_UNDO_SIZE = 256;
     
     private static Stack m_commands =  new Stack();
     private static Stack m_undoCommands = new Stack();
 
+    //Undo size of each command in m_commands, and the total.
+    private static Stack m_sizes = new Stack();
+    private static long m_totalSize = 0;
+
     /**
      * Execute a command and add push it on the command stack.
      */
@@ -28,12 +39,7 @@ public class CommandExecutor
 
         if(undoable)
         {
-            m_commands.push(command);
-
-            if(m_commands.size() > Mode.STACK_SIZE)
-            {
-                m_commands.removeElementAt(0);
-            }
+            push(command);
         }
     }
 
@@ -45,7 +51,7 @@ public class CommandExecutor
         m_undoCommands.removeAllElements();
         if(DEBUG)
             System.out.println("Adding Command: " + command);
-        m_commands.push(command); 
+        push(command); 
     }
 
     /**
@@ -57,6 +63,7 @@ public class CommandExecutor
         if(m_commands.size() > 0)
         {
             Command command = (Command)m_commands.pop();
+            m_totalSize -= ((Integer)m_sizes.pop()).intValue();
             command.unExecute();
             m_undoCommands.push(command);
         }
@@ -74,10 +81,55 @@ public class CommandExecutor
             if(DEBUG)
                 System.out.println("Re-Doing Command: " + command);
             command.execute();
-            m_commands.push(command);
+            push(command);
+        }
+    }
+
+    /**
+     * Push a command on the command stack, then drop the oldest commands
+     * until the stack fits in the undo limits.  The newest command is
+     * always kept, however big it is.
+     */
+    private static final void push(Command command)
+    {
+        int size = getUndoSize(command);
+        m_commands.push(command);
+        m_sizes.push(new Integer(size));
+        m_totalSize += size;
+
+        long limit = Mode.UNDO_MEMORY * 1024L;
+        while(m_commands.size() > 1 &&
+              (m_commands.size() > Mode.STACK_SIZE || m_totalSize > limit))
+        {
+            if(DEBUG)
+                System.out.println("Dropping Command: " + m_commands.elementAt(0));
+            m_commands.removeElementAt(0);
+            m_totalSize -= ((Integer)m_sizes.elementAt(0)).intValue();
+            m_sizes.removeElementAt(0);
         }
     }
 
+    /**
+     * Approximate number of bytes kept for undoing a command, for
+     * commands that are made of other commands.
+     */
+    static final int getUndoSize(Command command)
+    {
+        if(command instanceof SizedCommand)
+        {
+            return ((SizedCommand)command).getUndoSize();
+        }
+        return DEFAULT_UNDO_SIZE;
+    }
+
+    /**
+     * Approximate number of bytes held by the commands that can be undone.
+     */
+    public static final long getUndoSize()
+    {
+        return m_totalSize;
+    }
+
     /**
      * Remove all of the commands from the command and undo stack.
      */
@@ -85,6 +137,8 @@ public class CommandExecutor
     {
         m_undoCommands.removeAllElements();
         m_commands.removeAllElements();
+        m_sizes.removeAllElements();
+        m_totalSize = 0;
     }
 
     /**
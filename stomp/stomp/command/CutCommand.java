@@ -11,10 +11,10 @@ import stomp.data3d.*;
  * primitives, the vertices will be copied with them.  If the user only
  * copies vertices, the primitives will NOT be copied.
  */
-public class CutCommand implements Command
+public class CutCommand implements SizedCommand
 {
     private Scene m_scene;
-    private Command m_deleteSelected;
+    private DeleteSelectedCommand m_deleteSelected;
 
     private CutCommand()
     {
@@ -49,6 +49,11 @@ public class CutCommand implements Command
         m_scene.validateScene();
     }
 
+    public int getUndoSize()
+    {
+        return m_deleteSelected.getUndoSize();
+    }
+
     public String toString()
     {
         return "Cut";
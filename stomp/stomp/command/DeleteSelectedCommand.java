@@ -21,15 +21,17 @@ import java.util.*;
  *        delete that primitive.
  * </ul>
  */
-public class DeleteSelectedCommand implements Command
+public class DeleteSelectedCommand implements SizedCommand
 {
-    private boolean m_deleteGroups;
     private Scene m_scene;
-    private FastVector m_oldPrimitives;
-    private FastVector m_oldVertices;
-    private FastVector m_oldUnclonedPrimitives;
-    private Hashtable m_clonedHash = new Hashtable();
+
+    //Only what was actually removed is kept for undo, rather than a
+    //copy of the whole scene.
+    private SceneDelta m_delta;
+
+    //Groups that were deleted, and the primitives they held.
     private FastVector m_deletedGroups = new FastVector();
+    private FastVector m_groupMembers = new FastVector();
     
     private FastVector m_orderedSelectedVerts = new FastVector();
     private FastVector m_orderedSelectedPrims = new FastVector();
@@ -45,111 +47,48 @@ public class DeleteSelectedCommand implements Command
     
     public boolean execute()
     {
-        m_oldPrimitives = new FastVector();
-        m_oldVertices = new FastVector();
-        m_orderedSelectedVerts = new FastVector();
-        m_orderedSelectedPrims = new FastVector();
-        m_clonedHash = new Hashtable();
+        m_delta = new SceneDelta();
         m_deletedGroups = new FastVector();
+        m_groupMembers = new FastVector();
         
         //if(m_scene.numSelected() > 0)
         {
-            m_orderedSelectedVerts = (FastVector)m_scene.getOrderedSelectedVertices().clone();
-            m_orderedSelectedPrims = (FastVector)m_scene.getOrderedSelectedPrimitives().clone();
+            m_orderedSelectedVerts = m_scene.getOrderedSelectedVertices();
+            m_orderedSelectedPrims = m_scene.getOrderedSelectedPrimitives();
             
             m_scene.emptyOrderedSelectedVertices();
             m_scene.emptyOrderedSelectedPrimitives();
             
-            FastVector vertices = m_scene.getVerticesVector();
             FastVector primitives = m_scene.getPrimitivesVector();
 
-            //Copy all of the original vertices and primitives for undo.
-            //Inefficient, but almost necessary since the data structures
-            //can be changed so much.
-            m_oldVertices = (FastVector)vertices.clone();
-            m_oldUnclonedPrimitives = (FastVector)primitives.clone();
-            Primitive element, cloned;
+            //Delete all of the selected vertices at once.  Primitives
+            //attached to them are dealt with using the policy described
+            //in the class description.
+            Stomp.statusBar.startProgress("Deleting...", 100.0/2);
+            m_scene.removeVertices(m_orderedSelectedVerts, m_delta);
+            Stomp.statusBar.incrementProgress();
+
+            //Release selected groups, then remove all of the selected
+            //primitives in one pass.
+            FastVector selected = new FastVector();
+            Primitive element;
             for(int i = 0; i < primitives.sizeFast(); i++)
             {
                 element = (Primitive)primitives.elementAtFast(i);
-                //Don't clone groups.
-                if(!(element instanceof Group))
-                {
-                    cloned = (Primitive)element.clone();
-                    m_oldPrimitives.addElement(cloned);
-
-                    //Add element to hash table with key of original prim
-                    //and object as the cloned one.
-                    m_clonedHash.put(element, cloned);
-                }
-                else if(element.isSelected())
-                {
-                    m_deleteGroups = true;
-                    m_deletedGroups.addElement(element);
-                }
-                else //group was not selected, just pass it along
-                     //so it doesn't get lost on undo.
-                {
-                    m_oldPrimitives.addElement(element);
-                }
-            }
-
-            //Go through all selected vertices.  For each vertex, renumber
-            //all the primitives.  If the primitive contains the vertex,
-            //deal with it using the policy described in the class description.
-            Vertex v;
-            Primitive p, pClone;
-            Stomp.statusBar.startProgress("Deleting, step 1...",
-                                          100.0/m_orderedSelectedVerts.size());
-            for(int verts = m_orderedSelectedVerts.size()-1; verts >=0; verts--)
-            {
-                v = (Vertex)m_orderedSelectedVerts.elementAtFast(verts);
-                int i = m_scene.getIndex(v);
-                if(i > -1)
+                if(element.isSelected())
                 {
-                    for(int j =  primitives.size()-1; j >=0 ; j--)
+                    if(element instanceof Group)
                     {
-                        p = (Primitive)primitives.elementAtFast(j);
-                        
-                        if(p.renumberIndices(i))
-                        {
-                            m_scene.removePrimitive((Primitive)primitives.elementAt(j));
-                        }
+                        Group group = (Group)element;
+                        m_deletedGroups.addElement(group);
+                        m_groupMembers.addElement(group.getPrimitives());
+                        group.releasePrimitives();
                     }
-
-                    //m_scene.removeVertex((Vertex)vertices.elementAt(i));
-                    vertices.removeElementAt(i);
+                    selected.addElement(element);
                 }
-
-                Stomp.statusBar.incrementProgress();
-            }
-
-            //Loop through primitives and delete if they are selected.
-            Stomp.statusBar.startProgress("Deleting, step 2...",
-                                          100.0/primitives.size());
-            //take care of groups!
-            for(int i = primitives.size()-1; i >= 0; i--)
-            {
-                element = (Primitive)primitives.elementAtFast(i);
-                if(element.isSelected() && element instanceof Group)
-                {
-                    ((Group)element).releasePrimitives();
-                    primitives.removeElement(element);
-                }
-                Stomp.statusBar.incrementProgress();
-            }
-            
-            Stomp.statusBar.startProgress("Deleting, step 3...",
-                                          100.0/primitives.size());
-            for(int i = primitives.size()-1; i >= 0; i--)
-            {
-                element = (Primitive)primitives.elementAtFast(i);
-                if(element.isSelected())
-                {
-                    primitives.removeElement(element);
-                }
-                Stomp.statusBar.incrementProgress();
             }
+            m_scene.removePrimitives(selected, m_delta);
+            Stomp.statusBar.incrementProgress();
 
             m_scene.validateScene();
             return true;
@@ -160,39 +99,18 @@ public class DeleteSelectedCommand implements Command
 
     public void unExecute()
     {
-        //Restore all of the vertices
-        FastVector vertices = m_scene.getVerticesVector();
-        vertices.removeAllElements();
-        for(int i = 0; i < m_oldVertices.size(); i++)
-        {
-            m_scene.addVertex((Vertex)m_oldVertices.elementAtFast(i));
-        }
+        //Put back the primitives and vertices, with their old indices.
+        m_scene.restore(m_delta);
 
-        //Restore all of the primitives
-        FastVector primitives = m_scene.getPrimitivesVector();
-        primitives.removeAllElements();
-        for(int i = 0; i < m_oldPrimitives.size(); i++)
+        //Give the deleted groups their primitives back.
+        for(int g = 0; g < m_deletedGroups.sizeFast(); g++)
         {
-            Primitive p = (Primitive)m_oldPrimitives.elementAtFast(i);
-            for(int g = 0; g < m_deletedGroups.sizeFast(); g++)
-            {
-                //If primitive references a deleted group, remove that
-                //reference.
-                if(p.getGroup() == m_deletedGroups.elementAtFast(g))
-                {
-                    p.setGroup(null);
-                }
-            }
-            int indices[] = p.getIndices();
-            for(int q = 0; q < indices.length; q++)
+            Group group = (Group)m_deletedGroups.elementAtFast(g);
+            FastVector members = (FastVector)m_groupMembers.elementAtFast(g);
+            for(int i = 0; i < members.sizeFast(); i++)
             {
-                if(indices[q] == -1)
-                {
-                    System.out.println("Problem in delete selected's undo.");
-                }
+                group.add((Primitive)members.elementAtFast(i));
             }
-
-            m_scene.addPrimitive(p);
         }
 
         //Restore the selected vertices and primitives
@@ -201,17 +119,24 @@ public class DeleteSelectedCommand implements Command
             m_scene.select((Vertex)m_orderedSelectedVerts.elementAtFast(i));
         }
 
-        Primitive prim;
         for(int i = 0; i < m_orderedSelectedPrims.size(); i++)
         {
-            //Lookup the cloned object based on getting the uncloned one.
-            prim = (Primitive)m_clonedHash.get(m_orderedSelectedPrims.elementAtFast(i));
-            if(prim != null)
-            {
-                m_scene.select(prim);
-            }
+            m_scene.select((Primitive)m_orderedSelectedPrims.elementAtFast(i));
         }
 
         m_scene.validateScene();
     }
+
+    public int getUndoSize()
+    {
+        int size = m_delta == null ? 0 : m_delta.getSize();
+        size += 8 * (m_orderedSelectedVerts.sizeFast() +
+                     m_orderedSelectedPrims.sizeFast());
+        for(int g = 0; g < m_groupMembers.sizeFast(); g++)
+        {
+            size += 8 * ((FastVector)m_groupMembers.elementAtFast(g)).sizeFast();
+        }
+
+        return size;
+    }
 }
@@ -10,7 +10,7 @@ import java.util.*;
 /**
  * Deselect all of the primitives and vertices in the scene.
  */
-public class DeselectAllCommand implements Command
+public class DeselectAllCommand implements SizedCommand
 {
     private Scene m_scene;
     private FastVector m_orderedSelectedVerts = new FastVector();
@@ -66,6 +66,12 @@ public class DeselectAllCommand implements Command
         m_scene.validateScene();
     }
 
+    public int getUndoSize()
+    {
+        return 8 * (m_orderedSelectedVerts.size() +
+                    m_orderedSelectedPrims.size());
+    }
+
     public String toString()
     {
         return "Deselect All";
@@ -28,8 +28,8 @@ public class DeselectLastCommand implements Command
     {
         if(m_scene.verticesSelected())
         {
-            FastVector vertices = m_scene.getOrderedSelectedVertices();
-            m_itemDeselected = vertices.elementAt(vertices.size()-1);
+            m_itemDeselected =
+                m_scene.getSelectedVertex(m_scene.numSelectedVertices()-1);
             m_scene.deselect((Vertex)m_itemDeselected);
             m_scene.validateScene();
             
@@ -37,8 +37,8 @@ public class DeselectLastCommand implements Command
         }
         else if(m_scene.primitivesSelected())
         {
-            FastVector prims = m_scene.getOrderedSelectedPrimitives();
-            m_itemDeselected = prims.elementAt(prims.size()-1);
+            m_itemDeselected =
+                m_scene.getSelectedPrimitive(m_scene.numSelectedPrimitives()-1);
             m_scene.deselect((Primitive)m_itemDeselected);
             m_scene.validateScene();
             
@@ -14,7 +14,7 @@ import javax.vecmath.Vector3f;
  * Extrude the selected polygons 1 unit in the direction of the
  * polygon's normal.
  */
-public class ExtrudeCommand extends Frame implements Command, ActionListener
+public class ExtrudeCommand extends Frame implements SizedCommand, ActionListener
 {
     private TextField m_extrudeAmount = new TextField(8);
     private TextField m_segments = new TextField(8);    
@@ -41,10 +41,9 @@ public class ExtrudeCommand extends Frame implements Command, ActionListener
     public boolean execute()
     {
         int numFields = 2;
-        FastVector selectedPrimitives = m_scene.getOrderedSelectedPrimitives();
-        for(int i = 0; i < selectedPrimitives.sizeFast(); i++)
+        for(int i = 0; i < m_scene.numSelectedPrimitives(); i++)
         {
-            if(selectedPrimitives.elementAtFast(i) instanceof Spline)
+            if(m_scene.getSelectedPrimitive(i) instanceof Spline)
             {
                 splines = true;
                 numFields = 3;
@@ -122,14 +121,14 @@ public class ExtrudeCommand extends Frame implements Command, ActionListener
         m_addedElements = new FastVector();
         m_oldPolygon3ds = new FastVector();
         //Vector primitives = m_scene.getPrimitivesVector();
-        FastVector selectedPrimitives = m_scene.getOrderedSelectedPrimitives();
+        int numSelected = m_scene.numSelectedPrimitives();
         FastVector transformedVertices = m_scene.getVerticesVector();
 
         Stomp.statusBar.startProgress("Extruding selected Polygons...",
-                                      100.0/selectedPrimitives.size());
-        for(int i = 0; i < selectedPrimitives.size(); i++)
+                                      100.0/numSelected);
+        for(int i = 0; i < numSelected; i++)
         {
-            Primitive prim = (Primitive)selectedPrimitives.elementAt(i);
+            Primitive prim = m_scene.getSelectedPrimitive(i);
             if(prim instanceof Polygon3d)
             {
                 //Get the indices to the Polygon3d
@@ -186,6 +185,7 @@ public class ExtrudeCommand extends Frame implements Command, ActionListener
                 Polygon3d newTop = new Polygon3d(newIndices);
                 newTop.setSurface(surf);
                 poly.flip();
+                m_scene.primitiveChanged(poly);
                 
                 m_scene.addPrimitive(newTop);
                 m_addedElements.addElement(newTop);
@@ -286,6 +286,7 @@ public class ExtrudeCommand extends Frame implements Command, ActionListener
             if(p instanceof Polygon3d)
             {
                 ((Polygon3d)p).flip();
+                m_scene.primitiveChanged(p);
             }
             else if(p instanceof Spline)
             {
@@ -299,6 +300,15 @@ public class ExtrudeCommand extends Frame implements Command, ActionListener
         m_scene.validateScene();
     }
 
+    public int getUndoSize()
+    {
+        int size = SceneDelta.sizeOf(m_addedElements) +
+            SceneDelta.sizeOf(m_oldPolygon3ds);
+        size += CommandExecutor.getUndoSize(m_deselectCommand);
+
+        return size;
+    }
+
     public String toString()
     {
         return "Extrude Selected";
@@ -35,17 +35,17 @@ public class FlipNormalCommand implements Command
     private boolean flip()
     {
         boolean changed = false;
-        Vector selectedPrimitives = m_scene.getOrderedSelectedPrimitives();
         FastVector transformedVertices = m_scene.getVerticesVector();
         
-        for(int i = selectedPrimitives.size()-1; i >=0 ; i--)
+        for(int i = m_scene.numSelectedPrimitives()-1; i >=0 ; i--)
         {
-            Primitive element = (Primitive)selectedPrimitives.elementAt(i);
+            Primitive element = m_scene.getSelectedPrimitive(i);
             if(element instanceof Polygon3d)
             {
                 changed = true;
                 ((Polygon3d)element).flip();
                 ((Polygon3d)element).computeNormal(transformedVertices);
+                m_scene.primitiveChanged(element);
             }
         }
 
@@ -12,7 +12,7 @@ public class HideSelectedCommand implements Command
 {
     private Scene m_scene;
 
-    private FastVector m_vertices = new FastVector();
+    private SelectionBits m_hiddenVertices;
     private FastVector m_orderedSelectedVerts = new FastVector();
     private FastVector m_orderedSelectedPrims = new FastVector();
 
@@ -29,7 +29,6 @@ public class HideSelectedCommand implements Command
     {
         m_orderedSelectedVerts = m_scene.getOrderedSelectedVertices();
         m_orderedSelectedPrims = m_scene.getOrderedSelectedPrimitives();
-        m_vertices = m_scene.getVerticesVector();
         
 //         Vertex tempVertex;
 //         for(int i = 0; i < m_orderedSelectedVerts.sizeFast(); i++)
@@ -41,20 +40,25 @@ public class HideSelectedCommand implements Command
 
         Primitive tempPrim;
         int indices[];
+        SelectionBits attached = new SelectionBits();
         for(int i = 0; i < m_orderedSelectedPrims.sizeFast(); i++)
         {
             tempPrim = (Primitive)m_orderedSelectedPrims.elementAtFast(i);
             tempPrim.setHidden(true);
             m_scene.deselect(tempPrim);
+            m_scene.primitiveChanged(tempPrim);
 
-            //Hide attached vertices
             indices = tempPrim.getIndices();
             for(int j = 0; j < indices.length; j++)
             {
-                ((Vertex)m_vertices.elementAtFast(indices[j])).setHidden(true);
+                attached.set(indices[j]);
             }
         }
 
+        //Hide attached vertices, remembering which weren't hidden
+        //already so undo leaves those alone.
+        m_hiddenVertices = m_scene.hideVertices(attached);
+
         m_scene.validateScene();
         
         return true;
@@ -68,21 +72,17 @@ public class HideSelectedCommand implements Command
         m_scene.deselectPrimitives();
         
         Primitive tempPrim;
-        int indices[];
         for(int i = 0; i < m_orderedSelectedPrims.sizeFast(); i++)
         {
             tempPrim = (Primitive)m_orderedSelectedPrims.elementAtFast(i);
             tempPrim.setHidden(false);
             m_scene.select(tempPrim);
-
-            //Hide attached vertices
-            indices = tempPrim.getIndices();
-            for(int j = 0; j < indices.length; j++)
-            {
-                ((Vertex)m_vertices.elementAtFast(indices[j])).setHidden(false);
-            }
+            m_scene.primitiveChanged(tempPrim);
         }
 
+        //Unhide attached vertices
+        m_scene.unhideVertices(m_hiddenVertices);
+
         m_scene.validateScene();
     }
     
@@ -34,20 +34,7 @@ public class InvertSelectedCommand implements Command
             m_selectedVertices = m_scene.getSelectedVertices();
             m_whichSelected = VERTICES;
 
-            FastVector vertices = m_scene.getVerticesVector();
-            Vertex v;
-            for(int i = 0; i < vertices.sizeFast(); ++i)
-            {
-                v = (Vertex)vertices.elementAtFast(i);
-                if(v.isSelected())
-                {
-                    m_scene.deselect(v);
-                }
-                else
-                {
-                    m_scene.select(v);
-                }
-            }
+            m_scene.invertSelectedVertices();
         }
         else if(m_scene.primitivesSelected())
         {
@@ -10,11 +10,11 @@ import javax.vecmath.*;
  * Join the selected vertices into the first vertex.  Allows loops to be
  * created
  */
-public class JoinVerticesCommand implements Command
+public class JoinVerticesCommand implements SizedCommand
 {
     private Scene m_scene;
-    private Vector m_oldPrimitives = new Vector();
     private Vector m_newPrimitives = new Vector();
+    private Vector m_oldIndices = new Vector();
     private Vector m_vertices = new Vector();
     
     private Command m_deselectAllCommand;
@@ -37,48 +37,47 @@ public class JoinVerticesCommand implements Command
         int count = 0;
         Vector3f dvec = new Vector3f();
         Vector toRemove = new Vector();
-        m_oldPrimitives = new Vector();
         m_newPrimitives = new Vector();
+        m_oldIndices = new Vector();
         m_vertices = new Vector();
 
-        Vector vertices = m_scene.getVerticesVector();
-        Vector primitives = m_scene.getPrimitivesVector();
-        Vector selectedVertices = m_scene.getSelectedVertices();
-
-        if(selectedVertices.size() < 2)
+        Hashtable touched = new Hashtable();
+        if(m_scene.numSelectedVertices() < 2)
         {
             return changed;
         }
 
-        Vertex keepVertex = (Vertex)selectedVertices.elementAt(0);
-        int keepIndex = vertices.indexOf(keepVertex);
+        Vertex keepVertex = m_scene.getSelectedVertex(0);
+        int keepIndex = m_scene.getIndex(keepVertex);
         m_scene.deselect(keepVertex);
         
-        selectedVertices = m_scene.getSelectedVertices();
         //Loop through all selected vertices and merge them into the first.
-        for(int i = 0; i < selectedVertices.size(); i++)
+        for(int i = 0; i < m_scene.numSelectedVertices(); i++)
         {
-            Vertex v1 = (Vertex)selectedVertices.elementAt(i);
+            Vertex v1 = m_scene.getSelectedVertex(i);
             int oldIndex = m_scene.getIndex(v1);
 
-            //Go through all primitives and replace indices into
-            //that vertex with indices into the older vertex
-            //at the same coordinate.
-            for(int p = primitives.size()-1; p >=0; p--)
+            //Replace indices into that vertex in the primitives that
+            //use it with indices into the kept vertex.  The list is a
+            //copy, so primitiveChanged moving them in the index is safe.
+            FastVector incident = m_scene.getIncidentPrimitives(oldIndex);
+            for(int p = incident.sizeFast()-1; p >= 0; p--)
             {
-                Primitive prim = (Primitive)primitives.elementAt(p);
-                if(prim.containsIndex(oldIndex))
+                Primitive prim = (Primitive)incident.elementAtFast(p);
+                changed = true;
+                //If the primitive is touched, save it along with the
+                //indices it had so undo can put them back.
+                if(touched.put(prim, prim) == null)
                 {
-                    changed = true;
-                    //If the primitive is touched, save it as newly
-                    //changed and save the clone as the old version.
-                    if(!m_newPrimitives.contains(prim))
-                    {
-                        m_newPrimitives.addElement(prim);
-                        m_oldPrimitives.addElement(prim.clone());
-                    }
-                    prim.replaceIndex(oldIndex, keepIndex);
+                    int indices[] = prim.getIndices();
+                    int oldIndices[] = new int[indices.length];
+                    System.arraycopy(indices, 0, oldIndices, 0,
+                                     indices.length);
+                    m_newPrimitives.addElement(prim);
+                    m_oldIndices.addElement(oldIndices);
                 }
+                prim.replaceIndex(oldIndex, keepIndex);
+                m_scene.primitiveChanged(prim);
             }
 
             m_vertices.addElement(v1);
@@ -96,20 +95,26 @@ public class JoinVerticesCommand implements Command
         //undo the deleted vertices
         m_deleteSelectedCommand.unExecute();
 
-        //restore the planes
-
-        //delete the new planes (all that were touched
+        //Give the touched primitives their old indices back.
         for(int i = 0; i < m_newPrimitives.size(); i++)
         {
-            m_scene.removePrimitive((Primitive)m_newPrimitives.elementAt(i));
+            Primitive prim = (Primitive)m_newPrimitives.elementAt(i);
+            prim.setIndices((int[])m_oldIndices.elementAt(i));
+            m_scene.primitiveChanged(prim);
         }
+        
+        m_scene.validateScene();
+    }
 
-        //Add back the old planes (indexing into the old vertices
-        for(int i = 0; i < m_newPrimitives.size(); i++)
+    public int getUndoSize()
+    {
+        int size = ((SizedCommand)m_deleteSelectedCommand).getUndoSize();
+        size += 8 * m_vertices.size();
+        for(int i = 0; i < m_oldIndices.size(); i++)
         {
-            m_scene.addPrimitive((Primitive)m_oldPrimitives.elementAt(i));
+            size += 24 + 4 * ((int[])m_oldIndices.elementAt(i)).length;
         }
-        
-        m_scene.validateScene();
+
+        return size;
     }
 }
@@ -16,7 +16,7 @@ import java.text.*;
  * TODO: Rename this class since it is no longer just around the
  * Y axis.
  */
-public class LatheYCommand extends Frame implements Command, ActionListener
+public class LatheYCommand extends Frame implements SizedCommand, ActionListener
 {
     private static int LATHE_DIVISIONS = 16;
 
@@ -107,14 +107,7 @@ public class LatheYCommand extends Frame implements Command, ActionListener
         m_addedElements = new FastVector();
         FastVector vertices = m_scene.getVerticesVector();
 
-        int numSelected = 0;
-        for(int i = vertices.size()-1; i >= 0; i--)
-        {
-            if( ((Vertex)vertices.elementAtFast(i)).isSelected())
-            {
-                numSelected++;
-            }
-        }
+        int numSelected = m_scene.numSelectedVertices();
 
         int inds[][] = new int[LATHE_DIVISIONS][numSelected];
 
@@ -123,12 +116,10 @@ public class LatheYCommand extends Frame implements Command, ActionListener
 
         Rotation rotation = new Rotation();
 
-        FastVector selectedVerts = m_scene.getOrderedSelectedVertices();
-        
         //First indicies are original points.
-        for(int t = 0; t < selectedVerts.size(); t++)
+        for(int t = 0; t < numSelected; t++)
         {
-            Vertex v = (Vertex)selectedVerts.elementAtFast(t);
+            Vertex v = m_scene.getSelectedVertex(t);
             //if(v.isSelected())
             //{
                 inds[j][i++] = m_scene.getIndex(v);
@@ -207,6 +198,11 @@ public class LatheYCommand extends Frame implements Command, ActionListener
         m_scene.validateScene();
     }
 
+    public int getUndoSize()
+    {
+        return SceneDelta.sizeOf(m_addedElements);
+    }
+
     public String toString()
     {
         return "Lathe Y Axis";
@@ -11,7 +11,7 @@ import java.util.*;
  * Make a polygon from the selected vertices.
  * TODO: Rename to MakePolygonCommand...
  */
-public class MakePlaneCommand implements Command
+public class MakePlaneCommand implements SizedCommand
 {
     private Scene m_scene;
     private Polygon3d m_Polygon3d;
@@ -73,6 +73,19 @@ public class MakePlaneCommand implements Command
         m_scene.validateScene();
     }
 
+    public int getUndoSize()
+    {
+        int size = 8 * (m_orderedSelectedVerts.size() +
+                        m_orderedSelectedPrims.size());
+        if(m_Polygon3d != null)
+        {
+            size += SceneDelta.sizeOf(m_Polygon3d);
+        }
+        size += CommandExecutor.getUndoSize(m_deselectAll);
+
+        return size;
+    }
+
     public String toString()
     {
         return "Make Polygon";
@@ -18,7 +18,7 @@ import java.util.*;
  *   <li> CLOSED_SURFACE (circular b-spline surface)
  * <ul>
  */
-public class MakeShapeCommand implements Command
+public class MakeShapeCommand implements SizedCommand
 {
     public static final int SPHERE = 1;
     public static final int CONE = 2;
@@ -673,4 +673,15 @@ public class MakeShapeCommand implements Command
         m_scene.addPrimitive(surface);
         m_addedElements.addElement(surface);
     }
+
+    public int getUndoSize()
+    {
+        int size = SceneDelta.sizeOf(m_addedElements);
+        if(m_merged)
+        {
+            size += CommandExecutor.getUndoSize(m_mergeVerticesCommand);
+        }
+
+        return size;
+    }
 }
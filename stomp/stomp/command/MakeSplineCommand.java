@@ -10,7 +10,7 @@ import java.util.*;
 /**
  * Make a b-spline from the selected vertices.
  */
-public class MakeSplineCommand implements Command
+public class MakeSplineCommand implements SizedCommand
 {
     private Scene m_scene;
     private Spline m_spline;
@@ -74,6 +74,19 @@ public class MakeSplineCommand implements Command
         m_scene.validateScene();
     }
 
+    public int getUndoSize()
+    {
+        int size = 8 * (m_orderedSelectedVerts.size() +
+                        m_orderedSelectedPrims.size());
+        if(m_spline != null)
+        {
+            size += SceneDelta.sizeOf(m_spline);
+        }
+        size += CommandExecutor.getUndoSize(m_deselectAll);
+
+        return size;
+    }
+
     public String toString()
     {
         return "Make Spline";
@@ -10,7 +10,7 @@ import java.util.*;
 /**
  * Make a spline surface from at least four selected splines.
  */
-public class MakeSplineSurfaceCommand implements Command
+public class MakeSplineSurfaceCommand implements SizedCommand
 {
     private Scene m_scene;
     private SplineSurface m_splineSurf;
@@ -74,6 +74,19 @@ public class MakeSplineSurfaceCommand implements Command
         m_scene.validateScene();
     }
 
+    public int getUndoSize()
+    {
+        int size = 8 * (m_orderedSelectedVerts.size() +
+                        m_orderedSelectedPrims.size());
+        if(m_splineSurf != null)
+        {
+            size += SceneDelta.sizeOf(m_splineSurf);
+        }
+        size += CommandExecutor.getUndoSize(m_deselectAll);
+
+        return size;
+    }
+
     public String toString()
     {
         return "Make Spline Surface";
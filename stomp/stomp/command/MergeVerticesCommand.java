@@ -10,11 +10,16 @@ import javax.vecmath.*;
  * Merge all overlapping vertices into one vertex.  This reduces the number
  * of vertices in the scene.
  */
-public class MergeVerticesCommand implements Command
+public class MergeVerticesCommand implements SizedCommand
 {
+    //Vertices closer than this in x, y and z are merged.
+    private static final float EPSILON = .00001f;
+
     private Scene m_scene;
-    private FastVector m_oldPrimitives = new FastVector();
+    //Touched primitives and the indices they had before, which is all
+    //undo needs to put them back.
     private FastVector m_newPrimitives = new FastVector();
+    private FastVector m_oldIndices = new FastVector();
     
     private Command m_deselectAllCommand;
     private Command m_deleteSelectedCommand;
@@ -33,60 +38,71 @@ public class MergeVerticesCommand implements Command
     public boolean execute()
     {
         boolean changed = true; //true by default
-        int count = 0;
-        Vector3f dvec = new Vector3f();
-        Vector toRemove = new FastVector();
-        m_oldPrimitives = new FastVector();
         m_newPrimitives = new FastVector();
-        //m_vertices = new Vector();
+        m_oldIndices = new FastVector();
 
         m_deselectAllCommand.execute();
 
         FastVector vertices = m_scene.getVerticesVector();
         FastVector primitives = m_scene.getPrimitivesVector();
-        
-        //Loop through all pairs of vertices, if two are the same,
-        //loop through primitives and replace reference to duplicate vertex
-        //with other vertex.
-        //
-        // Slow!
+        int numVertices = vertices.sizeFast();
+
+        //Find which vertex each vertex should be merged into.  A vertex
+        //that is kept maps to itself.
         Stomp.statusBar.startProgress("Merging duplicate vertices...",
-                                      100.0/vertices.sizeFast());
-        for(int i = 0; i < vertices.sizeFast(); i++)
+                                      100.0/Math.max(numVertices, 1));
+        int representative[] = findDuplicates(vertices);
+
+        //One pass over the primitives: anything using a duplicate vertex
+        //is saved for undo and pointed at the kept vertex instead.
+        int changedIndices[] = new int[8];
+        for(int p = primitives.sizeFast()-1; p >= 0; p--)
         {
-            Vertex v1 = (Vertex)vertices.elementAtFast(i);
-            for(int j = i + 1; j < vertices.sizeFast(); j++)
+            Primitive prim = (Primitive)primitives.elementAtFast(p);
+            int indices[] = prim.getIndices();
+            if(indices == null)
             {
-                Vertex v2 = (Vertex)vertices.elementAtFast(j);
+                continue;
+            }
 
-                if(v1.epsilonEquals(v2, .00001f))
+            int numChanged = 0;
+            for(int i = 0; i < indices.length; i++)
+            {
+                int index = indices[i];
+                if(index >= 0 && index < numVertices &&
+                   representative[index] != index)
                 {
-                    //Go through all primitives and replace indices into
-                    //that vertex with indices into the older vertex
-                    //at the same coordinate.
-                    for(int p = primitives.sizeFast()-1; p >=0; p--)
+                    if(numChanged == changedIndices.length)
                     {
-                        Primitive prim = (Primitive)primitives.elementAtFast(p);
-                        if(prim.containsIndex(j))
-                        {
-                            //If the primitive is touched, save it as newly
-                            //changed and save the clone as the old version.
-                            if(!m_newPrimitives.contains(prim))
-                            {
-                                m_newPrimitives.addElement(prim);
-                                m_oldPrimitives.addElement(prim.clone());
-                            }
-                            prim.replaceIndex(j, i);
-                        }
+                        int grown[] = new int[numChanged * 2];
+                        System.arraycopy(changedIndices, 0, grown, 0,
+                                         numChanged);
+                        changedIndices = grown;
                     }
-                    count++;
-                    m_scene.select(v2);
-                    //                    v2.setSelected(true);
-                    //m_vertices.addElement(v2);
+                    numChanged = insertChanged(changedIndices, numChanged,
+                                               index, representative);
                 }
             }
 
-            Stomp.statusBar.incrementProgress();
+            if(numChanged > 0)
+            {
+                m_newPrimitives.addElement(prim);
+                m_oldIndices.addElement(copyIndices(indices));
+                for(int i = 0; i < numChanged; i++)
+                {
+                    int index = changedIndices[i];
+                    prim.replaceIndex(index, representative[index]);
+                }
+                m_scene.primitiveChanged(prim);
+            }
+        }
+
+        for(int i = 0; i < numVertices; i++)
+        {
+            if(representative[i] != i)
+            {
+                m_scene.select((Vertex)vertices.elementAtFast(i));
+            }
         }
             
         //Duplicates were marked by selecting them, so delete them.
@@ -98,25 +114,193 @@ public class MergeVerticesCommand implements Command
         return changed;
     }
 
-    public void unExecute()
+    private static int[] copyIndices(int indices[])
     {
-        //undo the deleted vertices
-        m_deleteSelectedCommand.unExecute();
+        int copy[] = new int[indices.length];
+        System.arraycopy(indices, 0, copy, 0, indices.length);
+        return copy;
+    }
+
+    /**
+     * Group vertices that are within EPSILON of each other.  Vertices are
+     * hashed into a grid of cells twice EPSILON wide, so a vertex only has
+     * to be compared against the vertices in its own and the neighbouring
+     * cells.  Matches are joined with a union-find, so a run of vertices
+     * that each touch the next all end up merged together.
+     *
+     * @param vertices vector of Vertex.
+     * @return for each vertex, the index of the lowest numbered vertex
+     *         it is merged with.
+     */
+    private int[] findDuplicates(FastVector vertices)
+    {
+        int numVertices = vertices.sizeFast();
+        int parent[] = new int[numVertices];
+
+        //Cell key -> Integer index of the last vertex put in the cell;
+        //the rest of the cell is chained through next[].
+        Hashtable cells = new Hashtable();
+        int next[] = new int[numVertices];
+        long cellX[] = new long[numVertices];
+        long cellY[] = new long[numVertices];
+        long cellZ[] = new long[numVertices];
+
+        for(int i = 0; i < numVertices; i++)
+        {
+            Vertex v1 = (Vertex)vertices.elementAtFast(i);
+            parent[i] = i;
+            cellX[i] = cell(v1.x);
+            cellY[i] = cell(v1.y);
+            cellZ[i] = cell(v1.z);
+
+            for(long x = cellX[i]-1; x <= cellX[i]+1; x++)
+            {
+                for(long y = cellY[i]-1; y <= cellY[i]+1; y++)
+                {
+                    for(long z = cellZ[i]-1; z <= cellZ[i]+1; z++)
+                    {
+                        Integer head = (Integer)cells.get(cellKey(x, y, z));
+                        int j = (head == null) ? -1 : head.intValue();
+                        for(; j >= 0; j = next[j])
+                        {
+                            //Keys can collide, so make sure j really is
+                            //in this cell before comparing.
+                            if(cellX[j] != x || cellY[j] != y ||
+                               cellZ[j] != z)
+                            {
+                                continue;
+                            }
+
+                            Vertex v2 = (Vertex)vertices.elementAtFast(j);
+                            if(v1.epsilonEquals(v2, EPSILON))
+                            {
+                                union(parent, i, j);
+                            }
+                        }
+                    }
+                }
+            }
+
+            Long key = cellKey(cellX[i], cellY[i], cellZ[i]);
+            Integer head = (Integer)cells.get(key);
+            next[i] = (head == null) ? -1 : head.intValue();
+            cells.put(key, new Integer(i));
+
+            Stomp.statusBar.incrementProgress();
+        }
+
+        for(int i = 0; i < numVertices; i++)
+        {
+            parent[i] = find(parent, i);
+        }
+
+        return parent;
+    }
+
+    private static final long cell(float coordinate)
+    {
+        return (long)Math.floor(coordinate / (2.0 * EPSILON));
+    }
+
+    private static final Long cellKey(long x, long y, long z)
+    {
+        return new Long((x * 73856093L) ^ (y * 19349663L) ^ (z * 83492791L));
+    }
 
-        //restore the planes
+    private static final int find(int parent[], int i)
+    {
+        int root = i;
+        while(parent[root] != root)
+        {
+            root = parent[root];
+        }
 
-        //delete the new planes (all that were touched
-        for(int i = 0; i < m_newPrimitives.size(); i++)
+        //Point everything on the path straight at the root.
+        while(parent[i] != root)
         {
-            m_scene.removePrimitive((Primitive)m_newPrimitives.elementAtFast(i));
+            int up = parent[i];
+            parent[i] = root;
+            i = up;
         }
 
-        //Add back the old planes (indexing into the old vertices
-        for(int i = 0; i < m_newPrimitives.size(); i++)
+        return root;
+    }
+
+    /**
+     * Join the sets holding a and b.  The lower index becomes the root so
+     * duplicates are always merged into the oldest vertex.
+     */
+    private static final void union(int parent[], int a, int b)
+    {
+        int rootA = find(parent, a);
+        int rootB = find(parent, b);
+        if(rootA < rootB)
+        {
+            parent[rootB] = rootA;
+        }
+        else if(rootB < rootA)
         {
-            m_scene.addPrimitive((Primitive)m_oldPrimitives.elementAtFast(i));
+            parent[rootA] = rootB;
+        }
+    }
+
+    /**
+     * Add index to the list of indices a primitive needs replaced, unless
+     * it is already there.  The list is kept sorted by the vertex it is
+     * merged into and then by index, which is the order the replacements
+     * used to be made in.
+     *
+     * @return new length of the list.
+     */
+    private static final int insertChanged(int changed[], int numChanged,
+                                           int index, int representative[])
+    {
+        int pos = numChanged;
+        for(int i = 0; i < numChanged; i++)
+        {
+            if(changed[i] == index)
+            {
+                return numChanged;
+            }
+        }
+
+        while(pos > 0 &&
+              (representative[changed[pos-1]] > representative[index] ||
+               (representative[changed[pos-1]] == representative[index] &&
+                changed[pos-1] > index)))
+        {
+            changed[pos] = changed[pos-1];
+            pos--;
+        }
+        changed[pos] = index;
+
+        return numChanged+1;
+    }
+
+    public void unExecute()
+    {
+        //undo the deleted vertices
+        m_deleteSelectedCommand.unExecute();
+
+        //Give the touched primitives their old indices back.
+        for(int i = 0; i < m_newPrimitives.sizeFast(); i++)
+        {
+            Primitive prim = (Primitive)m_newPrimitives.elementAtFast(i);
+            prim.setIndices((int[])m_oldIndices.elementAtFast(i));
+            m_scene.primitiveChanged(prim);
         }
         
         m_scene.validateScene();
     }
+
+    public int getUndoSize()
+    {
+        int size = ((SizedCommand)m_deleteSelectedCommand).getUndoSize();
+        for(int i = 0; i < m_oldIndices.sizeFast(); i++)
+        {
+            size += 24 + 4 * ((int[])m_oldIndices.elementAtFast(i)).length;
+        }
+
+        return size;
+    }
 }
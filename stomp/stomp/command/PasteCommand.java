@@ -9,7 +9,7 @@ import java.util.*;
  * Paste primitives or vertices that are in the clipboard.  Pasted
  * items are automatically selected.
  */
-public class PasteCommand implements Command
+public class PasteCommand implements SizedCommand
 {
     public Scene m_scene;
     FastVector m_addedElements;
@@ -74,6 +74,12 @@ public class PasteCommand implements Command
 
     }
 
+    public int getUndoSize()
+    {
+        return SceneDelta.sizeOf(m_addedElements) +
+            CommandExecutor.getUndoSize(m_deselect);
+    }
+
     public String toString()
     {
         return "Paste";
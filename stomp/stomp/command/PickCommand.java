@@ -0,0 +1,123 @@
+package stomp.command;
+
+import stomp.*;
+import stomp.data3d.*;
+
+/**
+ * Select or deselect the one vertex or primitive picked by a ray cast
+ * from a perspective view.  It acts like a SelectCommand that only
+ * found that one thing under the mouse: a picked primitive that is in
+ * a group selects the groups around it instead, and a click on
+ * something already selected deselects it.
+ */
+public class PickCommand implements Command
+{
+    private Scene m_scene;
+    private Object m_picked;
+    private boolean m_changed = false;
+
+    private FastVector m_orderedSelectedVerts = new FastVector();
+    private FastVector m_orderedSelectedPrims = new FastVector();
+
+    private PickCommand()
+    {
+    }
+
+    /**
+     * @param picked the scene's Vertex or Primitive that was picked.
+     */
+    public PickCommand(Scene scene, Object picked)
+    {
+        m_scene = scene;
+        m_picked = picked;
+    }
+
+    public boolean execute()
+    {
+        m_orderedSelectedVerts = m_scene.getOrderedSelectedVertices();
+        m_orderedSelectedPrims = m_scene.getOrderedSelectedPrimitives();
+
+        if(m_picked instanceof Vertex)
+        {
+            Vertex vertex = (Vertex)m_picked;
+            m_scene.deselectPrimitives();
+            if(vertex.isSelected())
+            {
+                m_scene.deselect(vertex);
+            }
+            else
+            {
+                m_scene.select(vertex);
+            }
+            m_changed = true;
+        }
+        else if(m_picked instanceof Primitive)
+        {
+            m_scene.deselectVertices();
+
+            //The primitive itself, or every group it is in.
+            FastVector targets = new FastVector();
+            Primitive element = (Primitive)m_picked;
+            if(element.getGroup() == null)
+            {
+                targets.addElement(element);
+            }
+            for(Group g = element.getGroup(); g != null; g = g.getGroup())
+            {
+                targets.addElement(g);
+            }
+
+            boolean sel = true;
+            for(int i = 0; i < targets.sizeFast(); i++)
+            {
+                if(((Primitive)targets.elementAtFast(i)).isSelected())
+                {
+                    sel = false;
+                    break;
+                }
+            }
+
+            for(int i = 0; i < targets.sizeFast(); i++)
+            {
+                if(sel)
+                {
+                    m_scene.select((Primitive)targets.elementAtFast(i));
+                }
+                else
+                {
+                    m_scene.deselect((Primitive)targets.elementAtFast(i));
+                }
+            }
+            m_changed = true;
+        }
+
+        m_scene.validateScene();
+
+        return m_changed;
+    }
+
+    /**
+     */
+    public void unExecute()
+    {
+        m_scene.deselectVertices();
+        m_scene.deselectPrimitives();
+
+        for(int i = 0; i < m_orderedSelectedVerts.size(); i++)
+        {
+            m_scene.select((Vertex)m_orderedSelectedVerts.elementAt(i));
+        }
+
+        for(int i = 0; i < m_orderedSelectedPrims.size(); i++)
+        {
+            m_scene.select((Primitive)m_orderedSelectedPrims.elementAt(i));
+        }
+
+        m_scene.validateScene();
+    }
+
+    public String toString()
+    {
+        return "Select";
+    }
+}
@@ -252,8 +252,13 @@ public abstract class PluginCommand implements Command
         return m_scene.getPrimitivesVector();
     }
 
+    /**
+     * Bring the views up to date after changing the scene.  Plugins can
+     * change vertices and primitives directly, so everything is checked.
+     */
     public void validateScene()
     {
+        m_scene.sceneChanged();
         m_scene.validateScene();
     }
     
@@ -2,6 +2,7 @@ package stomp.command;
 
 import stomp.*;
 import stomp.data3d.*;
+import stomp.view.PickIndex;
 import java.util.*;
 
 /**
@@ -12,6 +13,7 @@ public class SelectCommand implements Command
 {
     private Scene m_scene;
     private FastVector m_vertices;
+    private PickIndex m_index;
     private int m_x, m_y;
     private boolean m_changed = false;
     private boolean m_noDeselect = false;
@@ -25,10 +27,17 @@ public class SelectCommand implements Command
     {
     }
     
-    public SelectCommand(Scene scene, FastVector vertices, int x, int y)
+    /**
+     * @param vertices projected vertices of the view clicked in.
+     * @param index pick index over those vertices, used to find what
+     * is near the click.
+     */
+    public SelectCommand(Scene scene, FastVector vertices, PickIndex index,
+                         int x, int y)
     {
         m_scene = scene;
         m_vertices = vertices;
+        m_index = index;
         m_x = x;
         m_y = y;
     }
@@ -80,13 +89,20 @@ public class SelectCommand implements Command
             //Assume we are selecting rather than deselecting.
             boolean sel = true;
 
+            //Only the vertices the index finds near the click can be
+            //within range.
+            int near[] = m_index.getVertices(m_x - 5, m_x + 5,
+                                             m_y - 5, m_y + 5);
+            int numNear = m_index.numFound();
+
             //Check all of the vertices within our range.  If any are
             //selected, we're now in deselect mode.
             Vertex element;
             if(m_scene.verticesSelected())
             {
-                for(int i = m_vertices.size()-1; i >=0; i--)
+                for(int n = numNear-1; n >= 0; n--)
                 {
+                    int i = near[n];
                     element = (Vertex)m_vertices.elementAtFast(i);
                     if(element.isSelected() &&
                        element.select(m_vertices, m_x, m_y))
@@ -99,8 +115,9 @@ public class SelectCommand implements Command
             
             //Select/deselect vertices depending on whether we are
             //in select or deselect mode.
-            for(int i = m_vertices.size()-1; i >=0; i--)
+            for(int n = numNear-1; n >= 0; n--)
             {
+                int i = near[n];
                 element = (Vertex)m_vertices.elementAtFast(i);
                 
                 if(element.select(m_vertices, m_x, m_y))
@@ -126,13 +143,19 @@ public class SelectCommand implements Command
 
             m_scene.deselectVertices();
 
+            //Only the primitives the index finds under the click can be
+            //clicked within.
+            int near[] = m_index.getPrimitives(m_x, m_x, m_y, m_y);
+            int numNear = m_index.numFound();
+
             //Check all faces we are clicking within. If any are selected,
             //go into deselect mode.
             Primitive element;
             if(m_scene.primitivesSelected())
             {
-                for(int i = primitives.size()-1; i >= 0; i--)
+                for(int n = numNear-1; n >= 0; n--)
                 {
+                    int i = near[n];
                     element = (Primitive)primitives.elementAtFast(i);
                     if(element.isSelected() &&
                        element.select(m_vertices, m_x, m_y))
@@ -143,10 +166,11 @@ public class SelectCommand implements Command
                 }
             }
 
-            //Loop through all primitives.  If clicking on one,
+            //Loop through the primitives.  If clicking on one,
             //select or deselect it depending on the mode.
-            for(int i = primitives.size()-1; i >= 0; i--)
+            for(int n = numNear-1; n >= 0; n--)
             {
+                int i = near[n];
                 element = (Primitive)primitives.elementAtFast(i);
                 //Make sure that the normal to the plane has been computed
                 //Before we select a plane (and reveal its normal!)
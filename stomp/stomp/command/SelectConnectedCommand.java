@@ -6,14 +6,13 @@ import java.util.*;
 
 /**
  * Select all of the primitives or vertices that are somehow attached
- * to the selected one by searching through the mesh.  Currently very
- * slow!
+ * to the selected one by searching through the mesh.  The search uses
+ * the scene's vertex adjacency, so it only touches the connected part.
  */
 public class SelectConnectedCommand implements Command
 {
     private Scene m_scene;
     private FastVector m_vertices;
-    private FastVector m_primitives;
     private FastVector m_selectedPrimitives;
     private FastVector m_selectedVertices;
 
@@ -32,7 +31,6 @@ public class SelectConnectedCommand implements Command
     public boolean execute()
     {
         m_vertices = m_scene.getVerticesVector();
-        m_primitives = m_scene.getPrimitivesVector();
         m_selectedVertices = m_scene.getSelectedVertices();
         m_selectedPrimitives = m_scene.getSelectedPrimitives();
 
@@ -54,64 +52,62 @@ public class SelectConnectedCommand implements Command
 
     private void selectConnectedVertices()
     {
-        FastVector attachedPolygon3ds = new FastVector();
+        boolean reached[] = new boolean[m_vertices.sizeFast()];
+        FastVector queue = new FastVector();
 
-        boolean found = true;
-        
-        while(found)
-        {    
-            //For each selected vertex, get the attached Polygon3ds.
-            int vIndex;
-            Primitive p;
-            for(int i = 0; i < m_selectedVertices.sizeFast(); i++)
+        //Start from the selected vertices.
+        for(int i = 0; i < m_selectedVertices.sizeFast(); i++)
+        {
+            int vIndex = m_scene.getIndex((Vertex)m_selectedVertices.elementAtFast(i));
+            if(vIndex >= 0 && !reached[vIndex])
             {
-                vIndex = m_scene.getIndex((Vertex)m_selectedVertices.elementAtFast(i));
-                for(int j = 0; j < m_primitives.sizeFast(); j++)
-                {
-                    p = (Primitive)m_primitives.elementAtFast(j);
-                    if(p.containsIndex(vIndex))
-                    {
-                        if(!attachedPolygon3ds.contains(p))
-                        {
-                            attachedPolygon3ds.addElement(p);
-                        }
-                    }
-                }
+                reached[vIndex] = true;
+                queue.addElement(new Integer(vIndex));
             }
-            
-            found = false;
-            
-            //Now, for all the attached Polygon3ds, get the indices and select
-            //them.
-            int indices[];
-            Vertex v;
-            for(int i = 0; i < attachedPolygon3ds.size(); i++)
+        }
+
+        //Walk out through the primitives attached to each vertex,
+        //selecting every vertex we reach.
+        Hashtable visited = new Hashtable();
+        for(int q = 0; q < queue.sizeFast(); q++)
+        {
+            int vIndex = ((Integer)queue.elementAtFast(q)).intValue();
+            for(int n = 0; n < m_scene.numIncidentPrimitives(vIndex); n++)
             {
-                p = (Primitive)attachedPolygon3ds.elementAtFast(i);
-                indices = p.getIndices();
-                
+                Primitive p = m_scene.getIncidentPrimitive(vIndex, n);
+                if(visited.put(p, p) != null)
+                {
+                    continue;
+                }
+
+                int indices[] = p.getIndices();
                 for(int index = 0; index < indices.length; index++)
                 {
-                    v = (Vertex)m_vertices.elementAtFast(indices[index]);
-                    if(!m_selectedVertices.contains(v))
+                    int next = indices[index];
+                    if(!reached[next])
                     {
-                        m_scene.select(v);
-                        m_changed = true;
-                        m_newlySelected.addElement(v);
-                        m_selectedVertices.addElement(v);
-                        found = true;
+                        reached[next] = true;
+                        queue.addElement(new Integer(next));
+
+                        Vertex v = (Vertex)m_vertices.elementAtFast(next);
+                        if(!v.isSelected())
+                        {
+                            m_scene.select(v);
+                            m_changed = true;
+                            m_newlySelected.addElement(v);
+                        }
                     }
-                }       
+                }
             }
         }
     }
 
     private void selectConnectedPrimitives()
     {
-        FastVector attachedPolygon3ds = new FastVector();
-
-        boolean found = true;
+        boolean reached[] = new boolean[m_vertices.sizeFast()];
+        FastVector queue = new FastVector();
 
+        //Start from the vertices of the selected primitives.
         for(int sp = 0; sp < m_selectedPrimitives.size(); sp++)
         {
             Primitive selP = (Primitive)m_selectedPrimitives.elementAtFast(sp);
@@ -119,70 +115,42 @@ public class SelectConnectedCommand implements Command
 
             for(int i = 0; i < indices.length; i++)
             {
-                m_selectedVertices.addElement((Vertex)m_vertices.elementAtFast(indices[i]));
+                if(!reached[indices[i]])
+                {
+                    reached[indices[i]] = true;
+                    queue.addElement(new Integer(indices[i]));
+                }
             }
         }
 
-        while(found)
-        {    
-            //For each selected vertex, get the attached Polygon3ds.
-            for(int i = 0; i < m_selectedVertices.sizeFast(); i++)
+        //Walk out through the mesh and select every primitive we reach.
+        for(int q = 0; q < queue.sizeFast(); q++)
+        {
+            int vIndex = ((Integer)queue.elementAtFast(q)).intValue();
+            for(int n = 0; n < m_scene.numIncidentPrimitives(vIndex); n++)
             {
-                int vIndex = m_scene.getIndex((Vertex)m_selectedVertices.elementAtFast(i));
-                for(int j = 0; j < m_primitives.sizeFast(); j++)
+                Primitive p = m_scene.getIncidentPrimitive(vIndex, n);
+                if(p.isSelected())
                 {
-                    Primitive p = (Primitive)m_primitives.elementAtFast(j);
-                    if(p.containsIndex(vIndex))
-                    {
-                        if(!attachedPolygon3ds.contains(p))
-                        {
-                            attachedPolygon3ds.addElement(p);
-                        }
-                    }
+                    continue;
                 }
-            }
-            
-            found = false;
-            
-            //Now, for all the attached Polygon3ds, get the indices and select
-            //them.
-            for(int i = 0; i < attachedPolygon3ds.sizeFast(); i++)
-            {
-                Primitive p = (Primitive)attachedPolygon3ds.elementAtFast(i);
+
+                m_scene.select(p);
+                m_changed = true;
+                m_newlySelected.addElement(p);
+
                 int indices[] = p.getIndices();
-                
                 for(int index = 0; index < indices.length; index++)
                 {
-                    Vertex v = (Vertex)m_vertices.elementAtFast(indices[index]);
-                    if(!m_selectedVertices.contains(v))
+                    int next = indices[index];
+                    if(!reached[next])
                     {
-                        m_changed = true;
-                        m_newlySelected.addElement(v);
-                        m_selectedVertices.addElement(v);
-                        found = true;
-                    }
-                }       
-            }
-        }
-
-        //For the selected vertices, get the attached Polygon3ds.
-        for(int i = 0; i < m_selectedVertices.sizeFast(); i++)
-        {
-            Vertex v = (Vertex)m_selectedVertices.elementAtFast(i);
-            int vIndex = m_scene.getIndex(v);
-            for(int j = 0; j < m_primitives.size(); j++)
-            {
-                Primitive p = (Primitive)m_primitives.elementAtFast(j);
-                if(p.containsIndex(vIndex))
-                {
-                    if(!m_selectedPrimitives.contains(p))
-                    {
-                        m_scene.select(p);
-                        m_selectedPrimitives.addElement(p);
+                        reached[next] = true;
+                        queue.addElement(new Integer(next));
                     }
                 }
             }
-        }   
+        }
     }
         
     /**
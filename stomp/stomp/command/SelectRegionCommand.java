@@ -2,6 +2,7 @@ package stomp.command;
 
 import stomp.*;
 import stomp.data3d.*;
+import stomp.view.PickIndex;
 import java.util.*;
 
 /**
@@ -12,6 +13,7 @@ public class SelectRegionCommand implements Command
 {
     private Scene m_scene;
     private FastVector m_vertices;
+    private PickIndex m_index;
     private int m_xmin, m_xmax;
     private int m_ymin, m_ymax;
     private boolean m_changed = false;
@@ -24,11 +26,18 @@ public class SelectRegionCommand implements Command
     {
     }
     
-    public SelectRegionCommand(Scene scene, FastVector vertices, int xmin,
-                               int xmax, int ymin, int ymax)
+    /**
+     * @param vertices projected vertices of the view the box is in.
+     * @param index pick index over those vertices, used to find what
+     * is in the box.
+     */
+    public SelectRegionCommand(Scene scene, FastVector vertices,
+                               PickIndex index, int xmin, int xmax,
+                               int ymin, int ymax)
     {
         m_scene = scene;
         m_vertices = vertices;
+        m_index = index;
         m_xmin = xmin;
         m_xmax = xmax;
         m_ymin = ymin;
@@ -77,9 +86,11 @@ public class SelectRegionCommand implements Command
         if(Mode.getMode() == Mode.REGION_VERTEX_SELECT)
         {
             m_scene.deselectPrimitives();
-            
-            for(int i = m_vertices.size()-1; i >=0 ; i--)
+
+            int inside[] = m_index.getVertices(m_xmin, m_xmax, m_ymin, m_ymax);
+            for(int n = m_index.numFound()-1; n >= 0; n--)
             {
+                int i = inside[n];
                 Vertex element = (Vertex)m_vertices.elementAtFast(i);
                 if(element.selectRegion(m_vertices, m_xmin, m_xmax,
                                         m_ymin, m_ymax))
@@ -93,8 +104,14 @@ public class SelectRegionCommand implements Command
         else if(Mode.getMode() == Mode.REGION_PRIMITIVE_SELECT)
         {
             m_scene.deselectVertices();
-            for(int i = primitives.size()-1; i >=0 ; i--)
+
+            //Only primitives the index finds touching the box can have
+            //vertices in it.
+            int inside[] = m_index.getPrimitives(m_xmin, m_xmax,
+                                                 m_ymin, m_ymax);
+            for(int n = m_index.numFound()-1; n >= 0; n--)
             {
+                int i = inside[n];
                 Primitive element = (Primitive)primitives.elementAtFast(i);
                 if(element instanceof Polygon3d)
                 {
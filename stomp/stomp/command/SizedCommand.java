@@ -0,0 +1,15 @@
+package stomp.command;
+
+/**
+ * A command that can say roughly how much memory its undo information
+ * takes.  CommandExecutor uses this to limit the undo history by size
+ * instead of just by the number of commands.
+ */
+public interface SizedCommand extends Command
+{
+    /**
+     * Approximate number of bytes kept for undoing this command.  Only
+     * meaningful after the command has been executed.
+     */
+    public int getUndoSize();
+}
@@ -6,7 +6,7 @@ import stomp.data3d.*;
 
 import java.util.*;
 
-public class SmoothCommand implements Command
+public class SmoothCommand implements SizedCommand
 {
     private Scene m_scene;
     private Command m_deselectCommand;
@@ -38,6 +38,12 @@ public class SmoothCommand implements Command
         m_scene.validateScene();
     }
 
+    public int getUndoSize()
+    {
+        return SceneDelta.sizeOf(m_addedElements) +
+            CommandExecutor.getUndoSize(m_deselectCommand);
+    }
+
     public String toString()
     {
         return "Smooth Selected";
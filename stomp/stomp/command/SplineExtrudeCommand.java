@@ -11,7 +11,7 @@ import javax.vecmath.*;
 /**
  * Extrudes a plane along the path of a spline.
  */
-public class SplineExtrudeCommand implements Command
+public class SplineExtrudeCommand implements SizedCommand
 {
     private Scene m_scene;
     private Vector m_addedElements;
@@ -30,11 +30,10 @@ public class SplineExtrudeCommand implements Command
     {
         m_addedElements = new Vector();
         boolean rotate = true;
-        Vector selectedPrimitives = m_scene.getSelectedPrimitives();
         Polygon3d polygon3d = null;
         Spline spline = null;
 
-        if(selectedPrimitives.size() != 2)
+        if(m_scene.numSelectedPrimitives() != 2)
         {
             MessageDialog dialog = new MessageDialog("Error: Must select one Polygon3d and one Spline.");
             dialog.setVisible(true);
@@ -43,13 +42,14 @@ public class SplineExtrudeCommand implements Command
         
         for(int i = 0; i < 2; i++)
         {
-            if(selectedPrimitives.elementAt(i) instanceof Polygon3d)
+            Primitive p = m_scene.getSelectedPrimitive(i);
+            if(p instanceof Polygon3d)
             {
-                polygon3d = (Polygon3d)selectedPrimitives.elementAt(i);
+                polygon3d = (Polygon3d)p;
             }
-            else if(selectedPrimitives.elementAt(i) instanceof Spline)
+            else if(p instanceof Spline)
             {
-                spline = (Spline)selectedPrimitives.elementAt(i);
+                spline = (Spline)p;
             }
         }
 
@@ -231,6 +231,11 @@ public class SplineExtrudeCommand implements Command
         m_scene.validateScene();
     }
     
+    public int getUndoSize()
+    {
+        return SceneDelta.sizeOf(m_addedElements);
+    }
+
     public String toString()
     {
         return "Spline Extrude";
@@ -13,7 +13,7 @@ import java.util.*;
  *   <li> Convert a spline surface into polygons.
  * </ul>
  */
-public class SubdivideCommand implements Command
+public class SubdivideCommand implements SizedCommand
 {
     public static final int CENTER = 1;
     public static final int NOCENTER = 2;
@@ -431,7 +431,6 @@ public class SubdivideCommand implements Command
         FastVector transformedVertices = m_scene.getVerticesVector();
         
         float maxU = element.getMaxKnotU();
-        float maxV = element.getMaxKnotV();
         
         FastVector first_row = new FastVector();
         FastVector second_row = new FastVector();
@@ -441,18 +440,18 @@ public class SubdivideCommand implements Command
         //Create vertex in center and along midpoing of four
         //edges.
         boolean first = true;
-        for(double i = 0.0; i<=maxU; i+= .25/((float)Mode.NURB_SUBDIVIDE))
+        double step = .25/((float)Mode.NURB_SUBDIVIDE);
+        for(double i = 0.0; i<=maxU; i+= step)
         {
-            for(double j = 0.0;j<=maxV; j += .25/((float)Mode.NURB_SUBDIVIDE))
+            if(first)
             {
-                if(first)
-                {
-                    first_row.addElement(element.paintSpline(transformedVertices,i,j));
-                }
-                else
-                {
-                    second_row.addElement(element.paintSpline(transformedVertices,i,j));
-                }
+                first_row = element.getVerticesAlongV(transformedVertices,
+                                                      i, step);
+            }
+            else
+            {
+                second_row = element.getVerticesAlongV(transformedVertices,
+                                                       i, step);
             }
 
             if(first)
@@ -564,6 +563,15 @@ public class SubdivideCommand implements Command
         m_scene.validateScene();
     }
 
+    public int getUndoSize()
+    {
+        int size = SceneDelta.sizeOf(m_addedElements) +
+            SceneDelta.sizeOf(m_removedElements);
+        size += CommandExecutor.getUndoSize(m_mergeVerticesCommand);
+
+        return size;
+    }
+
     public String toString()
     {
         return "Subdivide";
@@ -11,7 +11,7 @@ import javax.vecmath.*;
  * Convert all of the polygons in the scene to triangles.
  * Does not yet handle nonconvex polygons, but it will someday...
  */
-public class TriangulateCommand implements Command
+public class TriangulateCommand implements SizedCommand
 {
     private Scene m_scene;
     private FastVector m_originalPolygon3ds;
@@ -194,6 +194,12 @@ public class TriangulateCommand implements Command
         return normal.length() < .001; //epsilon ==
     }
 
+    public int getUndoSize()
+    {
+        return SceneDelta.sizeOf(m_addedElements) +
+            SceneDelta.sizeOf(m_originalPolygon3ds);
+    }
+
     public String toString()
     {
         return "Triangulate";
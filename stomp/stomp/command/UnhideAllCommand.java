@@ -12,6 +12,7 @@ public class UnhideAllCommand implements Command
 {
     private Scene m_scene;
 
+    private SelectionBits m_hiddenVertices;
     private FastVector m_hiddenElements;
 
     private UnhideAllCommand()
@@ -27,19 +28,9 @@ public class UnhideAllCommand implements Command
     {
         m_hiddenElements = new FastVector();
         
-        FastVector vertices = m_scene.getVerticesVector();
         FastVector primitives = m_scene.getPrimitivesVector();
 
-        Vertex tempVertex;
-        for(int i = 0; i < vertices.sizeFast(); i++)
-        {
-            tempVertex = (Vertex)vertices.elementAtFast(i);
-            if(tempVertex.isHidden())
-            {
-                m_hiddenElements.addElement(tempVertex);
-                tempVertex.setHidden(false);
-            }            
-        }
+        m_hiddenVertices = m_scene.unhideAllVertices();
 
         Primitive tempPrim;
         for(int i = 0; i < primitives.sizeFast(); i++)
@@ -49,6 +40,7 @@ public class UnhideAllCommand implements Command
             {
                 m_hiddenElements.addElement(tempPrim);
                 tempPrim.setHidden(false);
+                m_scene.primitiveChanged(tempPrim);
             }            
         }
 
@@ -61,16 +53,11 @@ public class UnhideAllCommand implements Command
      */
     public void unExecute()
     {
+        m_scene.hideVertices(m_hiddenVertices);
         for(int i = 0; i < m_hiddenElements.sizeFast(); i++)
         {
-            if(m_hiddenElements.elementAtFast(i) instanceof Vertex)
-            {
-                ((Vertex)m_hiddenElements.elementAtFast(i)).setHidden(true);
-            }
-            else
-            {
-                ((Primitive)m_hiddenElements.elementAtFast(i)).setHidden(true);
-            }
+            ((Primitive)m_hiddenElements.elementAtFast(i)).setHidden(true);
+            m_scene.primitiveChanged((Primitive)m_hiddenElements.elementAtFast(i));
         }
 
         m_scene.validateScene();
@@ -0,0 +1,352 @@
+package stomp.data3d;
+
+import java.util.Hashtable;
+
+/**
+ * BasisTable holds the knot spans and B-spline basis functions for
+ * every sample along a knot vector, taken at a fixed step from 0 up to
+ * the last knot.  Splines and spline surfaces are always sampled the same
+ * way, and every spline with the same number of control points has the
+ * same knot vector, so the tables are shared through getTable instead of
+ * running FindSpan and BasisFuns again for every point of every curve.
+ *
+ * <p>
+ * The evaluate methods sum control points with the tabled basis
+ * functions into arrays the caller keeps, so painting doesn't allocate.
+ * The sums are done in float in the same order as Vertex.scale and
+ * Vertex.add did, so the points are the same as before.
+ *
+ * <p>
+ * subdivide picks just the samples of a FINEST_STEP table that are
+ * needed to keep a curve within a tolerance of its chords.
+ */
+public final class BasisTable
+{
+    /**
+     * Step of the tables used by subdivide.  Each knot span can be
+     * halved six times.
+     */
+    public static final double FINEST_STEP = 1.0 / 64;
+
+    //Tables are small, but a scene could make a lot of knot layouts.
+    private static final int MAX_TABLES = 256;
+    private static Hashtable s_tables = new Hashtable();
+
+    private int m_kv[];
+    private int m_degree;
+    private double m_step;
+    private int m_hash;
+
+    private int m_size;
+    private int m_first[];      //Index of the first control point used.
+    private float m_basis[];    //(degree + 1) functions per sample.
+
+    /**
+     * Get the table for a knot vector, making it if nobody has yet.
+     *
+     * @param kv the knot vector.  It must not be changed afterwards.
+     * @param degree degree of the curve.
+     * @param step step between samples.
+     */
+    public static synchronized BasisTable getTable(int kv[], int degree,
+                                                   double step)
+    {
+        BasisTable key = new BasisTable(kv, degree, step);
+        BasisTable table = (BasisTable)s_tables.get(key);
+        if(table == null)
+        {
+            if(s_tables.size() >= MAX_TABLES)
+            {
+                s_tables.clear();
+            }
+            key.build();
+            s_tables.put(key, key);
+            table = key;
+        }
+        return table;
+    }
+
+    private BasisTable(int kv[], int degree, double step)
+    {
+        m_kv = kv;
+        m_degree = degree;
+        m_step = step;
+
+        long bits = Double.doubleToLongBits(step);
+        m_hash = 31 * degree + (int)(bits ^ (bits >>> 32));
+        for(int i = 0; i < kv.length; i++)
+        {
+            m_hash = 31 * m_hash + kv[i];
+        }
+    }
+
+    private void build()
+    {
+        int n = (m_kv.length-1) - m_degree - 1;
+        int max = m_kv[m_kv.length-1];
+
+        //Count the samples with the same loop the curves use, so the
+        //parameters add up exactly the same way.
+        m_size = 0;
+        for(double u = 0.0; u <= max; u += m_step)
+        {
+            m_size++;
+        }
+
+        m_first = new int[m_size];
+        m_basis = new float[m_size * (m_degree+1)];
+        double basis[] = new double[m_degree+1];
+        double left[] = new double[m_degree+1];
+        double right[] = new double[m_degree+1];
+        int s = 0;
+        for(double u = 0.0; u <= max; u += m_step)
+        {
+            int span = findSpan(n, m_degree, u, m_kv);
+            basisFuns(span, m_degree, u, m_kv, basis, left, right);
+            m_first[s] = span - m_degree;
+            for(int j = 0; j <= m_degree; j++)
+            {
+                m_basis[s * (m_degree+1) + j] = (float)basis[j];
+            }
+            s++;
+        }
+
+        //Copy the knots, so a caller changing its array can't make this
+        //table match a knot vector it wasn't made for.
+        int kv[] = new int[m_kv.length];
+        System.arraycopy(m_kv, 0, kv, 0, kv.length);
+        m_kv = kv;
+    }
+
+    /**
+     * Number of samples along the knot vector.
+     */
+    public int size()
+    {
+        return m_size;
+    }
+
+    /**
+     * Calculate every sample of a curve.  Control point k is at
+     * first + k * stride in the coordinate arrays.
+     *
+     * @param outX set to the x of the samples, and likewise outY and
+     * outZ.  They must have room for size() points.
+     */
+    public void evaluate(float x[], float y[], float z[], int first,
+                         int stride, float outX[], float outY[],
+                         float outZ[])
+    {
+        for(int s = 0; s < m_size; s++)
+        {
+            evaluate(s, x, y, z, first, stride, outX, outY, outZ, s);
+        }
+    }
+
+    /**
+     * Calculate one sample of a curve.  Control point k is at
+     * first + k * stride in the coordinate arrays.
+     *
+     * @param s sample number.
+     * @param index where to put the point in outX, outY and outZ.
+     */
+    public void evaluate(int s, float x[], float y[], float z[], int first,
+                         int stride, float outX[], float outY[],
+                         float outZ[], int index)
+    {
+        int b = s * (m_degree+1);
+        int k = first + m_first[s] * stride;
+        float sx = 0, sy = 0, sz = 0;
+        for(int j = 0; j <= m_degree; j++)
+        {
+            float weight = m_basis[b + j];
+            sx += weight * x[k];
+            sy += weight * y[k];
+            sz += weight * z[k];
+            k += stride;
+        }
+        outX[index] = sx;
+        outY[index] = sy;
+        outZ[index] = sz;
+    }
+
+    /**
+     * Calculate points along a curve, close enough together that the
+     * curve strays no further than tolerance from the lines between
+     * them.  Each knot span is halved at least once, and halves are
+     * halved again while the curve at their middle is too far from
+     * their chord.  The table must have been made with FINEST_STEP (or
+     * another step that splits a knot span into a power of two).
+     *
+     * @param flat whether to measure the distance in x and y only, for
+     * points that are already projected to the window.
+     * @param tolerance furthest the curve may be from a line.
+     * @param outX set to the x of the points, and likewise outY and
+     * outZ.  They must have room for size() + 1 points.
+     * @return number of points.
+     */
+    public int subdivide(float x[], float y[], float z[], int first,
+                         int stride, boolean flat, float tolerance,
+                         float outX[], float outY[], float outZ[])
+    {
+        int perSpan = (int)Math.round(1 / m_step);
+        int last = m_size - 1;
+        float tolerance2 = tolerance * tolerance;
+
+        evaluate(0, x, y, z, first, stride, outX, outY, outZ, 0);
+        int count = 1;
+        for(int s0 = 0; s0 < last; s0 += perSpan)
+        {
+            int s1 = Math.min(s0 + perSpan, last);
+            int a = s0;
+            while(a < s1)
+            {
+                //The longest piece starting at a that the halving could
+                //have made.
+                int len = Math.max(perSpan / 2, 1);
+                while(len > 1 && (((a - s0) & (len - 1)) != 0 ||
+                                  a + len > s1))
+                {
+                    len /= 2;
+                }
+
+                //Try it, and halve it until it is straight enough.  The
+                //middle is worked out in the slot after the end.
+                while(true)
+                {
+                    evaluate(a + len, x, y, z, first, stride,
+                             outX, outY, outZ, count);
+                    if(len == 1)
+                    {
+                        break;
+                    }
+                    evaluate(a + len / 2, x, y, z, first, stride,
+                             outX, outY, outZ, count + 1);
+                    if(deviation2(outX, outY, outZ, count - 1, count,
+                                  count + 1, flat) <= tolerance2)
+                    {
+                        break;
+                    }
+                    len /= 2;
+                }
+                count++;
+                a += len;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Square of the distance of point m from the line through points a
+     * and b.
+     */
+    private static float deviation2(float x[], float y[], float z[],
+                                    int a, int b, int m, boolean flat)
+    {
+        float dx = x[b] - x[a], dy = y[b] - y[a];
+        float dz = flat ? 0 : z[b] - z[a];
+        float mx = x[m] - x[a], my = y[m] - y[a];
+        float mz = flat ? 0 : z[m] - z[a];
+
+        float length2 = dx*dx + dy*dy + dz*dz;
+        float dot = mx*dx + my*dy + mz*dz;
+        float m2 = mx*mx + my*my + mz*mz;
+        if(length2 == 0)
+        {
+            return m2;
+        }
+        return Math.max(m2 - dot * dot / length2, 0);
+    }
+
+    /**
+     * Return the index into the knot vector that is just below u.
+     *
+     * @param n index of the last control point.
+     * @param p degree of the curve.
+     * @param u current point.
+     * @param kv the knot vector.
+     * @return index to knot vector element
+     */
+    public static int findSpan(int n, int p, double u, int kv[])
+    {
+        if (u == kv[n+1])
+        {
+            return(n);
+        }
+
+        int low = p;
+        int high = n + 1;
+        int mid = (low + high)/2;
+
+        while(u < kv[mid] || u >= kv[mid + 1])
+        {
+            if(u < kv[mid])
+                high = mid;
+            else
+                low = mid;
+            mid = (low+high)/2;
+        }
+
+        return mid;
+    }
+
+    /**
+     * Calculate the basis functions for the current point.
+     *
+     * @param i knot index, from findSpan.
+     * @param p degree of the curve.
+     * @param u current position on the curve.
+     * @param kv the knot vector.
+     * @param basis set to the p + 1 basis functions.
+     * @param left scratch array with room for p + 1 values, and likewise
+     * right.
+     */
+    public static void basisFuns(int i, int p, double u, int kv[],
+                                 double basis[], double left[],
+                                 double right[])
+    {
+        double saved;
+        double temp;
+        basis[0] = 1.0;
+        for (int j = 1; j <= p; j++)
+        {
+            left[j] = u - kv[i + 1 - j];
+            right[j] = kv[i + j] - u;
+            saved = 0.0;
+            for(int r = 0; r < j; r++)
+            {
+                temp = basis[r]/(right[r+1]+left[j-r]);
+                basis[r] = saved+right[r+1]*temp;
+                saved = left[j-r]*temp;
+            }
+            basis[j] = saved;
+        }
+    }
+
+    public int hashCode()
+    {
+        return m_hash;
+    }
+
+    public boolean equals(Object o)
+    {
+        if(!(o instanceof BasisTable))
+        {
+            return false;
+        }
+        BasisTable t = (BasisTable)o;
+        if(t.m_hash != m_hash || t.m_degree != m_degree ||
+           t.m_step != m_step || t.m_kv.length != m_kv.length)
+        {
+            return false;
+        }
+        for(int i = 0; i < m_kv.length; i++)
+        {
+            if(t.m_kv[i] != m_kv[i])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,622 @@
+package stomp.data3d;
+
+import java.awt.*;
+import java.util.Hashtable;
+import javax.vecmath.*;
+
+import stomp.FastVector;
+import stomp.SutherlandHodgman;
+
+/**
+ * EdgeTable is the list of distinct polygon edges in a scene, so an edge
+ * shared by two polygons is drawn once instead of twice.  It is built
+ * from the primitive list by Scene.getEdgeTable and thrown away when the
+ * topology changes; selection, hiding and group colors are looked up
+ * from the polygons when painting, so those can change freely.
+ *
+ * <p>
+ * Each edge remembers the polygons it belongs to, in primitive order.
+ * The views paint primitives from the last to the first, so the first
+ * owner's outline is the one that used to end up on top: an edge is
+ * drawn in the color, and in the direction, of its first unselected
+ * owner.  Edges with every owner selected are left to the selected
+ * pass.  Primitives that aren't polygons are kept in a separate list and
+ * painted as they always were.
+ *
+ * <p>
+ * The edges are also split into culling units: one for each top level
+ * group, and one for each run of UNIT_SIZE polygons outside any group.
+ * An edge goes in the unit of its first owner.  Scene keeps a bounding
+ * box for each unit up to date as the vertices move, and a view that
+ * passes its transform to paint skips every unit whose box lands
+ * outside the window, so a zoomed in view only pays for what it shows.
+ *
+ * <p>
+ * While the user is dragging, a view can also ask for each unit to be
+ * drawn at a level of detail that suits its size on screen.  The levels
+ * are made by vertex clustering: the unit's box is cut into a grid of
+ * cells, every vertex is moved to the first vertex found in its cell,
+ * and edges that collapse or come out the same are dropped.  Since the
+ * simplified edges join real vertices they follow the model as it is
+ * dragged, and a unit never loses faces at random.  The levels are made
+ * the first time they are needed after the geometry changes.
+ */
+public class EdgeTable
+{
+    //Per edge.  m_other is the larger vertex index, m_nextEdge chains
+    //the edges of the smaller one from m_head.
+    private int m_other[];
+    private int m_nextEdge[];
+    private int m_firstOwner[];
+    private int m_lastOwner[];
+    private int m_numEdges = 0;
+
+    //Per vertex index, only needed while building.
+    private int m_head[];
+
+    //Per owner.  The edge is drawn from m_from to m_to.
+    private Polygon3d m_owner[];
+    private int m_from[];
+    private int m_to[];
+    private int m_nextOwner[];
+    private int m_numOwners = 0;
+
+    private Primitive m_others[];
+    private int m_numOthers = 0;
+
+    //Polygons per unit when they aren't in a group.
+    private static final int UNIT_SIZE = 64;
+
+    //Extra room around the window when culling, for rounding.
+    private static final float MARGIN = 2;
+
+    //The edges of unit u are m_unitEdges[m_unitStart[u]] up to
+    //m_unitEdges[m_unitStart[u+1]-1], in the order they were made.
+    private int m_edgeUnit[];
+    private int m_unitStart[];
+    private int m_unitEdges[];
+    private int m_numUnits = 0;
+
+    //minX, minY, minZ, maxX, maxY, maxZ for each unit.  Replaced
+    //rather than written over, since views may be painting from it.
+    private float m_bounds[];
+
+    //Levels of detail.  Level l cuts a unit's box into (4 << l) cells
+    //along its longest side.
+    private static final int LEVELS = 5;
+
+    //For each unit and level, the simplified edges as (edge the color
+    //comes from, from vertex, to vertex) triples, or null if it hasn't
+    //been made yet.
+    private int m_levels[][];
+    private FastVector m_vertices;
+
+    /**
+     * Build the table.
+     *
+     * @param primitives vector of Primitive.
+     * @param numVertices number of vertices the primitives index.
+     */
+    public EdgeTable(FastVector primitives, int numVertices)
+    {
+        int size = primitives.sizeFast();
+        int capacity = 16;
+        m_other = new int[capacity];
+        m_nextEdge = new int[capacity];
+        m_firstOwner = new int[capacity];
+        m_lastOwner = new int[capacity];
+        m_owner = new Polygon3d[capacity];
+        m_from = new int[capacity];
+        m_to = new int[capacity];
+        m_nextOwner = new int[capacity];
+        m_edgeUnit = new int[capacity];
+        m_others = new Primitive[16];
+
+        m_head = new int[numVertices];
+        for(int i = 0; i < numVertices; i++)
+        {
+            m_head[i] = -1;
+        }
+
+        //Top level Group -> Integer unit.
+        Hashtable groupUnits = new Hashtable();
+        int looseUnit = -1;
+        int looseCount = 0;
+
+        for(int i = 0; i < size; i++)
+        {
+            Primitive p = (Primitive)primitives.elementAtFast(i);
+            if(p instanceof Polygon3d)
+            {
+                Polygon3d polygon = (Polygon3d)p;
+
+                int unit;
+                Group group = polygon.getGroup();
+                if(group != null)
+                {
+                    while(group.getGroup() != null)
+                    {
+                        group = group.getGroup();
+                    }
+                    Integer n = (Integer)groupUnits.get(group);
+                    if(n == null)
+                    {
+                        n = new Integer(m_numUnits++);
+                        groupUnits.put(group, n);
+                    }
+                    unit = n.intValue();
+                }
+                else
+                {
+                    if(looseUnit < 0 || looseCount == UNIT_SIZE)
+                    {
+                        looseUnit = m_numUnits++;
+                        looseCount = 0;
+                    }
+                    looseCount++;
+                    unit = looseUnit;
+                }
+
+                int indices[] = polygon.getIndices();
+                for(int j = 0; j < indices.length - 1; j++)
+                {
+                    addEdge(polygon, unit, indices[j], indices[j+1]);
+                }
+                //Polygon3d draws the closing edge from the first vertex.
+                addEdge(polygon, unit, indices[0], indices[indices.length-1]);
+            }
+            else
+            {
+                if(m_numOthers == m_others.length)
+                {
+                    Primitive others[] = new Primitive[m_others.length * 2];
+                    System.arraycopy(m_others, 0, others, 0, m_numOthers);
+                    m_others = others;
+                }
+                m_others[m_numOthers++] = p;
+            }
+        }
+        m_head = null;
+
+        //Sort the edges by unit, keeping their order within each.
+        m_unitStart = new int[m_numUnits + 1];
+        for(int e = 0; e < m_numEdges; e++)
+        {
+            m_unitStart[m_edgeUnit[e] + 1]++;
+        }
+        for(int u = 0; u < m_numUnits; u++)
+        {
+            m_unitStart[u + 1] += m_unitStart[u];
+        }
+        int fill[] = new int[m_numUnits];
+        System.arraycopy(m_unitStart, 0, fill, 0, m_numUnits);
+        m_unitEdges = new int[m_numEdges];
+        for(int e = 0; e < m_numEdges; e++)
+        {
+            m_unitEdges[fill[m_edgeUnit[e]]++] = e;
+        }
+        m_edgeUnit = null;
+        m_levels = new int[m_numUnits * LEVELS][];
+    }
+
+    /**
+     * Number of distinct polygon edges.
+     */
+    public final int getNumEdges()
+    {
+        return m_numEdges;
+    }
+
+    /**
+     * Number of culling units.
+     */
+    public final int getNumUnits()
+    {
+        return m_numUnits;
+    }
+
+    private final void addEdge(Polygon3d polygon, int unit, int from, int to)
+    {
+        int low = Math.min(from, to);
+        int high = Math.max(from, to);
+
+        int edge = m_head[low];
+        while(edge >= 0 && m_other[edge] != high)
+        {
+            edge = m_nextEdge[edge];
+        }
+
+        if(edge < 0)
+        {
+            if(m_numEdges == m_other.length)
+            {
+                growEdges();
+            }
+            edge = m_numEdges++;
+            m_other[edge] = high;
+            m_edgeUnit[edge] = unit;
+            m_nextEdge[edge] = m_head[low];
+            m_head[low] = edge;
+            m_firstOwner[edge] = -1;
+            m_lastOwner[edge] = -1;
+        }
+        else if(m_owner[m_lastOwner[edge]] == polygon)
+        {
+            //A polygon with a repeated vertex, or only two.
+            return;
+        }
+
+        if(m_numOwners == m_owner.length)
+        {
+            growOwners();
+        }
+        int owner = m_numOwners++;
+        m_owner[owner] = polygon;
+        m_from[owner] = from;
+        m_to[owner] = to;
+        m_nextOwner[owner] = -1;
+        if(m_lastOwner[edge] < 0)
+        {
+            m_firstOwner[edge] = owner;
+        }
+        else
+        {
+            m_nextOwner[m_lastOwner[edge]] = owner;
+        }
+        m_lastOwner[edge] = owner;
+    }
+
+    private final void growEdges()
+    {
+        int capacity = m_other.length * 2;
+        m_other = grow(m_other, capacity);
+        m_nextEdge = grow(m_nextEdge, capacity);
+        m_firstOwner = grow(m_firstOwner, capacity);
+        m_lastOwner = grow(m_lastOwner, capacity);
+        m_edgeUnit = grow(m_edgeUnit, capacity);
+    }
+
+    private final void growOwners()
+    {
+        int capacity = m_owner.length * 2;
+        Polygon3d owner[] = new Polygon3d[capacity];
+        System.arraycopy(m_owner, 0, owner, 0, m_numOwners);
+        m_owner = owner;
+        m_from = grow(m_from, capacity);
+        m_to = grow(m_to, capacity);
+        m_nextOwner = grow(m_nextOwner, capacity);
+    }
+
+    private static int[] grow(int array[], int capacity)
+    {
+        int bigger[] = new int[capacity];
+        System.arraycopy(array, 0, bigger, 0, array.length);
+        return bigger;
+    }
+
+    /**
+     * Work out the bounding box of each unit from the ends of its edges.
+     *
+     * @param vertices the scene's vertices.
+     */
+    public final void updateBounds(FastVector vertices)
+    {
+        float bounds[] = new float[m_numUnits * 6];
+        for(int u = 0; u < m_numUnits; u++)
+        {
+            float minX = Float.MAX_VALUE;
+            float minY = Float.MAX_VALUE;
+            float minZ = Float.MAX_VALUE;
+            float maxX = -Float.MAX_VALUE;
+            float maxY = -Float.MAX_VALUE;
+            float maxZ = -Float.MAX_VALUE;
+            for(int k = m_unitStart[u]; k < m_unitStart[u+1]; k++)
+            {
+                int e = m_unitEdges[k];
+                for(int end = 0; end < 2; end++)
+                {
+                    int owner = m_firstOwner[e];
+                    int i = (end == 0) ? m_from[owner] : m_to[owner];
+                    Vertex v = (Vertex)vertices.elementAtFast(i);
+                    minX = Math.min(minX, v.x);
+                    minY = Math.min(minY, v.y);
+                    minZ = Math.min(minZ, v.z);
+                    maxX = Math.max(maxX, v.x);
+                    maxY = Math.max(maxY, v.y);
+                    maxZ = Math.max(maxZ, v.z);
+                }
+            }
+            int b = u * 6;
+            bounds[b] = minX;
+            bounds[b+1] = minY;
+            bounds[b+2] = minZ;
+            bounds[b+3] = maxX;
+            bounds[b+4] = maxY;
+            bounds[b+5] = maxZ;
+        }
+        m_bounds = bounds;
+        m_vertices = vertices;
+    }
+
+    /**
+     * Throw away the levels of detail, so they are made again from where
+     * the vertices are now.
+     */
+    public final void clearLevels()
+    {
+        m_levels = new int[m_numUnits * LEVELS][];
+    }
+
+    /**
+     * Get the simplified edges of a unit, making them if need be.
+     */
+    private final int[] getLevel(int u, int level, float bounds[])
+    {
+        int levels[][] = m_levels;
+        int edges[] = levels[u * LEVELS + level];
+        if(edges == null)
+        {
+            //Two views may both get here, but they make the same thing.
+            edges = makeLevel(u, 4 << level, bounds);
+            levels[u * LEVELS + level] = edges;
+        }
+        return edges;
+    }
+
+    private final int[] makeLevel(int u, int resolution, float bounds[])
+    {
+        int b = u * 6;
+        float size = Math.max(bounds[b+3] - bounds[b],
+                              Math.max(bounds[b+4] - bounds[b+1],
+                                       bounds[b+5] - bounds[b+2]));
+        float scale = (size > 0) ? resolution / size : 0;
+
+        //Integer cell -> Integer vertex, and Long vertex pair -> edge.
+        Hashtable cells = new Hashtable();
+        Hashtable pairs = new Hashtable();
+
+        int edges[] = new int[48];
+        int size3 = 0;
+        for(int k = m_unitStart[u]; k < m_unitStart[u+1]; k++)
+        {
+            int e = m_unitEdges[k];
+            int owner = m_firstOwner[e];
+            int from = cluster(cells, m_from[owner], bounds, b,
+                               scale, resolution);
+            int to = cluster(cells, m_to[owner], bounds, b,
+                             scale, resolution);
+            if(from == to)
+            {
+                continue;
+            }
+
+            Long pair = new Long(((long)Math.min(from, to) << 32) |
+                                 Math.max(from, to));
+            if(pairs.containsKey(pair))
+            {
+                continue;
+            }
+            pairs.put(pair, pair);
+
+            if(size3 == edges.length)
+            {
+                edges = grow(edges, edges.length * 2);
+            }
+            edges[size3++] = e;
+            edges[size3++] = from;
+            edges[size3++] = to;
+        }
+
+        int trimmed[] = new int[size3];
+        System.arraycopy(edges, 0, trimmed, 0, size3);
+        return trimmed;
+    }
+
+    /**
+     * Get the vertex that vertex i is moved to, ie. the first vertex
+     * found in its cell.
+     */
+    private final int cluster(Hashtable cells, int i,
+                              float bounds[], int b, float scale,
+                              int resolution)
+    {
+        Vertex v = (Vertex)m_vertices.elementAtFast(i);
+        int cx = Math.min((int)((v.x - bounds[b]) * scale), resolution);
+        int cy = Math.min((int)((v.y - bounds[b+1]) * scale), resolution);
+        int cz = Math.min((int)((v.z - bounds[b+2]) * scale), resolution);
+        Integer cell = new Integer((cx*(resolution+1) + cy)*(resolution+1) + cz);
+
+        Integer vertex = (Integer)cells.get(cell);
+        if(vertex == null)
+        {
+            vertex = new Integer(i);
+            cells.put(cell, vertex);
+        }
+        return vertex.intValue();
+    }
+
+    /**
+     * Work out the rectangle a unit's bounding box covers in the window.
+     * Every corner is pushed through the view matrix; if they are all on
+     * the same side of the eye the box lands inside the rectangle around
+     * them.
+     *
+     * @param rect filled in with minX, minY, maxX, maxY.
+     * @return false if the box reaches round behind the eye, and so
+     * covers no particular rectangle.
+     */
+    private static boolean screenBounds(float bounds[], int u, Matrix4f m,
+                                        float rect[])
+    {
+        int b = u * 6;
+        float minX = Float.MAX_VALUE;
+        float minY = Float.MAX_VALUE;
+        float maxX = -Float.MAX_VALUE;
+        float maxY = -Float.MAX_VALUE;
+        int side = 0;
+        for(int c = 0; c < 8; c++)
+        {
+            float px = bounds[b + ((c & 1) == 0 ? 0 : 3)];
+            float py = bounds[b + ((c & 2) == 0 ? 1 : 4)];
+            float pz = bounds[b + ((c & 4) == 0 ? 2 : 5)];
+
+            float w = m.m30*px + m.m31*py + m.m32*pz + m.m33;
+            int s = (w > 0) ? 1 : (w < 0) ? -1 : 0;
+            if(s == 0 || (side != 0 && s != side))
+            {
+                return false;
+            }
+            side = s;
+
+            float sx = (m.m00*px + m.m01*py + m.m02*pz + m.m03)/w;
+            float sy = (m.m10*px + m.m11*py + m.m12*pz + m.m13)/w;
+            minX = Math.min(minX, sx);
+            minY = Math.min(minY, sy);
+            maxX = Math.max(maxX, sx);
+            maxY = Math.max(maxY, sy);
+        }
+
+        rect[0] = minX;
+        rect[1] = minY;
+        rect[2] = maxX;
+        rect[3] = maxY;
+        return true;
+    }
+
+    /**
+     * Pick the coarsest level whose cells are no bigger than pixels
+     * across on screen, or -1 for every edge.
+     */
+    private static int chooseLevel(float rect[], float pixels)
+    {
+        float size = Math.max(rect[2] - rect[0], rect[3] - rect[1]);
+        for(int level = 0; level < LEVELS; level++)
+        {
+            if(size / (4 << level) <= pixels)
+            {
+                return level;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Paint the primitives that aren't selected.
+     *
+     * @param vertices Vector of transformed vertices for the current
+     * view.
+     * @param world the scene's vertices, in world coordinates, for the
+     * Tessellated primitives.
+     * @param g Graphics Context.
+     * @param m the view's transform, from world to window coordinates
+     * (with a perspective divide if it has one).
+     * @param width width of the window.
+     * @param height height of the window.
+     * @param cull whether to skip units outside the window.
+     * @param pixels size on screen of the cells in the level of detail
+     * drawn for each unit, or 0 to draw every edge.
+     */
+    public final void paint(FastVector vertices, FastVector world,
+                            Graphics g, Matrix4f m, int width, int height,
+                            boolean cull, float pixels)
+    {
+        Primitive temp;
+        for(int i = m_numOthers-1; i >= 0; i--)
+        {
+            temp = m_others[i];
+            if(!temp.isSelected())
+            {
+                Tessellation.paint(temp, vertices, world, m, g);
+            }
+        }
+
+        //Most edges are the same color, so only set it when it changes.
+        Color color = null;
+        Color ownerColor;
+        Point2d p0 = new Point2d();
+        Point2d p1 = new Point2d();
+        Vertex v0, v1;
+        float bounds[] = m_bounds;
+        float rect[] = new float[4];
+        for(int u = m_numUnits-1; u >= 0; u--)
+        {
+            int level = -1;
+            if(bounds != null && screenBounds(bounds, u, m, rect))
+            {
+                //Written so that NaNs count as visible.
+                if(cull &&
+                   (rect[2] < -MARGIN || rect[0] > width + MARGIN ||
+                    rect[3] < -MARGIN || rect[1] > height + MARGIN))
+                {
+                    continue;
+                }
+                if(pixels > 0)
+                {
+                    level = chooseLevel(rect, pixels);
+                }
+            }
+
+            int edges[] = null;
+            int start, end;
+            if(level < 0)
+            {
+                start = m_unitStart[u];
+                end = m_unitStart[u+1];
+            }
+            else
+            {
+                edges = getLevel(u, level, bounds);
+                start = 0;
+                end = edges.length / 3;
+            }
+
+            for(int k = end-1; k >= start; k--)
+            {
+                int i = (edges == null) ? m_unitEdges[k] : edges[k*3];
+                int owner = m_firstOwner[i];
+                while(owner >= 0 && m_owner[owner].isSelected())
+                {
+                    owner = m_nextOwner[owner];
+                }
+                if(owner < 0)
+                {
+                    continue;
+                }
+
+                ownerColor = m_owner[owner].getPaintColor();
+                if(ownerColor != color)
+                {
+                    g.setColor(ownerColor);
+                    color = ownerColor;
+                }
+
+                if(edges == null)
+                {
+                    v0 = (Vertex)vertices.elementAtFast(m_from[owner]);
+                    v1 = (Vertex)vertices.elementAtFast(m_to[owner]);
+                }
+                else
+                {
+                    v0 = (Vertex)vertices.elementAtFast(edges[k*3+1]);
+                    v1 = (Vertex)vertices.elementAtFast(edges[k*3+2]);
+                }
+                if(SutherlandHodgman.CLIP)
+                {
+                    p0.x = v0.x;
+                    p0.y = v0.y;
+                    p1.x = v1.x;
+                    p1.y = v1.y;
+                    if(SutherlandHodgman.clip2d(p0, p1))
+                    {
+                        g.drawLine((int)p0.x, (int)p0.y,
+                                   (int)p1.x, (int)p1.y);
+                    }
+                }
+                else
+                {
+                    g.drawLine((int)v0.x, (int)v0.y, (int)v1.x, (int)v1.y);
+                }
+            }
+        }
+    }
+}
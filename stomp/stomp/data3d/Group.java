@@ -166,11 +166,6 @@ public class Group implements Primitive
         return g;
     }
 
-    public void updateBounds(FastVector vertices)
-    {
-
-    }
-    
     /**
      * Add a new primitive to the group.
      */
@@ -305,7 +300,7 @@ public class Group implements Primitive
     /**
      * Transform elements in the group.
      */
-    public void transform(Transformation tr, FastVector fromVertices,
+    public void transform(Transformation tr, VertexBuffer fromVertices,
                           FastVector toVertices)
     {
         Rotation rot = null;
@@ -379,6 +374,15 @@ public class Group implements Primitive
         return false;
     }
 
+    /**
+     * Just so that it confines to Primitive interface.  Groups don't have
+     * any indices.
+     */
+    public boolean remapIndices(int indexMap[])
+    {
+        return false;
+    }
+
     /**
      * Just so that it confines to Primitive interface.  Groups don't have
      * any indices.
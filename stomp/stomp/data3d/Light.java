@@ -106,13 +106,13 @@ public abstract class Light implements Primitive
         return false;
     }
 
-    public void transform(Transformation tr, FastVector fromVertices,
+    public void transform(Transformation tr, VertexBuffer fromVertices,
                           FastVector toVertices)
     {
         for(int i = 0; i < m_indices.length; i++)
         {
-            tr.transformVertex((Vertex)fromVertices.elementAtFast(m_indices[i]),
-                               (Vertex)toVertices.elementAtFast(m_indices[i]));
+            fromVertices.transformVertex(tr, m_indices[i],
+                                         (Vertex)toVertices.elementAtFast(m_indices[i]));
         }
     }
     
@@ -184,6 +184,31 @@ public abstract class Light implements Primitive
         return false;
     }
     
+    public boolean remapIndices(int indexMap[])
+    {
+        int kept = 0;
+        for(int i = 0; i < m_indices.length; i++)
+        {
+            if(indexMap[m_indices[i]] != -1)
+            {
+                kept++;
+            }
+        }
+
+        int newIndices[] = new int[kept];
+        int j = 0;
+        for(int i = 0; i < m_indices.length; i++)
+        {
+            if(indexMap[m_indices[i]] != -1)
+            {
+                newIndices[j++] = indexMap[m_indices[i]];
+            }
+        }
+
+        m_indices = newIndices;
+        return false;
+    }
+    
     public void replaceIndex(int oldIndex, int newIndex)
     {
         for(int i = 0; i < m_indices.length; i++)
@@ -37,8 +37,6 @@ public class Polygon3d implements Primitive, java.io.Serializable
     private Vector3f v1 = new Vector3f();
     private Vector3f v2 = new Vector3f();
     private Vertex[] pts = new Vertex[2];
-    private Point2d p0 = new Point2d();
-    private Point2d p1 = new Point2d();
     private int xs[];// = new int[m_indices.length];
     private int ys[];// = new int[m_indices.length];
 
@@ -202,6 +200,28 @@ public class Polygon3d implements Primitive, java.io.Serializable
     }
     
 
+    /**
+     * Get the color the outline is drawn in, which depends on whether
+     * this is selected, hidden or in a group.
+     */
+    public final Color getPaintColor()
+    {
+        if(m_selected)
+        {
+            return MAGENTA;
+        }
+        else if(m_hidden)
+        {
+            return HIDDEN;
+        }
+        else if(m_group == null)
+        {
+            return BLACK;
+        }
+
+        return m_group.getColor();
+    }
+
     /**
      * Paint the Polygon3d.
      *
@@ -216,27 +236,12 @@ public class Polygon3d implements Primitive, java.io.Serializable
 //             return;
 //         }
         
-        //Select the color depending on whether this is selected or not.
-        if(m_selected)
-        {
-            g.setColor(MAGENTA);
-        }
-        else
-        {
-            if(m_hidden)
-            {
-                g.setColor(HIDDEN);
-            }
-            else if(m_group == null)
-            {
-                g.setColor(BLACK);
-            }
-            else
-            {
-                g.setColor(m_group.getColor());
-            }
-        }
+        g.setColor(getPaintColor());
 
+        //Views may paint the same polygon on several threads at once,
+        //so the line end points can't be kept in the polygon.
+        Point2d p0 = new Point2d();
+        Point2d p1 = new Point2d();
         p1.x = ((Vertex)vertices.elementAtFast(m_indices[0])).x;
         p1.y = ((Vertex)vertices.elementAtFast(m_indices[0])).y;
 
@@ -245,6 +250,8 @@ public class Polygon3d implements Primitive, java.io.Serializable
         {
             //Faster way to draw polygons.  Uses drawPolygon which is
             //only one system function call and often accelerated
+            int xs[] = new int[m_indices.length];
+            int ys[] = new int[m_indices.length];
             int i = 0;
             for(; i < m_indices.length - 1; i++)
             {
@@ -445,6 +452,49 @@ public class Polygon3d implements Primitive, java.io.Serializable
         return false;
     }
 
+    /**
+     * Renumber the indices after a batch of points has been deleted.
+     *
+     * @param indexMap new index for each old index, or -1 if that vertex
+     *        was deleted.
+     * @return true if this Polygon3d is left with less than three vertex
+     *         indices and should be deleted.
+     */
+    public boolean remapIndices(int indexMap[])
+    {
+        int kept = 0;
+        for(int i = 0; i < m_indices.length; i++)
+        {
+            if(indexMap[m_indices[i]] != -1)
+            {
+                kept++;
+            }
+        }
+
+        if(kept < m_indices.length)
+        {
+            if(kept < 3)
+            {
+                return true;
+            }
+            xs = new int[kept];
+            ys = new int[kept];
+        }
+
+        int newIndices[] = new int[kept];
+        int j = 0;
+        for(int i = 0; i < m_indices.length; i++)
+        {
+            if(indexMap[m_indices[i]] != -1)
+            {
+                newIndices[j++] = indexMap[m_indices[i]];
+            }
+        }
+
+        m_indices = newIndices;
+        return false;
+    }
+
     /**
      * Replaces an index to a vertex with another index.
      * Used for merting points.
@@ -647,10 +697,23 @@ public class Polygon3d implements Primitive, java.io.Serializable
      */
     public Vertex[] getNormalPoints()
     {
-        pts[0].set(m_center);
-        pts[1].set(m_normalOffset);
+        return getNormalPoints(pts);
+    }
+
+    /**
+     * Copy the two vertices that define how the normal is drawn into an
+     * array the caller owns, so views painting on different threads don't
+     * share them.
+     *
+     * @param points array of 2 vertices to fill in.
+     * @return points.
+     */
+    public Vertex[] getNormalPoints(Vertex points[])
+    {
+        points[0].set(m_center);
+        points[1].set(m_normalOffset);
 
-        return pts;
+        return points;
     }
 
     /**
@@ -669,6 +732,8 @@ public class Polygon3d implements Primitive, java.io.Serializable
      */
     public void paintNormal(Vertex[] vert, Graphics g)
     {
+        Point2d p0 = new Point2d();
+        Point2d p1 = new Point2d();
         p0.x = vert[0].x;
         p0.y = vert[0].y;
         p1.x = vert[1].x;
@@ -702,17 +767,17 @@ public class Polygon3d implements Primitive, java.io.Serializable
      * Transform the Polygon3d's vertices by some transformation.
      *
      * @param tr Transformation to transform points on Polygon3d with.
-     * @param fromVertices vector of vertices in world coordinates
+     * @param fromVertices reference vertices in world coordinates
      * @param toVertices vector of vertices in world coordinates
      */
-    public final void transform(Transformation tr, FastVector fromVertices,
+    public final void transform(Transformation tr, VertexBuffer fromVertices,
                                 FastVector toVertices)
     {
         //Loop through all indices, and transform corresponding vertices.
         for(int i = 0; i < m_indices.length; i++)
         {
-            tr.transformVertex( (Vertex)fromVertices.elementAtFast(m_indices[i]),
-                                (Vertex)toVertices.elementAtFast(m_indices[i]));
+            fromVertices.transformVertex(tr, m_indices[i],
+                                         (Vertex)toVertices.elementAtFast(m_indices[i]));
         }
         
         //Every time we transform, recompute the normal so it is accurate.
@@ -22,12 +22,13 @@ public interface Primitive extends java.io.Serializable
     public boolean selectRegion(FastVector vertices, int xmin, int xmax,
                                 int ymin, int ymax);
     public void paint(FastVector vertices, Graphics g);
-    public void transform(Transformation tr, FastVector fromVertices,
+    public void transform(Transformation tr, VertexBuffer fromVertices,
                           FastVector toVertices);
     public boolean containsIndex(int index);
     public int[] getIndices();
     public void setIndices(int indices[]);
     public boolean renumberIndices(int afterInd);
+    public boolean remapIndices(int indexMap[]);
     public void replaceIndex(int oldIndex, int newIndex);
     public void setGroup(Group group);
     public Group getGroup();
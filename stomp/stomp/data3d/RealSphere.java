@@ -121,7 +121,7 @@ public class RealSphere implements Primitive, java.io.Serializable
      * view.
      * @param g Graphics Context.
      */
-    public void paint(FastVector vertices, Graphics g)
+    public synchronized void paint(FastVector vertices, Graphics g)
     {
         if(m_hidden)
         {
@@ -259,6 +259,30 @@ public class RealSphere implements Primitive, java.io.Serializable
         return false;
     }
 
+    /**
+     * Renumber the indices after a batch of points has been deleted.
+     *
+     * @param indexMap new index for each old index, or -1 if that vertex
+     *        was deleted.
+     * @return true if one of the sphere's vertices was deleted.
+     */
+    public boolean remapIndices(int indexMap[])
+    {
+        for(int i = 0; i < m_indices.length; i++)
+        {
+            if(indexMap[m_indices[i]] == -1)
+            {
+                return true;
+            }
+        }
+
+        for(int i = 0; i < m_indices.length; i++)
+        {
+            m_indices[i] = indexMap[m_indices[i]];
+        }
+        return false;
+    }
+
     /**
      * Replaces an index to a vertex with another index.
      * Used for merting points.
@@ -317,17 +341,17 @@ public class RealSphere implements Primitive, java.io.Serializable
      * Transform the Polygon3d's vertices by some transformation.
      *
      * @param tr Transformation to transform points on Polygon3d with.
-     * @param fromVertices vector of vertices in world coordinates
+     * @param fromVertices reference vertices in world coordinates
      * @param toVertices vector of vertices in world coordinates
      */
-    public void transform(Transformation tr, FastVector fromVertices,
+    public void transform(Transformation tr, VertexBuffer fromVertices,
                           FastVector toVertices)
     {
         //Loop through all indices, and transform corresponding vertices.
         for(int i = 0; i < m_indices.length; i++)
         {
-            tr.transformVertex( (Vertex)fromVertices.elementAtFast(m_indices[i]),
-                                (Vertex)toVertices.elementAtFast(m_indices[i]));
+            fromVertices.transformVertex(tr, m_indices[i],
+                                         (Vertex)toVertices.elementAtFast(m_indices[i]));
         }
     }
 }
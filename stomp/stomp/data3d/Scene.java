@@ -24,8 +24,74 @@ import stomp.transform.*;
 public class Scene implements java.io.Serializable
 {
     private FastVector m_primitives = new FastVector();
-    private FastVector m_referenceVertices = new FastVector();
     private FastVector m_vertices = new FastVector();
+
+    //Positions of the vertices as of the last validateScene, which is
+    //what transformations are applied to.
+    private VertexBuffer m_referenceVertices = new VertexBuffer();
+
+    //Modification count of m_vertices the last time every vertex was
+    //told its index.  If it still matches, the indices are all correct.
+    private int m_indexedModCount = -1;
+
+    //Which primitives use each vertex.  Kept up to date by the scene's
+    //own add/remove methods, and rebuilt the next time it is needed if
+    //the vertex or primitive lists are changed some other way.
+    private VertexAdjacency m_adjacency = new VertexAdjacency();
+    private int m_adjacencyVertexModCount = -1;
+    private int m_adjacencyPrimitiveModCount = -1;
+
+    //Dirty tracking, so validateScene only has to look at what changed.
+    //Edits made through the scene (addVertex, select, transformSelected,
+    //primitiveChanged, ...) record the vertices and primitives they
+    //touch.  Code that moves, hides or re-indexes things in place must
+    //say so with vertexChanged, primitiveChanged or sceneChanged.
+    //Adding or removing from the vectors directly is caught through
+    //their modification counts and makes the next validate a full one.
+    private static final byte DIRTY_FLAGS = 1;
+    private static final byte DIRTY_POSITION = 2;
+    private byte m_dirtyMarks[] = new byte[16];
+    private int m_dirtyVertices[] = new int[16];
+    private int m_numDirtyVertices = 0;
+    private Hashtable m_dirtyPrimitives = new Hashtable();
+    private boolean m_allDirty = true;
+    private int m_validVertexModCount = -1;
+    private int m_validPrimitiveModCount = -1;
+
+    //Bumped by validateScene when the vertices, the primitives or
+    //the selection have changed since the previous validate.  Anything
+    //caching work derived from the scene can compare against these.
+    private int m_geometryVersion = 0;
+    private int m_topologyVersion = 0;
+    private int m_selectionVersion = 0;
+    private boolean m_geometryChanged = true;
+    private boolean m_topologyChanged = true;
+    private boolean m_selectionChanged = true;
+
+    //Distinct polygon edges, the topology version they were built from,
+    //the buffer version their bounds were worked out from and the
+    //geometry version their levels of detail are for.
+    private transient EdgeTable m_edgeTable;
+    private transient int m_edgeTableVersion = -1;
+    private transient int m_edgeBoundsVersion = -1;
+    private transient int m_edgeLevelsVersion = -1;
+
+    //Polygons cut into triangles for casting rays at, the topology
+    //version they were cut from and the buffer version the tree's boxes
+    //were fitted to.  The tree reads the vertices from a packed copy.
+    private transient TriangleBVH m_triangleBVH;
+    private transient VertexBuffer m_triangleVertices;
+    private transient int m_triangleBVHVersion = -1;
+    private transient int m_triangleBoundsVersion = -1;
+
+    //Counts every change to the vertices, including the ones made
+    //between validates while dragging.  m_vertexLog lists the vertices
+    //changed since m_vertexLogStart, so views can re-project just those.
+    private int m_bufferVersion = 0;
+    private int m_vertexLogStart = 0;
+    private int m_vertexLog[] = new int[64];
+    private int m_vertexLogSize = 0;
+    private boolean m_vertexLogged[] = new boolean[64];
     
     private SurfaceList m_surfaceList;
 
@@ -33,8 +99,21 @@ public class Scene implements java.io.Serializable
     private FastVector m_clipVertices = new FastVector();
     private FastVector m_clipPrimitives = new FastVector();
 
-    private FastVector m_orderedSelectedVertices = new FastVector();
-    private FastVector m_orderedSelectedPrimitives = new FastVector();
+    private SelectionLog m_orderedSelectedVertices = new SelectionLog();
+    private SelectionLog m_orderedSelectedPrimitives = new SelectionLog();
+
+    //Indices of the selected vertices.  The vertices' selected flags
+    //mirror it; the logs above only keep the order things were selected
+    //in.  Kept current by select, deselect and addVertex, and rebuilt
+    //from the flags the next time it is needed if the vertices are
+    //renumbered.
+    private transient SelectionBits m_selectedBits;
+    private transient int m_selectedBitsModCount = -1;
+
+    //Indices of the hidden vertices, kept the same way by hideVertices,
+    //unhideVertices and addVertex.
+    private transient SelectionBits m_hiddenBits;
+    private transient int m_hiddenBitsModCount = -1;
 
     /**
      * Scene constructor.
@@ -61,8 +140,8 @@ public class Scene implements java.io.Serializable
         for(int i = 0; i < m_vertices.sizeFast(); i++)
         {
             newScene.m_vertices.addElement(m_vertices.elementAtFast(i));
-            newScene.m_referenceVertices.addElement(m_referenceVertices.elementAtFast(i));
         }
+        newScene.m_referenceVertices.copyFrom(m_referenceVertices);
 
         for(int i = 0; i < m_primitives.size(); i++)
         {
@@ -96,18 +175,203 @@ public class Scene implements java.io.Serializable
         return m_vertices;
     }
 
+    /**
+     * Get the distinct polygon edges, for the views to draw from.  The
+     * table is rebuilt the first time it is asked for after the topology
+     * version changes, its bounding boxes whenever the vertices have
+     * changed and its levels of detail whenever the geometry version
+     * changes.
+     *
+     * @return the edge table, or null if primitives have been changed
+     * since the scene was last validated.
+     */
+    public final synchronized EdgeTable getEdgeTable()
+    {
+        if(m_topologyChanged || !primitivesTracked())
+        {
+            return null;
+        }
+
+        if(m_edgeTable == null || m_edgeTableVersion != m_topologyVersion)
+        {
+            m_edgeTable = new EdgeTable(m_primitives, m_vertices.sizeFast());
+            m_edgeTableVersion = m_topologyVersion;
+            m_edgeBoundsVersion = -1;
+            m_edgeLevelsVersion = m_geometryVersion;
+        }
+        else if(m_edgeLevelsVersion != m_geometryVersion)
+        {
+            m_edgeTable.clearLevels();
+            m_edgeLevelsVersion = m_geometryVersion;
+        }
+
+        int version = getBufferVersion();
+        if(m_edgeBoundsVersion != version)
+        {
+            m_edgeTable.updateBounds(m_vertices);
+            m_edgeBoundsVersion = version;
+        }
+
+        return m_edgeTable;
+    }
+
+    /**
+     * Get a bounding volume hierarchy over the polygons, for casting
+     * rays into the scene.  The tree is built the first time it is
+     * asked for after the topology version changes, and refit to the
+     * vertices whenever they have moved.
+     *
+     * @return the tree, or null if primitives have been changed since
+     * the scene was last validated.
+     */
+    public final synchronized TriangleBVH getTriangleBVH()
+    {
+        if(m_topologyChanged || !primitivesTracked())
+        {
+            return null;
+        }
+
+        int version = getBufferVersion();
+        if(m_triangleVertices == null)
+        {
+            m_triangleVertices = new VertexBuffer();
+        }
+        if(m_triangleBVH == null || m_triangleBVHVersion != m_topologyVersion)
+        {
+            m_triangleVertices.copyFrom(m_vertices);
+            m_triangleBVH = new TriangleBVH(m_primitives,
+                                            m_triangleVertices.getXArray(),
+                                            m_triangleVertices.getYArray(),
+                                            m_triangleVertices.getZArray());
+            m_triangleBVHVersion = m_topologyVersion;
+            m_triangleBoundsVersion = version;
+        }
+        else if(m_triangleBoundsVersion != version)
+        {
+            m_triangleVertices.copyFrom(m_vertices);
+            m_triangleBVH.refit(m_triangleVertices.getXArray(),
+                                m_triangleVertices.getYArray(),
+                                m_triangleVertices.getZArray());
+            m_triangleBoundsVersion = version;
+        }
+
+        return m_triangleBVH;
+    }
+
+    /**
+     * Number of times the vertices have changed.  Unlike
+     * getGeometryVersion this also counts changes made while dragging,
+     * before the scene is validated.
+     */
+    public final synchronized int getBufferVersion()
+    {
+        //Vertices may have been added or removed by a command that
+        //hasn't validated the scene yet, and changes aren't logged
+        //until it does.  Synchronized since the views ask for the
+        //version from several threads at once.
+        if(!verticesTracked())
+        {
+            resetVertexLog();
+        }
+
+        return m_bufferVersion;
+    }
+
+    /**
+     * Get the indices of the vertices that changed since the given
+     * buffer version.  Only the first numChangedVertices() entries
+     * of the array are used, and may include vertices that changed before
+     * that version too.
+     *
+     * @param sinceVersion a value returned by getBufferVersion.
+     * @return indices of changed vertices, or null if they aren't known
+     *         (eg. the vertices were renumbered since), in which case
+     *         everything should be treated as changed.
+     */
+    public final int[] getChangedVertices(int sinceVersion)
+    {
+        if(sinceVersion < m_vertexLogStart)
+        {
+            return null;
+        }
+        return m_vertexLog;
+    }
+
+    /**
+     * Number of entries used in the array from getChangedVertices.
+     */
+    public final int numChangedVertices()
+    {
+        return m_vertexLogSize;
+    }
+
+    /**
+     * Note that vertex i has changed or is about to.
+     */
+    private final void logVertex(int i)
+    {
+        m_bufferVersion++;
+
+        //Once a good part of the scene has changed, views may as well
+        //re-project everything.
+        if(m_vertexLogSize > 16 + m_vertices.sizeFast()/4)
+        {
+            resetVertexLog();
+        }
+
+        if(i >= m_vertexLogged.length)
+        {
+            boolean logged[] = new boolean[Math.max(i+1, m_vertexLogged.length*2)];
+            System.arraycopy(m_vertexLogged, 0, logged, 0, m_vertexLogged.length);
+            m_vertexLogged = logged;
+        }
+        if(!m_vertexLogged[i])
+        {
+            if(m_vertexLogSize == m_vertexLog.length)
+            {
+                int log[] = new int[m_vertexLogSize*2];
+                System.arraycopy(m_vertexLog, 0, log, 0, m_vertexLogSize);
+                m_vertexLog = log;
+            }
+            m_vertexLog[m_vertexLogSize++] = i;
+            m_vertexLogged[i] = true;
+        }
+    }
+
+    /**
+     * Forget which vertices changed; used when they may all have
+     * changed or been renumbered.
+     */
+    private final void resetVertexLog()
+    {
+        for(int n = 0; n < m_vertexLogSize; n++)
+        {
+            int i = m_vertexLog[n];
+            if(i < m_vertexLogged.length)
+            {
+                m_vertexLogged[i] = false;
+            }
+        }
+        m_vertexLogSize = 0;
+        m_bufferVersion++;
+        m_vertexLogStart = m_bufferVersion;
+    }
+
+    /**
+     * Get a list of lights in the scene.
+     */
     public final FastVector getLights()
     {
-        FastVector cameras = new FastVector();
+        FastVector lights = new FastVector();
         for(int i = 0; i < m_primitives.sizeFast(); i++)
         {
-            if(m_primitives.elementAtFast(i) instanceof CameraView)
+            if(m_primitives.elementAtFast(i) instanceof Light)
             {
-                cameras.addElement(m_primitives.elementAtFast(i));
+                lights.addElement(m_primitives.elementAtFast(i));
             }
         }
 
-        return cameras;
+        return lights;
     }
 
     /**
@@ -134,14 +398,7 @@ public class Scene implements java.io.Serializable
      */
     public final FastVector getSelectedVertices()
     {
-        FastVector selected = new FastVector();
-        for(int i = 0; i < m_orderedSelectedVertices.sizeFast(); i++)
-        {
-            Vertex v = (Vertex)m_orderedSelectedVertices.elementAtFast(i);
-            selected.addElement(v);
-        }
-
-        return selected;
+        return m_orderedSelectedVertices.copy();
     }
 
     /**
@@ -151,13 +408,7 @@ public class Scene implements java.io.Serializable
      */
     public final FastVector getSelectedPrimitives()
     {
-        FastVector selected = new FastVector();
-        for(int i = 0; i < m_orderedSelectedPrimitives.sizeFast(); i++)
-        {
-            selected.addElement(m_orderedSelectedPrimitives.elementAtFast(i));
-        }
-
-        return selected;
+        return m_orderedSelectedPrimitives.copy();
     }
 
     /**
@@ -166,6 +417,7 @@ public class Scene implements java.io.Serializable
     public final void emptyOrderedSelectedVertices()
     {
         m_orderedSelectedVertices.removeAllElements();
+        m_selectionChanged = true;
     }
 
     /**
@@ -173,13 +425,7 @@ public class Scene implements java.io.Serializable
      */
     public final FastVector getOrderedSelectedVertices() 
     {
-        FastVector ord = new FastVector();
-        for(int i = 0; i < m_orderedSelectedVertices.sizeFast(); i++)
-        {
-            ord.addElement(m_orderedSelectedVertices.elementAtFast(i));
-        }
-        
-        return  ord;
+        return m_orderedSelectedVertices.copy();
     }
 
     /**
@@ -188,6 +434,7 @@ public class Scene implements java.io.Serializable
     public final void emptyOrderedSelectedPrimitives()
     {
         m_orderedSelectedPrimitives.removeAllElements();
+        m_selectionChanged = true;
     }
 
     /**
@@ -195,13 +442,42 @@ public class Scene implements java.io.Serializable
      */
     public final FastVector getOrderedSelectedPrimitives()
     {
-        FastVector ord = new FastVector();
-        for(int i = 0; i < m_orderedSelectedPrimitives.size(); i++)
-        {
-            ord.addElement(m_orderedSelectedPrimitives.elementAtFast(i));
-        }
-        
-        return  ord;
+        return m_orderedSelectedPrimitives.copy();
+    }
+
+    /**
+     * Number of selected vertices.  Use with getSelectedVertex to walk
+     * the selection in order without copying it; the getters above
+     * return copies, which is what a command saving the selection for
+     * undo wants.
+     */
+    public final int numSelectedVertices()
+    {
+        return m_orderedSelectedVertices.sizeFast();
+    }
+
+    /**
+     * Get the n'th selected vertex, in selection order.
+     */
+    public final Vertex getSelectedVertex(int n)
+    {
+        return (Vertex)m_orderedSelectedVertices.elementAtFast(n);
+    }
+
+    /**
+     * Number of selected primitives.
+     */
+    public final int numSelectedPrimitives()
+    {
+        return m_orderedSelectedPrimitives.sizeFast();
+    }
+
+    /**
+     * Get the n'th selected primitive, in selection order.
+     */
+    public final Primitive getSelectedPrimitive(int n)
+    {
+        return (Primitive)m_orderedSelectedPrimitives.elementAtFast(n);
     }
 
     /**
@@ -220,10 +496,141 @@ public class Scene implements java.io.Serializable
      */
     public final void deselectVertices()
     {
+        SelectionBits bits = getSelectedBits();
+        for(int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i+1))
+        {
+            ((Vertex)m_vertices.elementAtFast(i)).setSelected(false);
+            markVertex(i, DIRTY_FLAGS);
+        }
+        bits.clearAll();
         emptyOrderedSelectedVertices();
-        for(int i = m_vertices.size()-1; i >= 0; i--)
+    }
+
+    /**
+     * Select the vertices that aren't selected and deselect the ones
+     * that are.  The newly selected vertices are in index order.
+     */
+    public final void invertSelectedVertices()
+    {
+        SelectionBits bits = getSelectedBits();
+        for(int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i+1))
         {
             ((Vertex)m_vertices.elementAtFast(i)).setSelected(false);
+            markVertex(i, DIRTY_FLAGS);
+        }
+        emptyOrderedSelectedVertices();
+
+        bits.invert(m_vertices.sizeFast());
+        for(int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i+1))
+        {
+            Vertex v = (Vertex)m_vertices.elementAtFast(i);
+            v.setSelected(true);
+            m_orderedSelectedVertices.addElement(v);
+            markVertex(i, DIRTY_FLAGS);
+        }
+    }
+
+    /**
+     * Get the selected vertex indices, renumbering them from the
+     * vertices' flags first if the vertex list has changed.
+     */
+    private final SelectionBits getSelectedBits()
+    {
+        if(m_selectedBits == null ||
+           m_selectedBitsModCount != m_vertices.getModCount())
+        {
+            m_selectedBits = vertexBits(false);
+            m_selectedBitsModCount = m_vertices.getModCount();
+        }
+        return m_selectedBits;
+    }
+
+    /**
+     * Get the hidden vertex indices, renumbering them from the
+     * vertices' flags first if the vertex list has changed.
+     */
+    private final SelectionBits getHiddenBits()
+    {
+        if(m_hiddenBits == null ||
+           m_hiddenBitsModCount != m_vertices.getModCount())
+        {
+            m_hiddenBits = vertexBits(true);
+            m_hiddenBitsModCount = m_vertices.getModCount();
+        }
+        return m_hiddenBits;
+    }
+
+    /**
+     * Collect the indices of the vertices that are hidden, or of the
+     * ones that are selected.
+     */
+    private final SelectionBits vertexBits(boolean hidden)
+    {
+        SelectionBits bits = new SelectionBits();
+        for(int i = m_vertices.sizeFast()-1; i >= 0; i--)
+        {
+            Vertex v = (Vertex)m_vertices.elementAtFast(i);
+            if(hidden ? v.isHidden() : v.isSelected())
+            {
+                bits.set(i);
+            }
+        }
+        return bits;
+    }
+
+    /**
+     * Hide the vertices whose indices are in a set.  Whole words of
+     * vertices that are already hidden are skipped.
+     *
+     * @param which indices of the vertices to hide.
+     * @return indices of the vertices that were hidden by this call,
+     * for unhideVertices to undo it with.
+     */
+    public final SelectionBits hideVertices(SelectionBits which)
+    {
+        SelectionBits hidden = getHiddenBits();
+        SelectionBits changed = which.copy();
+        changed.andNot(hidden);
+        hidden.or(changed);
+        setHidden(changed, true);
+        return changed;
+    }
+
+    /**
+     * Unhide the vertices whose indices are in a set.
+     *
+     * @param which indices of the vertices to unhide.
+     * @return indices of the vertices that were hidden before.
+     */
+    public final SelectionBits unhideVertices(SelectionBits which)
+    {
+        SelectionBits hidden = getHiddenBits();
+        SelectionBits changed = which.copy();
+        changed.and(hidden);
+        hidden.andNot(changed);
+        setHidden(changed, false);
+        return changed;
+    }
+
+    /**
+     * Unhide every vertex.
+     *
+     * @return indices of the vertices that were hidden before.
+     */
+    public final SelectionBits unhideAllVertices()
+    {
+        SelectionBits changed = getHiddenBits();
+        m_hiddenBits = new SelectionBits();
+        setHidden(changed, false);
+        return changed;
+    }
+
+    private final void setHidden(SelectionBits bits, boolean hidden)
+    {
+        for(int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i+1))
+        {
+            ((Vertex)m_vertices.elementAtFast(i)).setHidden(hidden);
+            markVertex(i, DIRTY_FLAGS);
         }
     }
 
@@ -256,15 +663,7 @@ public class Scene implements java.io.Serializable
      */
     public final int numSelected()
     {
-        int count = 0;
-        
-        for(int i = m_vertices.size()-1; i >= 0; i--)
-        {
-            if( ((Vertex)m_vertices.elementAtFast(i)).isSelected())
-            {
-                count++;
-            }
-        }
+        int count = getSelectedBits().count();
         
         for(int i = m_primitives.size()-1; i >=0 ; i--)
         {
@@ -294,72 +693,344 @@ public class Scene implements java.io.Serializable
      */
     public final void addSelectedVertex(Vertex v)
     {
-        m_vertices.addElement(v);
+        addVertex(v);
         select(v);
     }
 
     /**
-     * Get the index of a specific vertex.
+     * Get the index of a specific vertex.  Each vertex remembers where
+     * it is in the list, so this is constant time unless the list was
+     * changed behind the scene's back, in which case all of the vertices
+     * are renumbered once.
      *
      * @param v Vertex to get index for.
+     * @return index of v, or -1 if it isn't in the scene.
      */
     public final int getIndex(Vertex v)
     {
-        return m_vertices.lastIndexOf(v);
-    }
-
-    public final Spline makeSpline()
-    {
-        //Must be 4+ vertices selected to make a plane.
-        if(m_orderedSelectedVertices.size() < 4)
+        int i = v.getSceneIndex();
+        if(i >= 0 && i < m_vertices.sizeFast() && m_vertices.elementAtFast(i) == v)
         {
-            return null;
+            return i;
         }
-        else
-        {
-            //Check to make sure that we have selected vertices
-            for(int i = 0; i < m_orderedSelectedVertices.size(); i++)
-            {
-                if(!(m_orderedSelectedVertices.elementAtFast(i) instanceof Vertex))
-                {
-                    return null;
-                }
-            }
 
-            int indices[] = new int[m_orderedSelectedVertices.size()];
-            int j = 0;
-            for(int i = 0; i < m_orderedSelectedVertices.size(); i++)
+        if(m_indexedModCount != m_vertices.getModCount())
+        {
+            reindexVertices();
+            i = v.getSceneIndex();
+            if(i >= 0 && i < m_vertices.sizeFast() && m_vertices.elementAtFast(i) == v)
             {
-                if(getIndex((Vertex)m_orderedSelectedVertices.elementAtFast(i)) > -1)
-                {
-                    indices[j++] =
-                        getIndex((Vertex)m_orderedSelectedVertices.elementAtFast(i));
-                }
+                return i;
             }
+            return -1;
+        }
 
-            emptyOrderedSelectedVertices();
+        //The numbering is current, so v is either not in the scene or
+        //was put there with setElementAt.
+        i = m_vertices.lastIndexOf(v);
+        if(i >= 0)
+        {
+            v.setSceneIndex(i);
+        }
+        return i;
+    }
 
-            //Create a new plane with the selected vertices.
-            return new Spline(indices);
+    /**
+     * Tell every vertex in the scene its index.
+     */
+    private final void reindexVertices()
+    {
+        for(int i = m_vertices.sizeFast()-1; i >= 0; i--)
+        {
+            ((Vertex)m_vertices.elementAtFast(i)).setSceneIndex(i);
         }
+        m_indexedModCount = m_vertices.getModCount();
     }
 
     /**
-     * TODO: Pop up a dialog box on the exception -- splines must have
-     * consistent # of vertices.
+     * Get the number of primitives that use a vertex.
+     *
+     * @param index index of the vertex.
      */
-    public final SplineSurface makeSplineSurface ()
+    public final int numIncidentPrimitives(int index)
     {
-        if(m_orderedSelectedPrimitives.size() < 4)
+        return getAdjacency().numIncident(index);
+    }
+
+    /**
+     * Get one of the primitives that use a vertex.
+     *
+     * @param index index of the vertex.
+     * @param n which primitive, from 0 to numIncidentPrimitives(index)-1.
+     */
+    public final Primitive getIncidentPrimitive(int index, int n)
+    {
+        return getAdjacency().getIncident(index, n);
+    }
+
+    /**
+     * Get all of the primitives that use a vertex.
+     *
+     * @param index index of the vertex.
+     * @return Vector of primitives.
+     */
+    public final FastVector getIncidentPrimitives(int index)
+    {
+        VertexAdjacency adjacency = getAdjacency();
+        FastVector incident = new FastVector();
+        for(int n = 0; n < adjacency.numIncident(index); n++)
         {
-            MessageDialog dialog = new MessageDialog("Spline Surface must be made of at least 4 splines.");
-            dialog.setVisible(true);
-            return null;
+            incident.addElement(adjacency.getIncident(index, n));
         }
-        else
+
+        return incident;
+    }
+
+    /**
+     * Tell the scene that a primitive was changed in place (ie. with
+     * replaceIndex, setIndices, flip or setHidden) so the vertex adjacency
+     * can be updated and its normal recomputed.
+     *
+     * @param p Primitive that changed.
+     */
+    public final void primitiveChanged(Primitive p)
+    {
+        if(adjacencyCurrent() && m_adjacency.isRegistered(p))
         {
-            //Check to make sure that we have selected vertices
-            for(int i = 0; i < m_orderedSelectedPrimitives.size(); i++)
+            m_adjacency.update(p);
+        }
+        m_dirtyPrimitives.put(p, p);
+        m_topologyChanged = true;
+    }
+
+    /**
+     * Tell the scene that a vertex was moved, hidden or unhidden in place
+     * so the next validateScene picks it up.
+     *
+     * @param v Vertex that changed.
+     */
+    public final void vertexChanged(Vertex v)
+    {
+        if(verticesTracked())
+        {
+            int i = getIndex(v);
+            if(i >= 0)
+            {
+                markVertex(i, (byte)(DIRTY_FLAGS | DIRTY_POSITION));
+            }
+        }
+    }
+
+    /**
+     * Tell the scene that it may have been changed in ways it can't
+     * track, so the next validateScene checks everything.
+     */
+    public final void sceneChanged()
+    {
+        m_allDirty = true;
+    }
+
+    /**
+     * Number of times the vertices have changed, counted at each
+     * validateScene.
+     */
+    public final int getGeometryVersion()
+    {
+        return m_geometryVersion;
+    }
+
+    /**
+     * Number of times primitives have been added, removed or re-indexed,
+     * counted at each validateScene.
+     */
+    public final int getTopologyVersion()
+    {
+        return m_topologyVersion;
+    }
+
+    /**
+     * Number of times the selection has changed, counted at each
+     * validateScene.
+     */
+    public final int getSelectionVersion()
+    {
+        return m_selectionVersion;
+    }
+
+    /**
+     * Whether the dirty marks still line up with m_vertices, ie. nothing has
+     * been added or removed except through the scene since it was last
+     * validated.
+     */
+    private final boolean verticesTracked()
+    {
+        return !m_allDirty &&
+            m_validVertexModCount == m_vertices.getModCount();
+    }
+
+    private final boolean primitivesTracked()
+    {
+        return !m_allDirty &&
+            m_validPrimitiveModCount == m_primitives.getModCount();
+    }
+
+    /**
+     * Remember that vertex i has changed.
+     */
+    private final void markVertex(int i, byte what)
+    {
+        if(!verticesTracked())
+        {
+            return;
+        }
+        logVertex(i);
+
+        if(i >= m_dirtyMarks.length)
+        {
+            byte marks[] = new byte[Math.max(i+1, m_dirtyMarks.length*2)];
+            System.arraycopy(m_dirtyMarks, 0, marks, 0, m_dirtyMarks.length);
+            m_dirtyMarks = marks;
+        }
+
+        if(m_dirtyMarks[i] == 0)
+        {
+            if(m_numDirtyVertices == m_dirtyVertices.length)
+            {
+                int dirty[] = new int[m_numDirtyVertices*2];
+                System.arraycopy(m_dirtyVertices, 0, dirty, 0,
+                                 m_numDirtyVertices);
+                m_dirtyVertices = dirty;
+            }
+            m_dirtyVertices[m_numDirtyVertices++] = i;
+        }
+        m_dirtyMarks[i] |= what;
+    }
+
+    /**
+     * Copy the dirty vertices that moved into the reference positions.
+     * Primitives using them are marked so their normals get recomputed.
+     */
+    private final void flushDirtyVertices()
+    {
+        if(!verticesTracked())
+        {
+            //The indices may be stale; the next validate recopies
+            //everything anyway.
+            clearDirtyVertices();
+            return;
+        }
+        if(m_numDirtyVertices == 0)
+        {
+            return;
+        }
+
+        VertexAdjacency adjacency = getAdjacency();
+        for(int n = 0; n < m_numDirtyVertices; n++)
+        {
+            int i = m_dirtyVertices[n];
+            if((m_dirtyMarks[i] & DIRTY_POSITION) != 0)
+            {
+                m_referenceVertices.set(i, (Vertex)m_vertices.elementAtFast(i));
+                for(int k = 0; k < adjacency.numIncident(i); k++)
+                {
+                    Primitive p = adjacency.getIncident(i, k);
+                    m_dirtyPrimitives.put(p, p);
+                }
+            }
+            m_dirtyMarks[i] = 0;
+        }
+        m_numDirtyVertices = 0;
+        m_geometryChanged = true;
+    }
+
+    /**
+     * Forget about any dirty vertices; used when everything is about to
+     * be recopied anyway.
+     */
+    private final void clearDirtyVertices()
+    {
+        for(int n = 0; n < m_numDirtyVertices; n++)
+        {
+            m_dirtyMarks[m_dirtyVertices[n]] = 0;
+        }
+        m_numDirtyVertices = 0;
+    }
+
+    private final boolean adjacencyCurrent()
+    {
+        return m_adjacencyVertexModCount == m_vertices.getModCount() &&
+            m_adjacencyPrimitiveModCount == m_primitives.getModCount();
+    }
+
+    private final void adjacencyUpdated()
+    {
+        m_adjacencyVertexModCount = m_vertices.getModCount();
+        m_adjacencyPrimitiveModCount = m_primitives.getModCount();
+    }
+
+    private final VertexAdjacency getAdjacency()
+    {
+        if(!adjacencyCurrent())
+        {
+            m_adjacency.rebuild(m_primitives, m_vertices.sizeFast());
+            adjacencyUpdated();
+        }
+
+        return m_adjacency;
+    }
+
+    public final Spline makeSpline()
+    {
+        //Must be 4+ vertices selected to make a plane.
+        if(m_orderedSelectedVertices.size() < 4)
+        {
+            return null;
+        }
+        else
+        {
+            //Check to make sure that we have selected vertices
+            for(int i = 0; i < m_orderedSelectedVertices.size(); i++)
+            {
+                if(!(m_orderedSelectedVertices.elementAtFast(i) instanceof Vertex))
+                {
+                    return null;
+                }
+            }
+
+            int indices[] = new int[m_orderedSelectedVertices.size()];
+            int j = 0;
+            for(int i = 0; i < m_orderedSelectedVertices.size(); i++)
+            {
+                if(getIndex((Vertex)m_orderedSelectedVertices.elementAtFast(i)) > -1)
+                {
+                    indices[j++] =
+                        getIndex((Vertex)m_orderedSelectedVertices.elementAtFast(i));
+                }
+            }
+
+            emptyOrderedSelectedVertices();
+
+            //Create a new plane with the selected vertices.
+            return new Spline(indices);
+        }
+    }
+
+    /**
+     * TODO: Pop up a dialog box on the exception -- splines must have
+     * consistent # of vertices.
+     */
+    public final SplineSurface makeSplineSurface ()
+    {
+        if(m_orderedSelectedPrimitives.size() < 4)
+        {
+            MessageDialog dialog = new MessageDialog("Spline Surface must be made of at least 4 splines.");
+            dialog.setVisible(true);
+            return null;
+        }
+        else
+        {
+            //Check to make sure that we have selected vertices
+            for(int i = 0; i < m_orderedSelectedPrimitives.size(); i++)
             {
                 if(!(m_orderedSelectedPrimitives.elementAtFast(i) instanceof Spline))
                 {
@@ -423,7 +1094,19 @@ public class Scene implements java.io.Serializable
             }
         }
         
+        boolean current = adjacencyCurrent();
+        boolean tracked = primitivesTracked();
         m_primitives.addElement(p);
+        if(current)
+        {
+            m_adjacency.add(p);
+            adjacencyUpdated();
+        }
+        if(tracked)
+        {
+            m_validPrimitiveModCount = m_primitives.getModCount();
+        }
+        m_topologyChanged = true;
     }
 
     /**
@@ -570,9 +1253,9 @@ public class Scene implements java.io.Serializable
         {
             Vertex vertex = (Vertex)m_clipVertices.elementAtFast(i);
             Vertex v = (Vertex)vertex.clone();
-            m_vertices.addElement(v);
-            addedElements.addElement(v);
             v.setSelected(false);
+            addVertex(v);
+            addedElements.addElement(v);
             lookup[i] = getIndex(v);
         }
 
@@ -592,8 +1275,8 @@ public class Scene implements java.io.Serializable
             Primitive newplane = (Primitive)clipPlane.clone();
             newplane.setIndices(newIndices);
             
-            addPrimitive(newplane);
             newplane.setSelected(false);
+            addPrimitive(newplane);
             addedElements.addElement(newplane);
         }
 
@@ -605,38 +1288,95 @@ public class Scene implements java.io.Serializable
      * into the object's permanent vertices.  It also may renumber
      * indices after points have been deleted and delete faces when
      * one of the three points for the face has been deleted.
+     *
+     * <p>
+     * Only the vertices and primitives marked dirty since the last
+     * validate are looked at, unless the vectors were changed directly
+     * or sceneChanged was called, in which case everything is.
      */
     public final void validateScene()
     {
-        while(m_referenceVertices.size() < m_vertices.size())
+        if(!verticesTracked() || !primitivesTracked())
         {
-            m_referenceVertices.addElement(new Vertex());
+            validateAll();
         }
+        else
+        {
+            flushDirtyVertices();
 
-        while(m_referenceVertices.size() > m_vertices.size())
+            //Compute plane normals
+            if(!m_dirtyPrimitives.isEmpty())
+            {
+                Enumeration e = m_dirtyPrimitives.elements();
+                while(e.hasMoreElements())
+                {
+                    Object p = e.nextElement();
+                    if(p instanceof Polygon3d)
+                    {
+                        ((Polygon3d)p).computeNormal(m_vertices);
+                    }
+                }
+                m_dirtyPrimitives.clear();
+            }
+        }
+
+        if(m_geometryChanged)
         {
-            m_referenceVertices.removeElementAt(0);
+            m_geometryVersion++;
+            m_geometryChanged = false;
         }
-        
-        //        Vertex temp1, temp2;
-        for(int i = 0; i < m_vertices.sizeFast(); i++)
+        if(m_topologyChanged)
+        {
+            m_topologyVersion++;
+            m_topologyChanged = false;
+        }
+        if(m_selectionChanged)
+        {
+            m_selectionVersion++;
+            m_selectionChanged = false;
+        }
+
+        updateViews();
+    }
+
+    /**
+     * Bring everything up to date without relying on the dirty marks.
+     */
+    private final void validateAll()
+    {
+        clearDirtyVertices();
+        m_dirtyPrimitives.clear();
+
+        m_referenceVertices.copyFrom(m_vertices);
+        resetVertexLog();
+
+        if(m_indexedModCount != m_vertices.getModCount())
         {
-            ((Vertex)m_referenceVertices.elementAtFast(i)).set((Vertex)m_vertices.elementAtFast(i));
+            reindexVertices();
         }
         
-        for(int i = 0; i < m_orderedSelectedVertices.sizeFast(); i++)
+        for(int i = m_orderedSelectedVertices.sizeFast()-1; i >= 0; i--)
         {
-            if(m_vertices.indexOf(m_orderedSelectedVertices.elementAtFast(i)) < 0)
+            if(getIndex((Vertex)m_orderedSelectedVertices.elementAtFast(i)) < 0)
             {
-                m_orderedSelectedVertices.removeElementAt(i--);
+                m_orderedSelectedVertices.removeElementAt(i);
             }
         }
 
-        for(int i = 0; i < m_orderedSelectedPrimitives.sizeFast(); i++)
+        if(m_orderedSelectedPrimitives.sizeFast() > 0)
         {
-            if(m_primitives.indexOf(m_orderedSelectedPrimitives.elementAtFast(i)) < 0)
+            Hashtable inScene = new Hashtable();
+            for(int i = 0; i < m_primitives.sizeFast(); i++)
+            {
+                Object p = m_primitives.elementAtFast(i);
+                inScene.put(p, p);
+            }
+            for(int i = m_orderedSelectedPrimitives.sizeFast()-1; i >= 0; i--)
             {
-                m_orderedSelectedPrimitives.removeElementAt(i--);
+                if(!inScene.containsKey(m_orderedSelectedPrimitives.elementAtFast(i)))
+                {
+                    m_orderedSelectedPrimitives.removeElementAt(i);
+                }
             }
         }
 
@@ -649,7 +1389,12 @@ public class Scene implements java.io.Serializable
             }
         }
 
-        updateViews();
+        m_allDirty = false;
+        m_validVertexModCount = m_vertices.getModCount();
+        m_validPrimitiveModCount = m_primitives.getModCount();
+        m_geometryChanged = true;
+        m_topologyChanged = true;
+        m_selectionChanged = true;
     }
 
     /**
@@ -695,24 +1440,47 @@ public class Scene implements java.io.Serializable
     {
         v.setSelected(true);
         m_orderedSelectedVertices.addElement(v);
+        int i = getIndex(v);
+        if(i >= 0)
+        {
+            getSelectedBits().set(i);
+        }
+        selectionChanged(i);
     }
 
     public final void deselect(Vertex v)
     {
         v.setSelected(false);
         m_orderedSelectedVertices.removeElement(v);
+        int i = getIndex(v);
+        if(i >= 0)
+        {
+            getSelectedBits().clear(i);
+        }
+        selectionChanged(i);
     }
     
     public final void select(Primitive p)
     {
         p.setSelected(true);
         m_orderedSelectedPrimitives.addElement(p);
+        m_selectionChanged = true;
     }
 
     public final void deselect(Primitive p)
     {
         p.setSelected(false);
         m_orderedSelectedPrimitives.removeElement(p);
+        m_selectionChanged = true;
+    }
+
+    private final void selectionChanged(int i)
+    {
+        m_selectionChanged = true;
+        if(i >= 0 && verticesTracked())
+        {
+            markVertex(i, DIRTY_FLAGS);
+        }
     }
     
     /**
@@ -735,39 +1503,177 @@ public class Scene implements java.io.Serializable
      */
     public final void transformSelected(Transformation trans)
     {
-        //Loop through vertices and transform if selected.
+        //Transform the selected vertices.  Each transform starts from
+        //the reference position.
         if(m_orderedSelectedVertices.sizeFast() > 0)
         {
             Vertex vertex;
-            for(int i = m_vertices.sizeFast()-1; i >=0; --i)
+            for(int n = m_orderedSelectedVertices.sizeFast()-1; n >= 0; --n)
             {
-                vertex = (Vertex)m_vertices.elementAtFast(i);
-                if(vertex.isSelected())
+                vertex = (Vertex)m_orderedSelectedVertices.elementAtFast(n);
+                int i = getIndex(vertex);
+                if(i >= 0 && vertex.isSelected())
                 {
-                    trans.transformVertex((Vertex)m_referenceVertices.elementAtFast(i),
-                                          vertex);
+                    m_referenceVertices.transformVertex(trans, i, vertex);
+                    markVertex(i, DIRTY_POSITION);
                 }
             }
         }
         else if(m_orderedSelectedPrimitives.sizeFast() > 0)
         {
-            //Loop through planes and transform if selected.
+            //Transform the selected primitives, then mark the vertices
+            //they moved.
             Primitive prim;
-            for(int i = m_primitives.size()-1; i >=0; --i)
+            for(int n = m_orderedSelectedPrimitives.sizeFast()-1; n >= 0; --n)
             {
-                prim = (Primitive)m_primitives.elementAtFast(i);
+                prim = (Primitive)m_orderedSelectedPrimitives.elementAtFast(n);
                 if(prim.isSelected())
                 {
                     prim.transform(trans, m_referenceVertices, m_vertices);
                 }
             }
+
+            for(int n = m_orderedSelectedPrimitives.sizeFast()-1; n >= 0; --n)
+            {
+                prim = (Primitive)m_orderedSelectedPrimitives.elementAtFast(n);
+                if(prim.isSelected())
+                {
+                    primitiveMoved(prim);
+                }
+            }
+        }
+    }
+
+    /**
+     * Mark the vertices of a primitive that was just transformed dirty.
+     * Groups don't report indices, so go through their members.
+     */
+    private final void primitiveMoved(Primitive prim)
+    {
+        if(prim instanceof Group)
+        {
+            FastVector members = ((Group)prim).getPrimitives();
+            for(int i = 0; i < members.sizeFast(); i++)
+            {
+                primitiveMoved((Primitive)members.elementAtFast(i));
+            }
+            return;
+        }
+
+        int indices[] = prim.getIndices();
+        for(int i = 0; i < indices.length; i++)
+        {
+            int index = indices[i];
+            if(index >= 0 && index < m_vertices.sizeFast())
+            {
+                markVertex(index, DIRTY_POSITION);
+            }
         }
     }
 
     public final void removePrimitive(Primitive p)
     {
+        boolean current = adjacencyCurrent();
+        boolean tracked = primitivesTracked();
         m_primitives.removeElement(p);
-        m_orderedSelectedPrimitives.removeElement(p);
+        if(m_orderedSelectedPrimitives.removeElement(p))
+        {
+            m_selectionChanged = true;
+        }
+        if(current)
+        {
+            m_adjacency.remove(p);
+            adjacencyUpdated();
+        }
+        if(tracked)
+        {
+            m_validPrimitiveModCount = m_primitives.getModCount();
+        }
+        m_dirtyPrimitives.remove(p);
+        m_topologyChanged = true;
+    }
+
+    /**
+     * Remove a set of primitives from the scene in one pass.
+     *
+     * @param primitives Vector of Primitive to remove.
+     */
+    public final void removePrimitives(FastVector primitives)
+    {
+        removePrimitives(primitives, null);
+    }
+
+    /**
+     * Remove a set of primitives from the scene in one pass, recording
+     * what was removed so restore() can put it back.
+     *
+     * @param primitives Vector of Primitive to remove.
+     * @param delta where to record the removal, or null.
+     */
+    public final void removePrimitives(FastVector primitives, SceneDelta delta)
+    {
+        if(primitives.sizeFast() == 0)
+        {
+            return;
+        }
+
+        boolean current = adjacencyCurrent();
+        boolean tracked = primitivesTracked();
+
+        Hashtable remove = new Hashtable();
+        for(int i = 0; i < primitives.sizeFast(); i++)
+        {
+            Object p = primitives.elementAtFast(i);
+            remove.put(p, p);
+            m_dirtyPrimitives.remove(p);
+            if(current)
+            {
+                m_adjacency.remove((Primitive)p);
+            }
+        }
+
+        FastVector positions = new FastVector();
+        FastVector removed = new FastVector();
+        int kept = 0;
+        for(int i = 0; i < m_primitives.sizeFast(); i++)
+        {
+            Object p = m_primitives.elementAtFast(i);
+            if(!remove.containsKey(p))
+            {
+                m_primitives.setElementAt(p, kept++);
+            }
+            else if(delta != null)
+            {
+                positions.addElement(new Integer(i));
+                removed.addElement(p);
+            }
+        }
+        m_primitives.setSize(kept);
+
+        if(delta != null)
+        {
+            delta.addStep(makeStep(new FastVector(), new FastVector(),
+                                   positions, removed, new Hashtable()));
+        }
+
+        for(int i = m_orderedSelectedPrimitives.sizeFast()-1; i >= 0; i--)
+        {
+            if(remove.containsKey(m_orderedSelectedPrimitives.elementAtFast(i)))
+            {
+                m_orderedSelectedPrimitives.removeElementAt(i);
+                m_selectionChanged = true;
+            }
+        }
+
+        if(current)
+        {
+            adjacencyUpdated();
+        }
+        if(tracked)
+        {
+            m_validPrimitiveModCount = m_primitives.getModCount();
+        }
+        m_topologyChanged = true;
     }
     
     /**
@@ -790,32 +1696,424 @@ public class Scene implements java.io.Serializable
 
     public final void addVertex(Vertex v)
     {
+        //Appending doesn't move anything, so if the numbering was
+        //current before it still is.
+        boolean indexed = m_indexedModCount == m_vertices.getModCount();
+        boolean bitsCurrent = m_selectedBits != null &&
+            m_selectedBitsModCount == m_vertices.getModCount();
+        boolean hiddenCurrent = m_hiddenBits != null &&
+            m_hiddenBitsModCount == m_vertices.getModCount();
+        boolean current = adjacencyCurrent();
+        boolean tracked = verticesTracked();
+        int index = m_vertices.sizeFast();
+        v.setSceneIndex(index);
         m_vertices.addElement(v);
+        if(indexed)
+        {
+            m_indexedModCount = m_vertices.getModCount();
+        }
+        if(bitsCurrent)
+        {
+            m_selectedBitsModCount = m_vertices.getModCount();
+            if(v.isSelected())
+            {
+                m_selectedBits.set(index);
+            }
+        }
+        if(hiddenCurrent)
+        {
+            m_hiddenBitsModCount = m_vertices.getModCount();
+            if(v.isHidden())
+            {
+                m_hiddenBits.set(index);
+            }
+        }
+        if(current)
+        {
+            m_adjacency.setNumVertices(m_vertices.sizeFast());
+            adjacencyUpdated();
+        }
+        if(tracked)
+        {
+            m_validVertexModCount = m_vertices.getModCount();
+            m_referenceVertices.setSize(index+1);
+            m_referenceVertices.set(index, v);
+            markVertex(index, (byte)(DIRTY_FLAGS | DIRTY_POSITION));
+        }
+        m_geometryChanged = true;
     }
 
     public final void removeVertex(Vertex v)
     {
         //Each time we delete a vertex, we need to make sure
         //no primitives are indexing into it.  If they are,
-        //renumber the primitive's indices.
-        int i = m_vertices.lastIndexOf(v);
+        //renumber the primitive's indices.  Only primitives using
+        //this vertex or a later one can be affected.
+        int i = getIndex(v);
         if(i >= 0)
         {
-            for(int j =  m_primitives.size()-1; j >=0 ; j--)
+            boolean tracked = verticesTracked() && primitivesTracked();
+            flushDirtyVertices();
+
+            VertexAdjacency adjacency = getAdjacency();
+            FastVector affected = adjacency.getIncidentFrom(i);
+            for(int j = 0; j < affected.sizeFast(); j++)
             {
-                Primitive p = (Primitive)m_primitives.elementAtFast(j);
+                adjacency.remove((Primitive)affected.elementAtFast(j));
+            }
+            adjacency.removeVertex(i);
+            
+            for(int j = 0; j < affected.sizeFast(); j++)
+            {
+                Primitive p = (Primitive)affected.elementAtFast(j);
                 boolean del = p.renumberIndices(i);
                 if(del)
                 {
-                    m_primitives.removeElementAt(j);
+                    m_primitives.removeElement(p);
+                    m_dirtyPrimitives.remove(p);
                 }
+                else
+                {
+                    adjacency.add(p);
+                    m_dirtyPrimitives.put(p, p);
+                }
+            }
+            if(m_orderedSelectedVertices.removeElement(v))
+            {
+                m_selectionChanged = true;
             }
-            m_orderedSelectedVertices.removeElement(v);
             m_vertices.removeElementAt(i);
+            adjacencyUpdated();
+
+            if(tracked)
+            {
+                m_referenceVertices.remove(i);
+                m_validVertexModCount = m_vertices.getModCount();
+                m_validPrimitiveModCount = m_primitives.getModCount();
+            }
+            resetVertexLog();
+            m_geometryChanged = true;
+            m_topologyChanged = true;
         }
         
     }
 
+    /**
+     * Remove a set of vertices from the scene in one pass.  The vertex
+     * list is compacted while building a table from old to new indices,
+     * then every primitive is renumbered through that table once.
+     * Primitives that lose too many vertices are removed from the scene.
+     *
+     * @param vertices Vector of Vertex to remove.  Vertices not in the
+     *        scene are ignored.
+     * @return Vector of the primitives that were removed.
+     */
+    public final FastVector removeVertices(FastVector vertices)
+    {
+        return removeVertices(vertices, null);
+    }
+
+    /**
+     * Remove a set of vertices from the scene in one pass, recording what
+     * was removed so restore() can put it back.  Only the removed objects
+     * and the old indices of primitives that lost vertices are recorded.
+     *
+     * @param vertices Vector of Vertex to remove.
+     * @param delta where to record the removal, or null.
+     * @return Vector of the primitives that were removed.
+     */
+    public final FastVector removeVertices(FastVector vertices,
+                                           SceneDelta delta)
+    {
+        FastVector removedPrimitives = new FastVector();
+        int size = m_vertices.sizeFast();
+        boolean remove[] = new boolean[size];
+        int numRemoved = 0;
+        for(int i = 0; i < vertices.sizeFast(); i++)
+        {
+            int index = getIndex((Vertex)vertices.elementAtFast(i));
+            if(index >= 0 && !remove[index])
+            {
+                remove[index] = true;
+                numRemoved++;
+            }
+        }
+
+        if(numRemoved == 0)
+        {
+            return removedPrimitives;
+        }
+
+        boolean tracked = verticesTracked() && primitivesTracked();
+        flushDirtyVertices();
+
+        //Primitives using a removed vertex lose a corner, so their
+        //normals have to be recomputed.
+        //Their old indices are also all a delta needs to keep to undo
+        //the renumbering for them.
+        VertexAdjacency adjacency = getAdjacency();
+        Hashtable oldIndices = new Hashtable();
+        FastVector removedVertices = new FastVector();
+        FastVector removedIndices = new FastVector();
+        for(int i = 0; i < size; i++)
+        {
+            if(remove[i])
+            {
+                for(int k = 0; k < adjacency.numIncident(i); k++)
+                {
+                    Primitive p = adjacency.getIncident(i, k);
+                    m_dirtyPrimitives.put(p, p);
+                    if(delta != null && !oldIndices.containsKey(p))
+                    {
+                        int indices[] = p.getIndices();
+                        int copy[] = new int[indices.length];
+                        System.arraycopy(indices, 0, copy, 0, indices.length);
+                        oldIndices.put(p, copy);
+                    }
+                }
+                if(delta != null)
+                {
+                    removedVertices.addElement(m_vertices.elementAtFast(i));
+                    removedIndices.addElement(new Integer(i));
+                }
+            }
+        }
+
+        for(int i = m_orderedSelectedVertices.sizeFast()-1; i >= 0; i--)
+        {
+            int index = getIndex((Vertex)m_orderedSelectedVertices.elementAtFast(i));
+            if(index >= 0 && remove[index])
+            {
+                m_orderedSelectedVertices.removeElementAt(i);
+                m_selectionChanged = true;
+            }
+        }
+
+        //Compact the vertices, remembering where each one went.
+        int indexMap[] = new int[size];
+        int newSize = 0;
+        for(int i = 0; i < size; i++)
+        {
+            if(remove[i])
+            {
+                indexMap[i] = -1;
+            }
+            else
+            {
+                indexMap[i] = newSize;
+                m_vertices.setElementAt(m_vertices.elementAtFast(i), newSize++);
+            }
+        }
+        m_vertices.setSize(newSize);
+        reindexVertices();
+
+        //Renumber the primitives and compact out the ones to delete.
+        Hashtable removedHash = new Hashtable();
+        FastVector removedPositions = new FastVector();
+        int numPrimitives = 0;
+        for(int i = 0; i < m_primitives.sizeFast(); i++)
+        {
+            Primitive p = (Primitive)m_primitives.elementAtFast(i);
+            if(p.remapIndices(indexMap))
+            {
+                removedPrimitives.addElement(p);
+                removedPositions.addElement(new Integer(i));
+                removedHash.put(p, p);
+                m_dirtyPrimitives.remove(p);
+                oldIndices.remove(p);
+            }
+            else
+            {
+                m_primitives.setElementAt(p, numPrimitives++);
+            }
+        }
+        m_primitives.setSize(numPrimitives);
+
+        if(delta != null)
+        {
+            delta.addStep(makeStep(removedIndices, removedVertices,
+                                   removedPositions, removedPrimitives,
+                                   oldIndices));
+        }
+
+        if(removedPrimitives.sizeFast() > 0)
+        {
+            for(int i = m_orderedSelectedPrimitives.sizeFast()-1; i >= 0; i--)
+            {
+                if(removedHash.containsKey(m_orderedSelectedPrimitives.elementAtFast(i)))
+                {
+                    m_orderedSelectedPrimitives.removeElementAt(i);
+                    m_selectionChanged = true;
+                }
+            }
+        }
+
+        m_adjacency.rebuild(m_primitives, newSize);
+        adjacencyUpdated();
+
+        if(tracked)
+        {
+            m_referenceVertices.remap(indexMap, newSize);
+            m_validVertexModCount = m_vertices.getModCount();
+            m_validPrimitiveModCount = m_primitives.getModCount();
+        }
+        resetVertexLog();
+        m_geometryChanged = true;
+        m_topologyChanged = true;
+
+        return removedPrimitives;
+    }
+
+    private final SceneDelta.Step makeStep(FastVector vertexIndices,
+                                           FastVector vertices,
+                                           FastVector primitivePositions,
+                                           FastVector primitives,
+                                           Hashtable oldIndices)
+    {
+        SceneDelta.Step step = new SceneDelta.Step();
+        step.m_vertexIndices = new int[vertexIndices.sizeFast()];
+        step.m_vertices = new Vertex[vertices.sizeFast()];
+        for(int i = 0; i < step.m_vertices.length; i++)
+        {
+            step.m_vertexIndices[i] =
+                ((Integer)vertexIndices.elementAtFast(i)).intValue();
+            step.m_vertices[i] = (Vertex)vertices.elementAtFast(i);
+        }
+
+        step.m_primitivePositions = new int[primitivePositions.sizeFast()];
+        step.m_primitives = new Primitive[primitives.sizeFast()];
+        for(int i = 0; i < step.m_primitives.length; i++)
+        {
+            step.m_primitivePositions[i] =
+                ((Integer)primitivePositions.elementAtFast(i)).intValue();
+            step.m_primitives[i] = (Primitive)primitives.elementAtFast(i);
+        }
+
+        step.m_shrunk = new Primitive[oldIndices.size()];
+        step.m_shrunkIndices = new int[oldIndices.size()][];
+        int n = 0;
+        for(Enumeration e = oldIndices.keys(); e.hasMoreElements(); n++)
+        {
+            step.m_shrunk[n] = (Primitive)e.nextElement();
+            step.m_shrunkIndices[n] = (int[])oldIndices.get(step.m_shrunk[n]);
+        }
+
+        return step;
+    }
+
+    /**
+     * Undo removals recorded in a delta, newest first.  Vertices and
+     * primitives go back at the positions they had, and every primitive
+     * gets back the indices it had before.  Selection is left alone.
+     *
+     * @param delta removals recorded by removeVertices or removePrimitives.
+     */
+    public final void restore(SceneDelta delta)
+    {
+        for(int i = delta.numSteps()-1; i >= 0; i--)
+        {
+            restoreStep(delta.getStep(i));
+        }
+    }
+
+    private final void restoreStep(SceneDelta.Step step)
+    {
+        boolean tracked = verticesTracked() && primitivesTracked();
+        flushDirtyVertices();
+
+        Hashtable shrunk = new Hashtable();
+        for(int i = 0; i < step.m_shrunk.length; i++)
+        {
+            shrunk.put(step.m_shrunk[i], step.m_shrunkIndices[i]);
+        }
+
+        //Spread the vertices back out, filling from the end so nothing
+        //is overwritten before it has been moved.
+        int numInserted = step.m_vertices.length;
+        int size = m_vertices.sizeFast();
+        int newSize = size + numInserted;
+        if(numInserted > 0)
+        {
+            int indexMap[] = new int[size];
+            m_vertices.setSize(newSize);
+            int from = size-1;
+            int r = numInserted-1;
+            for(int to = newSize-1; to >= 0; to--)
+            {
+                if(r >= 0 && step.m_vertexIndices[r] == to)
+                {
+                    m_vertices.setElementAt(step.m_vertices[r--], to);
+                }
+                else
+                {
+                    indexMap[from] = to;
+                    m_vertices.setElementAt(m_vertices.elementAtFast(from--), to);
+                }
+            }
+            reindexVertices();
+
+            for(int i = 0; i < m_primitives.sizeFast(); i++)
+            {
+                Primitive p = (Primitive)m_primitives.elementAtFast(i);
+                if(!shrunk.containsKey(p))
+                {
+                    p.remapIndices(indexMap);
+                }
+            }
+
+            if(tracked)
+            {
+                m_referenceVertices.expand(indexMap, newSize);
+            }
+            resetVertexLog();
+        }
+
+        for(int i = 0; i < step.m_shrunk.length; i++)
+        {
+            step.m_shrunk[i].setIndices(step.m_shrunkIndices[i]);
+            m_dirtyPrimitives.put(step.m_shrunk[i], step.m_shrunk[i]);
+        }
+
+        //Same again for the primitives.
+        int numRestored = step.m_primitives.length;
+        if(numRestored > 0)
+        {
+            int numPrimitives = m_primitives.sizeFast();
+            m_primitives.setSize(numPrimitives + numRestored);
+            int from = numPrimitives-1;
+            int r = numRestored-1;
+            for(int to = numPrimitives + numRestored - 1; to >= 0; to--)
+            {
+                if(r >= 0 && step.m_primitivePositions[r] == to)
+                {
+                    Primitive p = step.m_primitives[r--];
+                    m_primitives.setElementAt(p, to);
+                    m_dirtyPrimitives.put(p, p);
+                }
+                else
+                {
+                    m_primitives.setElementAt(m_primitives.elementAtFast(from--), to);
+                }
+            }
+        }
+
+        m_adjacency.rebuild(m_primitives, newSize);
+        adjacencyUpdated();
+
+        if(tracked)
+        {
+            m_validVertexModCount = m_vertices.getModCount();
+            m_validPrimitiveModCount = m_primitives.getModCount();
+            for(int i = 0; i < numInserted; i++)
+            {
+                markVertex(step.m_vertexIndices[i],
+                           (byte)(DIRTY_FLAGS | DIRTY_POSITION));
+            }
+        }
+        m_geometryChanged = true;
+        m_topologyChanged = true;
+    }
+
     public final boolean canCopy()
     {
         return numSelected() > 0;
@@ -831,13 +2129,17 @@ public class Scene implements java.io.Serializable
         Mode.resetDefaultMode();
         stomp.command.CommandExecutor.clear();
         m_primitives.removeAllElements();
-        m_referenceVertices.removeAllElements();
+        m_referenceVertices.setSize(0);
+        resetVertexLog();
         m_vertices.removeAllElements();
         m_surfaceList = new SurfaceList();
         m_clipVertices.removeAllElements();
         m_clipPrimitives.removeAllElements();
         m_orderedSelectedVertices.removeAllElements();
         m_orderedSelectedPrimitives.removeAllElements();
+        m_adjacency.clear();
+        adjacencyUpdated();
+        sceneChanged();
         m_views.setCamera(null);
         m_views.setPerspective(ViewContainer.PERSPECTIVE);
     }
@@ -0,0 +1,152 @@
+package stomp.data3d;
+
+import stomp.FastVector;
+
+/**
+ * SceneDelta records what Scene took out when removing vertices and
+ * primitives, so the removal can be undone without keeping a copy of the
+ * whole scene.  It holds only the removed objects and where they were,
+ * plus the old indices of primitives that lost some of their vertices.
+ * Everything else is renumbered back from the removed indices.
+ *
+ * <p>
+ * Pass a delta to Scene.removeVertices or Scene.removePrimitives, then
+ * to Scene.restore to put everything back the way it was.
+ */
+public class SceneDelta implements java.io.Serializable
+{
+    //Rough sizes, in bytes, used for estimating how much a delta holds.
+    private static final int REFERENCE_SIZE = 8;
+    private static final int OBJECT_SIZE = 16;
+    private static final int VERTEX_SIZE = 40;
+
+    /**
+     * One removal.  Steps are undone in the reverse order they were made.
+     */
+    static class Step implements java.io.Serializable
+    {
+        //Indices the removed vertices had, in increasing order, and
+        //the vertices themselves.
+        int m_vertexIndices[];
+        Vertex m_vertices[];
+
+        //Positions the removed primitives had in the primitive list,
+        //in increasing order, and the primitives themselves.
+        int m_primitivePositions[];
+        Primitive m_primitives[];
+
+        //Primitives that were kept but lost vertices, and the indices
+        //they had before.
+        Primitive m_shrunk[];
+        int m_shrunkIndices[][];
+    }
+
+    private FastVector m_steps = new FastVector();
+
+    public SceneDelta()
+    {
+    }
+
+    final void addStep(Step step)
+    {
+        m_steps.addElement(step);
+    }
+
+    final int numSteps()
+    {
+        return m_steps.sizeFast();
+    }
+
+    final Step getStep(int i)
+    {
+        return (Step)m_steps.elementAtFast(i);
+    }
+
+    /**
+     * Whether anything was recorded.
+     */
+    public final boolean isEmpty()
+    {
+        return m_steps.sizeFast() == 0;
+    }
+
+    /**
+     * Forget everything recorded so far.
+     */
+    public final void clear()
+    {
+        m_steps.removeAllElements();
+    }
+
+    /**
+     * Estimate how many bytes this delta keeps alive, including the
+     * removed vertices and primitives, which only it refers to.
+     */
+    public final int getSize()
+    {
+        int size = OBJECT_SIZE;
+        for(int i = 0; i < m_steps.sizeFast(); i++)
+        {
+            Step step = (Step)m_steps.elementAtFast(i);
+            size += OBJECT_SIZE;
+            for(int j = 0; j < step.m_vertices.length; j++)
+            {
+                size += 4 + REFERENCE_SIZE + sizeOf(step.m_vertices[j]);
+            }
+            for(int j = 0; j < step.m_primitives.length; j++)
+            {
+                size += 4 + REFERENCE_SIZE + sizeOf(step.m_primitives[j]);
+            }
+            for(int j = 0; j < step.m_shrunk.length; j++)
+            {
+                size += REFERENCE_SIZE + OBJECT_SIZE +
+                    4 * step.m_shrunkIndices[j].length;
+            }
+        }
+
+        return size;
+    }
+
+    /**
+     * Rough number of bytes used by a vertex or primitive.
+     */
+    public static int sizeOf(Object element)
+    {
+        if(element instanceof Vertex)
+        {
+            return VERTEX_SIZE;
+        }
+        else if(element instanceof Group)
+        {
+            return OBJECT_SIZE * 4 +
+                REFERENCE_SIZE * ((Group)element).getPrimitives().sizeFast();
+        }
+        else if(element instanceof Primitive)
+        {
+            //Polygons also keep screen coordinates for every index.
+            int indices[] = ((Primitive)element).getIndices();
+            return OBJECT_SIZE * 8 + (indices == null ? 0 : 12 * indices.length);
+        }
+
+        return OBJECT_SIZE;
+    }
+
+    /**
+     * Rough number of bytes used by a list of vertices and primitives,
+     * counting the list itself.
+     */
+    public static int sizeOf(java.util.Vector elements)
+    {
+        if(elements == null)
+        {
+            return 0;
+        }
+
+        int size = OBJECT_SIZE;
+        for(int i = 0; i < elements.size(); i++)
+        {
+            size += REFERENCE_SIZE + sizeOf(elements.elementAt(i));
+        }
+        return size;
+    }
+}
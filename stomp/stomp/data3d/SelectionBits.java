@@ -0,0 +1,203 @@
+package stomp.data3d;
+
+/**
+ * SelectionBits is a set of small non-negative integers, kept as one bit
+ * each in an array of longs.  Scene uses it for which vertex indices are
+ * selected, so clearing, inverting and counting the selection work a
+ * word (64 vertices) at a time, and walking it skips runs of unselected
+ * vertices without looking at them.
+ */
+public class SelectionBits implements java.io.Serializable
+{
+    private long m_words[] = new long[4];
+
+    public SelectionBits()
+    {
+    }
+
+    /**
+     * Whether bit i is set.
+     */
+    public final boolean get(int i)
+    {
+        int w = i >> 6;
+        return w < m_words.length && (m_words[w] & (1L << (i & 63))) != 0;
+    }
+
+    /**
+     * Set bit i.
+     */
+    public final void set(int i)
+    {
+        int w = i >> 6;
+        if(w >= m_words.length)
+        {
+            grow(w + 1);
+        }
+        m_words[w] |= 1L << (i & 63);
+    }
+
+    /**
+     * Clear bit i.
+     */
+    public final void clear(int i)
+    {
+        int w = i >> 6;
+        if(w < m_words.length)
+        {
+            m_words[w] &= ~(1L << (i & 63));
+        }
+    }
+
+    /**
+     * Clear every bit.
+     */
+    public final void clearAll()
+    {
+        for(int w = 0; w < m_words.length; w++)
+        {
+            m_words[w] = 0;
+        }
+    }
+
+    /**
+     * Flip bits 0 to size-1, and clear any bits past them.
+     */
+    public final void invert(int size)
+    {
+        int numWords = (size + 63) >> 6;
+        if(numWords > m_words.length)
+        {
+            grow(numWords);
+        }
+        for(int w = 0; w < numWords; w++)
+        {
+            m_words[w] = ~m_words[w];
+        }
+        if((size & 63) != 0)
+        {
+            m_words[numWords-1] &= (1L << (size & 63)) - 1;
+        }
+        for(int w = numWords; w < m_words.length; w++)
+        {
+            m_words[w] = 0;
+        }
+    }
+
+    /**
+     * Make a copy of the set.
+     */
+    public final SelectionBits copy()
+    {
+        SelectionBits bits = new SelectionBits();
+        bits.m_words = new long[m_words.length];
+        System.arraycopy(m_words, 0, bits.m_words, 0, m_words.length);
+        return bits;
+    }
+
+    /**
+     * Set every bit that is set in another set.
+     */
+    public final void or(SelectionBits bits)
+    {
+        if(bits.m_words.length > m_words.length)
+        {
+            grow(bits.m_words.length);
+        }
+        for(int w = 0; w < bits.m_words.length; w++)
+        {
+            m_words[w] |= bits.m_words[w];
+        }
+    }
+
+    /**
+     * Clear every bit that isn't set in another set.
+     */
+    public final void and(SelectionBits bits)
+    {
+        int common = Math.min(m_words.length, bits.m_words.length);
+        for(int w = 0; w < common; w++)
+        {
+            m_words[w] &= bits.m_words[w];
+        }
+        for(int w = common; w < m_words.length; w++)
+        {
+            m_words[w] = 0;
+        }
+    }
+
+    /**
+     * Clear every bit that is set in another set.
+     */
+    public final void andNot(SelectionBits bits)
+    {
+        int common = Math.min(m_words.length, bits.m_words.length);
+        for(int w = 0; w < common; w++)
+        {
+            m_words[w] &= ~bits.m_words[w];
+        }
+    }
+
+    /**
+     * Number of bits set.
+     */
+    public final int count()
+    {
+        int count = 0;
+        for(int w = 0; w < m_words.length; w++)
+        {
+            long x = m_words[w];
+            if(x != 0)
+            {
+                x = x - ((x >>> 1) & 0x5555555555555555L);
+                x = (x & 0x3333333333333333L) + ((x >>> 2) & 0x3333333333333333L);
+                x = (x + (x >>> 4)) & 0x0f0f0f0f0f0f0f0fL;
+                count += (int)((x * 0x0101010101010101L) >>> 56);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Get the first bit set at or after i.
+     *
+     * @return index of the bit, or -1 if there are none.
+     */
+    public final int nextSetBit(int i)
+    {
+        int w = i >> 6;
+        if(w >= m_words.length)
+        {
+            return -1;
+        }
+
+        long word = m_words[w] & (-1L << (i & 63));
+        while(word == 0)
+        {
+            if(++w == m_words.length)
+            {
+                return -1;
+            }
+            word = m_words[w];
+        }
+
+        //Find the lowest bit of the word by halving.
+        int bit = 0;
+        for(int shift = 32; shift > 0; shift >>= 1)
+        {
+            if((word & ((1L << shift) - 1)) == 0)
+            {
+                bit += shift;
+                word >>>= shift;
+            }
+        }
+        return (w << 6) + bit;
+    }
+
+    private final void grow(int numWords)
+    {
+        long words[] = new long[Math.max(numWords, m_words.length * 2)];
+        System.arraycopy(m_words, 0, words, 0, m_words.length);
+        m_words = words;
+    }
+}
@@ -0,0 +1,261 @@
+package stomp.data3d;
+
+import java.util.Hashtable;
+
+import stomp.FastVector;
+
+/**
+ * SelectionLog is the list of selected vertices or primitives, in the
+ * order they were selected.  Unlike a plain vector, adding, removing and
+ * looking up an element take constant time: each element remembers its
+ * slot in the log (vertices in the vertex itself, primitives in a hash
+ * table), and removing an element just leaves a hole.  Holes are
+ * squeezed out the next time someone reads past them.
+ *
+ * <p>
+ * An element is only ever in the log once; adding it again leaves it
+ * where it was.  The accessors mirror FastVector, so elementAtFast can be
+ * used to walk the selection without copying it.
+ */
+public class SelectionLog implements java.io.Serializable
+{
+    private Object m_log[] = new Object[16];
+
+    //Number of slots used, including holes.
+    private int m_logSize = 0;
+
+    //Number of elements, not counting holes.
+    private int m_size = 0;
+
+    //Every slot before this one is in use.
+    private int m_firstHole = 0;
+
+    //Primitive -> Integer slot.  Vertices keep their own slot.
+    private Hashtable m_slots = new Hashtable();
+
+    public SelectionLog()
+    {
+    }
+
+    /**
+     * Number of elements in the log.
+     */
+    public final int sizeFast()
+    {
+        return m_size;
+    }
+
+    public final int size()
+    {
+        return m_size;
+    }
+
+    /**
+     * Get the n'th element, in selection order.
+     */
+    public final Object elementAtFast(int n)
+    {
+        if(n >= m_firstHole)
+        {
+            compact();
+        }
+        return m_log[n];
+    }
+
+    public final Object elementAt(int n)
+    {
+        if(n < 0 || n >= m_size)
+        {
+            throw new ArrayIndexOutOfBoundsException(n);
+        }
+        return elementAtFast(n);
+    }
+
+    /**
+     * Whether an element is in the log.
+     */
+    public final boolean contains(Object element)
+    {
+        return slotOf(element) >= 0;
+    }
+
+    /**
+     * Add an element to the end of the log, unless it is already there.
+     *
+     * @return true if the element was added.
+     */
+    public final boolean addElement(Object element)
+    {
+        if(slotOf(element) >= 0)
+        {
+            return false;
+        }
+
+        if(m_logSize == m_log.length)
+        {
+            //Squeezing out holes may be enough to make room.
+            compact();
+            if(m_logSize == m_log.length)
+            {
+                Object log[] = new Object[m_log.length * 2];
+                System.arraycopy(m_log, 0, log, 0, m_logSize);
+                m_log = log;
+            }
+        }
+
+        if(m_firstHole == m_logSize)
+        {
+            m_firstHole++;
+        }
+        m_log[m_logSize] = element;
+        setSlot(element, m_logSize++);
+        m_size++;
+        return true;
+    }
+
+    /**
+     * Remove an element from the log.
+     *
+     * @return true if the element was in the log.
+     */
+    public final boolean removeElement(Object element)
+    {
+        int slot = slotOf(element);
+        if(slot < 0)
+        {
+            return false;
+        }
+
+        removeSlot(slot);
+        return true;
+    }
+
+    /**
+     * Remove the n'th element.
+     */
+    public final void removeElementAt(int n)
+    {
+        if(n >= m_firstHole)
+        {
+            compact();
+        }
+        removeSlot(n);
+    }
+
+    /**
+     * Empty the log.
+     */
+    public final void removeAllElements()
+    {
+        for(int i = 0; i < m_logSize; i++)
+        {
+            if(m_log[i] instanceof Vertex)
+            {
+                ((Vertex)m_log[i]).setSelectionSlot(-1);
+            }
+            m_log[i] = null;
+        }
+        m_slots.clear();
+        m_logSize = m_size = m_firstHole = 0;
+    }
+
+    /**
+     * Copy the elements into a new vector, in selection order.
+     */
+    public final FastVector copy()
+    {
+        compact();
+        FastVector copy = new FastVector();
+        for(int i = 0; i < m_size; i++)
+        {
+            copy.addElement(m_log[i]);
+        }
+        return copy;
+    }
+
+    private final void removeSlot(int slot)
+    {
+        Object element = m_log[slot];
+        if(element instanceof Vertex)
+        {
+            ((Vertex)element).setSelectionSlot(-1);
+        }
+        else
+        {
+            m_slots.remove(element);
+        }
+        m_log[slot] = null;
+        m_size--;
+
+        if(slot < m_firstHole)
+        {
+            m_firstHole = slot;
+        }
+        while(m_logSize > 0 && m_log[m_logSize-1] == null)
+        {
+            m_logSize--;
+        }
+    }
+
+    /**
+     * Squeeze the holes out of the log.  Reading the log may do this, and
+     * views read it from several threads at once.
+     */
+    private final synchronized void compact()
+    {
+        if(m_size == m_logSize)
+        {
+            m_firstHole = m_logSize;
+            return;
+        }
+
+        int to = m_firstHole;
+        for(int i = m_firstHole; i < m_logSize; i++)
+        {
+            Object element = m_log[i];
+            if(element != null)
+            {
+                m_log[to] = element;
+                setSlot(element, to++);
+            }
+        }
+        for(int i = to; i < m_logSize; i++)
+        {
+            m_log[i] = null;
+        }
+        m_logSize = m_firstHole = to;
+    }
+
+    private final int slotOf(Object element)
+    {
+        int slot;
+        if(element instanceof Vertex)
+        {
+            slot = ((Vertex)element).getSelectionSlot();
+        }
+        else
+        {
+            Integer n = (Integer)m_slots.get(element);
+            slot = n == null ? -1 : n.intValue();
+        }
+
+        //A vertex may still carry a slot from before it was cleared.
+        if(slot >= 0 && slot < m_logSize && m_log[slot] == element)
+        {
+            return slot;
+        }
+        return -1;
+    }
+
+    private final void setSlot(Object element, int slot)
+    {
+        if(element instanceof Vertex)
+        {
+            ((Vertex)element).setSelectionSlot(slot);
+        }
+        else
+        {
+            m_slots.put(element, new Integer(slot));
+        }
+    }
+}
@@ -10,7 +10,7 @@ import stomp.data3d.*;
 import stomp.view.View;
 import stomp.transform.Transformation;
 
-public class Spline implements Primitive, java.io.Serializable
+public class Spline implements Primitive, Tessellated, java.io.Serializable
 {
     private int[] m_indices;    //Array of integers to index into vertex list.
     
@@ -31,11 +31,17 @@ public class Spline implements Primitive, java.io.Serializable
     private Vertex[] pts = new Vertex[2];
     private int p = 3;
     private int[]kv;
-    private double[] m_basisFuns;
+
+    //Control points and points along the curve, reused by paint.
+    private float m_cx[], m_cy[], m_cz[];
+    private float m_sx[], m_sy[], m_sz[];
 
     private boolean m_closed = false;
     private Point2d p0 = new Point2d();
     private Point2d p1 = new Point2d();    
+
+    //The curve in world space, kept until a control point moves.
+    private transient Tessellation m_tessellation;
     
     /**
      * Spline constructor.  Constructs a spline with any number of vertices.
@@ -56,7 +62,6 @@ public class Spline implements Primitive, java.io.Serializable
         
         int size = m_indices.length;
 
-        m_basisFuns = new double[4];
         kv = new int [size+4];
 
         for (int i = 0; i < 4; i++)
@@ -101,69 +106,6 @@ public class Spline implements Primitive, java.io.Serializable
         return p;
     }
 
-    /**
-     *return the index into the Knot Vector that is just below the
-     *current point
-     *@param n size of the knot Vector
-     *@param u current point
-     *Uses the member array kv
-     *@return index to knot vector element
-     */
-    private int FindSpan(int n, double u)
-    {
-        if (u == kv[n+1])
-        {
-            return(n);
-        }
-        
-        int low = p;
-        int high = n + 1;
-        int mid = (low + high)/2;
-        
-        while(u < kv[mid] || u >= kv[mid + 1])
-        {
-            if(u < kv[mid])
-                high = mid;
-            else
-                low = mid;
-            mid = (low+high)/2;
-        }
-        
-        return mid;
-    }
-
-    /**
-     *calculate the basis function for the current point, and
-     *set the member array m_basisFuns
-     *@param i knot index
-     *@param u current position on curve
-     */
-    private void BasisFuns(int i, double u)
-    {
-        m_basisFuns = new double [p + 1];
-        double right[] = new double [kv.length];
-        double left[] = new double [kv.length];
-        double saved;
-        double temp;
-        m_basisFuns[0] = 1.0;
-        int index;
-        for (int j = 1; j <= p; j++)
-        {
-            index = i+1-j;
-            left[j] = u - kv[i + 1 - j];
-            right[j] = kv[i + j] - u;
-            saved = 0.0;
-            for(int r = 0; r < j; r++)
-            {
-                temp = m_basisFuns[r]/(right[r+1]+left[j-r]);
-                m_basisFuns[r] = saved+right[r+1]*temp;
-                saved = left[j-r]*temp;
-            }
-            m_basisFuns[j] = saved;
-        }
-
-
-    }
     /**
      * Return whether the spline is selected.
      *
@@ -204,34 +146,67 @@ public class Spline implements Primitive, java.io.Serializable
         return m_hidden;
     }
     
+    /**
+     * Calculate points along the curve.
+     *
+     * @param step step in the parameter between points.
+     * @param coordinateVertices vertices the indices refer to.
+     * @return new Vertex objects for the points.
+     */
     public FastVector getVerticesAlongPath(double step, FastVector coordinateVertices)
     {
+        BasisTable table = BasisTable.getTable(kv, p, step);
+        int size = m_indices.length;
+        float x[] = new float[size], y[] = new float[size], z[] = new float[size];
+        gather(coordinateVertices, x, y, z);
+
+        size = table.size();
+        float cx[] = new float[size], cy[] = new float[size], cz[] = new float[size];
+        table.evaluate(x, y, z, 0, 1, cx, cy, cz);
+
         FastVector C = new FastVector();
-        
-        for(double i = 0.0; i<=kv[kv.length-1]; i+=step)
-        {
-            int n = (kv.length-1) - p -1;
-            int span = FindSpan(n,i);
-            BasisFuns(span,i);
-            Vertex Cw = new Vertex (0,0,0);
-            double oldx;
-            double oldy;
-            //for the current position on the curve, calculate the
-            //point on the curve by summing the control points times
-            //the basis functions
-            for(int j=0; j<=p; j++)
-            {
-                Vertex temp =
-                    new Vertex((Vertex)coordinateVertices.elementAtFast
-                               (m_indices[span-p+j]));
-                temp.scale((float)m_basisFuns[j]);
-                Cw.add(temp);
-            }
-            C.addElement(Cw);
+        for(int i = 0; i < size; i++)
+        {
+            C.addElement(new Vertex(cx[i], cy[i], cz[i]));
         }
 
         return C;
     }
+
+    /**
+     * Copy the control points' coordinates into x, y and z.
+     */
+    private final void gather(FastVector vertices, float x[], float y[],
+                              float z[])
+    {
+        for(int i = 0; i < m_indices.length; i++)
+        {
+            Vertex v = (Vertex)vertices.elementAtFast(m_indices[i]);
+            x[i] = v.x;
+            y[i] = v.y;
+            z[i] = v.z;
+        }
+    }
+
+    /**
+     * Make sure the scratch arrays have room for the control points and
+     * the points subdivide can make from table.
+     */
+    private final void reserve(BasisTable table)
+    {
+        if(m_cx == null || m_cx.length < m_indices.length)
+        {
+            m_cx = new float[m_indices.length];
+            m_cy = new float[m_indices.length];
+            m_cz = new float[m_indices.length];
+        }
+        if(m_sx == null || m_sx.length < table.size() + 1)
+        {
+            m_sx = new float[table.size() + 1];
+            m_sy = new float[table.size() + 1];
+            m_sz = new float[table.size() + 1];
+        }
+    }
     
     /**
      * Paint the spline.
@@ -239,43 +214,33 @@ public class Spline implements Primitive, java.io.Serializable
      * @param vertices Vector of transformed vertices for the current
      * view.
      * @param g Graphics Context.
+     *
+     * Synchronized because the curve is worked out in member arrays, and
+     * views may paint on several threads at once.
      */
-    public void paint(FastVector vertices, Graphics g)
+    public synchronized void paint(FastVector vertices, Graphics g)
     {
-        //Select the color depending on whether this is selected or not.
-        FastVector C = getVerticesAlongPath(0.25, vertices); //.25 == step
+        BasisTable table = BasisTable.getTable(kv, p,
+                                               BasisTable.FINEST_STEP);
+        reserve(table);
+        gather(vertices, m_cx, m_cy, m_cz);
+        int count = table.subdivide(m_cx, m_cy, m_cz, 0, 1, true,
+                                    Mode.SPLINE_TOLERANCE,
+                                    m_sx, m_sy, m_sz);
         
+        //Select the color depending on whether this is selected or not.
+        setColor(g);
         if(m_selected)
         {
-            g.setColor(Color.cyan);
-            Vertex v1 = (Vertex)C.elementAtFast(0);
-            if(SutherlandHodgman.pointInBounds((int)v1.x, (int)v1.y))
-            {
-                g.drawRect((int)(v1.x - 4), (int)(v1.y - 4), 8, 8);
-            }
-        }
-        else
-        {
-            if(m_hidden)
-            {
-                g.setColor(HIDDEN);
-            }
-            else if(m_group == null)
-            {
-                g.setColor(m_splineColor);
-            }
-            else
-            {
-                g.setColor(m_group.getColor());
-            }           
+            paintMarker(m_sx[0], m_sy[0], g);
         }
         
-        for(int i= 1; i<C.size(); i++)
+        for(int i= 1; i<count; i++)
         {
-            p0.x = ((Vertex)C.elementAtFast(i-1)).x;
-            p0.y = ((Vertex)C.elementAtFast(i-1)).y;
-            p1.x = ((Vertex)C.elementAtFast(i)).x;
-            p1.y = ((Vertex)C.elementAtFast(i)).y;
+            p0.x = m_sx[i-1];
+            p0.y = m_sy[i-1];
+            p1.x = m_sx[i];
+            p1.y = m_sy[i];
 
             if(SutherlandHodgman.clip2d(p0, p1))
             {
@@ -284,6 +249,95 @@ public class Spline implements Primitive, java.io.Serializable
         }
     }
     
+    /**
+     * Paint the spline from its curve in world space, which is worked
+     * out again only when a control point has moved.
+     *
+     * @param world the scene's vertices, in world coordinates.
+     * @param m the view's transform.
+     * @param g Graphics Context.
+     */
+    public synchronized void paint(FastVector world, Matrix4f m,
+                                   Graphics g)
+    {
+        if(m_tessellation == null)
+        {
+            m_tessellation = new Tessellation();
+        }
+        if(m_tessellation.isStale(world, m_indices,
+                                  Tessellation.tolerance(m, world, m_indices)))
+        {
+            tessellate(world);
+        }
+
+        setColor(g);
+        if(m_selected)
+        {
+            Vertex first = new Vertex();
+            m_tessellation.project(0, m, first);
+            paintMarker(first.x, first.y, g);
+        }
+        m_tessellation.paint(m, g);
+    }
+
+    /**
+     * Work out the points along the curve, to the tessellation's
+     * tolerance.
+     */
+    private final void tessellate(FastVector world)
+    {
+        BasisTable table = BasisTable.getTable(kv, p,
+                                               BasisTable.FINEST_STEP);
+        reserve(table);
+        for(int i = 0; i < m_indices.length; i++)
+        {
+            Vertex v = (Vertex)world.elementAtFast(m_indices[i]);
+            m_cx[i] = v.x;
+            m_cy[i] = v.y;
+            m_cz[i] = v.z;
+        }
+        int count = table.subdivide(m_cx, m_cy, m_cz, 0, 1, false,
+                                    m_tessellation.getTolerance(),
+                                    m_sx, m_sy, m_sz);
+
+        for(int i = 0; i < count; i++)
+        {
+            m_tessellation.addPoint(m_sx[i], m_sy[i], m_sz[i]);
+        }
+        m_tessellation.endLine();
+    }
+
+    private final void setColor(Graphics g)
+    {
+        if(m_selected)
+        {
+            g.setColor(Color.cyan);
+        }
+        else if(m_hidden)
+        {
+            g.setColor(HIDDEN);
+        }
+        else if(m_group == null)
+        {
+            g.setColor(m_splineColor);
+        }
+        else
+        {
+            g.setColor(m_group.getColor());
+        }
+    }
+
+    /**
+     * Mark the start of a selected spline.
+     */
+    private final void paintMarker(float x, float y, Graphics g)
+    {
+        if(SutherlandHodgman.pointInBounds((int)x, (int)y))
+        {
+            g.drawRect((int)(x - 4), (int)(y - 4), 8, 8);
+        }
+    }
+    
     /**
      * Select this spline if the point is inside it.
      *
@@ -364,6 +418,21 @@ public class Spline implements Primitive, java.io.Serializable
      */
     public void setIndices(int indices[])
     {
+        //The knot vector depends on the number of control points.
+        int size = indices.length;
+        if(size != m_indices.length)
+        {
+            int newKnotVector[] = new int[size+4];
+            for (int i=0;i<4;i++)
+                newKnotVector[i] = 0;
+            for (int j=4;j<size;j++)
+                newKnotVector[j] = j-3;
+            for(int i=size;i<size+4;i++)
+                newKnotVector[i] = size - 3;
+            kv = newKnotVector;
+            m_tessellation = null;
+        }
+
         m_indices = new int[indices.length];
         System.arraycopy(indices, 0, m_indices, 0, indices.length);
     }
@@ -407,7 +476,6 @@ public class Spline implements Primitive, java.io.Serializable
                 return true;
             }
             
-            m_basisFuns = new double [4];
             for (int i=0;i<4;i++)
                 newKnotVector[i] = 0;
             for (int j=4;j<size;j++)
@@ -427,7 +495,59 @@ public class Spline implements Primitive, java.io.Serializable
             
             m_indices = newIndices;
             kv = newKnotVector;
+            m_tessellation = null;
+        }
+        return false;
+    }
+
+    /**
+     * Renumber the indices after a batch of points has been deleted.
+     *
+     * @param indexMap new index for each old index, or -1 if that vertex
+     *        was deleted.
+     * @return true if this spline is left with less than four vertex
+     *         indices and should be deleted.
+     */
+    public boolean remapIndices(int indexMap[])
+    {
+        int size = 0;
+        for(int i = 0; i < m_indices.length; i++)
+        {
+            if(indexMap[m_indices[i]] != -1)
+            {
+                size++;
+            }
+        }
+
+        if(size < m_indices.length)
+        {
+            if(size < 4)
+            {
+                return true;
+            }
+            
+            int newKnotVector[] = new int[size+4];
+            for (int i=0;i<4;i++)
+                newKnotVector[i] = 0;
+            for (int j=4;j<size;j++)
+                newKnotVector[j] = j-3;
+            for(int i=size;i<size+4;i++)
+                newKnotVector[i] = size - 3;
+            kv = newKnotVector;
+            m_tessellation = null;
         }
+
+        int newIndices[] = new int[size];
+        int j = 0;
+        for(int i = 0; i < m_indices.length; i++)
+        {
+            if(indexMap[m_indices[i]] != -1)
+            {
+                newIndices[j++] = indexMap[m_indices[i]];
+            }
+        }
+
+        m_indices = newIndices;
         return false;
     }
 
@@ -487,17 +607,17 @@ public class Spline implements Primitive, java.io.Serializable
      * Transform the spline's vertices by some transformation.
      *
      * @param tr Transformation to transform points on spline with.
-     * @param fromVertices vector of vertices in world coordinates
+     * @param fromVertices reference vertices in world coordinates
      * @param toVertices vector of vertices in world coordinates
      */
-    public void transform(Transformation tr, FastVector fromVertices,
+    public void transform(Transformation tr, VertexBuffer fromVertices,
                           FastVector toVertices)
     {
         //Loop through all indices, and transform corresponding vertices.
         for(int i = 0; i < m_indices.length; i++)
         {
-            tr.transformVertex( (Vertex)fromVertices.elementAtFast(m_indices[i]),
-                                (Vertex)toVertices.elementAtFast(m_indices[i]));
+            fromVertices.transformVertex(tr, m_indices[i],
+                                         (Vertex)toVertices.elementAtFast(m_indices[i]));
         }
         
         //Every time we transform, recompute the normal so it is accurate.
@@ -10,10 +10,9 @@ import stomp.data3d.*;
 import stomp.view.View;
 import stomp.transform.Transformation;
 
-public class SplineSurface implements Primitive
+public class SplineSurface implements Primitive, Tessellated
 {
     protected static final Color HIDDEN = new Color(140, 140, 140);
-    private double STEP = .125;
     private double MESHSTEP = .25;
 
     private Spline[] m_splines;
@@ -47,11 +46,18 @@ public class SplineSurface implements Primitive
     Vertex tmp = new Vertex(0, 0, 0);
     double right[];
     double left[];
-    Vertex C[];
+
+    //Control net (u major) and mesh lines, reused by paint.
+    private float m_cx[], m_cy[], m_cz[];
+    private float m_qx[], m_qy[], m_qz[];
+    private float m_sx[], m_sy[], m_sz[];
 
     private boolean m_closed = false;
     private Point2d p0 = new Point2d();
     private Point2d p1 = new Point2d();
+
+    //The mesh lines in world space, kept until a control point moves.
+    private transient Tessellation m_tessellation;
     
     
     /**
@@ -65,21 +71,6 @@ public class SplineSurface implements Primitive
         int tempind[] = splines[0].getIndices();
         int tempind2[] = splines[splines.length-1].getIndices();
 
-        if(tempind.length + tempind2.length > 12)
-        {
-            STEP *= 2;
-
-            if(tempind.length + tempind2.length > 24)
-            {
-                STEP *= 2;
-            }
-
-            if(tempind.length + tempind2.length > 36)
-            {
-                STEP *= 2;
-            }
-        }
-
         if(tempind[0] == tempind[tempind.length-1] &&
            tempind2[0] == tempind2[tempind.length-1])
         {
@@ -135,23 +126,6 @@ public class SplineSurface implements Primitive
         
         right = new double [maxlen];
         left = new double [maxlen];
-
-        int count = 0;
-        double maxlen2 = kvv[kvv.length-1];
-        if(kvu[kvu.length-1] > kvv[kvv.length-1])
-        {
-            maxlen2 = kvu[kvu.length-1];
-        }
-        for(double j = 0.0; j<=maxlen2; j += STEP)
-        {
-            count++;
-        }
-
-        C = new Vertex[count + 1];
-//          for(int i = 0; i < count + 1; i++)
-//          {
-//              C[i] = new Vertex(0, 0, 0);
-//          }
     }
 
     public Group getGroup()
@@ -241,63 +215,6 @@ public class SplineSurface implements Primitive
         return p;
     }
 
-    /**
-     *Find the index into the knot vector
-     *@param n the size of the knot vector
-     *@param u the current position on the curve
-     *@param kv the knot vector of the current spline
-     *@return index into the knot vector
-     */
-    private int FindSpan(int n, double u, int[] kv)
-    {
-        if (u == kv[n+1])
-            return(n);
-        int low, high;
-        int mid;
-        low = p;
-        high = n+1;
-        mid = (low+high)/2;
-        while (u < kv[mid] || u>= kv[mid+1])
-        {
-            if (u < kv[mid])
-                high = mid;
-            else
-                low = mid;
-            mid = (low+high)/2;
-        }
-        return(mid);
-    }
-
-    /**
-     * calculate the basis functions for the current point on the spline
-     * almost identical to the spline object method, but generalized
-     * for the two directions
-     *@param i the index into the knot vector
-     *@param u the current position on the curve
-     *@param kv the knot vector of the spline we are calculating
-     *@param basis the array into which the basis results are stored
-     */
-    private void BasisFuns(int i,double u, int[] kv, double []basis)
-    {
-        double saved;
-        double temp;
-        basis[0] = 1.0;
-        for (int j=1; j<=p; j++)
-        {
-            int index = i+1-j;
-            left[j] = u-kv[i+1-j];
-            right[j] = kv[i+j]-u;
-            saved = 0.0;
-            for( int r=0; r<j; r++)
-            {
-                temp = basis[r]/(right[r+1]+left[j-r]);
-                basis[r] = saved+right[r+1]*temp;
-                saved = left[j-r]*temp;
-            }
-            basis[j] = saved;
-        }
-    }
-
     /**
      * Get the plane's surface.
      *
@@ -367,12 +284,12 @@ public class SplineSurface implements Primitive
         //double []Nv = new double [p+1];
         int n = (kvu.length-1) - p -1;
         //Get the knot index and basis functions for the u direction
-        int uspan = FindSpan(n,u,kvu);
-        BasisFuns(uspan,u,kvu,Nu);
+        int uspan = BasisTable.findSpan(n,p,u,kvu);
+        BasisTable.basisFuns(uspan,p,u,kvu,Nu,left,right);
         //Get the knot index and basis functions for the v direction
         n = (kvv.length-1) - p - 1;
-        int vspan = FindSpan(n,v,kvv);
-        BasisFuns(vspan,v,kvv,Nv);
+        int vspan = BasisTable.findSpan(n,p,v,kvv);
+        BasisTable.basisFuns(vspan,p,v,kvv,Nv,left,right);
         //Calculate the point on the u spline
         Vertex Sw = new Vertex(0,0,0);
         for(int i=0;i <=p;i++)
@@ -393,55 +310,91 @@ public class SplineSurface implements Primitive
         return Sw;    
     }
     
+    /**
+     * Calculate the points on the surface along the V direction at u,
+     * the same as paintSpline for v from 0 up to the last knot in steps
+     * of step.
+     *
+     * @param vertices vertices the control net refers to.
+     * @return new Vertex objects for the points.
+     */
+    public synchronized FastVector getVerticesAlongV(FastVector vertices,
+                                                     double u, double step)
+    {
+        int n = (kvu.length-1) - p -1;
+        int uspan = BasisTable.findSpan(n,p,u,kvu);
+        BasisTable.basisFuns(uspan,p,u,kvu,Nu,left,right);
+
+        //Sum the net across u, leaving a curve along v.
+        float x[] = new float[m_sizeSplines];
+        float y[] = new float[m_sizeSplines];
+        float z[] = new float[m_sizeSplines];
+        for(int i = 0; i < m_sizeSplines; i++)
+        {
+            for(int j = 0; j <= p; j++)
+            {
+                Vertex v = (Vertex)vertices.elementAtFast
+                    (m_controlNet[uspan-p+j][i]);
+                float weight = (float)Nu[j];
+                x[i] += weight * v.x;
+                y[i] += weight * v.y;
+                z[i] += weight * v.z;
+            }
+        }
+
+        BasisTable table = BasisTable.getTable(kvv, p, step);
+        int size = table.size();
+        float cx[] = new float[size], cy[] = new float[size], cz[] = new float[size];
+        table.evaluate(x, y, z, 0, 1, cx, cy, cz);
+
+        FastVector C = new FastVector();
+        for(int i = 0; i < size; i++)
+        {
+            C.addElement(new Vertex(cx[i], cy[i], cz[i]));
+        }
+        return C;
+    }
+    
     /**
      * Paint the Spline.
      *
      * @param vertices Vector of transformed vertices for the current
      * view.
      * @param g Graphics Context.
+     *
+     * Synchronized because the surface is worked out in member arrays,
+     * and views may paint on several threads at once.
      */
-    public void paint(FastVector vertices, Graphics g)
+    public synchronized void paint(FastVector vertices, Graphics g)
     {
         //Select the color depending on whether this is selected or not.
-        
-        if(m_selected)
-        {
-            g.setColor(Color.cyan);
-        }
-        else
+        setColor(g);
+
+        reserve();
+        for(int i = 0; i < m_numSplines; i++)
         {
-            if(m_hidden)
-            {
-                g.setColor(HIDDEN);
-            }
-            else if(m_group == null)
+            for(int j = 0; j < m_sizeSplines; j++)
             {
-                g.setColor(Color.red);
+                Vertex v = (Vertex)vertices.elementAtFast(m_controlNet[i][j]);
+                m_cx[i*m_sizeSplines + j] = v.x;
+                m_cy[i*m_sizeSplines + j] = v.y;
+                m_cz[i*m_sizeSplines + j] = v.z;
             }
-            else
-            {
-                g.setColor(m_group.getColor());
-            }           
         }
 
-        //calculate splines in the V direction
-        for(double i = 0.0; i<=kvu[kvu.length-1]; i += MESHSTEP)
+        //calculate splines in the V direction, then in the U direction
+        int numLines = numLines();
+        for(int line = 0; line < numLines; line++)
         {
-            int countC = 0;
-            for(double j = 0.0; j<=kvv[kvv.length-1]; j += STEP)
-            {
-                //Retrieve the next point on the curve
-                C[countC] = paintSpline(vertices, i, j);
-                countC++;
-            }
-            for(int k= 1; k< countC/*C.size()*/; k+=1)
+            int countC = evaluateLine(line, true, Mode.SPLINE_TOLERANCE);
+            for(int k= 1; k< countC; k+=1)
             {
                 //draw lines to the points calculated on the
                 //current spline
-                p0.x = C[k-1].x;
-                p0.y = C[k-1].y;
-                p1.x = C[k].x;
-                p1.y = C[k].y;
+                p0.x = m_sx[k-1];
+                p0.y = m_sy[k-1];
+                p1.x = m_sx[k];
+                p1.y = m_sy[k];
 
                 if(SutherlandHodgman.clip2d(p0, p1))
                 {
@@ -449,30 +402,157 @@ public class SplineSurface implements Primitive
                 }
             }
         }
+    }
+    
+    /**
+     * Paint the surface from its mesh lines in world space, which are
+     * worked out again only when a control point has moved.
+     *
+     * @param world the scene's vertices, in world coordinates.
+     * @param m the view's transform.
+     * @param g Graphics Context.
+     */
+    public synchronized void paint(FastVector world, Matrix4f m,
+                                   Graphics g)
+    {
+        if(m_tessellation == null)
+        {
+            m_tessellation = new Tessellation();
+        }
+        int indices[] = getIndices();
+        if(m_tessellation.isStale(world, indices,
+                                  Tessellation.tolerance(m, world, indices)))
+        {
+            tessellate(world);
+        }
 
-        //Calculate splines in the U direction
-        for(double i = 0.0; i<=kvv[kvv.length-1]; i += MESHSTEP)
+        setColor(g);
+        m_tessellation.paint(m, g);
+    }
+
+    /**
+     * Work out the mesh lines, to the tessellation's tolerance.
+     */
+    private final void tessellate(FastVector world)
+    {
+        reserve();
+        for(int i = 0; i < m_numSplines; i++)
         {
-            int countC = 0;
-            for(double j =0.0; j<=kvu[kvu.length-1]; j += STEP)
+            for(int j = 0; j < m_sizeSplines; j++)
             {
-                //Get the next point on the spline
-                C[countC] = paintSpline(vertices, j, i);
-                countC++;
+                Vertex v = (Vertex)world.elementAtFast(m_controlNet[i][j]);
+                m_cx[i*m_sizeSplines + j] = v.x;
+                m_cy[i*m_sizeSplines + j] = v.y;
+                m_cz[i*m_sizeSplines + j] = v.z;
             }
-            for(int k = 1; k < countC; k++)
+        }
+
+        int numLines = numLines();
+        for(int line = 0; line < numLines; line++)
+        {
+            int countC = evaluateLine(line, false,
+                                      m_tessellation.getTolerance());
+            for(int k = 0; k < countC; k++)
             {
-                p0.x = C[k-1].x;
-                p0.y = C[k-1].y;
-                p1.x = C[k].x;
-                p1.y = C[k].y;
+                m_tessellation.addPoint(m_sx[k], m_sy[k], m_sz[k]);
+            }
+            m_tessellation.endLine();
+        }
+    }
 
-                if(SutherlandHodgman.clip2d(p0, p1))
-                {
-                    g.drawLine((int)p0.x, (int)p0.y, (int)p1.x, (int)p1.y);
-                }
+    /**
+     * Number of mesh lines: one every MESHSTEP along U running in the V
+     * direction, then one every MESHSTEP along V running in the U
+     * direction.
+     */
+    private final int numLines()
+    {
+        return BasisTable.getTable(kvu, p, MESHSTEP).size() +
+            BasisTable.getTable(kvv, p, MESHSTEP).size();
+    }
+
+    /**
+     * Calculate the points along a mesh line of the control net in
+     * m_cx, m_cy and m_cz, and put them in m_sx, m_sy and m_sz.  The net
+     * is first summed across the line with the basis functions at the
+     * line's position, leaving the control points of a curve along it,
+     * which is then subdivided to the tolerance.
+     *
+     * @param line line number, from 0 up to numLines().
+     * @param flat whether the net is projected to the window.
+     * @param tolerance furthest the curve may be from the points.
+     * @return number of points.
+     */
+    private final int evaluateLine(int line, boolean flat, float tolerance)
+    {
+        BasisTable across = BasisTable.getTable(kvu, p, MESHSTEP);
+        BasisTable along;
+        if(line < across.size())
+        {
+            for(int i = 0; i < m_sizeSplines; i++)
+            {
+                across.evaluate(line, m_cx, m_cy, m_cz, i, m_sizeSplines,
+                                m_qx, m_qy, m_qz, i);
+            }
+            along = BasisTable.getTable(kvv, p, BasisTable.FINEST_STEP);
+        }
+        else
+        {
+            line -= across.size();
+            across = BasisTable.getTable(kvv, p, MESHSTEP);
+            for(int j = 0; j < m_numSplines; j++)
+            {
+                across.evaluate(line, m_cx, m_cy, m_cz, j*m_sizeSplines, 1,
+                                m_qx, m_qy, m_qz, j);
             }
-         }
+            along = BasisTable.getTable(kvu, p, BasisTable.FINEST_STEP);
+        }
+        return along.subdivide(m_qx, m_qy, m_qz, 0, 1, flat, tolerance,
+                               m_sx, m_sy, m_sz);
+    }
+
+    /**
+     * Make sure the scratch arrays are big enough.
+     */
+    private final void reserve()
+    {
+        if(m_cx == null)
+        {
+            int net = m_numSplines * m_sizeSplines;
+            int curve = Math.max(m_numSplines, m_sizeSplines);
+            int points = 1 + Math.max(
+                BasisTable.getTable(kvu, p, BasisTable.FINEST_STEP).size(),
+                BasisTable.getTable(kvv, p, BasisTable.FINEST_STEP).size());
+            m_cx = new float[net];
+            m_cy = new float[net];
+            m_cz = new float[net];
+            m_qx = new float[curve];
+            m_qy = new float[curve];
+            m_qz = new float[curve];
+            m_sx = new float[points];
+            m_sy = new float[points];
+            m_sz = new float[points];
+        }
+    }
+
+    private final void setColor(Graphics g)
+    {
+        if(m_selected)
+        {
+            g.setColor(Color.cyan);
+        }
+        else if(m_hidden)
+        {
+            g.setColor(HIDDEN);
+        }
+        else if(m_group == null)
+        {
+            g.setColor(Color.red);
+        }
+        else
+        {
+            g.setColor(m_group.getColor());
+        }
     }
     
     /**
@@ -621,6 +701,37 @@ public class SplineSurface implements Primitive
         return false;
     }
 
+    /**
+     * Renumber the indices after a batch of points has been deleted.
+     *
+     * @param indexMap new index for each old index, or -1 if that vertex
+     *        was deleted.
+     * @return true if one of the control points was deleted.
+     */
+    public boolean remapIndices(int indexMap[])
+    {
+        for(int i = 0; i < m_numSplines; i++)
+        {
+            for(int j = 0; j < m_controlNet[i].length; j++)
+            {
+                if(indexMap[m_controlNet[i][j]] == -1)
+                {
+                    return true;
+                }
+            }
+        }
+
+        for(int i = 0; i < m_numSplines; i++)
+        {
+            for(int j = 0; j < m_controlNet[i].length; j++)
+            {
+                m_controlNet[i][j] = indexMap[m_controlNet[i][j]];
+            }
+        }
+
+        return false;
+    }
+
     /**
      * Set this surface's indices to new indices.
      * Should be rarely used.
@@ -701,10 +812,10 @@ public class SplineSurface implements Primitive
      * Transform the plane's vertices by some transformation.
      *
      * @param tr Transformation to transform points on plane with.
-     * @param fromVertices vector of vertices in world coordinates
+     * @param fromVertices reference vertices in world coordinates
      * @param toVertices vector of vertices in world coordinates
      */
-    public void transform(Transformation tr, FastVector fromVertices,
+    public void transform(Transformation tr, VertexBuffer fromVertices,
                           FastVector toVertices)
     {
         //Loop through all indices, and transform corresponding vertices.
@@ -712,10 +823,9 @@ public class SplineSurface implements Primitive
         {
             for(int j=0;j< m_sizeSplines; j++)
             {
-                tr.transformVertex( (Vertex)fromVertices.elementAtFast
-                                    (m_controlNet[i][j]),
-                                    (Vertex)toVertices.elementAtFast
-                                    (m_controlNet[i][j]));
+                fromVertices.transformVertex(tr, m_controlNet[i][j],
+                                             (Vertex)toVertices.elementAtFast
+                                             (m_controlNet[i][j]));
             }
         }
         
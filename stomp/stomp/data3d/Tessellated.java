@@ -0,0 +1,28 @@
+package stomp.data3d;
+
+import java.awt.Graphics;
+import javax.vecmath.Matrix4f;
+
+import stomp.FastVector;
+
+/**
+ * Tessellated primitives are drawn as curves worked out from their
+ * control points in world space.  A view that knows its transform paints
+ * them with this instead of Primitive.paint, so the curve can be kept
+ * between frames and only projected, rather than worked out again from
+ * the projected control points every time.
+ *
+ * @see Tessellation
+ */
+public interface Tessellated
+{
+    /**
+     * Paint the primitive.
+     *
+     * @param world vector of the scene's vertices, in world coordinates.
+     * @param m the view's transform, from world to window coordinates
+     * (with a perspective divide if it has one).
+     * @param g Graphics Context.
+     */
+    public void paint(FastVector world, Matrix4f m, Graphics g);
+}
@@ -0,0 +1,286 @@
+package stomp.data3d;
+
+import java.awt.Graphics;
+import javax.vecmath.*;
+
+import stomp.FastVector;
+import stomp.Mode;
+import stomp.SutherlandHodgman;
+import stomp.view.Projection;
+
+/**
+ * Tessellation is a set of polylines in world space that a Tessellated
+ * primitive keeps between frames.  It remembers the control points it
+ * was made from, so the primitive only works its curve out again when
+ * one of them moves; otherwise painting is just projecting the points
+ * and drawing the lines.
+ *
+ * <p>
+ * The points are only as close together as the curve needs, so they
+ * also remember the tolerance they were worked out to.  A view that
+ * needs the curve finer than that, because it is zoomed in further,
+ * has them worked out again.
+ */
+public class Tessellation
+{
+    //The points, one polyline after another.  Line k is points
+    //m_lineStart[k] up to m_lineStart[k+1].
+    private float m_x[] = new float[16];
+    private float m_y[] = new float[16];
+    private float m_z[] = new float[16];
+    private int m_size = 0;
+    private int m_lineStart[] = new int[4];
+    private int m_numLines = 0;
+
+    //World positions of the control points, three to a point, or null
+    //if the points need working out.
+    private float m_control[];
+
+    //Furthest the curve may be from the polylines, in world units.
+    private float m_tolerance;
+
+    //Projected points, only used while painting.
+    private float m_px[];
+    private float m_py[];
+    private float m_pz[];
+    private Point2d m_p0;
+    private Point2d m_p1;
+
+    /**
+     * Check whether the control points have moved since the points were
+     * worked out, or the points aren't fine enough, and remember where
+     * the control points are now.
+     *
+     * @param world the scene's vertices, in world coordinates.
+     * @param indices indices of the control points.
+     * @param tolerance furthest the painted curve may be from the real
+     * one, in world units.
+     * @return true if the points need working out again, in which case
+     * they have been cleared and getTolerance says how fine to make
+     * them.
+     */
+    public final boolean isStale(FastVector world, int indices[],
+                                 float tolerance)
+    {
+        boolean stale = m_control == null ||
+            m_control.length != 3 * indices.length;
+        if(stale)
+        {
+            m_control = new float[3 * indices.length];
+        }
+
+        for(int i = 0; i < indices.length; i++)
+        {
+            Vertex v = (Vertex)world.elementAtFast(indices[i]);
+            float x = v.x;
+            float y = v.y;
+            float z = v.z;
+            if(stale || m_control[3*i] != x || m_control[3*i+1] != y ||
+               m_control[3*i+2] != z)
+            {
+                m_control[3*i] = x;
+                m_control[3*i+1] = y;
+                m_control[3*i+2] = z;
+                stale = true;
+            }
+        }
+
+        //Put up with them being a little coarser than asked, so zooming
+        //in slowly doesn't work them out again every frame.
+        if(stale || tolerance * 1.25f < m_tolerance)
+        {
+            m_tolerance = tolerance;
+            m_size = 0;
+            m_numLines = 0;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Furthest the curve may be from the polylines, in world units.
+     */
+    public final float getTolerance()
+    {
+        return m_tolerance;
+    }
+
+    /**
+     * Forget the points, so they are worked out again next time.
+     */
+    public final void invalidate()
+    {
+        m_control = null;
+    }
+
+    /**
+     * Add a point to the end of the current polyline.
+     */
+    public final void addPoint(double x, double y, double z)
+    {
+        if(m_size == m_x.length)
+        {
+            m_x = grow(m_x);
+            m_y = grow(m_y);
+            m_z = grow(m_z);
+        }
+        m_x[m_size] = (float)x;
+        m_y[m_size] = (float)y;
+        m_z[m_size] = (float)z;
+        m_size++;
+    }
+
+    /**
+     * Finish the current polyline, so the next point starts a new one.
+     */
+    public final void endLine()
+    {
+        if(m_numLines + 1 == m_lineStart.length)
+        {
+            int starts[] = new int[2 * m_lineStart.length];
+            System.arraycopy(m_lineStart, 0, starts, 0, m_lineStart.length);
+            m_lineStart = starts;
+        }
+        m_lineStart[++m_numLines] = m_size;
+    }
+
+    /**
+     * Number of points in all the polylines.
+     */
+    public final int size()
+    {
+        return m_size;
+    }
+
+    /**
+     * Project one of the points to the window.
+     *
+     * @param i point number.
+     * @param m the view's transform.
+     * @param v set to the projected point.
+     */
+    public final void project(int i, Matrix4f m, Vertex v)
+    {
+        Point4f p = new Point4f(m_x[i], m_y[i], m_z[i], 1);
+        m.transform(p);
+        v.set(p.x / p.w, p.y / p.w, p.z / p.w);
+    }
+
+    /**
+     * Project the points and draw the polylines, clipped to the window,
+     * in the current color.
+     *
+     * @param m the view's transform, from world to window coordinates
+     * (with a perspective divide if it has one).
+     * @param g Graphics Context.
+     */
+    public final void paint(Matrix4f m, Graphics g)
+    {
+        if(m_px == null || m_px.length < m_size)
+        {
+            m_px = new float[m_x.length];
+            m_py = new float[m_x.length];
+            m_pz = new float[m_x.length];
+            m_p0 = new Point2d();
+            m_p1 = new Point2d();
+        }
+        Projection.project(m, m_x, m_y, m_z, 0, m_size, m_px, m_py, m_pz);
+
+        for(int k = 0; k < m_numLines; k++)
+        {
+            for(int i = m_lineStart[k] + 1; i < m_lineStart[k+1]; i++)
+            {
+                m_p0.x = m_px[i-1];
+                m_p0.y = m_py[i-1];
+                m_p1.x = m_px[i];
+                m_p1.y = m_py[i];
+
+                if(SutherlandHodgman.clip2d(m_p0, m_p1))
+                {
+                    g.drawLine((int)m_p0.x, (int)m_p0.y,
+                               (int)m_p1.x, (int)m_p1.y);
+                }
+            }
+        }
+    }
+
+    /**
+     * Paint a primitive with the view's transform if it is Tessellated,
+     * or from the projected vertices if it isn't.
+     *
+     * @param p primitive to paint.
+     * @param vertices Vector of transformed vertices for the current
+     * view.
+     * @param world the scene's vertices, in world coordinates.
+     * @param m the transform vertices were transformed by.
+     * @param g Graphics Context.
+     */
+    public static void paint(Primitive p, FastVector vertices,
+                             FastVector world, Matrix4f m, Graphics g)
+    {
+        if(p instanceof Tessellated)
+        {
+            ((Tessellated)p).paint(world, m, g);
+        }
+        else
+        {
+            p.paint(vertices, g);
+        }
+    }
+
+    /**
+     * Work out how far in world units a curve may be from its polylines
+     * so that it is drawn within Mode.SPLINE_TOLERANCE pixels, wherever
+     * it is in the view.  Curves lie inside their control points, so it
+     * is worked out at the control point that is biggest on screen.
+     *
+     * @param m the view's transform.
+     * @param world the scene's vertices, in world coordinates.
+     * @param indices indices of the control points.
+     * @return the tolerance, or Float.MAX_VALUE if the curve is all
+     * behind the eye.
+     */
+    public static float tolerance(Matrix4f m, FastVector world,
+                                  int indices[])
+    {
+        float scale = 0;
+        for(int i = 0; i < indices.length; i++)
+        {
+            Vertex v = (Vertex)world.elementAtFast(indices[i]);
+            float x = v.x;
+            float y = v.y;
+            float z = v.z;
+            float w = m.m30 * x + m.m31 * y + m.m32 * z + m.m33;
+            if(w <= 0)
+            {
+                continue;
+            }
+            float sx = (m.m00 * x + m.m01 * y + m.m02 * z + m.m03) / w;
+            float sy = (m.m10 * x + m.m11 * y + m.m12 * z + m.m13) / w;
+
+            //Pixels moved per unit moved along each axis.
+            float dx = (m.m00 - sx * m.m30) / w;
+            float dy = (m.m10 - sy * m.m30) / w;
+            scale = Math.max(scale, dx * dx + dy * dy);
+            dx = (m.m01 - sx * m.m31) / w;
+            dy = (m.m11 - sy * m.m31) / w;
+            scale = Math.max(scale, dx * dx + dy * dy);
+            dx = (m.m02 - sx * m.m32) / w;
+            dy = (m.m12 - sy * m.m32) / w;
+            scale = Math.max(scale, dx * dx + dy * dy);
+        }
+
+        if(scale == 0)
+        {
+            return Float.MAX_VALUE;
+        }
+        return Mode.SPLINE_TOLERANCE / (float)Math.sqrt(scale);
+    }
+
+    private static float[] grow(float a[])
+    {
+        float grown[] = new float[2 * a.length];
+        System.arraycopy(a, 0, grown, 0, a.length);
+        return grown;
+    }
+}
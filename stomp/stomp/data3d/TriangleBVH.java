@@ -0,0 +1,484 @@
+package stomp.data3d;
+
+import stomp.FastVector;
+
+/**
+ * TriangleBVH is a bounding volume hierarchy over the polygons of a
+ * scene, cut into fans of triangles, for casting rays against them.
+ * Each node is an axis-aligned box around its triangles; the two
+ * children of a node split its triangles at the median of their
+ * centers along the box's longest side, down to leaves of LEAF_SIZE.
+ *
+ * <p>
+ * The tree keeps the coordinate arrays it was built from rather than
+ * copying them, and triangles refer to vertices by index.  When the
+ * vertices move, refit grows and shrinks the boxes to match without
+ * building the tree again; the tree stays correct, though it may get
+ * slower to search if things move a long way.  Rays can be cast from
+ * several threads at once, but not during a refit.
+ */
+public class TriangleBVH
+{
+    //Most triangles in a leaf.
+    private static final int LEAF_SIZE = 4;
+
+    //Deepest the tree gets; the median split keeps it near log2 of the
+    //number of leaves.
+    private static final int MAX_DEPTH = 64;
+
+    private float m_x[];
+    private float m_y[];
+    private float m_z[];
+
+    //Vertex indices of each triangle's corners, and the polygon it
+    //was cut from.
+    private int m_corners[];
+    private Polygon3d m_polygons[];
+    private int m_numTriangles = 0;
+
+    //Per node: min x, y, z and max x, y, z.  A leaf has m_count
+    //triangles starting at m_first.  An inner node's children are
+    //m_first and m_first + 1, split along axis -1 - m_count.
+    private float m_bounds[];
+    private int m_first[];
+    private int m_count[];
+    private int m_numNodes = 0;
+
+    /**
+     * Build a tree over the polygons in a list of primitives.
+     *
+     * @param primitives primitives to take the Polygon3ds from.
+     * @param x x coordinates of the vertices.
+     * @param y y coordinates of the vertices.
+     * @param z z coordinates of the vertices.
+     */
+    public TriangleBVH(FastVector primitives, float x[], float y[],
+                       float z[])
+    {
+        m_x = x;
+        m_y = y;
+        m_z = z;
+
+        int count = 0;
+        for(int i = 0; i < primitives.sizeFast(); i++)
+        {
+            Object prim = primitives.elementAtFast(i);
+            if(prim instanceof Polygon3d)
+            {
+                count += Math.max(((Polygon3d)prim).getIndices().length - 2, 0);
+            }
+        }
+
+        m_corners = new int[3 * count];
+        m_polygons = new Polygon3d[count];
+        for(int i = 0; i < primitives.sizeFast(); i++)
+        {
+            Object prim = primitives.elementAtFast(i);
+            if(prim instanceof Polygon3d)
+            {
+                int indices[] = ((Polygon3d)prim).getIndices();
+                for(int j = 1; j < indices.length - 1; j++)
+                {
+                    m_corners[3*m_numTriangles] = indices[0];
+                    m_corners[3*m_numTriangles+1] = indices[j];
+                    m_corners[3*m_numTriangles+2] = indices[j+1];
+                    m_polygons[m_numTriangles++] = (Polygon3d)prim;
+                }
+            }
+        }
+
+        //Every leaf has a triangle, so there are fewer than 2n nodes.
+        int maxNodes = Math.max(1, 2 * m_numTriangles);
+        m_bounds = new float[6 * maxNodes];
+        m_first = new int[maxNodes];
+        m_count = new int[maxNodes];
+
+        float centers[] = new float[3 * m_numTriangles];
+        for(int t = 0; t < m_numTriangles; t++)
+        {
+            for(int k = 0; k < 3; k++)
+            {
+                int v = m_corners[3*t+k];
+                centers[3*t] += m_x[v] / 3;
+                centers[3*t+1] += m_y[v] / 3;
+                centers[3*t+2] += m_z[v] / 3;
+            }
+        }
+
+        m_numNodes = 1;
+        build(0, 0, m_numTriangles, centers, 0);
+    }
+
+    /**
+     * Number of triangles in the tree.
+     */
+    public final int getNumTriangles()
+    {
+        return m_numTriangles;
+    }
+
+    /**
+     * Get the index of one corner of a triangle.
+     *
+     * @param triangle triangle number, as returned by intersect.
+     * @param corner 0, 1 or 2.
+     */
+    public final int getCorner(int triangle, int corner)
+    {
+        return m_corners[3*triangle + corner];
+    }
+
+    /**
+     * Get the polygon a triangle was cut from.
+     */
+    public final Polygon3d getPolygon(int triangle)
+    {
+        return m_polygons[triangle];
+    }
+
+    /**
+     * Fit the boxes to new positions of the same vertices.
+     *
+     * @param x x coordinates of the vertices.
+     * @param y y coordinates of the vertices.
+     * @param z z coordinates of the vertices.
+     */
+    public final void refit(float x[], float y[], float z[])
+    {
+        m_x = x;
+        m_y = y;
+        m_z = z;
+
+        //Children always come after their parent, so going backwards
+        //fits every child before the node around it.
+        for(int node = m_numNodes - 1; node >= 0; node--)
+        {
+            int b = 6 * node;
+            if(m_count[node] < 0)
+            {
+                int l = 6 * m_first[node];
+                int r = l + 6;
+                for(int k = 0; k < 3; k++)
+                {
+                    m_bounds[b+k] = Math.min(m_bounds[l+k], m_bounds[r+k]);
+                    m_bounds[b+3+k] = Math.max(m_bounds[l+3+k], m_bounds[r+3+k]);
+                }
+                continue;
+            }
+
+            float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE, minZ = Float.MAX_VALUE;
+            float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE, maxZ = -Float.MAX_VALUE;
+            int end = 3 * (m_first[node] + m_count[node]);
+            for(int c = 3 * m_first[node]; c < end; c++)
+            {
+                int v = m_corners[c];
+                minX = Math.min(minX, x[v]);
+                minY = Math.min(minY, y[v]);
+                minZ = Math.min(minZ, z[v]);
+                maxX = Math.max(maxX, x[v]);
+                maxY = Math.max(maxY, y[v]);
+                maxZ = Math.max(maxZ, z[v]);
+            }
+            m_bounds[b] = minX;
+            m_bounds[b+1] = minY;
+            m_bounds[b+2] = minZ;
+            m_bounds[b+3] = maxX;
+            m_bounds[b+4] = maxY;
+            m_bounds[b+5] = maxZ;
+        }
+    }
+
+    private final void build(int node, int from, int to, float centers[],
+                             int depth)
+    {
+        //Bounds of the triangles, and of their centers.
+        float min[] = { Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE };
+        float max[] = { -Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE };
+        float cmin[] = { Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE };
+        float cmax[] = { -Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE };
+        for(int t = from; t < to; t++)
+        {
+            for(int k = 0; k < 3; k++)
+            {
+                int v = m_corners[3*t+k];
+                min[0] = Math.min(min[0], m_x[v]);
+                min[1] = Math.min(min[1], m_y[v]);
+                min[2] = Math.min(min[2], m_z[v]);
+                max[0] = Math.max(max[0], m_x[v]);
+                max[1] = Math.max(max[1], m_y[v]);
+                max[2] = Math.max(max[2], m_z[v]);
+            }
+            for(int k = 0; k < 3; k++)
+            {
+                cmin[k] = Math.min(cmin[k], centers[3*t+k]);
+                cmax[k] = Math.max(cmax[k], centers[3*t+k]);
+            }
+        }
+        for(int k = 0; k < 3; k++)
+        {
+            m_bounds[6*node+k] = min[k];
+            m_bounds[6*node+3+k] = max[k];
+        }
+
+        int axis = 0;
+        for(int k = 1; k < 3; k++)
+        {
+            if(cmax[k] - cmin[k] > cmax[axis] - cmin[axis])
+            {
+                axis = k;
+            }
+        }
+
+        if(to - from <= LEAF_SIZE || depth >= MAX_DEPTH ||
+           !(cmax[axis] > cmin[axis]))
+        {
+            m_first[node] = from;
+            m_count[node] = to - from;
+            return;
+        }
+
+        int middle = (from + to) >>> 1;
+        select(from, to - 1, middle, axis, centers);
+
+        int left = m_numNodes;
+        m_numNodes += 2;
+        m_first[node] = left;
+        m_count[node] = -1 - axis;
+        build(left, from, middle, centers, depth + 1);
+        build(left + 1, middle, to, centers, depth + 1);
+    }
+
+    /**
+     * Put the triangles from..to in order along an axis just far enough
+     * that the n'th is in its place, with smaller ones before it and
+     * bigger ones after.
+     */
+    private final void select(int from, int to, int n, int axis,
+                              float centers[])
+    {
+        while(from < to)
+        {
+            float pivot = centers[3*((from + to) >>> 1) + axis];
+            int i = from;
+            int j = to;
+            while(i <= j)
+            {
+                while(centers[3*i + axis] < pivot)
+                {
+                    i++;
+                }
+                while(centers[3*j + axis] > pivot)
+                {
+                    j--;
+                }
+                if(i <= j)
+                {
+                    swap(i++, j--, centers);
+                }
+            }
+
+            if(n <= j)
+            {
+                to = j;
+            }
+            else if(n >= i)
+            {
+                from = i;
+            }
+            else
+            {
+                return;
+            }
+        }
+    }
+
+    private final void swap(int a, int b, float centers[])
+    {
+        for(int k = 0; k < 3; k++)
+        {
+            int corner = m_corners[3*a+k];
+            m_corners[3*a+k] = m_corners[3*b+k];
+            m_corners[3*b+k] = corner;
+
+            float center = centers[3*a+k];
+            centers[3*a+k] = centers[3*b+k];
+            centers[3*b+k] = center;
+        }
+
+        Polygon3d polygon = m_polygons[a];
+        m_polygons[a] = m_polygons[b];
+        m_polygons[b] = polygon;
+    }
+
+    /**
+     * Find the nearest triangle a ray hits.
+     *
+     * @param ox ray origin.
+     * @param dx ray direction, which need not be unit length.
+     * @param tMin hits nearer than this many lengths of the direction
+     * are ignored.
+     * @param tMax and so are hits further than this.
+     * @param hit set to the distance along the ray and the weights of
+     * corners 1 and 2 at the hit, if there is one.
+     * @return the triangle hit, or -1 if none.
+     */
+    public final int intersect(float ox, float oy, float oz,
+                               float dx, float dy, float dz,
+                               float tMin, float tMax, float hit[])
+    {
+        return trace(ox, oy, oz, dx, dy, dz, tMin, tMax, hit, false);
+    }
+
+    /**
+     * Whether a ray hits any triangle between tMin and tMax, for
+     * shadows.  Stops at the first hit it finds.
+     */
+    public final boolean occluded(float ox, float oy, float oz,
+                                  float dx, float dy, float dz,
+                                  float tMin, float tMax)
+    {
+        return trace(ox, oy, oz, dx, dy, dz, tMin, tMax, new float[3],
+                     true) >= 0;
+    }
+
+    private final int trace(float ox, float oy, float oz,
+                            float dx, float dy, float dz,
+                            float tMin, float tMax, float hit[],
+                            boolean any)
+    {
+        if(m_numTriangles == 0)
+        {
+            return -1;
+        }
+
+        float ix = 1 / dx, iy = 1 / dy, iz = 1 / dz;
+        int stack[] = new int[MAX_DEPTH + 2];
+        int top = 0;
+        stack[top++] = 0;
+        int nearest = -1;
+
+        while(top > 0)
+        {
+            int node = stack[--top];
+            if(!hitsBox(node, ox, oy, oz, ix, iy, iz, tMin, tMax))
+            {
+                continue;
+            }
+
+            if(m_count[node] > 0)
+            {
+                int end = m_first[node] + m_count[node];
+                for(int t = m_first[node]; t < end; t++)
+                {
+                    float d = hitTriangle(t, ox, oy, oz, dx, dy, dz,
+                                          tMin, tMax, hit);
+                    if(d >= 0)
+                    {
+                        tMax = d;
+                        nearest = t;
+                        if(any)
+                        {
+                            return t;
+                        }
+                    }
+                }
+            }
+            else
+            {
+                //Visit the child nearer the origin first, so hits
+                //there can cut the far one short.
+                int left = m_first[node];
+                int axis = -1 - m_count[node];
+                float direction = axis == 0 ? dx : (axis == 1 ? dy : dz);
+                if(direction < 0)
+                {
+                    stack[top++] = left;
+                    stack[top++] = left + 1;
+                }
+                else
+                {
+                    stack[top++] = left + 1;
+                    stack[top++] = left;
+                }
+            }
+        }
+        return nearest;
+    }
+
+    /**
+     * Slab test of a ray against a node's box.  NaNs from rays along
+     * a face of the box count as misses.
+     */
+    private final boolean hitsBox(int node, float ox, float oy, float oz,
+                                  float ix, float iy, float iz,
+                                  float tMin, float tMax)
+    {
+        int b = 6 * node;
+        float t0 = (m_bounds[b] - ox) * ix;
+        float t1 = (m_bounds[b+3] - ox) * ix;
+        tMin = Math.max(tMin, Math.min(t0, t1));
+        tMax = Math.min(tMax, Math.max(t0, t1));
+
+        t0 = (m_bounds[b+1] - oy) * iy;
+        t1 = (m_bounds[b+4] - oy) * iy;
+        tMin = Math.max(tMin, Math.min(t0, t1));
+        tMax = Math.min(tMax, Math.max(t0, t1));
+
+        t0 = (m_bounds[b+2] - oz) * iz;
+        t1 = (m_bounds[b+5] - oz) * iz;
+        tMin = Math.max(tMin, Math.min(t0, t1));
+        tMax = Math.min(tMax, Math.max(t0, t1));
+
+        return tMin <= tMax;
+    }
+
+    /**
+     * Moller and Trumbore's ray/triangle test.
+     *
+     * @return distance along the ray, or -1 for a miss.
+     */
+    private final float hitTriangle(int t, float ox, float oy, float oz,
+                                    float dx, float dy, float dz,
+                                    float tMin, float tMax, float hit[])
+    {
+        int a = m_corners[3*t], b = m_corners[3*t+1], c = m_corners[3*t+2];
+        float e1x = m_x[b] - m_x[a], e1y = m_y[b] - m_y[a], e1z = m_z[b] - m_z[a];
+        float e2x = m_x[c] - m_x[a], e2y = m_y[c] - m_y[a], e2z = m_z[c] - m_z[a];
+
+        float px = dy*e2z - dz*e2y;
+        float py = dz*e2x - dx*e2z;
+        float pz = dx*e2y - dy*e2x;
+        float det = e1x*px + e1y*py + e1z*pz;
+        if(det == 0)
+        {
+            return -1;
+        }
+        float inv = 1 / det;
+
+        float sx = ox - m_x[a], sy = oy - m_y[a], sz = oz - m_z[a];
+        float u = (sx*px + sy*py + sz*pz) * inv;
+        if(u < 0 || u > 1)
+        {
+            return -1;
+        }
+
+        float qx = sy*e1z - sz*e1y;
+        float qy = sz*e1x - sx*e1z;
+        float qz = sx*e1y - sy*e1x;
+        float v = (dx*qx + dy*qy + dz*qz) * inv;
+        if(v < 0 || u + v > 1)
+        {
+            return -1;
+        }
+
+        float d = (e2x*qx + e2y*qy + e2z*qz) * inv;
+        if(d < tMin || d > tMax)
+        {
+            return -1;
+        }
+        hit[0] = d;
+        hit[1] = u;
+        hit[2] = v;
+        return d;
+    }
+}
@@ -20,6 +20,13 @@ public class Vertex extends Point3f implements Cloneable, java.io.Serializable
     private boolean m_hidden = false;
     private boolean m_selected;
 
+    //Position of this vertex in the scene's vertex list.  Scene keeps
+    //it up to date, but always checks it before trusting it.
+    private transient int m_sceneIndex = -1;
+
+    //Slot in the scene's SelectionLog, checked the same way.
+    private transient int m_selectionSlot = -1;
+
     /**
      * Constructor.
      *
@@ -87,11 +94,12 @@ public class Vertex extends Point3f implements Cloneable, java.io.Serializable
     }
 
     /**
-     * Set this vertex's hidden state.
+     * Set this vertex's hidden state.  Only Scene does this, through
+     * hideVertices and unhideVertices.
      *
      * @param hide true to hide, false to unhide.
      */
-    public void setHidden(boolean hide)
+    void setHidden(boolean hide)
     {
         m_hidden = hide;
     }
@@ -112,15 +120,36 @@ public class Vertex extends Point3f implements Cloneable, java.io.Serializable
     }
 
     /**
-     * Set the vertex's selected state.
+     * Set the vertex's selected state.  Only Scene does this, since it
+     * keeps the indices of the selected vertices as well.
      *
      * @param select true to select, false to unselect.
      */
-    public final void setSelected(boolean select)
+    final void setSelected(boolean select)
     {
         m_selected = select;
     }
 
+    final int getSceneIndex()
+    {
+        return m_sceneIndex;
+    }
+
+    final void setSceneIndex(int index)
+    {
+        m_sceneIndex = index;
+    }
+
+    final int getSelectionSlot()
+    {
+        return m_selectionSlot;
+    }
+
+    final void setSelectionSlot(int slot)
+    {
+        m_selectionSlot = slot;
+    }
+
     /**
      * Paint this vertex.
      *
@@ -0,0 +1,280 @@
+package stomp.data3d;
+
+import java.util.Hashtable;
+
+import stomp.FastVector;
+
+/**
+ * VertexAdjacency records, for every vertex index in the scene, which
+ * primitives use that vertex.  It is kept by Scene so that questions
+ * like "what is attached to vertex i" cost time proportional to the
+ * answer instead of a walk over every primitive.
+ *
+ * <p>
+ * Each primitive is remembered along with the indices it had when it was
+ * added, so it can still be taken out correctly after its indices have
+ * been changed in place.  Call update() after changing a primitive's
+ * indices.
+ */
+public class VertexAdjacency implements java.io.Serializable
+{
+    private static final int[] NO_INDICES = new int[0];
+
+    private Primitive m_incident[][] = new Primitive[16][];
+    private int m_counts[] = new int[16];
+    private int m_numVertices = 0;
+
+    //Primitive -> int[] of the vertex indices it was registered under.
+    private Hashtable m_registered = new Hashtable();
+
+    public VertexAdjacency()
+    {
+    }
+
+    /**
+     * Throw everything away and index the given primitives from scratch.
+     *
+     * @param primitives vector of Primitive.
+     * @param numVertices number of vertices in the scene.
+     */
+    public final void rebuild(FastVector primitives, int numVertices)
+    {
+        clear();
+        setNumVertices(numVertices);
+        for(int i = 0; i < primitives.sizeFast(); i++)
+        {
+            add((Primitive)primitives.elementAtFast(i));
+        }
+    }
+
+    /**
+     * Remove all primitives and vertices.
+     */
+    public final void clear()
+    {
+        for(int i = 0; i < m_numVertices; i++)
+        {
+            m_incident[i] = null;
+            m_counts[i] = 0;
+        }
+        m_numVertices = 0;
+        m_registered.clear();
+    }
+
+    /**
+     * Number of vertex slots in the index.
+     */
+    public final int getNumVertices()
+    {
+        return m_numVertices;
+    }
+
+    /**
+     * Grow the index to cover numVertices vertices.  New vertices have
+     * nothing attached to them.
+     */
+    public final void setNumVertices(int numVertices)
+    {
+        if(numVertices > m_counts.length)
+        {
+            int capacity = Math.max(numVertices, m_counts.length * 2);
+            Primitive incident[][] = new Primitive[capacity][];
+            int counts[] = new int[capacity];
+            System.arraycopy(m_incident, 0, incident, 0, m_numVertices);
+            System.arraycopy(m_counts, 0, counts, 0, m_numVertices);
+            m_incident = incident;
+            m_counts = counts;
+        }
+
+        for(int i = numVertices; i < m_numVertices; i++)
+        {
+            m_incident[i] = null;
+            m_counts[i] = 0;
+        }
+        m_numVertices = numVertices;
+    }
+
+    /**
+     * Remove a vertex slot, moving every later vertex down by one.  The
+     * caller must already have removed or re-indexed the primitives that
+     * referred to the vertex or to anything after it.
+     *
+     * @param index index of the vertex being removed.
+     */
+    public final void removeVertex(int index)
+    {
+        System.arraycopy(m_incident, index+1, m_incident, index,
+                         m_numVertices - index - 1);
+        System.arraycopy(m_counts, index+1, m_counts, index,
+                         m_numVertices - index - 1);
+        m_numVertices--;
+        m_incident[m_numVertices] = null;
+        m_counts[m_numVertices] = 0;
+    }
+
+    /**
+     * Add a primitive under its current indices.
+     */
+    public final void add(Primitive p)
+    {
+        if(m_registered.containsKey(p))
+        {
+            remove(p);
+        }
+
+        int indices[] = p.getIndices();
+        if(indices == null)
+        {
+            indices = NO_INDICES;
+        }
+        int snapshot[] = new int[indices.length];
+        System.arraycopy(indices, 0, snapshot, 0, indices.length);
+        m_registered.put(p, snapshot);
+
+        for(int i = 0; i < snapshot.length; i++)
+        {
+            int v = snapshot[i];
+            if(v < 0)
+            {
+                continue;
+            }
+            if(v >= m_numVertices)
+            {
+                setNumVertices(v+1);
+            }
+            if(!contains(v, p))
+            {
+                append(v, p);
+            }
+        }
+    }
+
+    /**
+     * Remove a primitive, using the indices it was added with.
+     */
+    public final void remove(Primitive p)
+    {
+        int snapshot[] = (int[])m_registered.remove(p);
+        if(snapshot == null)
+        {
+            return;
+        }
+
+        for(int i = 0; i < snapshot.length; i++)
+        {
+            int v = snapshot[i];
+            if(v >= 0 && v < m_numVertices)
+            {
+                removeFrom(v, p);
+            }
+        }
+    }
+
+    /**
+     * Re-register a primitive whose indices have changed.
+     */
+    public final void update(Primitive p)
+    {
+        remove(p);
+        add(p);
+    }
+
+    /**
+     * Whether a primitive is in the index.
+     */
+    public final boolean isRegistered(Primitive p)
+    {
+        return m_registered.containsKey(p);
+    }
+
+    /**
+     * Number of primitives using a vertex.
+     */
+    public final int numIncident(int index)
+    {
+        return m_counts[index];
+    }
+
+    /**
+     * Get the n'th primitive using a vertex.
+     */
+    public final Primitive getIncident(int index, int n)
+    {
+        return m_incident[index][n];
+    }
+
+    /**
+     * Collect every primitive that uses a vertex at or after index,
+     * without duplicates.
+     *
+     * @param index first vertex index to look at.
+     * @return vector of Primitive.
+     */
+    public final FastVector getIncidentFrom(int index)
+    {
+        FastVector found = new FastVector();
+        Hashtable seen = new Hashtable();
+        for(int v = index; v < m_numVertices; v++)
+        {
+            for(int n = 0; n < m_counts[v]; n++)
+            {
+                Primitive p = m_incident[v][n];
+                if(seen.put(p, p) == null)
+                {
+                    found.addElement(p);
+                }
+            }
+        }
+
+        return found;
+    }
+
+    private final boolean contains(int v, Primitive p)
+    {
+        Primitive list[] = m_incident[v];
+        for(int n = m_counts[v]-1; n >= 0; n--)
+        {
+            if(list[n] == p)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private final void append(int v, Primitive p)
+    {
+        Primitive list[] = m_incident[v];
+        if(list == null)
+        {
+            list = new Primitive[4];
+            m_incident[v] = list;
+        }
+        else if(m_counts[v] == list.length)
+        {
+            Primitive newList[] = new Primitive[list.length * 2];
+            System.arraycopy(list, 0, newList, 0, list.length);
+            list = newList;
+            m_incident[v] = list;
+        }
+        list[m_counts[v]++] = p;
+    }
+
+    private final void removeFrom(int v, Primitive p)
+    {
+        Primitive list[] = m_incident[v];
+        int count = m_counts[v];
+        for(int n = 0; n < count; n++)
+        {
+            if(list[n] == p)
+            {
+                //Keep the order so results follow the order primitives
+                //were added in.
+                System.arraycopy(list, n+1, list, n, count - n - 1);
+                list[count-1] = null;
+                m_counts[v] = count-1;
+                return;
+            }
+        }
+    }
+}
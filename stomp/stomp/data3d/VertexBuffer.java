@@ -0,0 +1,248 @@
+package stomp.data3d;
+
+import stomp.FastVector;
+import stomp.transform.Transformation;
+
+/**
+ * VertexBuffer is a packed list of vertex positions, stored in three
+ * parallel float arrays.  Scene keeps the reference positions that
+ * transformations start from in one, instead of a second Vertex object
+ * per vertex: 12 bytes a vertex rather than a whole object and the
+ * reference to it, and transformSelected walks contiguous memory.
+ *
+ * <p>
+ * The Vertex objects in the scene are still where the current
+ * positions, selection and hiding live.  Vertex extends Point3f, and
+ * its fields are read and written directly throughout the program, so
+ * a buffer can't stand in for them.  The renderers copy them into a
+ * buffer of their own, to read from contiguous arrays.
+ */
+public class VertexBuffer implements java.io.Serializable
+{
+    private float m_x[];
+    private float m_y[];
+    private float m_z[];
+    private int m_size = 0;
+
+    /**
+     * Create an empty buffer.
+     */
+    public VertexBuffer()
+    {
+        this(16);
+    }
+
+    /**
+     * Create an empty buffer with room for the given number of vertices.
+     *
+     * @param capacity initial number of vertices that fit in the buffer.
+     */
+    public VertexBuffer(int capacity)
+    {
+        m_x = new float[capacity];
+        m_y = new float[capacity];
+        m_z = new float[capacity];
+    }
+
+    /**
+     * Number of vertices in the buffer.
+     */
+    public final int size()
+    {
+        return m_size;
+    }
+
+    /**
+     * Grow or shrink the buffer.  New entries are zeroed.
+     *
+     * @param size new number of vertices.
+     */
+    public final void setSize(int size)
+    {
+        ensureCapacity(size);
+        for(int i = m_size; i < size; i++)
+        {
+            m_x[i] = m_y[i] = m_z[i] = 0;
+        }
+        m_size = size;
+    }
+
+    /**
+     * Make sure the arrays can hold at least capacity vertices.
+     */
+    public final void ensureCapacity(int capacity)
+    {
+        if(capacity <= m_x.length)
+        {
+            return;
+        }
+
+        int newCapacity = Math.max(capacity, m_x.length * 2);
+        m_x = grow(m_x, newCapacity);
+        m_y = grow(m_y, newCapacity);
+        m_z = grow(m_z, newCapacity);
+    }
+
+    private final float[] grow(float array[], int capacity)
+    {
+        float newArray[] = new float[capacity];
+        System.arraycopy(array, 0, newArray, 0, m_size);
+        return newArray;
+    }
+
+    /**
+     * Copy a vertex's coordinates into entry i.
+     */
+    public final void set(int i, Vertex v)
+    {
+        m_x[i] = v.x;
+        m_y[i] = v.y;
+        m_z[i] = v.z;
+    }
+
+    /**
+     * Copy every vertex in the vector into the buffer, resizing it to match.
+     *
+     * @param vertices vector of Vertex.
+     */
+    public final void copyFrom(FastVector vertices)
+    {
+        int size = vertices.sizeFast();
+        ensureCapacity(size);
+        m_size = size;
+        for(int i = 0; i < size; i++)
+        {
+            set(i, (Vertex)vertices.elementAtFast(i));
+        }
+    }
+
+    /**
+     * Make this buffer an exact copy of another one.
+     */
+    public final void copyFrom(VertexBuffer buffer)
+    {
+        ensureCapacity(buffer.m_size);
+        m_size = buffer.m_size;
+        System.arraycopy(buffer.m_x, 0, m_x, 0, m_size);
+        System.arraycopy(buffer.m_y, 0, m_y, 0, m_size);
+        System.arraycopy(buffer.m_z, 0, m_z, 0, m_size);
+    }
+
+    /**
+     * Remove entry i, moving every later entry down by one.
+     */
+    public final void remove(int i)
+    {
+        int count = m_size - i - 1;
+        System.arraycopy(m_x, i+1, m_x, i, count);
+        System.arraycopy(m_y, i+1, m_y, i, count);
+        System.arraycopy(m_z, i+1, m_z, i, count);
+        m_size--;
+    }
+
+    /**
+     * Move entries to new positions, dropping the ones that are mapped
+     * to -1.  Entries must keep their order (ie. the map only ever moves
+     * an entry down), which is what compacting a list gives.
+     *
+     * @param indexMap new index for each entry, or -1 to drop it.
+     * @param newSize number of entries left afterwards.
+     */
+    public final void remap(int indexMap[], int newSize)
+    {
+        for(int i = 0; i < m_size; i++)
+        {
+            int to = indexMap[i];
+            if(to >= 0 && to != i)
+            {
+                m_x[to] = m_x[i];
+                m_y[to] = m_y[i];
+                m_z[to] = m_z[i];
+            }
+        }
+        m_size = newSize;
+    }
+
+    /**
+     * The reverse of remap: move every entry up to a new position, leaving
+     * gaps for entries that are about to be put back with set().  Entries
+     * must keep their order (ie. the map only ever moves an entry up).
+     *
+     * @param indexMap new index for each current entry.
+     * @param newSize number of entries afterwards.
+     */
+    public final void expand(int indexMap[], int newSize)
+    {
+        ensureCapacity(newSize);
+        for(int i = m_size-1; i >= 0; i--)
+        {
+            int to = indexMap[i];
+            if(to != i)
+            {
+                m_x[to] = m_x[i];
+                m_y[to] = m_y[i];
+                m_z[to] = m_z[i];
+            }
+        }
+        m_size = newSize;
+    }
+
+    /**
+     * Transform entry i and store the result in a vertex.  The vertex's
+     * flags are left alone.
+     *
+     * <p>
+     * The entry is loaded into the destination and transformed in
+     * place, which the Transformations all allow for (Matrix4f.transform
+     * reads the point before it writes it).  That way there is no shared
+     * scratch vertex, and several threads can transform from the same
+     * buffer at once.
+     *
+     * @param tr transformation to apply.
+     * @param i index of the source entry.
+     * @param to vertex that receives the transformed coordinates.
+     */
+    public final void transformVertex(Transformation tr, int i, Vertex to)
+    {
+        to.x = m_x[i];
+        to.y = m_y[i];
+        to.z = m_z[i];
+
+        tr.transformVertex(to, to);
+    }
+
+    /**
+     * The x coordinates, for code that walks the whole buffer.  Only the
+     * first size() entries are used, and the array is replaced when the
+     * buffer grows.
+     */
+    public final float[] getXArray()
+    {
+        return m_x;
+    }
+
+    public final float[] getYArray()
+    {
+        return m_y;
+    }
+
+    public final float[] getZArray()
+    {
+        return m_z;
+    }
+
+    public final float getX(int i)
+    {
+        return m_x[i];
+    }
+
+    public final float getY(int i)
+    {
+        return m_y[i];
+    }
+
+    public final float getZ(int i)
+    {
+        return m_z[i];
+    }
+}
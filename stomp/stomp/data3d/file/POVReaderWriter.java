@@ -212,14 +212,15 @@ public class POVReaderWriter extends SceneReaderWriter
             {
                 num = 0;
                 vertexNormals[i] = new Vector3f();
-                for(int j = 0; j < prims.size(); j++)
+                for(int j = 0; j < scene.numIncidentPrimitives(i); j++)
                 {
-                    if(prims.elementAtFast(j) instanceof Polygon3d)
+                    Primitive prim = scene.getIncidentPrimitive(i, j);
+                    if(prim instanceof Polygon3d)
                     {
-                        Polygon3d p = (Polygon3d)prims.elementAtFast(j);
+                        Polygon3d p = (Polygon3d)prim;
                         Surface surf = p.getSurface();
 
-                        if(surf.isSmooth() && p.containsIndex(i))
+                        if(surf.isSmooth())
                         {
                             vertexNormals[i].add(p.getNormal());
                             num++;
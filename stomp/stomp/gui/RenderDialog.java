@@ -9,8 +9,11 @@ import java.io.*;
 import java.awt.*;
 import java.awt.event.*;
 import java.util.StringTokenizer;
+import java.awt.image.BufferedImage;
+import javax.imageio.ImageIO;
 
 import stomp.gui.Appearance;
+import stomp.view.RayTracer;
 
 /**
  * This dialog is used for controlling the export to POV.  Users
@@ -18,7 +21,9 @@ import stomp.gui.Appearance;
  * change POV parameters.
  *
  * When the user chooses Render, this dialog exports to POV and
- * automatically invokes the POV raytracer on the scene.
+ * automatically invokes the POV raytracer on the scene.  If the built-in
+ * ray tracer is chosen instead, the scene is rendered to a PNG file
+ * without POV.
  */
 public class RenderDialog extends Frame implements ActionListener
 {
@@ -28,6 +33,7 @@ public class RenderDialog extends Frame implements ActionListener
     private static String m_widthString = "320";
     private static String m_heightString = "240";
     private static String m_extraOptionsString = "+D";
+    private static boolean m_builtInState = false;
     
     private Scene m_scene;
     private TextField m_povLocation = new TextField(30);
@@ -36,6 +42,7 @@ public class RenderDialog extends Frame implements ActionListener
     private TextField m_height = new TextField(10);
     private TextField m_extraOptions = new TextField(70);
     private TextField m_fov = new TextField(10);
+    private Checkbox m_builtIn = new Checkbox("Built-in ray tracer");
     
     /**
      *
@@ -115,6 +122,10 @@ public class RenderDialog extends Frame implements ActionListener
         gbc.gridx++;
         gbc.gridwidth = 2;
         add(m_extraOptions, gbc);
+
+        gbc.gridx = 1;
+        gbc.gridy++;
+        add(m_builtIn, gbc);
         
         //Add Ok and Cancel buttons.
         gbc.fill = GridBagConstraints.BOTH;
@@ -138,6 +149,7 @@ public class RenderDialog extends Frame implements ActionListener
         m_height.setText(m_heightString);
         m_extraOptions.setText(m_extraOptionsString);
         m_fov.setText(FOV);
+        m_builtIn.setState(m_builtInState);
         
         //Validate layout and pack to best size.
         validate();
@@ -202,6 +214,7 @@ public class RenderDialog extends Frame implements ActionListener
         m_heightString = m_height.getText();
         m_extraOptionsString = m_extraOptions.getText();
         FOV = m_fov.getText();
+        m_builtInState = m_builtIn.getState();
         
         if(m_outputFileString.length() <= 4)
         {
@@ -210,6 +223,12 @@ public class RenderDialog extends Frame implements ActionListener
             return;
         }
 
+        if(m_builtInState)
+        {
+            renderBuiltIn();
+            return;
+        }
+
         if(m_povLocationString.length() == 0)
         {
             MessageDialog dialog = new MessageDialog("You must specify the location of the POV executable.");
@@ -248,4 +267,84 @@ public class RenderDialog extends Frame implements ActionListener
             System.out.println("Could not render file!");
         }
     }
+
+    /**
+     * Render the scene to a PNG file with the built-in RayTracer.  The
+     * scene is copied here, and the picture is traced and saved on a
+     * background thread so Stomp can be used meanwhile.
+     */
+    private void renderBuiltIn()
+    {
+        final int width, height;
+        final float fov;
+        try
+        {
+            width = Integer.parseInt(m_widthString.trim());
+            height = Integer.parseInt(m_heightString.trim());
+            fov = Float.valueOf(FOV.trim()).floatValue();
+        }
+        catch(NumberFormatException e)
+        {
+            MessageDialog dialog = new MessageDialog("Invalid image size or field of view.");
+            dialog.setVisible(true);
+            return;
+        }
+        if(width <= 0 || height <= 0)
+        {
+            MessageDialog dialog = new MessageDialog("Invalid image size or field of view.");
+            dialog.setVisible(true);
+            return;
+        }
+
+        //The built-in ray tracer only writes PNG.
+        String name = m_outputFileString;
+        if(!name.toLowerCase().endsWith(".png"))
+        {
+            int dot = name.lastIndexOf('.');
+            if(dot > name.lastIndexOf(File.separatorChar))
+            {
+                name = name.substring(0, dot);
+            }
+            name += ".png";
+        }
+        final File outFile = new File(name);
+
+        final RayTracer tracer = new RayTracer(m_scene, fov);
+        Thread thread = new Thread("Ray tracer")
+        {
+            public void run()
+            {
+                long start = System.currentTimeMillis();
+                try
+                {
+                    BufferedImage image = tracer.render(width, height);
+                    ImageIO.write(image, "png", outFile);
+                    showMessage("Rendered " + outFile + " in " +
+                                (System.currentTimeMillis() - start) + " ms.");
+                }
+                catch(IOException e)
+                {
+                    showMessage("Could not render file! " + e.getMessage());
+                }
+            }
+        };
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * Show a message from the ray tracer's thread.  The dialog is made
+     * on the AWT thread, like every other window.
+     */
+    private static void showMessage(final String message)
+    {
+        EventQueue.invokeLater(new Runnable()
+        {
+            public void run()
+            {
+                MessageDialog dialog = new MessageDialog(message);
+                dialog.setVisible(true);
+            }
+        });
+    }
 }
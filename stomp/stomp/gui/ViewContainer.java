@@ -2,7 +2,11 @@ package stomp.gui;
 
 import java.awt.*;
 import java.awt.event.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
+import stomp.FastVector;
+import stomp.Mode;
 import stomp.view.*;
 
 /**
@@ -13,10 +17,28 @@ import stomp.view.*;
  *
  * In the future, this class may be extended to allow users to resize
  * and rearrange the views.
+ *
+ * The views are rendered into their offscreen images at the same time,
+ * on the ForkJoinPool, and then copied to the screen together.
+ *
+ * Nothing polls for changes.  The scene, the views and the window say
+ * when a view needs drawing again (see invalidate), and the container's
+ * thread sleeps until then.  It then renders the views that need it on
+ * the AWT thread, no sooner than UPDATE_DELAY milliseconds after the
+ * last render, so however many changes come in between, each view is
+ * drawn at most once per UPDATE_DELAY.
+ *
+ * While the user drags, views are drawn coarsely (see View.isFast).
+ * Once nothing has happened for Mode.REFINE_DELAY milliseconds, the
+ * coarse views are drawn again at full detail on the ForkJoinPool,
+ * without holding up the AWT thread, and put on screen when they are
+ * done.  Any input first cancels the refinement and waits for it to
+ * stop, so it never sees the scene change underneath it.
  */
 public class ViewContainer extends Panel implements Runnable
 {
-    public static int UPDATE_DELAY = 100;
+    //Least time between renders, in milliseconds.
+    public static int UPDATE_DELAY = 16;
     public final static int ALL = 0;
     public final static int TOP = 1;
     public final static int FRONT = 2;
@@ -24,7 +46,6 @@ public class ViewContainer extends Panel implements Runnable
     public final static int PERSPECTIVE = 4;
     public final static int CAMERA = 5;
     
-    private boolean m_changed = true;
     private int m_viewMode;
 
     private View m_top;
@@ -36,6 +57,39 @@ public class ViewContainer extends Panel implements Runnable
 
     private Thread m_thread;
 
+    //Views to render next time, and whether to render all of them.
+    //Guarded by this, along with the render and refine times.
+    private FastVector m_dirty = new FastVector();
+    private boolean m_allDirty = true;
+
+    //Set while a render of the views is waiting for the AWT thread.
+    private boolean m_renderPending = false;
+    private long m_lastRender = 0;
+    private Runnable m_render = new Runnable()
+    {
+        public void run()
+        {
+            renderViews();
+        }
+    };
+
+    //When to start refining coarse views, or 0 for never.
+    private long m_refineAt = 0;
+    private Runnable m_startRefine = new Runnable()
+    {
+        public void run()
+        {
+            startRefine();
+        }
+    };
+
+    //Refinement running on the pool, and a count of renders and
+    //cancels so a refinement that finishes late isn't shown.  Only used
+    //on the AWT thread.
+    private View m_refineViews[];
+    private ForkJoinTask m_refineTasks[];
+    private int m_generation = 0;
+
     /**
      * Constructor.  Needs all four views, hard coded.
      */
@@ -45,8 +99,28 @@ public class ViewContainer extends Panel implements Runnable
         m_front = front;
         m_side = side;
         m_perspective = m_preview = perspective;
+        top.setViewContainer(this);
+        front.setViewContainer(this);
+        side.setViewContainer(this);
+        perspective.setViewContainer(this);
 
         setView(ViewContainer.ALL);
+
+        //Input of any kind stops a refinement.
+        Toolkit.getDefaultToolkit().addAWTEventListener(new AWTEventListener()
+        {
+            public void eventDispatched(AWTEvent e)
+            {
+                if(m_refineTasks != null)
+                {
+                    cancelRefine();
+                    scheduleRefine();
+                }
+            }
+        }, AWTEvent.MOUSE_EVENT_MASK | AWTEvent.MOUSE_MOTION_EVENT_MASK |
+           AWTEvent.MOUSE_WHEEL_EVENT_MASK | AWTEvent.KEY_EVENT_MASK |
+           AWTEvent.ACTION_EVENT_MASK | AWTEvent.ITEM_EVENT_MASK);
+
         m_thread = new Thread(this);
         m_thread.setPriority(Thread.MIN_PRIORITY);
         
@@ -56,7 +130,11 @@ public class ViewContainer extends Panel implements Runnable
     public void setCamera(View camera)
     {
         m_camera = camera;
-        if(camera == null)
+        if(camera != null)
+        {
+            camera.setViewContainer(this);
+        }
+        else
         {
             setPerspective(ViewContainer.PERSPECTIVE);
         }
@@ -168,7 +246,20 @@ public class ViewContainer extends Panel implements Runnable
      */
     public void setChanged()
     {
-        m_changed = true;
+        repaint();
+    }
+
+    /**
+     * A view needs to be drawn again.  It will be rendered with the
+     * next batch of views, if it is showing.
+     */
+    public synchronized void invalidate(View view)
+    {
+        if(!m_allDirty && !m_dirty.contains(view))
+        {
+            m_dirty.addElement(view);
+        }
+        notify();
     }
 
     public void forceRepaint()
@@ -207,64 +298,290 @@ public class ViewContainer extends Panel implements Runnable
     }
     
     /**
-     * Repaint all of the views.
+     * Repaint all of the views.  The work is done later on the AWT
+     * thread; repaints asked for before then are done together.
      */
-    public void repaint()
+    public synchronized void repaint()
     {
         //super.repaint();
 
+        m_allDirty = true;
+        m_dirty.removeAllElements();
+        notify();
+    }
+
+    /**
+     * Get the views that are showing.
+     */
+    private View[] getShownViews()
+    {
         if(m_viewMode == ALL)
         {
-            m_thread.yield();
-            m_top.repaint();
-            m_thread.yield();
-            m_front.repaint();
-            m_thread.yield();
-            m_side.repaint();
-            m_thread.yield();
-            m_perspective.repaint();
+            View views[] = { m_top, m_front, m_side, m_perspective };
+            return views;
         }
         else if(m_viewMode == TOP)
         {
-            m_thread.yield();
-            m_top.repaint();
+            View views[] = { m_top };
+            return views;
         }
         else if(m_viewMode == FRONT)
         {
-            m_thread.yield();
-            m_front.repaint();
+            View views[] = { m_front };
+            return views;
         }
         else if(m_viewMode == SIDE)
         {
-            m_thread.yield();
-            m_side.repaint();
+            View views[] = { m_side };
+            return views;
         }
         else if(m_viewMode == PERSPECTIVE)
         {
-            m_thread.yield();
-            m_perspective.repaint();
+            View views[] = { m_perspective };
+            return views;
+        }
+
+        return new View[0];
+    }
+
+    /**
+     * Render the shown views into their offscreen images, then copy them
+     * to the screen.  All but the last view are rendered on the
+     * ForkJoinPool while this thread does the last one, so it takes
+     * about as long as the slowest view.
+     *
+     * This runs on the AWT thread, which waits for the pool to finish,
+     * so nothing can change the scene while the views are reading it.
+     */
+    private void renderViews()
+    {
+        View views[] = getShownViews();
+        synchronized(this)
+        {
+            if(!m_allDirty)
+            {
+                int n = 0;
+                for(int i = 0; i < views.length; i++)
+                {
+                    if(m_dirty.contains(views[i]))
+                    {
+                        views[n++] = views[i];
+                    }
+                }
+                View dirty[] = new View[n];
+                System.arraycopy(views, 0, dirty, 0, n);
+                views = dirty;
+            }
+            m_allDirty = false;
+            m_dirty.removeAllElements();
+            m_renderPending = false;
+            m_lastRender = System.currentTimeMillis();
+            notify();
+        }
+        cancelRefine();
+
+        if(views.length == 0)
+        {
+            return;
+        }
+
+        ForkJoinTask tasks[] = new ForkJoinTask[views.length - 1];
+        for(int i = 0; i < tasks.length; i++)
+        {
+            final View view = views[i];
+            tasks[i] = ForkJoinPool.commonPool().submit(new Runnable()
+            {
+                public void run()
+                {
+                    view.render();
+                }
+            });
+        }
+        views[views.length - 1].render();
+        for(int i = 0; i < tasks.length; i++)
+        {
+            tasks[i].join();
+        }
+
+        for(int i = 0; i < views.length; i++)
+        {
+            Graphics g = views[i].getGraphics();
+            if(g != null)
+            {
+                views[i].blit(g);
+                g.dispose();
+            }
+        }
+
+        scheduleRefine();
+    }
+
+    /**
+     * Refine the shown views after Mode.REFINE_DELAY if any of them were
+     * drawn coarsely.
+     */
+    private void scheduleRefine()
+    {
+        if(Mode.REFINE_DELAY <= 0)
+        {
+            return;
+        }
+
+        View views[] = getShownViews();
+        for(int i = 0; i < views.length; i++)
+        {
+            if(views[i].isCoarse())
+            {
+                synchronized(this)
+                {
+                    m_refineAt = System.currentTimeMillis() + Mode.REFINE_DELAY;
+                    notify();
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Start drawing the coarse views at full detail on the ForkJoinPool.
+     * Runs on the AWT thread.
+     */
+    private void startRefine()
+    {
+        cancelRefine();
+        final int generation = m_generation;
+
+        View views[] = getShownViews();
+        int n = 0;
+        for(int i = 0; i < views.length; i++)
+        {
+            if(views[i].isCoarse())
+            {
+                views[n++] = views[i];
+            }
+        }
+        if(n == 0)
+        {
+            return;
+        }
+
+        m_refineViews = new View[n];
+        m_refineTasks = new ForkJoinTask[n];
+        for(int i = 0; i < n; i++)
+        {
+            final View view = views[i];
+            view.prepareRefine();
+            m_refineViews[i] = view;
+            m_refineTasks[i] = ForkJoinPool.commonPool().submit(new Runnable()
+            {
+                public void run()
+                {
+                    if(view.refine())
+                    {
+                        EventQueue.invokeLater(new Runnable()
+                        {
+                            public void run()
+                            {
+                                showRefined(view, generation);
+                            }
+                        });
+                    }
+                }
+            });
+        }
+    }
+
+    private void showRefined(View view, int generation)
+    {
+        if(generation != m_generation)
+        {
+            return;
+        }
+
+        Graphics g = view.getGraphics();
+        if(g != null)
+        {
+            view.showRefined(g);
+            g.dispose();
+        }
+    }
+
+    /**
+     * Stop any refinement and wait for it to finish.  Runs on the AWT
+     * thread.
+     */
+    private void cancelRefine()
+    {
+        m_generation++;
+        synchronized(this)
+        {
+            m_refineAt = 0;
         }
+
+        if(m_refineTasks == null)
+        {
+            return;
+        }
+        for(int i = 0; i < m_refineViews.length; i++)
+        {
+            m_refineViews[i].cancelRefine();
+        }
+        for(int i = 0; i < m_refineTasks.length; i++)
+        {
+            m_refineTasks[i].quietlyJoin();
+        }
+        m_refineViews = null;
+        m_refineTasks = null;
     }
 
     /**
-     * Run simply loops forever and updates all of the views after a
-     * short delay after a change has been made to a specific view.
+     * Run sleeps until a view is invalidated, then has the views
+     * rendered on the AWT thread, waiting first if the last render was
+     * less than UPDATE_DELAY ago.  Changes that come in meanwhile are
+     * rendered together.  It also starts refining the views once they
+     * have been left alone for Mode.REFINE_DELAY.
      */
-    public void run()
+    public synchronized void run()
     {
-        //Loop forever.
         while(true)
         {
             try
             {
-                if(m_changed)
+                long now = System.currentTimeMillis();
+                boolean dirty = m_allDirty || m_dirty.sizeFast() > 0;
+
+                //When to look again, or 0 to wait to be told.
+                long wake = 0;
+                if(dirty && !m_renderPending)
                 {
-                    m_changed = false;
-                    m_thread.yield();
-                    repaint();
+                    long due = m_lastRender + UPDATE_DELAY;
+                    if(now >= due)
+                    {
+                        m_renderPending = true;
+                        EventQueue.invokeLater(m_render);
+                        continue;
+                    }
+                    wake = due;
+                }
+                else if(m_refineAt != 0 && !dirty && !m_renderPending)
+                {
+                    if(now >= m_refineAt)
+                    {
+                        m_refineAt = 0;
+                        EventQueue.invokeLater(m_startRefine);
+                        continue;
+                    }
+                    wake = m_refineAt;
+                }
+
+                if(wake == 0)
+                {
+                    wait();
+                }
+                else
+                {
+                    wait(wake - now);
                 }
-                m_thread.yield();
-                m_thread.sleep(UPDATE_DELAY); //REDRAW_DELAY, Sleep
             }
             catch(InterruptedException e)
             {
@@ -272,4 +589,3 @@ public class ViewContainer extends Panel implements Runnable
         }
     }
 }
-
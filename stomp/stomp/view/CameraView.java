@@ -10,6 +10,8 @@ import java.awt.event.*;
 
 import stomp.data3d.*;
 import stomp.transform.*;
+import stomp.command.CommandExecutor;
+import stomp.command.PickCommand;
 import stomp.gui.Appearance;
 
 public class CameraView extends View implements Primitive
@@ -43,9 +45,6 @@ public class CameraView extends View implements Primitive
     protected float m_aspectRatio = 1.333f;
 
     protected Matrix4f m_device;
-    protected Image offScreenImage;
-    protected Dimension offScreenSize;
-    protected Graphics offScreenGraphics;
     protected Scene m_scene;
     protected Point m_origin;
 
@@ -70,7 +69,7 @@ public class CameraView extends View implements Primitive
     protected Point4f m_zPoints1[] = new Point4f[GRIDMAX + 1];
     protected Point4f m_zPoints2[] = new Point4f[GRIDMAX + 1];
 
-    private int m_sceneSize = 0;
+    private Projection m_projection = new Projection();
     
     double window_lft,window_rght, window_top, window_btm;
     double hold_lft, hold_rght, hold_btm, hold_top;
@@ -119,21 +118,6 @@ public class CameraView extends View implements Primitive
         }
     }
 
-    //Add double-buffering to the paint method to allow smooth graphics
-    public final synchronized void update (Graphics g) 
-    {
-        Dimension d = getSize();
-        
-        if((offScreenImage == null) || (d.width != offScreenSize.width) ||  (d.height != offScreenSize.height)) 
-        {
-            offScreenImage = createImage(d.width, d.height);
-            offScreenSize = d;
-            offScreenGraphics = offScreenImage.getGraphics();
-        }
-        paint(offScreenGraphics);
-        g.drawImage(offScreenImage, 0, 0, null);
-    }
-
     public void paint(Graphics g)
     {
         Dimension size = getSize();
@@ -233,37 +217,36 @@ public class CameraView extends View implements Primitive
         FastVector primitives = m_scene.getPrimitivesVector();
         Primitive temp;
         int decrement = 1;
-        if(m_fast)
+        if(isFast())
         {
             decrement = 1 +
                 (int)(primitives.sizeFast()/Mode.DISAPPEAR_THRESHHOLD);
         }
 
-        if(m_scene.primitivesSelected())
+        if(!paintShaded(m_scene, m_transformedVertices, g, isFast(),
+                        m_viewTransform))
         {
-            for(int i = primitives.sizeFast()-1; i >=0; i-=decrement)
-            {
-                temp = (Primitive)primitives.elementAtFast(i);
-                if(!temp.isSelected())
-                {
-                    temp.paint(m_transformedVertices, g);
-                }
-            }
+            paintUnselected(m_scene, m_transformedVertices, g, decrement,
+                            isFast(), m_viewTransform);
+        }
 
-            FastVector selectedPrimitives = m_scene.getOrderedSelectedPrimitives();
+        if(m_scene.primitivesSelected())
+        {
             //Paint the selected ones (speed hazard)
             Point4f normalTemp = new Point4f();
-            Vertex[] norm;
-            for(int i = selectedPrimitives.sizeFast()-1; i >=0; i--)
+            Vertex[] norm = { new Vertex(), new Vertex() };
+            for(int i = m_scene.numSelectedPrimitives()-1; i >=0; i--)
             {
-                temp = (Primitive)selectedPrimitives.elementAtFast(i);
+                temp = m_scene.getSelectedPrimitive(i);
                 //if(temp.isSelected())
                 {
-                    temp.paint(m_transformedVertices, g);
+                    Tessellation.paint(temp, m_transformedVertices,
+                                       m_scene.getVerticesVector(),
+                                       m_viewTransform, g);
                     
-                    if(m_fast == false && temp instanceof Polygon3d)
+                    if(!isFast() && temp instanceof Polygon3d)
                     {
-                        norm = ((Polygon3d)temp).getNormalPoints();
+                        ((Polygon3d)temp).getNormalPoints(norm);
                         
                         //0
                         normalTemp.set(norm[0].x, norm[0].y, norm[0].z, 1);
@@ -282,23 +265,9 @@ public class CameraView extends View implements Primitive
                 }
             }
         }
-        else
-        {
-            for(int i = primitives.sizeFast()-1; i >=0; i-=decrement)
-            {
-                ((Primitive)primitives.elementAtFast(i)).paint(m_transformedVertices, g);
-            }
-        }
 
 
-        if(m_scene.verticesSelected())
-        {
-            decrement = 1;
-        }
-        for(int i = m_transformedVertices.sizeFast()-1; i >= 0; i-=decrement)
-        {
-            ((Vertex)m_transformedVertices.elementAtFast(i)).paint(g);
-        }
+        paintVertices(m_scene, m_transformedVertices, g, decrement);
 
         //Hightlight goes over everything!
         super.paint(g);
@@ -316,40 +285,11 @@ public class CameraView extends View implements Primitive
     
     protected void transformVertices()
     {
-        //This will have to change once vertices can be deleted, but
-        //that should be easy.  Just trying to keep the size the same,
-        //the vertices all get copied over anyway.
+        //Project the scene vertices into packed arrays in one pass, then
+        //hand the results to the Vertex objects the primitives paint from.
         FastVector sceneVertices = m_scene.getVerticesVector();
-        int sceneSize = sceneVertices.size();
-
-        if(sceneSize != m_sceneSize)
-        {
-            while(m_transformedVertices.size() < sceneSize)
-            {
-                m_transformedVertices.addElement(new Vertex());
-            }
-            while(m_transformedVertices.size() > sceneSize)
-            {
-                m_transformedVertices.
-                removeElementAt(m_transformedVertices.size()-1);
-            }
-            m_sceneSize = sceneSize;
-        }
-        
-        Point4f temp = new Point4f();
-        Vertex dest, source;
-        for(int i = 0; i < sceneSize; ++i)
-        {
-            //Get the vertex from the destination
-            dest = (Vertex)m_transformedVertices.elementAtFast(i);
-            source = (Vertex)sceneVertices.elementAtFast(i);
-            dest.set(source); //set for properties like selection
-            temp.set(source.x, source.y, source.z, 1);
-            
-            m_viewTransform.transform(temp);
-            temp.project(temp);
-            dest.set(temp.x, temp.y, temp.z);
-        }
+        m_projection.project(m_viewTransform, sceneVertices);
+        m_projection.copyTo(sceneVertices, m_transformedVertices);
         
         //Calculate axis and grid
 //         m_transOrigin.set(m_lookat.x, m_lookat.y, m_lookat.z, 1);
@@ -535,6 +475,17 @@ public class CameraView extends View implements Primitive
     public void mouseReleased(MouseEvent e)
     {
         m_localChange = true;
+
+        int mode = Mode.getMode();
+        if(mode == Mode.VERTEX_SELECT || mode == Mode.PRIMITIVE_SELECT)
+        {
+            Object picked = pick(m_scene, m_transformedVertices,
+                                 m_viewTransform, e.getX(), e.getY());
+            if(picked != null)
+            {
+                CommandExecutor.execute(new PickCommand(m_scene, picked));
+            }
+        }
         repaint();
     }
     
@@ -724,12 +675,12 @@ public class CameraView extends View implements Primitive
                    18, 18);
     }
     
-    public void transform(Transformation tr, FastVector fromVertices,
+    public void transform(Transformation tr, VertexBuffer fromVertices,
                           FastVector toVertices)
     {
         Vertex cameraVertex = (Vertex)toVertices.elementAtFast(m_indices[0]);
-        tr.transformVertex((Vertex)fromVertices.elementAtFast(m_indices[0]),
-                           (Vertex)toVertices.elementAtFast(m_indices[0]));
+        fromVertices.transformVertex(tr, m_indices[0],
+                                     (Vertex)toVertices.elementAtFast(m_indices[0]));
     }
     
     public boolean containsIndex(int index)
@@ -789,6 +740,31 @@ public class CameraView extends View implements Primitive
         return false;
     }
     
+    public boolean remapIndices(int indexMap[])
+    {
+        int kept = 0;
+        for(int i = 0; i < m_indices.length; ++i)
+        {
+            if(indexMap[m_indices[i]] != -1)
+            {
+                kept++;
+            }
+        }
+
+        int newIndices[] = new int[kept];
+        int j = 0;
+        for(int i = 0; i < m_indices.length; ++i)
+        {
+            if(indexMap[m_indices[i]] != -1)
+            {
+                newIndices[j++] = indexMap[m_indices[i]];
+            }
+        }
+
+        m_indices = newIndices;
+        return false;
+    }
+    
     public void replaceIndex(int oldIndex, int newIndex)
     {
         for(int i = 0; i < m_indices.length; ++i)
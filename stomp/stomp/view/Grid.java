@@ -91,18 +91,24 @@ public class Grid
 
         if(oldZoom != curZoom)
         {
-            while (zoom < 80)
+            //The spacing is shared by every view's grid, and the views
+            //may be painting on different threads.
+            synchronized(Grid.class)
             {
-                m_bigSpacing = m_bigSpacing * 4;
                 zoom = curZoom * m_bigSpacing;
-            }
-            while(zoom > 130)
-            {
-                m_bigSpacing = m_bigSpacing / 4.0;
-                zoom = curZoom * m_bigSpacing;
-            }
+                while (zoom < 80)
+                {
+                    m_bigSpacing = m_bigSpacing * 4;
+                    zoom = curZoom * m_bigSpacing;
+                }
+                while(zoom > 130)
+                {
+                    m_bigSpacing = m_bigSpacing / 4.0;
+                    zoom = curZoom * m_bigSpacing;
+                }
 
-            zoom2 = curZoom * (m_bigSpacing/4.0);
+                zoom2 = curZoom * (m_bigSpacing/4.0);
+            }
         }
         
         oldZoom = Mode.getZoom();
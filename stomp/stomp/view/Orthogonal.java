@@ -28,6 +28,18 @@ public class Orthogonal extends View implements Observer
     protected Scene m_scene;
 
     private FastVector m_transformedVertices = new FastVector();
+
+    //What m_transformedVertices was projected from.  Repaints for
+    //overlays like the selection box leave both alone, so the
+    //projection can be reused.
+    private int m_projectedVersion = -1;
+    private Matrix4f m_projectedTransform = new Matrix4f();
+    private Projection m_projection = new Projection();
+
+    //Grid of m_transformedVertices for picking, and a count of the
+    //times they have been re-projected so it knows when to rebuild.
+    private PickIndex m_pickIndex = new PickIndex();
+    private int m_projectionCount = 0;
     
     //Temporary variables indicating mode/state
     //    private static boolean m_fast = false;
@@ -68,28 +80,6 @@ public class Orthogonal extends View implements Observer
     //Transformation for move, rotate, scale, etc.
     protected Transformation m_transformation = null;
 
-    //Stuff needed for double-buffering
-    private Image offScreenImage;
-    private Dimension offScreenSize;
-    private Graphics offScreenGraphics;
-
-    //Add double-buffering to the paint method to allow smooth graphics
-    public final synchronized void update (Graphics g) 
-    {
-        Dimension d = getSize();
-        
-        if((offScreenImage == null) ||
-           (d.width != offScreenSize.width) ||
-           (d.height != offScreenSize.height)) 
-        {
-            offScreenImage = createImage(d.width, d.height);
-            offScreenSize = d;
-            offScreenGraphics = offScreenImage.getGraphics();
-        }
-        paint(offScreenGraphics);
-        g.drawImage(offScreenImage, 0, 0, null);
-    }
-    
     /**
      * Orthogonal constructor: creates an orthogonal viewport
      *
@@ -153,15 +143,27 @@ public class Orthogonal extends View implements Observer
 
     /**
      * Transform all of the vertices from the scene into a local list
-     * of vertices.  This need to be as fast as possible.
+     * of vertices.  This need to be as fast as possible, so if neither the
+     * view nor the scene has changed since the last paint nothing is done,
+     * and if only a few vertices have changed only those are transformed
+     * (unless Mode.INCREMENTAL_PROJECTION is off).
      */
     private final void transformVertices()
     {
-        //This will have to change once vertices can be deleted, but
-        //that should be easy.  Just trying to keep the size the same,
-        //the vertices all get copied over anyway.
         FastVector sceneVertices = m_scene.getVerticesVector();
         int sceneSize = sceneVertices.sizeFast();
+        int version = m_scene.getBufferVersion();
+
+        //Calculate the projection matrix
+        m_viewTransform.mul(projectToWindow, m_scaleTranslate);
+
+        boolean reuse = m_projectedVersion >= 0 &&
+            m_sceneSize == sceneSize &&
+            m_viewTransform.equals(m_projectedTransform);
+        if(reuse && version == m_projectedVersion)
+        {
+            return;
+        }
 
         //Make this scene's # of vertices match Scene
         if(m_sceneSize != sceneSize)
@@ -177,19 +179,50 @@ public class Orthogonal extends View implements Observer
             m_sceneSize = sceneSize;
         }
 
-        //Calculate the projection matrix
-        m_viewTransform.mul(projectToWindow, m_scaleTranslate);
+        int changed[] = null;
+        if(reuse && Mode.INCREMENTAL_PROJECTION)
+        {
+            changed = m_scene.getChangedVertices(m_projectedVersion);
+        }
 
         //Do vertex transformations
         //This must be optimized to be as fast as possible
         Vertex dest;
-        for(int i = 0; i < sceneSize; ++i)
+        if(changed != null)
         {
-            dest = (Vertex)m_transformedVertices.elementAtFast(i);
-            dest.set((Vertex)sceneVertices.elementAtFast(i));
-            
-            m_viewTransform.transform(dest);
+            int numChanged = m_scene.numChangedVertices();
+            for(int n = 0; n < numChanged; ++n)
+            {
+                int i = changed[n];
+                if(i < sceneSize)
+                {
+                    dest = (Vertex)m_transformedVertices.elementAtFast(i);
+                    dest.set((Vertex)sceneVertices.elementAtFast(i));
+                    m_viewTransform.transform(dest);
+                }
+            }
         }
+        else
+        {
+            m_projection.transform(m_viewTransform, sceneVertices);
+            m_projection.copyTo(sceneVertices, m_transformedVertices);
+        }
+
+        m_projectedVersion = version;
+        m_projectedTransform.set(m_viewTransform);
+        m_projectionCount++;
+    }
+
+    /**
+     * Get the pick index over the vertices as they were last drawn.
+     */
+    private final PickIndex getPickIndex()
+    {
+        m_pickIndex.validate(m_transformedVertices,
+                             m_scene.getPrimitivesVector(),
+                             m_projectionCount,
+                             m_scene.getTopologyVersion());
+        return m_pickIndex;
     }
 
     /**
@@ -279,36 +312,29 @@ public class Orthogonal extends View implements Observer
         //Depending on the number of primitives, choose to skip every
         //n (decrement) polygons
         int decrement = 1;
-        if(m_fast)
+        if(isFast())
         {
             decrement = 1 +
                 (int)(primitives.sizeFast()/Mode.DISAPPEAR_THRESHHOLD);
         }
 
-        //If primitives are selected, we can't ignore checking the
-        //temp.isSelected().  If none are selected, optimize it away.
+        paintUnselected(m_scene, m_transformedVertices, g, decrement,
+                        isFast(), m_viewTransform);
+
         if(m_scene.primitivesSelected())
         {
-            for(int i = primitives.sizeFast()-1; i >=0; i-=decrement)
-            {
-                temp = (Primitive)primitives.elementAtFast(i);
-                if(!temp.isSelected())
-                {
-                    temp.paint(m_transformedVertices, g);
-                }
-            }
-
-            FastVector selectedPrimitives = m_scene.getOrderedSelectedPrimitives();
             //Paint the selected primitives (speed hazard)
-            Vertex[] norm;
-            for(int i = selectedPrimitives.sizeFast()-1; i >=0; i--)//=decrement)
+            Vertex[] norm = { new Vertex(), new Vertex() };
+            for(int i = m_scene.numSelectedPrimitives()-1; i >=0; i--)
             {
-                temp = (Primitive)selectedPrimitives.elementAtFast(i);
-                temp.paint(m_transformedVertices, g);
+                temp = m_scene.getSelectedPrimitive(i);
+                Tessellation.paint(temp, m_transformedVertices,
+                                   m_scene.getVerticesVector(),
+                                   m_viewTransform, g);
                 
-                if(m_fast == false && temp instanceof Polygon3d)
+                if(!isFast() && temp instanceof Polygon3d)
                 {
-                    norm = ((Polygon3d)temp).getNormalPoints();
+                    ((Polygon3d)temp).getNormalPoints(norm);
                     
                     m_viewTransform.transform(norm[0]);
                     m_viewTransform.transform(norm[1]);
@@ -317,26 +343,10 @@ public class Orthogonal extends View implements Observer
                 }
             }
         }
-        else //only draw unselected, don't check either.
-        {
-            for(int i = primitives.sizeFast()-1; i >=0; i-=decrement)
-            {
-                ((Primitive)primitives.elementAtFast(i)).paint(m_transformedVertices, g);
-            }
-        }
 
-        //If there are selected vertices, make sure to draw all of them
-        //so the user can see what he is doing.
-        if(m_scene.verticesSelected())
-        {
-            decrement = 1;
-        }
-        
-        //Paint the vertices
-        for(int i = m_transformedVertices.sizeFast()-1; i >= 0; i-=decrement)
-        {
-            ((Vertex)m_transformedVertices.elementAtFast(i)).paint(g);
-        }
+        //Paint the vertices, all of the selected ones so the user can see
+        //what he is doing.
+        paintVertices(m_scene, m_transformedVertices, g, decrement);
 
         //Hightlight goes over everything!
         super.paint(g);
@@ -429,6 +439,7 @@ public class Orthogonal extends View implements Observer
         {
             CommandExecutor.execute(new SelectCommand(m_scene,
                                                       m_transformedVertices,
+                                                      getPickIndex(),
                                                       e.getX(), e.getY()));
         }
         //User is adding points
@@ -513,6 +524,7 @@ public class Orthogonal extends View implements Observer
             m_regionSelect = false;
             CommandExecutor.execute(new SelectRegionCommand(m_scene,
                                                             m_transformedVertices,
+                                                            getPickIndex(),
                                                             lowX, highX,
                                                             lowY, highY));
         }
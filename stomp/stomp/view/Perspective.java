@@ -9,6 +9,8 @@ import javax.vecmath.*;
 import java.awt.event.*;
 
 import stomp.transform.*;
+import stomp.command.CommandExecutor;
+import stomp.command.PickCommand;
 import stomp.gui.Appearance;
 
 /**
@@ -36,10 +38,6 @@ public class Perspective extends View
     protected Vector3f m_VUP;
     protected Vector3f m_PRP;
 
-    //Double buffering stuff
-    protected Image offScreenImage;
-    protected Dimension offScreenSize;
-    protected Graphics offScreenGraphics;
     protected Scene m_scene;
 
     //temp variables
@@ -88,13 +86,17 @@ public class Perspective extends View
     protected Point4f m_zPoints1[] = new Point4f[GRIDMAX + 1];
     protected Point4f m_zPoints2[] = new Point4f[GRIDMAX + 1];
     
-    private int m_sceneSize = 0;
+    private Projection m_projection = new Projection();
     
     double window_lft,window_rght, window_top, window_btm;
     double hold_lft, hold_rght, hold_btm, hold_top;
     protected boolean m_localChange = false;
 
     private boolean m_localFast = false;
+
+    //Whether the mouse has moved since it was pressed.  A click that
+    //doesn't move selects, in the select modes.
+    private boolean m_dragged = false;
     
     /**
      * Initialize the view and setup initial matrices.
@@ -165,23 +167,6 @@ public class Perspective extends View
         repaint();
     }
 
-    /**
-     * Overload update to provide double buffering
-     */
-    public final synchronized void update (Graphics g) 
-    {
-        Dimension d = getSize();
-        
-        if((offScreenImage == null) || (d.width != offScreenSize.width) ||  (d.height != offScreenSize.height)) 
-        {
-            offScreenImage = createImage(d.width, d.height);
-            offScreenSize = d;
-            offScreenGraphics = offScreenImage.getGraphics();
-        }
-        paint(offScreenGraphics);
-        g.drawImage(offScreenImage, 0, 0, null);
-    }
-
     /**
      * Draw the view.  Don't recompute the perspective pipeline.
      */
@@ -236,41 +221,36 @@ public class Perspective extends View
         //Paint the non-selected ones only (speed hazard)
         FastVector primitives = m_scene.getPrimitivesVector();
         Primitive temp;
+        boolean fast = isFast() || (m_localFast && !m_refining);
         int decrement = 1;
-        if(m_fast || m_localFast)
+        if(fast)
         {
             decrement = 1 +
                 (int)(primitives.sizeFast()/Mode.DISAPPEAR_THRESHHOLD);
         }
 
-        if(m_scene.primitivesSelected())
+        if(!paintShaded(m_scene, m_transformedVertices, g, fast,
+                        m_viewTransform))
         {
-            for(int i = primitives.sizeFast()-1; i >=0; i-=decrement)
-            {
-                temp = (Primitive)primitives.elementAtFast(i);
-                if(!temp.isSelected())
-                {
-                    temp.paint(m_transformedVertices, g);
-                }
-            }
+            paintUnselected(m_scene, m_transformedVertices, g, decrement,
+                            fast, m_viewTransform);
+        }
 
-            FastVector selectedPrimitives = m_scene.getOrderedSelectedPrimitives();
+        if(m_scene.primitivesSelected())
+        {
             //Paint the selected ones (speed hazard)
             Point4f normalTemp = new Point4f();
-            Vertex[] norm;
-            int decrement2 = 1;
-            if(m_fast || m_localFast)
+            Vertex[] norm = { new Vertex(), new Vertex() };
+            for(int i = m_scene.numSelectedPrimitives()-1; i >= 0; i--)
             {
-                decrement2 = 1 + (int)(primitives.sizeFast()/(Mode.DISAPPEAR_THRESHHOLD*2));
-            }
-            for(int i = selectedPrimitives.sizeFast()-1; i >= 0; i-=decrement2)
-            {
-                temp = (Primitive)selectedPrimitives.elementAtFast(i);
-                temp.paint(m_transformedVertices, g);
+                temp = m_scene.getSelectedPrimitive(i);
+                Tessellation.paint(temp, m_transformedVertices,
+                                   m_scene.getVerticesVector(),
+                                   m_viewTransform, g);
                 
-                if(!m_fast && temp instanceof Polygon3d)
+                if(!isFast() && temp instanceof Polygon3d)
                 {
-                    norm = ((Polygon3d)temp).getNormalPoints();
+                    ((Polygon3d)temp).getNormalPoints(norm);
                     
                     //0
                     normalTemp.set(norm[0].x, norm[0].y, norm[0].z, 1);
@@ -288,23 +268,9 @@ public class Perspective extends View
                 }
             }
         }
-        else
-        {
-            for(int i = primitives.sizeFast()-1; i >=0; i-=decrement)
-            {
-                ((Primitive)primitives.elementAtFast(i)).paint(m_transformedVertices, g);
-            }
-        }
 
 
-        if(m_scene.verticesSelected())
-        {
-            decrement = 1;
-        }
-        for(int i = m_transformedVertices.sizeFast()-1; i >= 0; i-=decrement)
-        {
-            ((Vertex)m_transformedVertices.elementAtFast(i)).paint(g);
-        }
+        paintVertices(m_scene, m_transformedVertices, g, decrement);
         
         //Hightlight goes over everything!
         super.paint(g);
@@ -324,40 +290,11 @@ public class Perspective extends View
      */
     protected void transformVertices()
     {
-        //This will have to change once vertices can be deleted, but
-        //that should be easy.  Just trying to keep the size the same,
-        //the vertices all get copied over anyway.
+        //Project the scene vertices into packed arrays in one pass, then
+        //hand the results to the Vertex objects the primitives paint from.
         FastVector sceneVertices = m_scene.getVerticesVector();
-        int sceneSize = sceneVertices.size();
-
-        if(sceneSize != m_sceneSize)
-        {
-            while(m_transformedVertices.size() < sceneSize)
-            {
-                m_transformedVertices.addElement(new Vertex());
-            }
-            while(m_transformedVertices.size() > sceneSize)
-            {
-                m_transformedVertices.
-                removeElementAt(m_transformedVertices.size()-1);
-            }
-            m_sceneSize = sceneSize;
-        }
-
-        Point4f temp = new Point4f();
-        Vertex dest, source;
-        for(int i = 0; i < sceneSize; ++i)
-        {
-            //Get the vertex from the destination
-            dest = (Vertex)m_transformedVertices.elementAtFast(i);
-            source = (Vertex)sceneVertices.elementAtFast(i);
-            dest.set(source); //set for properties like selection
-            temp.set(source.x, source.y, source.z, 1);
-            
-            m_viewTransform.transform(temp);
-            temp.project(temp);
-            dest.set(temp.x, temp.y, temp.z);
-        }
+        m_projection.project(m_viewTransform, sceneVertices);
+        m_projection.copyTo(sceneVertices, m_transformedVertices);
         
         //Calculate axis and grid
         m_transOrigin.set(0, 0, 0, 1);
@@ -568,6 +505,7 @@ public class Perspective extends View
     public void mousePressed(MouseEvent e)
     {
         m_localFast = true;
+        m_dragged = false;
         m_origin = e.getPoint();
         m_holdZoom = m_zoom;
         
@@ -584,12 +522,25 @@ public class Perspective extends View
         
         m_localFast = false;
         m_localChange = true;
+
+        int mode = Mode.getMode();
+        if(!m_dragged &&
+           (mode == Mode.VERTEX_SELECT || mode == Mode.PRIMITIVE_SELECT))
+        {
+            Object picked = pick(m_scene, m_transformedVertices,
+                                 m_viewTransform, e.getX(), e.getY());
+            if(picked != null)
+            {
+                CommandExecutor.execute(new PickCommand(m_scene, picked));
+            }
+        }
         repaint();
     }
     
     public void mouseDragged(MouseEvent e)
     {
         m_localFast = true;
+        m_dragged = true;
         Point m_distance = e.getPoint();
         float diffx, diffy;
 
@@ -0,0 +1,393 @@
+package stomp.view;
+
+import java.util.Arrays;
+
+import stomp.FastVector;
+import stomp.data3d.*;
+
+/**
+ * PickIndex is a uniform grid over a view's projected vertices and
+ * polygons, so a click or a selection box only has to test what is near
+ * it instead of everything in the scene.  Each vertex goes in the cell
+ * it lands in and each polygon in every cell its screen bounds cover.
+ * The grid is fitted to the projected vertices with about four entries
+ * to a cell.
+ *
+ * <p>
+ * The index only narrows things down: the select commands still call
+ * select or selectRegion on what it finds, so hiding, and the exact
+ * rules for what counts as a hit, stay with the primitives.  Polygons
+ * covering too many cells, polygons with a vertex that did not project,
+ * and primitives that aren't polygons (groups, splines, lights, ...)
+ * are kept in a list that every query returns.
+ *
+ * <p>
+ * The view owning the index says what it was projected from when it
+ * asks for it, and it is rebuilt the first time it is asked for after
+ * the projection or the primitives change.
+ */
+public class PickIndex
+{
+    //Most cells along a side, and most cells one polygon can go in
+    //before it is put with the primitives every query returns.
+    private static final int MAX_CELLS = 1024;
+    private static final int MAX_SPAN = 64;
+
+    //What the index was built from.
+    private FastVector m_vertices;
+    private FastVector m_primitives;
+    private int m_projection = -1;
+    private int m_topology = -1;
+    private int m_primitiveModCount = -1;
+
+    //The grid.  Cell (i, j) holds m_vertexCells[m_vertexStart[c]] up to
+    //m_vertexCells[m_vertexStart[c+1]] with c = j * m_cellsX + i, and
+    //the same for primitive indices.
+    private float m_minX, m_minY;
+    private float m_scaleX, m_scaleY;
+    private int m_cellsX, m_cellsY;
+    private int m_vertexStart[] = new int[1];
+    private int m_vertexCells[] = new int[0];
+    private int m_primitiveStart[] = new int[1];
+    private int m_primitiveCells[] = new int[0];
+
+    //Screen bounds of the polygons in the grid, four to a primitive.
+    private float m_bounds[] = new float[0];
+
+    //Primitive indices every query returns, in order.
+    private int m_others[] = new int[0];
+    private int m_numOthers = 0;
+
+    //Query results, and a mark for each primitive found by the current
+    //query so polygons in several cells are only returned once.
+    private int m_found[] = new int[16];
+    private int m_numFound = 0;
+    private int m_marks[] = new int[0];
+    private int m_query = 0;
+
+    /**
+     * Make sure the index is up to date, rebuilding it if it was made
+     * from a different projection or list of primitives.
+     *
+     * @param vertices projected vertices, in screen coordinates.
+     * @param primitives the scene's primitives.
+     * @param projection number the view changes whenever it re-projects
+     * the vertices.
+     * @param topology the scene's topology version.
+     */
+    public final void validate(FastVector vertices, FastVector primitives,
+                               int projection, int topology)
+    {
+        if(vertices == m_vertices && primitives == m_primitives &&
+           projection == m_projection && topology == m_topology &&
+           primitives.getModCount() == m_primitiveModCount)
+        {
+            return;
+        }
+
+        m_vertices = vertices;
+        m_primitives = primitives;
+        m_projection = projection;
+        m_topology = topology;
+        m_primitiveModCount = primitives.getModCount();
+        build();
+    }
+
+    private final void build()
+    {
+        int numVertices = m_vertices.sizeFast();
+        int numPrimitives = m_primitives.sizeFast();
+
+        float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE;
+        float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+        for(int i = 0; i < numVertices; i++)
+        {
+            Vertex v = (Vertex)m_vertices.elementAtFast(i);
+            if(finite(v.x) && finite(v.y))
+            {
+                minX = Math.min(minX, v.x);
+                maxX = Math.max(maxX, v.x);
+                minY = Math.min(minY, v.y);
+                maxY = Math.max(maxY, v.y);
+            }
+        }
+        if(minX > maxX)
+        {
+            minX = maxX = minY = maxY = 0;
+        }
+
+        //About four entries to a cell, with square cells.
+        float width = maxX - minX + 1;
+        float height = maxY - minY + 1;
+        double cells = Math.max(1, (numVertices + numPrimitives) / 4);
+        double size = Math.max(1, Math.sqrt(width * (double)height / cells));
+        m_cellsX = (int)Math.min(MAX_CELLS, Math.ceil(width / size));
+        m_cellsY = (int)Math.min(MAX_CELLS, Math.ceil(height / size));
+        m_minX = minX;
+        m_minY = minY;
+        m_scaleX = m_cellsX / width;
+        m_scaleY = m_cellsY / height;
+        int numCells = m_cellsX * m_cellsY;
+
+        if(m_bounds.length < 4 * numPrimitives)
+        {
+            m_bounds = new float[4 * numPrimitives];
+            m_marks = new int[numPrimitives];
+            m_query = 0;
+        }
+        if(m_others.length < numPrimitives)
+        {
+            m_others = new int[numPrimitives];
+        }
+
+        //Work out which cells each polygon covers, leaving the ones
+        //that don't fit in the grid with everything else.
+        m_numOthers = 0;
+        int numEntries = 0;
+        for(int p = 0; p < numPrimitives; p++)
+        {
+            Object element = m_primitives.elementAtFast(p);
+            if(!(element instanceof Polygon3d) ||
+               !polygonBounds(((Polygon3d)element).getIndices(), p))
+            {
+                m_others[m_numOthers++] = p;
+                m_bounds[4*p] = Float.NaN;
+                continue;
+            }
+
+            int span = (cellX(m_bounds[4*p+1]) - cellX(m_bounds[4*p]) + 1) *
+                (cellY(m_bounds[4*p+3]) - cellY(m_bounds[4*p+2]) + 1);
+            if(span > MAX_SPAN)
+            {
+                m_others[m_numOthers++] = p;
+                m_bounds[4*p] = Float.NaN;
+            }
+            else
+            {
+                numEntries += span;
+            }
+        }
+
+        //Count the entries in each cell, then fill them in.
+        m_vertexStart = new int[numCells + 1];
+        m_primitiveStart = new int[numCells + 1];
+        for(int i = 0; i < numVertices; i++)
+        {
+            Vertex v = (Vertex)m_vertices.elementAtFast(i);
+            if(finite(v.x) && finite(v.y))
+            {
+                m_vertexStart[cellY(v.y) * m_cellsX + cellX(v.x) + 1]++;
+            }
+        }
+        for(int p = 0; p < numPrimitives; p++)
+        {
+            if(inGrid(p))
+            {
+                for(int j = cellY(m_bounds[4*p+2]); j <= cellY(m_bounds[4*p+3]); j++)
+                {
+                    for(int i = cellX(m_bounds[4*p]); i <= cellX(m_bounds[4*p+1]); i++)
+                    {
+                        m_primitiveStart[j * m_cellsX + i + 1]++;
+                    }
+                }
+            }
+        }
+        for(int c = 0; c < numCells; c++)
+        {
+            m_vertexStart[c+1] += m_vertexStart[c];
+            m_primitiveStart[c+1] += m_primitiveStart[c];
+        }
+
+        m_vertexCells = new int[m_vertexStart[numCells]];
+        m_primitiveCells = new int[numEntries];
+        int next[] = new int[numCells];
+        System.arraycopy(m_vertexStart, 0, next, 0, numCells);
+        for(int i = 0; i < numVertices; i++)
+        {
+            Vertex v = (Vertex)m_vertices.elementAtFast(i);
+            if(finite(v.x) && finite(v.y))
+            {
+                m_vertexCells[next[cellY(v.y) * m_cellsX + cellX(v.x)]++] = i;
+            }
+        }
+        System.arraycopy(m_primitiveStart, 0, next, 0, numCells);
+        for(int p = 0; p < numPrimitives; p++)
+        {
+            if(inGrid(p))
+            {
+                for(int j = cellY(m_bounds[4*p+2]); j <= cellY(m_bounds[4*p+3]); j++)
+                {
+                    for(int i = cellX(m_bounds[4*p]); i <= cellX(m_bounds[4*p+1]); i++)
+                    {
+                        m_primitiveCells[next[j * m_cellsX + i]++] = p;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Work out the screen bounds of a polygon, widened to whole pixels
+     * since Polygon3d.select rounds its corners to ints.
+     *
+     * @return false if a vertex didn't project to a finite point.
+     */
+    private final boolean polygonBounds(int indices[], int p)
+    {
+        float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE;
+        float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+        for(int k = 0; k < indices.length; k++)
+        {
+            if(indices[k] < 0 || indices[k] >= m_vertices.sizeFast())
+            {
+                return false;
+            }
+            Vertex v = (Vertex)m_vertices.elementAtFast(indices[k]);
+            if(!finite(v.x) || !finite(v.y))
+            {
+                return false;
+            }
+            minX = Math.min(minX, v.x);
+            maxX = Math.max(maxX, v.x);
+            minY = Math.min(minY, v.y);
+            maxY = Math.max(maxY, v.y);
+        }
+        if(indices.length == 0)
+        {
+            return false;
+        }
+
+        m_bounds[4*p] = (float)Math.floor(minX);
+        m_bounds[4*p+1] = (float)Math.ceil(maxX);
+        m_bounds[4*p+2] = (float)Math.floor(minY);
+        m_bounds[4*p+3] = (float)Math.ceil(maxY);
+        return true;
+    }
+
+    private final boolean inGrid(int p)
+    {
+        //Primitives left out of the grid have NaN bounds.
+        return m_bounds[4*p] == m_bounds[4*p];
+    }
+
+    /**
+     * Find the vertices inside a box on the screen, edges included.
+     *
+     * @return indices of the vertices found, in increasing order.  There
+     * are numFound of them.
+     */
+    public final int[] getVertices(float xmin, float xmax,
+                                   float ymin, float ymax)
+    {
+        m_numFound = 0;
+        if(!(xmin <= xmax && ymin <= ymax))
+        {
+            return m_found;
+        }
+
+        for(int j = cellY(ymin); j <= cellY(ymax); j++)
+        {
+            for(int i = cellX(xmin); i <= cellX(xmax); i++)
+            {
+                int c = j * m_cellsX + i;
+                for(int n = m_vertexStart[c]; n < m_vertexStart[c+1]; n++)
+                {
+                    Vertex v = (Vertex)m_vertices.elementAtFast(m_vertexCells[n]);
+                    if(v.x >= xmin && v.x <= xmax &&
+                       v.y >= ymin && v.y <= ymax)
+                    {
+                        addFound(m_vertexCells[n]);
+                    }
+                }
+            }
+        }
+
+        Arrays.sort(m_found, 0, m_numFound);
+        return m_found;
+    }
+
+    /**
+     * Find the primitives that might be selected by a click or box
+     * inside the given box on the screen: the polygons whose bounds
+     * meet it, and everything that isn't in the grid.
+     *
+     * @return indices into the primitive list, in increasing order.
+     * There are numFound of them.
+     */
+    public final int[] getPrimitives(float xmin, float xmax,
+                                     float ymin, float ymax)
+    {
+        m_numFound = 0;
+        if(++m_query == 0)
+        {
+            Arrays.fill(m_marks, 0);
+            m_query = 1;
+        }
+
+        if(xmin <= xmax && ymin <= ymax)
+        {
+            for(int j = cellY(ymin); j <= cellY(ymax); j++)
+            {
+                for(int i = cellX(xmin); i <= cellX(xmax); i++)
+                {
+                    int c = j * m_cellsX + i;
+                    for(int n = m_primitiveStart[c]; n < m_primitiveStart[c+1]; n++)
+                    {
+                        int p = m_primitiveCells[n];
+                        if(m_marks[p] != m_query &&
+                           m_bounds[4*p] <= xmax && m_bounds[4*p+1] >= xmin &&
+                           m_bounds[4*p+2] <= ymax && m_bounds[4*p+3] >= ymin)
+                        {
+                            m_marks[p] = m_query;
+                            addFound(p);
+                        }
+                    }
+                }
+            }
+        }
+
+        for(int n = 0; n < m_numOthers; n++)
+        {
+            addFound(m_others[n]);
+        }
+
+        Arrays.sort(m_found, 0, m_numFound);
+        return m_found;
+    }
+
+    /**
+     * Number of indices found by the last query.
+     */
+    public final int numFound()
+    {
+        return m_numFound;
+    }
+
+    private final void addFound(int index)
+    {
+        if(m_numFound == m_found.length)
+        {
+            int grown[] = new int[2 * m_found.length];
+            System.arraycopy(m_found, 0, grown, 0, m_numFound);
+            m_found = grown;
+        }
+        m_found[m_numFound++] = index;
+    }
+
+    private final int cellX(float x)
+    {
+        int i = (int)((x - m_minX) * m_scaleX);
+        return i < 0 ? 0 : (i >= m_cellsX ? m_cellsX - 1 : i);
+    }
+
+    private final int cellY(float y)
+    {
+        int j = (int)((y - m_minY) * m_scaleY);
+        return j < 0 ? 0 : (j >= m_cellsY ? m_cellsY - 1 : j);
+    }
+
+    private static boolean finite(float value)
+    {
+        return !Float.isNaN(value) && !Float.isInfinite(value);
+    }
+}
@@ -0,0 +1,303 @@
+package stomp.view;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import javax.vecmath.*;
+
+import stomp.FastVector;
+import stomp.Mode;
+import stomp.data3d.*;
+
+/**
+ * Projection pushes the scene's vertices through a 4x4 view matrix and
+ * the perspective divide, into packed screen-space arrays.  The matrix
+ * is held in locals and the output arrays are kept from frame to frame,
+ * so once they are big enough a projection allocates nothing and makes
+ * no calls per vertex.
+ *
+ * <p>
+ * The arithmetic is done in the same order as Matrix4f.transform
+ * followed by Point4f.project, so the results are exactly the ones the
+ * views used to get from those.
+ *
+ * <p>
+ * Scenes with at least Mode.PARALLEL_PROJECTION vertices are split into
+ * slices that are projected on the common ForkJoinPool.  Every vertex is
+ * still worked out by the same code, so the results don't change.
+ */
+public class Projection
+{
+    private static final int PROJECT = 0;
+    private static final int TRANSFORM = 1;
+    private static final int COPY = 2;
+
+    //Vertices per slice when projecting in parallel.
+    private static final int SLICE_SIZE = 16384;
+
+    private float m_x[] = new float[16];
+    private float m_y[] = new float[16];
+    private float m_z[] = new float[16];
+    private int m_size = 0;
+
+    public Projection()
+    {
+    }
+
+    /**
+     * Project every vertex in a vector.
+     *
+     * @param m view matrix, including the perspective.
+     * @param source vector of Vertex to project.
+     */
+    public final void project(Matrix4f m, FastVector source)
+    {
+        run(PROJECT, m, source, null);
+    }
+
+    /**
+     * Transform every vertex in a vector without a perspective divide,
+     * as Matrix4f.transform(Point3f) would.
+     *
+     * @param m view matrix.
+     * @param source vector of Vertex to transform.
+     */
+    public final void transform(Matrix4f m, FastVector source)
+    {
+        run(TRANSFORM, m, source, null);
+    }
+
+    private final void run(int what, Matrix4f m, FastVector source,
+                           FastVector vertices)
+    {
+        int size = source.sizeFast();
+        if(what != COPY)
+        {
+            if(size > m_x.length)
+            {
+                int capacity = Math.max(size, m_x.length * 2);
+                m_x = new float[capacity];
+                m_y = new float[capacity];
+                m_z = new float[capacity];
+            }
+            m_size = size;
+        }
+
+        if(Mode.PARALLEL_PROJECTION > 0 && size >= Mode.PARALLEL_PROJECTION)
+        {
+            ForkJoinPool.commonPool().invoke(
+                new Slice(what, m, source, vertices, 0, size));
+        }
+        else
+        {
+            runSlice(what, m, source, vertices, 0, size);
+        }
+    }
+
+    private final void runSlice(int what, Matrix4f m, FastVector source,
+                                FastVector vertices, int from, int to)
+    {
+        if(what == PROJECT)
+        {
+            project(m, source, from, to, m_x, m_y, m_z);
+        }
+        else if(what == TRANSFORM)
+        {
+            transform(m, source, from, to, m_x, m_y, m_z);
+        }
+        else
+        {
+            copyTo(source, vertices, from, to);
+        }
+    }
+
+    /**
+     * A range of vertices to be worked on by the ForkJoinPool, split in
+     * half until it is no more than SLICE_SIZE long.
+     */
+    private class Slice extends RecursiveAction
+    {
+        private int m_what;
+        private Matrix4f m_matrix;
+        private FastVector m_source;
+        private FastVector m_vertices;
+        private int m_from;
+        private int m_to;
+
+        Slice(int what, Matrix4f m, FastVector source, FastVector vertices,
+              int from, int to)
+        {
+            m_what = what;
+            m_matrix = m;
+            m_source = source;
+            m_vertices = vertices;
+            m_from = from;
+            m_to = to;
+        }
+
+        protected void compute()
+        {
+            if(m_to - m_from <= SLICE_SIZE)
+            {
+                runSlice(m_what, m_matrix, m_source, m_vertices, m_from, m_to);
+            }
+            else
+            {
+                int middle = (m_from + m_to) >>> 1;
+                invokeAll(new Slice(m_what, m_matrix, m_source, m_vertices,
+                                    m_from, middle),
+                          new Slice(m_what, m_matrix, m_source, m_vertices,
+                                    middle, m_to));
+            }
+        }
+    }
+
+    /**
+     * Transform vertices through a matrix, with w taken to be one, and
+     * divide by the resulting w.  Vertices from..to-1 are read and the
+     * same entries of the output arrays written.
+     */
+    public static void project(Matrix4f m, FastVector source,
+                               int from, int to,
+                               float outX[], float outY[], float outZ[])
+    {
+        float m00 = m.m00, m01 = m.m01, m02 = m.m02, m03 = m.m03;
+        float m10 = m.m10, m11 = m.m11, m12 = m.m12, m13 = m.m13;
+        float m20 = m.m20, m21 = m.m21, m22 = m.m22, m23 = m.m23;
+        float m30 = m.m30, m31 = m.m31, m32 = m.m32, m33 = m.m33;
+
+        Vertex v;
+        for(int i = from; i < to; ++i)
+        {
+            v = (Vertex)source.elementAtFast(i);
+            float px = v.x;
+            float py = v.y;
+            float pz = v.z;
+
+            //m03*1 etc. is exact, so leaving out w changes nothing.
+            float tx = m00*px + m01*py + m02*pz + m03;
+            float ty = m10*px + m11*py + m12*pz + m13;
+            float tz = m20*px + m21*py + m22*pz + m23;
+            float tw = m30*px + m31*py + m32*pz + m33;
+
+            outX[i] = tx/tw;
+            outY[i] = ty/tw;
+            outZ[i] = tz/tw;
+        }
+    }
+
+    /**
+     * The same as project, for points held in arrays rather than a
+     * vector of Vertex.
+     */
+    public static void project(Matrix4f m, float x[], float y[], float z[],
+                               int from, int to,
+                               float outX[], float outY[], float outZ[])
+    {
+        float m00 = m.m00, m01 = m.m01, m02 = m.m02, m03 = m.m03;
+        float m10 = m.m10, m11 = m.m11, m12 = m.m12, m13 = m.m13;
+        float m20 = m.m20, m21 = m.m21, m22 = m.m22, m23 = m.m23;
+        float m30 = m.m30, m31 = m.m31, m32 = m.m32, m33 = m.m33;
+
+        for(int i = from; i < to; ++i)
+        {
+            float px = x[i];
+            float py = y[i];
+            float pz = z[i];
+
+            float tx = m00*px + m01*py + m02*pz + m03;
+            float ty = m10*px + m11*py + m12*pz + m13;
+            float tz = m20*px + m21*py + m22*pz + m23;
+            float tw = m30*px + m31*py + m32*pz + m33;
+
+            outX[i] = tx/tw;
+            outY[i] = ty/tw;
+            outZ[i] = tz/tw;
+        }
+    }
+
+    /**
+     * Transform vertices through a matrix, with w taken to be one, and
+     * no divide.  Same layout as project.
+     */
+    public static void transform(Matrix4f m, FastVector source,
+                                 int from, int to,
+                                 float outX[], float outY[], float outZ[])
+    {
+        float m00 = m.m00, m01 = m.m01, m02 = m.m02, m03 = m.m03;
+        float m10 = m.m10, m11 = m.m11, m12 = m.m12, m13 = m.m13;
+        float m20 = m.m20, m21 = m.m21, m22 = m.m22, m23 = m.m23;
+
+        Vertex v;
+        for(int i = from; i < to; ++i)
+        {
+            v = (Vertex)source.elementAtFast(i);
+            float px = v.x;
+            float py = v.y;
+            float pz = v.z;
+
+            outX[i] = m00*px + m01*py + m02*pz + m03;
+            outY[i] = m10*px + m11*py + m12*pz + m13;
+            outZ[i] = m20*px + m21*py + m22*pz + m23;
+        }
+    }
+
+    /**
+     * Number of vertices in the last projection.
+     */
+    public final int size()
+    {
+        return m_size;
+    }
+
+    public final float[] getXArray()
+    {
+        return m_x;
+    }
+
+    public final float[] getYArray()
+    {
+        return m_y;
+    }
+
+    public final float[] getZArray()
+    {
+        return m_z;
+    }
+
+    /**
+     * Copy the last projection into a vector of Vertex, along with the
+     * selected and hidden flags from the vertices it was projected from,
+     * since that is what primitives paint from.  The vector is grown or
+     * shrunk to match.
+     *
+     * @param source the vertices that were projected.
+     * @param vertices vector of Vertex to fill in.
+     */
+    public final void copyTo(FastVector source, FastVector vertices)
+    {
+        while(vertices.sizeFast() < m_size)
+        {
+            vertices.addElement(new Vertex());
+        }
+        while(vertices.sizeFast() > m_size)
+        {
+            vertices.removeElementAt(vertices.sizeFast()-1);
+        }
+
+        run(COPY, null, source, vertices);
+    }
+
+    private final void copyTo(FastVector source, FastVector vertices,
+                              int from, int to)
+    {
+        Vertex dest;
+        for(int i = from; i < to; ++i)
+        {
+            dest = (Vertex)vertices.elementAtFast(i);
+            dest.set((Vertex)source.elementAtFast(i)); //for the flags
+            dest.x = m_x[i];
+            dest.y = m_y[i];
+            dest.z = m_z[i];
+        }
+    }
+}
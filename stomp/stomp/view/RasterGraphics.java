@@ -0,0 +1,521 @@
+package stomp.view;
+
+import java.awt.*;
+import java.awt.image.*;
+import java.text.AttributedCharacterIterator;
+
+/**
+ * RasterGraphics draws lines and filled rectangles straight into the int
+ * pixels of a BufferedImage, instead of going through the Java2D
+ * pipeline for every call.  Wireframes are nothing but short lines and
+ * tiny vertex markers, so on dense meshes most of the time used to go
+ * into the per-call overhead of Graphics.drawLine.
+ *
+ * <p>
+ * Lines are drawn with Bresenham's algorithm, clipped by working out
+ * the first and last pixel inside the clip rectangle and starting the
+ * error term part way along, so a clipped line lights the same pixels
+ * it would if the image were bigger.  Everything else (text, ovals,
+ * images, XOR mode, see-through colors) is handed to an ordinary Graphics
+ * on the same image, which is kept in the same state, so the primitives'
+ * paint methods don't need to know which one they have.
+ *
+ * <p>
+ * Drawing can be cancelled from another thread, after which lines and
+ * rectangles are ignored so a paint running on this graphics finishes
+ * quickly.
+ */
+public class RasterGraphics extends Graphics
+{
+    private BufferedImage m_image;
+    private Graphics m_graphics;
+    private int m_pixels[];
+    private int m_offset;
+    private int m_stride;
+    private int m_width;
+    private int m_height;
+
+    private int m_translateX = 0;
+    private int m_translateY = 0;
+
+    //Clip rectangle in pixels, inclusive.  Empty if left > right.
+    private int m_clipLeft;
+    private int m_clipTop;
+    private int m_clipRight;
+    private int m_clipBottom;
+
+    private Color m_color;
+    private int m_rgb;
+
+    //False when drawing must go through m_graphics (XOR mode or a color
+    //that isn't opaque).
+    private boolean m_direct = true;
+    private boolean m_xorMode = false;
+
+    //Set by cancel, from any thread.
+    private volatile boolean m_cancelled = false;
+
+    /**
+     * Create a RasterGraphics for drawing into an image.
+     *
+     * @param image a TYPE_INT_RGB or TYPE_INT_ARGB image.
+     */
+    public RasterGraphics(BufferedImage image)
+    {
+        this(image, image.getGraphics());
+    }
+
+    private RasterGraphics(BufferedImage image, Graphics graphics)
+    {
+        if(image.getType() != BufferedImage.TYPE_INT_RGB &&
+           image.getType() != BufferedImage.TYPE_INT_ARGB)
+        {
+            throw new IllegalArgumentException("RasterGraphics needs an int RGB image");
+        }
+
+        m_image = image;
+        m_graphics = graphics;
+        m_width = image.getWidth();
+        m_height = image.getHeight();
+
+        WritableRaster raster = image.getRaster();
+        DataBufferInt buffer = (DataBufferInt)raster.getDataBuffer();
+        SinglePixelPackedSampleModel model =
+            (SinglePixelPackedSampleModel)raster.getSampleModel();
+        m_pixels = buffer.getData();
+        m_offset = buffer.getOffset();
+        m_stride = model.getScanlineStride();
+
+        setColor(m_graphics.getColor());
+        updateClip();
+    }
+
+    public Graphics create()
+    {
+        RasterGraphics copy = new RasterGraphics(m_image, m_graphics.create());
+        copy.m_translateX = m_translateX;
+        copy.m_translateY = m_translateY;
+        copy.setColor(m_color);
+        if(m_xorMode)
+        {
+            copy.m_xorMode = true;
+            copy.m_direct = false;
+        }
+        copy.updateClip();
+        return copy;
+    }
+
+    public void dispose()
+    {
+        m_graphics.dispose();
+    }
+
+    /**
+     * Stop drawing lines and rectangles.  May be called from any thread.
+     */
+    public void cancel()
+    {
+        m_cancelled = true;
+    }
+
+    /**
+     * Whether cancel has been called.
+     */
+    public boolean isCancelled()
+    {
+        return m_cancelled;
+    }
+
+    /************************************************************
+     * Drawn here
+     ************************************************************/
+
+    public void drawLine(int x0, int y0, int x1, int y1)
+    {
+        if(m_cancelled)
+        {
+            return;
+        }
+        if(!m_direct)
+        {
+            m_graphics.drawLine(x0, y0, x1, y1);
+            return;
+        }
+
+        x0 += m_translateX;
+        y0 += m_translateY;
+        x1 += m_translateX;
+        y1 += m_translateY;
+
+        //Work along the major axis.  Pixel i (0 to major) is i steps
+        //along it and floor((2*minor*i + major) / (2*major)) steps along
+        //the other axis, which is exactly where Bresenham puts it.
+        long dx = (long)x1 - x0;
+        long dy = (long)y1 - y0;
+        boolean xMajor = Math.abs(dx) >= Math.abs(dy);
+        long major = xMajor ? Math.abs(dx) : Math.abs(dy);
+        long minor = xMajor ? Math.abs(dy) : Math.abs(dx);
+        int majorStart = xMajor ? x0 : y0;
+        int minorStart = xMajor ? y0 : x0;
+        boolean majorUp = xMajor ? (dx >= 0) : (dy >= 0);
+        boolean minorUp = xMajor ? (dy >= 0) : (dx >= 0);
+        int majorLow = xMajor ? m_clipLeft : m_clipTop;
+        int majorHigh = xMajor ? m_clipRight : m_clipBottom;
+        int minorLow = xMajor ? m_clipTop : m_clipLeft;
+        int minorHigh = xMajor ? m_clipBottom : m_clipRight;
+
+        //Clip: find the first and last pixel inside on each axis.
+        long first = 0;
+        long last = major;
+        if(majorUp)
+        {
+            first = Math.max(first, (long)majorLow - majorStart);
+            last = Math.min(last, (long)majorHigh - majorStart);
+        }
+        else
+        {
+            first = Math.max(first, (long)majorStart - majorHigh);
+            last = Math.min(last, (long)majorStart - majorLow);
+        }
+
+        long stepsLow, stepsHigh;
+        if(minorUp)
+        {
+            stepsLow = (long)minorLow - minorStart;
+            stepsHigh = (long)minorHigh - minorStart;
+        }
+        else
+        {
+            stepsLow = (long)minorStart - minorHigh;
+            stepsHigh = (long)minorStart - minorLow;
+        }
+        if(minor == 0)
+        {
+            if(stepsLow > 0 || stepsHigh < 0)
+            {
+                return;
+            }
+        }
+        else
+        {
+            //First i with at least stepsLow minor steps, last i with at
+            //most stepsHigh.
+            first = Math.max(first, ceilDiv(2*major*stepsLow - major, 2*minor));
+            last = Math.min(last, ceilDiv(2*major*(stepsHigh+1) - major, 2*minor) - 1);
+        }
+        if(first > last)
+        {
+            return;
+        }
+
+        long twoMajor = 2 * major;
+        long twoMinor = 2 * minor;
+        long numerator = twoMinor * first + major;
+        long minorSteps = (twoMajor == 0) ? 0 : Math.floorDiv(numerator, twoMajor);
+        long error = numerator - minorSteps * twoMajor;
+
+        int majorPos = (int)(majorUp ? majorStart + first : majorStart - first);
+        int minorPos = (int)(minorUp ? minorStart + minorSteps : minorStart - minorSteps);
+        int stride = m_stride;
+        int p = xMajor ?
+            m_offset + minorPos * stride + majorPos :
+            m_offset + majorPos * stride + minorPos;
+        int majorStep = xMajor ? (majorUp ? 1 : -1) : (majorUp ? stride : -stride);
+        int minorStep = xMajor ? (minorUp ? stride : -stride) : (minorUp ? 1 : -1);
+
+        int pixels[] = m_pixels;
+        int rgb = m_rgb;
+        for(long n = last - first; n >= 0; n--)
+        {
+            pixels[p] = rgb;
+            p += majorStep;
+            error += twoMinor;
+            if(error >= twoMajor)
+            {
+                error -= twoMajor;
+                p += minorStep;
+            }
+        }
+    }
+
+    /**
+     * a/b rounded up, for b > 0.
+     */
+    private static final long ceilDiv(long a, long b)
+    {
+        return -Math.floorDiv(-a, b);
+    }
+
+    public void fillRect(int x, int y, int width, int height)
+    {
+        if(m_cancelled)
+        {
+            return;
+        }
+        if(!m_direct)
+        {
+            m_graphics.fillRect(x, y, width, height);
+            return;
+        }
+
+        int left = Math.max(x + m_translateX, m_clipLeft);
+        int top = Math.max(y + m_translateY, m_clipTop);
+        int right = Math.min(x + m_translateX + width - 1, m_clipRight);
+        int bottom = Math.min(y + m_translateY + height - 1, m_clipBottom);
+
+        int pixels[] = m_pixels;
+        int rgb = m_rgb;
+        for(int row = top; row <= bottom; row++)
+        {
+            int p = m_offset + row * m_stride + left;
+            for(int column = left; column <= right; column++)
+            {
+                pixels[p++] = rgb;
+            }
+        }
+    }
+
+    public void drawPolyline(int xPoints[], int yPoints[], int nPoints)
+    {
+        for(int i = 1; i < nPoints; i++)
+        {
+            drawLine(xPoints[i-1], yPoints[i-1], xPoints[i], yPoints[i]);
+        }
+    }
+
+    public void drawPolygon(int xPoints[], int yPoints[], int nPoints)
+    {
+        if(nPoints <= 0)
+        {
+            return;
+        }
+
+        drawPolyline(xPoints, yPoints, nPoints);
+        drawLine(xPoints[nPoints-1], yPoints[nPoints-1],
+                 xPoints[0], yPoints[0]);
+    }
+
+    /************************************************************
+     * State, kept the same in both
+     ************************************************************/
+
+    public void translate(int x, int y)
+    {
+        m_translateX += x;
+        m_translateY += y;
+        m_graphics.translate(x, y);
+    }
+
+    public Color getColor()
+    {
+        return m_color;
+    }
+
+    public void setColor(Color c)
+    {
+        if(c == null)
+        {
+            return;
+        }
+
+        m_color = c;
+        m_rgb = c.getRGB();
+        m_direct = !m_xorMode && c.getAlpha() == 255;
+        m_graphics.setColor(c);
+    }
+
+    public void setPaintMode()
+    {
+        m_xorMode = false;
+        m_graphics.setPaintMode();
+        setColor(m_color);
+    }
+
+    public void setXORMode(Color c)
+    {
+        m_xorMode = true;
+        m_direct = false;
+        m_graphics.setXORMode(c);
+    }
+
+    public Font getFont()
+    {
+        return m_graphics.getFont();
+    }
+
+    public void setFont(Font font)
+    {
+        m_graphics.setFont(font);
+    }
+
+    public FontMetrics getFontMetrics(Font f)
+    {
+        return m_graphics.getFontMetrics(f);
+    }
+
+    public Rectangle getClipBounds()
+    {
+        return m_graphics.getClipBounds();
+    }
+
+    public void clipRect(int x, int y, int width, int height)
+    {
+        m_graphics.clipRect(x, y, width, height);
+        updateClip();
+    }
+
+    public void setClip(int x, int y, int width, int height)
+    {
+        m_graphics.setClip(x, y, width, height);
+        updateClip();
+    }
+
+    public Shape getClip()
+    {
+        return m_graphics.getClip();
+    }
+
+    /**
+     * Only the bounds of a clip shape are used for lines and rectangles.
+     */
+    public void setClip(Shape clip)
+    {
+        m_graphics.setClip(clip);
+        updateClip();
+    }
+
+    /**
+     * Work out the clip rectangle in pixels from the other Graphics.
+     */
+    private final void updateClip()
+    {
+        m_clipLeft = 0;
+        m_clipTop = 0;
+        m_clipRight = m_width - 1;
+        m_clipBottom = m_height - 1;
+
+        Rectangle clip = m_graphics.getClipBounds();
+        if(clip != null)
+        {
+            m_clipLeft = Math.max(m_clipLeft, clip.x + m_translateX);
+            m_clipTop = Math.max(m_clipTop, clip.y + m_translateY);
+            m_clipRight = Math.min(m_clipRight,
+                                   clip.x + m_translateX + clip.width - 1);
+            m_clipBottom = Math.min(m_clipBottom,
+                                    clip.y + m_translateY + clip.height - 1);
+        }
+
+        //Make an empty clip reject everything.
+        if(m_clipLeft > m_clipRight || m_clipTop > m_clipBottom)
+        {
+            m_clipLeft = m_clipTop = 0;
+            m_clipRight = m_clipBottom = -1;
+        }
+    }
+
+    /************************************************************
+     * Handed to the ordinary Graphics
+     ************************************************************/
+
+    public void copyArea(int x, int y, int width, int height,
+                         int dx, int dy)
+    {
+        m_graphics.copyArea(x, y, width, height, dx, dy);
+    }
+
+    public void clearRect(int x, int y, int width, int height)
+    {
+        m_graphics.clearRect(x, y, width, height);
+    }
+
+    public void drawRoundRect(int x, int y, int width, int height,
+                              int arcWidth, int arcHeight)
+    {
+        m_graphics.drawRoundRect(x, y, width, height, arcWidth, arcHeight);
+    }
+
+    public void fillRoundRect(int x, int y, int width, int height,
+                              int arcWidth, int arcHeight)
+    {
+        m_graphics.fillRoundRect(x, y, width, height, arcWidth, arcHeight);
+    }
+
+    public void drawOval(int x, int y, int width, int height)
+    {
+        m_graphics.drawOval(x, y, width, height);
+    }
+
+    public void fillOval(int x, int y, int width, int height)
+    {
+        m_graphics.fillOval(x, y, width, height);
+    }
+
+    public void drawArc(int x, int y, int width, int height,
+                        int startAngle, int arcAngle)
+    {
+        m_graphics.drawArc(x, y, width, height, startAngle, arcAngle);
+    }
+
+    public void fillArc(int x, int y, int width, int height,
+                        int startAngle, int arcAngle)
+    {
+        m_graphics.fillArc(x, y, width, height, startAngle, arcAngle);
+    }
+
+    public void fillPolygon(int xPoints[], int yPoints[], int nPoints)
+    {
+        m_graphics.fillPolygon(xPoints, yPoints, nPoints);
+    }
+
+    public void drawString(String str, int x, int y)
+    {
+        m_graphics.drawString(str, x, y);
+    }
+
+    public void drawString(AttributedCharacterIterator iterator,
+                           int x, int y)
+    {
+        m_graphics.drawString(iterator, x, y);
+    }
+
+    public boolean drawImage(Image img, int x, int y,
+                             ImageObserver observer)
+    {
+        return m_graphics.drawImage(img, x, y, observer);
+    }
+
+    public boolean drawImage(Image img, int x, int y, int width, int height,
+                             ImageObserver observer)
+    {
+        return m_graphics.drawImage(img, x, y, width, height, observer);
+    }
+
+    public boolean drawImage(Image img, int x, int y, Color bgcolor,
+                             ImageObserver observer)
+    {
+        return m_graphics.drawImage(img, x, y, bgcolor, observer);
+    }
+
+    public boolean drawImage(Image img, int x, int y, int width, int height,
+                             Color bgcolor, ImageObserver observer)
+    {
+        return m_graphics.drawImage(img, x, y, width, height, bgcolor,
+                                    observer);
+    }
+
+    public boolean drawImage(Image img, int dx1, int dy1, int dx2, int dy2,
+                             int sx1, int sy1, int sx2, int sy2,
+                             ImageObserver observer)
+    {
+        return m_graphics.drawImage(img, dx1, dy1, dx2, dy2,
+                                    sx1, sy1, sx2, sy2, observer);
+    }
+
+    public boolean drawImage(Image img, int dx1, int dy1, int dx2, int dy2,
+                             int sx1, int sy1, int sx2, int sy2,
+                             Color bgcolor, ImageObserver observer)
+    {
+        return m_graphics.drawImage(img, dx1, dy1, dx2, dy2,
+                                    sx1, sy1, sx2, sy2, bgcolor, observer);
+    }
+}
@@ -0,0 +1,436 @@
+package stomp.view;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import javax.vecmath.*;
+
+import stomp.FastVector;
+import stomp.data3d.*;
+
+/**
+ * RayTracer renders a scene by casting rays through a TriangleBVH, so
+ * a final picture can be made without exporting to POV-Ray.  It follows
+ * the POV export: the first camera in the scene (or the export's
+ * default camera), white PointLights with shadows (or the export's
+ * default light), and each polygon's Surface for color, diffuse,
+ * specular, reflection, transparency (refracting with the same index
+ * as the export) and smooth shading.
+ *
+ * <p>
+ * The scene is copied when the tracer is made, so it can be edited
+ * while the picture renders.  The picture is cut into tiles that are
+ * traced on the common ForkJoinPool.
+ */
+public class RayTracer
+{
+    //Side of a square tile, in pixels.
+    private static final int TILE_SIZE = 32;
+
+    //Most bounces of reflected and refracted rays.
+    private static final int MAX_DEPTH = 5;
+
+    //POV's default ambient light and, from its default specular
+    //roughness, how tight highlights are.
+    private static final float AMBIENT = 0.1f;
+    private static final float SHININESS = 20;
+
+    //Index of refraction of transparent surfaces, as in the POV export.
+    private static final float IOR = 1.1f;
+
+    //What the POV export uses when there is no camera or light.
+    private static final Point3f DEFAULT_FROM = new Point3f(4, 5, 10);
+    private static final Point3f DEFAULT_AT = new Point3f(0, 0, 0);
+    private static final float DEFAULT_FOV = 20;
+    private static final Point3f DEFAULT_LIGHT = new Point3f(20, 15, 7);
+
+    private VertexBuffer m_vertices = new VertexBuffer();
+    private TriangleBVH m_bvh;
+    private float m_normals[] = new float[0];
+    private Surface m_surfaces[];
+    private float m_lights[];
+
+    //Camera, with the field of view across the picture in degrees.
+    private Point3f m_from;
+    private Point3f m_at;
+    private float m_fov;
+
+    //How far rays start from the surface they leave, for the size of
+    //the scene.
+    private float m_epsilon;
+
+    private int m_width;
+    private int m_height;
+    private int m_pixels[];
+
+    /**
+     * Copy a scene to be rendered.
+     *
+     * @param scene the scene.
+     * @param fov field of view across the picture in degrees, if the
+     * scene has a camera.
+     */
+    public RayTracer(Scene scene, float fov)
+    {
+        m_vertices.copyFrom(scene.getVerticesVector());
+        FastVector primitives = scene.getPrimitivesVector();
+        m_bvh = new TriangleBVH(primitives, m_vertices.getXArray(),
+                                m_vertices.getYArray(),
+                                m_vertices.getZArray());
+        m_normals = ZBufferRenderer.smoothNormals(primitives, m_vertices,
+                                                  m_normals);
+
+        //Surfaces can be changed meanwhile too, so copy them.
+        m_surfaces = new Surface[m_bvh.getNumTriangles()];
+        for(int i = 0; i < m_surfaces.length; i++)
+        {
+            Surface surf = m_bvh.getPolygon(i).getSurface();
+            if(surf == null)
+            {
+                m_surfaces[i] = new Surface();
+            }
+            else
+            {
+                m_surfaces[i] = new Surface(surf.getColor(),
+                                            surf.getDiffuse(),
+                                            surf.getSpecular(),
+                                            surf.getReflect(),
+                                            surf.getTransparent());
+                m_surfaces[i].setSmooth(surf.isSmooth());
+            }
+        }
+
+        FastVector lights = scene.getLights();
+        int numLights = 0;
+        m_lights = new float[3 * Math.max(lights.sizeFast(), 1)];
+        for(int i = 0; i < lights.sizeFast(); i++)
+        {
+            if(lights.elementAtFast(i) instanceof PointLight)
+            {
+                int index = ((Light)lights.elementAtFast(i)).getIndices()[0];
+                m_lights[3*numLights] = m_vertices.getX(index);
+                m_lights[3*numLights+1] = m_vertices.getY(index);
+                m_lights[3*numLights+2] = m_vertices.getZ(index);
+                numLights++;
+            }
+        }
+        if(numLights == 0)
+        {
+            m_lights = new float[] { DEFAULT_LIGHT.x, DEFAULT_LIGHT.y,
+                                     DEFAULT_LIGHT.z };
+        }
+        else if(3 * numLights < m_lights.length)
+        {
+            float trimmed[] = new float[3 * numLights];
+            System.arraycopy(m_lights, 0, trimmed, 0, trimmed.length);
+            m_lights = trimmed;
+        }
+
+        FastVector cameras = scene.getCameras();
+        if(cameras.sizeFast() > 0)
+        {
+            CameraView camera = (CameraView)cameras.elementAtFast(0);
+            m_from = camera.getPosition();
+            m_at = camera.getLookatPoint();
+            m_fov = fov;
+        }
+        else
+        {
+            m_from = new Point3f(DEFAULT_FROM);
+            m_at = new Point3f(DEFAULT_AT);
+            m_fov = DEFAULT_FOV;
+        }
+
+        float size = 1;
+        for(int i = 0; i < m_vertices.size(); i++)
+        {
+            size = Math.max(size, Math.abs(m_vertices.getX(i)));
+            size = Math.max(size, Math.abs(m_vertices.getY(i)));
+            size = Math.max(size, Math.abs(m_vertices.getZ(i)));
+        }
+        m_epsilon = size * 1e-4f;
+    }
+
+    /**
+     * Render the picture.
+     *
+     * @param width width of the picture in pixels.
+     * @param height height of the picture in pixels.
+     */
+    public final BufferedImage render(int width, int height)
+    {
+        BufferedImage image = new BufferedImage(width, height,
+                                                BufferedImage.TYPE_INT_RGB);
+        m_width = width;
+        m_height = height;
+        m_pixels = ((DataBufferInt)image.getRaster().getDataBuffer()).getData();
+
+        int tilesX = (width + TILE_SIZE - 1) / TILE_SIZE;
+        int tilesY = (height + TILE_SIZE - 1) / TILE_SIZE;
+        ForkJoinPool.commonPool().invoke(new Tiles(0, tilesX * tilesY,
+                                                   tilesX));
+        m_pixels = null;
+        return image;
+    }
+
+    /**
+     * A range of tiles to be traced by the ForkJoinPool, split in half
+     * until it is a single tile.
+     */
+    private class Tiles extends RecursiveAction
+    {
+        private int m_from;
+        private int m_to;
+        private int m_tilesX;
+
+        Tiles(int from, int to, int tilesX)
+        {
+            m_from = from;
+            m_to = to;
+            m_tilesX = tilesX;
+        }
+
+        protected void compute()
+        {
+            if(m_to - m_from <= 1)
+            {
+                if(m_from < m_to)
+                {
+                    traceTile(m_from % m_tilesX, m_from / m_tilesX);
+                }
+            }
+            else
+            {
+                int middle = (m_from + m_to) >>> 1;
+                invokeAll(new Tiles(m_from, middle, m_tilesX),
+                          new Tiles(middle, m_to, m_tilesX));
+            }
+        }
+    }
+
+    private final void traceTile(int tileX, int tileY)
+    {
+        //Camera axes, with the picture spanning the field of view
+        //across and keeping square pixels.
+        Vector3f forward = new Vector3f();
+        forward.sub(m_at, m_from);
+        forward.normalize();
+        Vector3f right = new Vector3f();
+        right.cross(forward, new Vector3f(0, 1, 0));
+        if(right.length() == 0)
+        {
+            right.set(1, 0, 0);
+        }
+        right.normalize();
+        Vector3f up = new Vector3f();
+        up.cross(right, forward);
+
+        float half = (float)Math.tan(Math.toRadians(m_fov) / 2);
+        float aspect = m_height / (float)m_width;
+
+        float color[] = new float[3];
+        int x1 = Math.min((tileX + 1) * TILE_SIZE, m_width);
+        int y1 = Math.min((tileY + 1) * TILE_SIZE, m_height);
+        for(int y = tileY * TILE_SIZE; y < y1; y++)
+        {
+            float sy = (1 - 2 * (y + 0.5f) / m_height) * half * aspect;
+            for(int x = tileX * TILE_SIZE; x < x1; x++)
+            {
+                float sx = (2 * (x + 0.5f) / m_width - 1) * half;
+                float dx = forward.x + sx * right.x + sy * up.x;
+                float dy = forward.y + sx * right.y + sy * up.y;
+                float dz = forward.z + sx * right.z + sy * up.z;
+                float length = (float)Math.sqrt(dx*dx + dy*dy + dz*dz);
+
+                trace(m_from.x, m_from.y, m_from.z,
+                      dx/length, dy/length, dz/length, 0, color);
+                m_pixels[y * m_width + x] = (channel(color[0]) << 16) |
+                    (channel(color[1]) << 8) | channel(color[2]);
+            }
+        }
+    }
+
+    /**
+     * Work out the light coming back along a ray.
+     *
+     * @param ox ray origin.
+     * @param dx unit ray direction.
+     * @param depth number of bounces so far.
+     * @param color set to the red, green and blue light, from 0 up.
+     */
+    private final void trace(float ox, float oy, float oz,
+                             float dx, float dy, float dz,
+                             int depth, float color[])
+    {
+        color[0] = color[1] = color[2] = 0;
+
+        float hit[] = new float[3];
+        int t = m_bvh.intersect(ox, oy, oz, dx, dy, dz, 0, Float.MAX_VALUE,
+                                hit);
+        if(t < 0)
+        {
+            return;
+        }
+
+        float px = ox + hit[0] * dx;
+        float py = oy + hit[0] * dy;
+        float pz = oz + hit[0] * dz;
+
+        int a = m_bvh.getCorner(t, 0);
+        int b = m_bvh.getCorner(t, 1);
+        int c = m_bvh.getCorner(t, 2);
+        float x[] = m_vertices.getXArray();
+        float y[] = m_vertices.getYArray();
+        float z[] = m_vertices.getZArray();
+        float e1x = x[b] - x[a], e1y = y[b] - y[a], e1z = z[b] - z[a];
+        float e2x = x[c] - x[a], e2y = y[c] - y[a], e2z = z[c] - z[a];
+        float gx = e1y*e2z - e1z*e2y;
+        float gy = e1z*e2x - e1x*e2z;
+        float gz = e1x*e2y - e1y*e2x;
+        float length = (float)Math.sqrt(gx*gx + gy*gy + gz*gz);
+        gx /= length;
+        gy /= length;
+        gz /= length;
+
+        Surface surf = m_surfaces[t];
+        float nx = gx, ny = gy, nz = gz;
+        if(surf.isSmooth())
+        {
+            float wa = 1 - hit[1] - hit[2];
+            float sx = wa*m_normals[3*a] + hit[1]*m_normals[3*b] + hit[2]*m_normals[3*c];
+            float sy = wa*m_normals[3*a+1] + hit[1]*m_normals[3*b+1] + hit[2]*m_normals[3*c+1];
+            float sz = wa*m_normals[3*a+2] + hit[1]*m_normals[3*b+2] + hit[2]*m_normals[3*c+2];
+            length = (float)Math.sqrt(sx*sx + sy*sy + sz*sz);
+            if(length > 0)
+            {
+                //Keep it on the same side as the face.
+                float side = sx*gx + sy*gy + sz*gz < 0 ? -length : length;
+                nx = sx / side;
+                ny = sy / side;
+                nz = sz / side;
+            }
+        }
+
+        //Turn the normals to face the ray.
+        boolean entering = dx*gx + dy*gy + dz*gz < 0;
+        if(!entering)
+        {
+            gx = -gx;
+            gy = -gy;
+            gz = -gz;
+            nx = -nx;
+            ny = -ny;
+            nz = -nz;
+        }
+
+        //Rays leaving the surface start a little off it, on the side
+        //they leave by, so they don't hit the face they start on or its
+        //neighbors where smooth shading bends the normal.
+        float fx = px + m_epsilon * gx;
+        float fy = py + m_epsilon * gy;
+        float fz = pz + m_epsilon * gz;
+
+        Color base = surf.getColor();
+        float red = base.getRed() / 255.0f;
+        float green = base.getGreen() / 255.0f;
+        float blue = base.getBlue() / 255.0f;
+        float diffuse = (float)surf.getDiffuse();
+        float specular = (float)surf.getSpecular();
+        float reflect = (float)surf.getReflect();
+        float transparent = (float)surf.getTransparent();
+
+        float light = AMBIENT;
+        float highlight = 0;
+        for(int i = 0; i < m_lights.length; i += 3)
+        {
+            float lx = m_lights[i] - fx;
+            float ly = m_lights[i+1] - fy;
+            float lz = m_lights[i+2] - fz;
+            float distance = (float)Math.sqrt(lx*lx + ly*ly + lz*lz);
+            lx /= distance;
+            ly /= distance;
+            lz /= distance;
+
+            float lambert = nx*lx + ny*ly + nz*lz;
+            if(!(lambert > 0) ||
+               m_bvh.occluded(fx, fy, fz, lx, ly, lz, 0, distance))
+            {
+                continue;
+            }
+            light += diffuse * lambert;
+
+            //Blinn's half-way vector, between the light and the eye.
+            float hx = lx - dx, hy = ly - dy, hz = lz - dz;
+            length = (float)Math.sqrt(hx*hx + hy*hy + hz*hz);
+            float facing = length > 0 ? (nx*hx + ny*hy + nz*hz) / length : 0;
+            if(facing > 0)
+            {
+                highlight += specular * (float)Math.pow(facing, SHININESS);
+            }
+        }
+
+        float opaque = 1 - transparent;
+        color[0] = opaque * (red * light + highlight);
+        color[1] = opaque * (green * light + highlight);
+        color[2] = opaque * (blue * light + highlight);
+
+        if(depth >= MAX_DEPTH)
+        {
+            return;
+        }
+
+        float cosine = -(dx*nx + dy*ny + dz*nz);
+        float bounce[] = new float[3];
+        if(reflect > 0)
+        {
+            trace(fx, fy, fz, dx + 2*cosine*nx, dy + 2*cosine*ny,
+                  dz + 2*cosine*nz, depth + 1, bounce);
+            color[0] += reflect * bounce[0];
+            color[1] += reflect * bounce[1];
+            color[2] += reflect * bounce[2];
+        }
+
+        if(transparent > 0)
+        {
+            //Snell's law, bouncing off instead when the ray can't get
+            //out.
+            float eta = entering ? 1 / IOR : IOR;
+            float k = 1 - eta*eta * (1 - cosine*cosine);
+            if(k < 0)
+            {
+                trace(fx, fy, fz, dx + 2*cosine*nx, dy + 2*cosine*ny,
+                      dz + 2*cosine*nz, depth + 1, bounce);
+            }
+            else
+            {
+                float scale = eta*cosine - (float)Math.sqrt(k);
+                float rx = eta*dx + scale*nx;
+                float ry = eta*dy + scale*ny;
+                float rz = eta*dz + scale*nz;
+                length = (float)Math.sqrt(rx*rx + ry*ry + rz*rz);
+                trace(px - m_epsilon * gx, py - m_epsilon * gy,
+                      pz - m_epsilon * gz, rx/length, ry/length, rz/length,
+                      depth + 1, bounce);
+            }
+            color[0] += transparent * bounce[0];
+            color[1] += transparent * bounce[1];
+            color[2] += transparent * bounce[2];
+        }
+    }
+
+    /**
+     * Number of triangles the scene's polygons were cut into.
+     */
+    public final int getNumTriangles()
+    {
+        return m_bvh.getNumTriangles();
+    }
+
+    private static int channel(float value)
+    {
+        int c = (int)(value * 255 + 0.5f);
+        return c < 0 ? 0 : (c > 255 ? 255 : c);
+    }
+}
@@ -2,11 +2,21 @@ package stomp.view;
 
 import java.awt.*;
 import java.awt.event.*;
+import java.awt.image.BufferedImage;
 import java.util.*;
 import javax.vecmath.*;
 
 import stomp.FastVector;
+import stomp.Mode;
+import stomp.data3d.EdgeTable;
+import stomp.data3d.Polygon3d;
+import stomp.data3d.Primitive;
+import stomp.data3d.Scene;
+import stomp.data3d.Tessellation;
+import stomp.data3d.TriangleBVH;
+import stomp.data3d.Vertex;
 import stomp.gui.Appearance;
+import stomp.gui.ViewContainer;
 
 /**
  * The View class is the superclass for both orthogonal and perspective
@@ -25,10 +35,41 @@ implements MouseListener, MouseMotionListener, ComponentListener
     protected Vector m_grid;
      
     protected boolean m_highlighted = false;
-    protected static boolean m_changed = true;
-    protected static int m_checkOut =4;
     protected static boolean m_fast = false;
 
+    //Stuff needed for double-buffering
+    private Image m_offScreenImage;
+    private Dimension m_offScreenSize;
+    private Graphics m_offScreenGraphics;
+
+    //Whether to draw with RasterGraphics, or null to go by
+    //Mode.DIRECT_RASTER.
+    private Boolean m_directRaster = null;
+
+    //Size in pixels of the level of detail drawn while dragging.  Grows
+    //when frames take longer than Mode.FRAME_BUDGET and shrinks back to
+    //Mode.LOD_PIXELS when they are quick.
+    private float m_lodPixels = Mode.LOD_PIXELS;
+    private static final float MAX_LOD_PIXELS = 64;
+
+    //Whether the last paint was drawn coarsely, because the user was
+    //dragging.
+    private boolean m_coarse = false;
+
+    //Full detail image made by refine, and the graphics drawing it.
+    //m_refining is set while refine is painting, so subclasses ignore
+    //m_fast.
+    private BufferedImage m_refineImage;
+    private volatile RasterGraphics m_refineGraphics;
+    private volatile boolean m_refineCancelled = false;
+    protected boolean m_refining = false;
+
+    //Draws the shaded preview when Mode.SHADED is on.
+    private ZBufferRenderer m_shader;
+
+    //Container that schedules this view's repaints, if any.
+    private ViewContainer m_container;
+
     public View (String s)
     {
         m_text = new String(""+ s);
@@ -56,7 +97,468 @@ implements MouseListener, MouseMotionListener, ComponentListener
     public void resetView()
     {
     }
+
+    /**
+     * Have repaints of this view scheduled by a ViewContainer, which
+     * renders them along with the other views.
+     */
+    public void setViewContainer(ViewContainer container)
+    {
+        m_container = container;
+    }
+
+    /**
+     * Ask for the view to be drawn again.  With a ViewContainer this is
+     * left to the container, which draws each view at most once per
+     * update.
+     */
+    public void repaint()
+    {
+        ViewContainer container = m_container;
+        if(container != null)
+        {
+            container.invalidate(this);
+        }
+        else
+        {
+            super.repaint();
+        }
+    }
+
+    /**
+     * Choose whether this view draws its wireframe straight into the
+     * pixels of its offscreen image (see RasterGraphics) or through the
+     * usual Graphics calls.
+     *
+     * @param direct true for RasterGraphics, or null to go by
+     * Mode.DIRECT_RASTER.
+     */
+    public synchronized void setDirectRaster(Boolean direct)
+    {
+        m_directRaster = direct;
+    }
+
+    /**
+     * Whether this view draws with RasterGraphics.
+     */
+    public boolean isDirectRaster()
+    {
+        Boolean direct = m_directRaster;
+        return (direct == null) ? Mode.DIRECT_RASTER : direct.booleanValue();
+    }
+
+    /**
+     * Overload update to provide double buffering.
+     */
+    public synchronized void update(Graphics g)
+    {
+        render();
+        blit(g);
+    }
+
+    /**
+     * Paint the view into its offscreen image, without touching the
+     * screen.  This may be called on any thread, as long as nothing
+     * changes the scene meanwhile.
+     */
+    public synchronized void render()
+    {
+        Dimension d = getSize();
+        if(d.width <= 0 || d.height <= 0)
+        {
+            return;
+        }
+        
+        boolean direct = isDirectRaster();
+        if((m_offScreenImage == null) ||
+           (d.width != m_offScreenSize.width) ||
+           (d.height != m_offScreenSize.height) ||
+           (direct != (m_offScreenGraphics instanceof RasterGraphics))) 
+        {
+            if(direct)
+            {
+                BufferedImage image =
+                    new BufferedImage(d.width, d.height,
+                                      BufferedImage.TYPE_INT_RGB);
+                m_offScreenImage = image;
+                m_offScreenGraphics = new RasterGraphics(image);
+            }
+            else
+            {
+                m_offScreenImage = createImage(d.width, d.height);
+                if(m_offScreenImage == null)
+                {
+                    return;
+                }
+                m_offScreenGraphics = m_offScreenImage.getGraphics();
+            }
+            m_offScreenSize = d;
+        }
+        paint(m_offScreenGraphics);
+    }
+
+    /**
+     * Whether the user is dragging, so the view should be drawn quickly.
+     * Never true while refining.
+     */
+    protected final boolean isFast()
+    {
+        return m_fast && !m_refining;
+    }
+
+    /**
+     * Whether the last render was drawn coarsely, and so is worth
+     * refining.
+     */
+    public synchronized boolean isCoarse()
+    {
+        return m_coarse;
+    }
+
+    /**
+     * Get ready for refine to be called, clearing any earlier cancel.
+     */
+    public void prepareRefine()
+    {
+        m_refineCancelled = false;
+    }
+
+    /**
+     * Make refine stop drawing as soon as it can.  This may be called on
+     * any thread, and doesn't wait.
+     */
+    public void cancelRefine()
+    {
+        m_refineCancelled = true;
+        RasterGraphics g = m_refineGraphics;
+        if(g != null)
+        {
+            g.cancel();
+        }
+    }
+
+    /**
+     * Paint the view at full detail into a second image, whatever
+     * m_fast says, for showRefined to put on screen once it's done.
+     * This may be called on any thread, as long as nothing changes the
+     * scene meanwhile; cancelRefine makes it finish early.
+     *
+     * @return true if the image was finished without being cancelled.
+     */
+    public synchronized boolean refine()
+    {
+        Dimension d = getSize();
+        if(d.width <= 0 || d.height <= 0)
+        {
+            return false;
+        }
+
+        if(m_refineImage == null ||
+           m_refineImage.getWidth() != d.width ||
+           m_refineImage.getHeight() != d.height)
+        {
+            m_refineImage = new BufferedImage(d.width, d.height,
+                                              BufferedImage.TYPE_INT_RGB);
+        }
+        RasterGraphics g = new RasterGraphics(m_refineImage);
+        m_refineGraphics = g;
+        if(m_refineCancelled)
+        {
+            g.cancel();
+        }
+
+        m_refining = true;
+        try
+        {
+            paint(g);
+        }
+        finally
+        {
+            m_refining = false;
+            m_refineGraphics = null;
+            g.dispose();
+        }
+        return !g.isCancelled();
+    }
+
+    /**
+     * Put the image made by the last refine in place of the coarse one,
+     * and copy it to the screen.
+     */
+    public synchronized void showRefined(Graphics g)
+    {
+        if(m_refineImage == null || m_offScreenGraphics == null ||
+           m_refineImage.getWidth() != m_offScreenSize.width ||
+           m_refineImage.getHeight() != m_offScreenSize.height)
+        {
+            return;
+        }
+
+        m_offScreenGraphics.drawImage(m_refineImage, 0, 0, null);
+        m_coarse = false;
+        blit(g);
+    }
+
+    /**
+     * Copy the last rendered image to the screen.
+     */
+    public synchronized void blit(Graphics g)
+    {
+        if(g != null && m_offScreenImage != null)
+        {
+            g.drawImage(m_offScreenImage, 0, 0, null);
+        }
+    }
     
+    /**
+     * Paint the primitives that aren't selected.  Polygons are drawn
+     * from the scene's edge table when it is up to date, so an edge
+     * shared by several of them is only drawn once, and groups that are
+     * outside the window are skipped.  While the user is dragging
+     * (fast), each group is drawn at a level of detail to suit its size
+     * on screen, coarser when frames go over Mode.FRAME_BUDGET.
+     *
+     * @param scene the scene being viewed.
+     * @param vertices Vector of transformed vertices for this view.
+     * @param g Graphics Context.
+     * @param decrement only paint every decrement'th primitive when
+     * there is no edge table.
+     * @param fast whether the user is dragging.
+     * @param viewTransform the matrix vertices were transformed by.
+     */
+    protected final void paintUnselected(Scene scene, FastVector vertices,
+                                         Graphics g, int decrement,
+                                         boolean fast,
+                                         Matrix4f viewTransform)
+    {
+        if(!m_refining)
+        {
+            m_coarse = fast;
+        }
+
+        FastVector world = scene.getVerticesVector();
+        EdgeTable edges = Mode.EDGE_TABLE ? scene.getEdgeTable() : null;
+        if(edges != null)
+        {
+            Dimension size = getSize();
+            if(!fast || Mode.LOD_PIXELS <= 0)
+            {
+                edges.paint(vertices, world, g, viewTransform,
+                            size.width, size.height, Mode.CULLING, 0);
+                return;
+            }
+
+            long start = System.currentTimeMillis();
+            edges.paint(vertices, world, g, viewTransform,
+                        size.width, size.height, Mode.CULLING, m_lodPixels);
+            long time = System.currentTimeMillis() - start;
+            if(time > Mode.FRAME_BUDGET)
+            {
+                m_lodPixels = Math.min(m_lodPixels * 1.5f, MAX_LOD_PIXELS);
+            }
+            else if(time < Mode.FRAME_BUDGET / 2)
+            {
+                m_lodPixels = Math.max(m_lodPixels / 1.5f, Mode.LOD_PIXELS);
+            }
+            return;
+        }
+
+        FastVector primitives = scene.getPrimitivesVector();
+        Primitive temp;
+
+        //If primitives are selected, we can't ignore checking the
+        //temp.isSelected().  If none are selected, optimize it away.
+        if(scene.primitivesSelected())
+        {
+            for(int i = primitives.sizeFast()-1; i >=0; i-=decrement)
+            {
+                temp = (Primitive)primitives.elementAtFast(i);
+                if(!temp.isSelected())
+                {
+                    Tessellation.paint(temp, vertices, world,
+                                       viewTransform, g);
+                }
+            }
+        }
+        else
+        {
+            for(int i = primitives.sizeFast()-1; i >=0; i-=decrement)
+            {
+                Tessellation.paint((Primitive)primitives.elementAtFast(i),
+                                   vertices, world, viewTransform, g);
+            }
+        }
+    }
+
+    /**
+     * Paint every decrement'th vertex.  The selection is always drawn in
+     * full, since it is what the user is working on: all the vertices
+     * when any are selected, and every corner of the selected primitives.
+     *
+     * @param scene the scene being viewed.
+     * @param vertices Vector of transformed vertices for this view.
+     * @param g Graphics Context.
+     * @param decrement only paint every decrement'th vertex.
+     */
+    protected final void paintVertices(Scene scene, FastVector vertices,
+                                       Graphics g, int decrement)
+    {
+        if(scene.verticesSelected())
+        {
+            decrement = 1;
+        }
+        for(int i = vertices.sizeFast()-1; i >= 0; i-=decrement)
+        {
+            ((Vertex)vertices.elementAtFast(i)).paint(g);
+        }
+
+        if(decrement > 1 && scene.primitivesSelected())
+        {
+            for(int i = scene.numSelectedPrimitives()-1; i >= 0; i--)
+            {
+                int indices[] = scene.getSelectedPrimitive(i).getIndices();
+                for(int j = 0; j < indices.length; j++)
+                {
+                    ((Vertex)vertices.elementAtFast(indices[j])).paint(g);
+                }
+            }
+        }
+    }
+
+    /**
+     * Paint the polygons as shaded solids (see ZBufferRenderer) when
+     * Mode.SHADED is on, unless the user is dragging.  Other primitives
+     * that aren't selected are drawn as wireframe on top.
+     *
+     * @param scene the scene being viewed.
+     * @param vertices Vector of transformed vertices for this view.
+     * @param g Graphics Context.
+     * @param fast whether the user is dragging.
+     * @param viewTransform the perspective matrix vertices were
+     * transformed by.
+     * @return true if the scene was painted, false to paint the
+     * wireframe instead.
+     */
+    protected final boolean paintShaded(Scene scene, FastVector vertices,
+                                        Graphics g, boolean fast,
+                                        Matrix4f viewTransform)
+    {
+        if(!Mode.SHADED || fast)
+        {
+            return false;
+        }
+        if(!m_refining)
+        {
+            m_coarse = false;
+        }
+
+        if(m_shader == null)
+        {
+            m_shader = new ZBufferRenderer();
+        }
+        Dimension d = getSize();
+        g.drawImage(m_shader.render(scene, viewTransform, d.width, d.height),
+                    0, 0, null);
+
+        FastVector primitives = scene.getPrimitivesVector();
+        for(int i = primitives.sizeFast()-1; i >= 0; i--)
+        {
+            Primitive temp = (Primitive)primitives.elementAtFast(i);
+            if(!temp.isSelected() && !(temp instanceof Polygon3d))
+            {
+                Tessellation.paint(temp, vertices, scene.getVerticesVector(),
+                                   viewTransform, g);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Find what is under the mouse in a perspective view by casting a
+     * ray through the scene's TriangleBVH.  The nearest polygon that
+     * isn't hidden is picked, or in vertex select mode the corner of it
+     * nearest the mouse, if that is close enough for Vertex.select.
+     * Vertices that aren't on a polygon can't be picked this way.
+     *
+     * @param scene the scene being viewed.
+     * @param vertices Vector of transformed vertices for this view.
+     * @param viewTransform the perspective matrix vertices were
+     * transformed by.
+     * @param x mouse x coordinate.
+     * @param y mouse y coordinate.
+     * @return the scene's Polygon3d or Vertex picked, or null.
+     */
+    protected final Object pick(Scene scene, FastVector vertices,
+                                Matrix4f viewTransform, int x, int y)
+    {
+        TriangleBVH bvh = scene.getTriangleBVH();
+        if(bvh == null)
+        {
+            return null;
+        }
+
+        //The eye is the one point the matrix sends to w = 0 at the
+        //center of the screen, and the screen point sits on a line
+        //through it whatever its depth.
+        Matrix4f inverse = new Matrix4f(viewTransform);
+        inverse.invert();
+        float ex = inverse.m02 / inverse.m32;
+        float ey = inverse.m12 / inverse.m32;
+        float ez = inverse.m22 / inverse.m32;
+        float w = inverse.m30*x + inverse.m31*y + inverse.m33;
+        float dx = inverse.m00*x + inverse.m01*y + inverse.m03 - w*ex;
+        float dy = inverse.m10*x + inverse.m11*y + inverse.m13 - w*ey;
+        float dz = inverse.m20*x + inverse.m21*y + inverse.m23 - w*ez;
+
+        //Point it away from the eye, towards positive w.
+        if(viewTransform.m30*dx + viewTransform.m31*dy +
+           viewTransform.m32*dz < 0)
+        {
+            dx = -dx;
+            dy = -dy;
+            dz = -dz;
+        }
+
+        float hit[] = new float[3];
+        float near = 0;
+        int triangle;
+        while((triangle = bvh.intersect(ex, ey, ez, dx, dy, dz, near,
+                                        Float.MAX_VALUE, hit)) >= 0 &&
+              bvh.getPolygon(triangle).isHidden())
+        {
+            near = Math.nextUp(hit[0]);
+        }
+        if(triangle < 0)
+        {
+            return null;
+        }
+
+        Polygon3d polygon = bvh.getPolygon(triangle);
+        if(Mode.getMode() != Mode.VERTEX_SELECT)
+        {
+            return polygon;
+        }
+
+        int indices[] = polygon.getIndices();
+        int nearest = -1;
+        float best = Float.MAX_VALUE;
+        for(int i = 0; i < indices.length; i++)
+        {
+            Vertex v = (Vertex)vertices.elementAtFast(indices[i]);
+            float distance = (v.x - x)*(v.x - x) + (v.y - y)*(v.y - y);
+            if(distance < best && v.select(vertices, x, y))
+            {
+                best = distance;
+                nearest = indices[i];
+            }
+        }
+        if(nearest < 0)
+        {
+            return null;
+        }
+        return scene.getVerticesVector().elementAtFast(nearest);
+    }
+
     public void paint(Graphics g)
     {
         Dimension s = getSize();
@@ -131,29 +633,21 @@ implements MouseListener, MouseMotionListener, ComponentListener
 
     public void componentResized(ComponentEvent e)
     {
-        m_changed = true;
-        m_checkOut = 4;
         repaint();
     }
     
     public void componentMoved(ComponentEvent e)
     {
-        m_changed = true;
-        m_checkOut = 4;
         repaint();
     }
 
     public void componentShown(ComponentEvent e)
     {
-        m_changed = true;
-        m_checkOut = 4;
         repaint();
     }
 
     public void componentHidden(ComponentEvent e)
     {
-        m_changed = true;
-        m_checkOut = 4;
         repaint();
     }
 }
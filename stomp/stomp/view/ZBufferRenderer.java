@@ -0,0 +1,699 @@
+package stomp.view;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import javax.vecmath.*;
+
+import stomp.FastVector;
+import stomp.data3d.*;
+
+/**
+ * ZBufferRenderer draws the polygons of a scene as shaded solids with a
+ * z-buffer, so the scene can be seen without writing it out to a VRML
+ * viewer.  Polygons are lit by the scene's PointLights (or by a light
+ * at the eye if there are none) using the color, diffuse and specular
+ * values of their Surface.  Smooth surfaces are shaded with normals
+ * averaged over the vertices; the rest are shaded flat.
+ *
+ * <p>
+ * The polygons are lit, clipped and cut into triangles on the calling
+ * thread, and each triangle is put in the bin of every tile of the
+ * image it touches.  The tiles are then filled in on the common
+ * ForkJoinPool, each with its own part of the image and the z-buffer.
+ *
+ * <p>
+ * The matrix must be a perspective one, like the views', where w grows
+ * with distance in front of the eye.  Pixels that no polygon covers are
+ * left transparent, so whatever is under the image shows through.
+ */
+public class ZBufferRenderer
+{
+    //Side of a square tile, in pixels.
+    private static final int TILE_SIZE = 64;
+
+    //Light that falls on every polygon, and how tight specular
+    //highlights are.
+    private static final float AMBIENT = 0.2f;
+    private static final float SHININESS = 20;
+
+    //Polygons are clipped where w is less than this.
+    private static final float NEAR_W = 1e-3f;
+
+    //Per corner of a clipped polygon: x, y, w, r, g, b.
+    private static final int CORNER = 6;
+
+    //Per triangle: screen x, y, 1/w, r, g, b for each corner.
+    private static final int TRIANGLE = 18;
+
+    private int m_width = 0;
+    private int m_height = 0;
+    private BufferedImage m_image;
+    private int m_pixels[];
+    private float m_depth[];
+
+    //Packed copy of the scene's vertices, so the render reads them from
+    //contiguous arrays.
+    private VertexBuffer m_buffer = new VertexBuffer();
+
+    //Vertices in clip space, and averaged normals for smooth surfaces.
+    private float m_clipX[] = new float[0];
+    private float m_clipY[] = new float[0];
+    private float m_clipW[] = new float[0];
+    private float m_normals[] = new float[0];
+
+    private float m_triangles[] = new float[TRIANGLE * 256];
+    private int m_numTriangles = 0;
+
+    //Triangles touching each tile.
+    private int m_tilesX;
+    private int m_tilesY;
+    private int m_bins[][] = new int[0][];
+    private int m_binSizes[] = new int[0];
+
+    //Eye position, and the lights, for the render in progress.
+    private float m_eye[] = new float[3];
+    private float m_lights[] = new float[0];
+    private int m_numLights = 0;
+
+    //Scratch space for clipping.
+    private float m_polygon[] = new float[0];
+    private float m_clipped[] = new float[0];
+    private float m_normal[] = new float[3];
+    private float m_shade[] = new float[3];
+
+    public ZBufferRenderer()
+    {
+    }
+
+    /**
+     * Render the scene.
+     *
+     * @param scene the scene to render.
+     * @param m view matrix from world to screen, including the
+     * perspective.
+     * @param width width of the image.
+     * @param height height of the image.
+     * @return the image, which is reused by the next render.
+     */
+    public final BufferedImage render(Scene scene, Matrix4f m,
+                                      int width, int height)
+    {
+        setSize(width, height);
+
+        VertexBuffer buffer = m_buffer;
+        buffer.copyFrom(scene.getVerticesVector());
+        FastVector primitives = scene.getPrimitivesVector();
+
+        clipVertices(m, buffer);
+        findEye(m);
+        findLights(scene, buffer);
+        m_normals = smoothNormals(primitives, buffer, m_normals);
+
+        m_numTriangles = 0;
+        for(int i = 0; i < m_binSizes.length; i++)
+        {
+            m_binSizes[i] = 0;
+        }
+        for(int i = 0; i < primitives.sizeFast(); i++)
+        {
+            Object prim = primitives.elementAtFast(i);
+            if(prim instanceof Polygon3d && !((Polygon3d)prim).isHidden())
+            {
+                addPolygon((Polygon3d)prim, buffer);
+            }
+        }
+
+        int tiles = m_tilesX * m_tilesY;
+        if(tiles > 1)
+        {
+            ForkJoinPool.commonPool().invoke(new Tiles(0, tiles));
+        }
+        else if(tiles == 1)
+        {
+            fillTile(0);
+        }
+        return m_image;
+    }
+
+    private final void setSize(int width, int height)
+    {
+        width = Math.max(width, 1);
+        height = Math.max(height, 1);
+        if(width == m_width && height == m_height)
+        {
+            return;
+        }
+
+        m_width = width;
+        m_height = height;
+        m_image = new BufferedImage(width, height,
+                                    BufferedImage.TYPE_INT_ARGB);
+        m_pixels = ((DataBufferInt)m_image.getRaster().getDataBuffer()).getData();
+        m_depth = new float[width * height];
+
+        m_tilesX = (width + TILE_SIZE - 1) / TILE_SIZE;
+        m_tilesY = (height + TILE_SIZE - 1) / TILE_SIZE;
+        m_bins = new int[m_tilesX * m_tilesY][];
+        m_binSizes = new int[m_bins.length];
+        for(int i = 0; i < m_bins.length; i++)
+        {
+            m_bins[i] = new int[16];
+        }
+    }
+
+    /**
+     * Transform the vertices into clip space.  z isn't needed, since
+     * 1/w is what gets interpolated for depth.
+     */
+    private final void clipVertices(Matrix4f m, VertexBuffer buffer)
+    {
+        int size = buffer.size();
+        if(m_clipX.length < size)
+        {
+            m_clipX = new float[size];
+            m_clipY = new float[size];
+            m_clipW = new float[size];
+        }
+
+        float x[] = buffer.getXArray();
+        float y[] = buffer.getYArray();
+        float z[] = buffer.getZArray();
+        for(int i = 0; i < size; i++)
+        {
+            m_clipX[i] = m.m00*x[i] + m.m01*y[i] + m.m02*z[i] + m.m03;
+            m_clipY[i] = m.m10*x[i] + m.m11*y[i] + m.m12*z[i] + m.m13;
+            m_clipW[i] = m.m30*x[i] + m.m31*y[i] + m.m32*z[i] + m.m33;
+        }
+    }
+
+    /**
+     * Find the eye in world space: the one point the matrix sends to
+     * w = 0 with x and y both 0.
+     */
+    private final void findEye(Matrix4f m)
+    {
+        Matrix4f inverse = new Matrix4f(m);
+        inverse.invert();
+        float w = inverse.m32;
+        if(w == 0)
+        {
+            w = 1;
+        }
+        m_eye[0] = inverse.m02 / w;
+        m_eye[1] = inverse.m12 / w;
+        m_eye[2] = inverse.m22 / w;
+    }
+
+    private final void findLights(Scene scene, VertexBuffer buffer)
+    {
+        FastVector lights = scene.getLights();
+        if(m_lights.length < 3 * Math.max(lights.sizeFast(), 1))
+        {
+            m_lights = new float[3 * Math.max(lights.sizeFast(), 1)];
+        }
+
+        m_numLights = 0;
+        for(int i = 0; i < lights.sizeFast(); i++)
+        {
+            Light light = (Light)lights.elementAtFast(i);
+            if(light instanceof PointLight)
+            {
+                int index = light.getIndices()[0];
+                m_lights[3*m_numLights] = buffer.getX(index);
+                m_lights[3*m_numLights+1] = buffer.getY(index);
+                m_lights[3*m_numLights+2] = buffer.getZ(index);
+                m_numLights++;
+            }
+        }
+
+        if(m_numLights == 0)
+        {
+            m_lights[0] = m_eye[0];
+            m_lights[1] = m_eye[1];
+            m_lights[2] = m_eye[2];
+            m_numLights = 1;
+        }
+    }
+
+    /**
+     * Average the normals of the smooth polygons around each vertex,
+     * as POVReaderWriter does for smooth triangles.
+     *
+     * @param normals array to reuse if it is big enough.
+     * @return three floats per vertex, all 0 for a vertex that is on no
+     * smooth polygon.
+     */
+    static float[] smoothNormals(FastVector primitives, VertexBuffer buffer,
+                                 float normals[])
+    {
+        int size = 3 * buffer.size();
+        if(normals.length < size)
+        {
+            normals = new float[size];
+        }
+        for(int i = 0; i < size; i++)
+        {
+            normals[i] = 0;
+        }
+
+        float normal[] = new float[3];
+        for(int i = 0; i < primitives.sizeFast(); i++)
+        {
+            Object prim = primitives.elementAtFast(i);
+            if(!(prim instanceof Polygon3d))
+            {
+                continue;
+            }
+
+            Polygon3d poly = (Polygon3d)prim;
+            Surface surf = poly.getSurface();
+            if(surf == null || !surf.isSmooth() ||
+               !faceNormal(poly.getIndices(), buffer, normal))
+            {
+                continue;
+            }
+
+            int indices[] = poly.getIndices();
+            for(int j = 0; j < indices.length; j++)
+            {
+                normals[3*indices[j]] += normal[0];
+                normals[3*indices[j]+1] += normal[1];
+                normals[3*indices[j]+2] += normal[2];
+            }
+        }
+
+        for(int i = 0; i < size; i += 3)
+        {
+            float length = (float)Math.sqrt(normals[i]*normals[i] +
+                                            normals[i+1]*normals[i+1] +
+                                            normals[i+2]*normals[i+2]);
+            if(length > 0)
+            {
+                normals[i] /= length;
+                normals[i+1] /= length;
+                normals[i+2] /= length;
+            }
+        }
+        return normals;
+    }
+
+    /**
+     * Unit normal of a polygon, worked out the same way as
+     * Polygon3d.computeNormal but without changing the polygon, since
+     * views render at the same time.
+     *
+     * @return false if the polygon has no area.
+     */
+    static boolean faceNormal(int indices[], VertexBuffer buffer,
+                              float normal[])
+    {
+        float x[] = buffer.getXArray();
+        float y[] = buffer.getYArray();
+        float z[] = buffer.getZArray();
+
+        double a = 0, b = 0, c = 0;
+        for(int i = 0; i < indices.length; i++)
+        {
+            int p = indices[i];
+            int q = indices[(i + 1) % indices.length];
+            a += (z[p] + z[q]) * (y[q] - y[p]);
+            b += (x[p] + x[q]) * (z[q] - z[p]);
+            c += (y[p] + y[q]) * (x[q] - x[p]);
+        }
+
+        double length = Math.sqrt(a*a + b*b + c*c);
+        if(length < .000001)
+        {
+            return false;
+        }
+        normal[0] = (float)(a/length);
+        normal[1] = (float)(b/length);
+        normal[2] = (float)(c/length);
+        return true;
+    }
+
+    /**
+     * Light the corners of a polygon, clip it to the near plane, and
+     * add it to the bins as a fan of triangles.
+     */
+    private final void addPolygon(Polygon3d poly, VertexBuffer buffer)
+    {
+        int indices[] = poly.getIndices();
+        int n = indices.length;
+        float normal[] = m_normal;
+        if(n < 3 || !faceNormal(indices, buffer, normal))
+        {
+            return;
+        }
+
+        Surface surf = poly.getSurface();
+        if(surf == null)
+        {
+            surf = new Surface();
+        }
+        boolean smooth = surf.isSmooth();
+
+        //Light whichever side faces the eye.
+        float x[] = buffer.getXArray();
+        float y[] = buffer.getYArray();
+        float z[] = buffer.getZArray();
+        int first = indices[0];
+        float side = ((m_eye[0] - x[first]) * normal[0] +
+                      (m_eye[1] - y[first]) * normal[1] +
+                      (m_eye[2] - z[first]) * normal[2]) < 0 ? -1 : 1;
+
+        if(m_polygon.length < n * CORNER)
+        {
+            m_polygon = new float[n * CORNER];
+            m_clipped = new float[(n + 1) * CORNER];
+        }
+        boolean behind = false;
+        for(int i = 0; i < n; i++)
+        {
+            int v = indices[i];
+            float nx = normal[0], ny = normal[1], nz = normal[2];
+            if(smooth && (m_normals[3*v] != 0 || m_normals[3*v+1] != 0 ||
+                          m_normals[3*v+2] != 0))
+            {
+                nx = m_normals[3*v];
+                ny = m_normals[3*v+1];
+                nz = m_normals[3*v+2];
+            }
+            shade(x[v], y[v], z[v], side*nx, side*ny, side*nz, surf);
+
+            int at = i * CORNER;
+            m_polygon[at] = m_clipX[v];
+            m_polygon[at+1] = m_clipY[v];
+            m_polygon[at+2] = m_clipW[v];
+            m_polygon[at+3] = m_shade[0];
+            m_polygon[at+4] = m_shade[1];
+            m_polygon[at+5] = m_shade[2];
+            behind |= m_clipW[v] < NEAR_W;
+        }
+
+        float corners[] = m_polygon;
+        if(behind)
+        {
+            n = clipNear(n);
+            corners = m_clipped;
+        }
+
+        for(int i = 1; i < n - 1; i++)
+        {
+            addTriangle(corners, 0, i * CORNER, (i+1) * CORNER);
+        }
+    }
+
+    /**
+     * Clip m_polygon to w >= NEAR_W into m_clipped.  Attributes are
+     * interpolated in clip space, where they are still linear.
+     *
+     * @return the number of corners left.
+     */
+    private final int clipNear(int n)
+    {
+        int out = 0;
+        for(int i = 0; i < n; i++)
+        {
+            int a = i * CORNER;
+            int b = ((i + 1) % n) * CORNER;
+            float wa = m_polygon[a+2];
+            float wb = m_polygon[b+2];
+
+            if(wa >= NEAR_W)
+            {
+                System.arraycopy(m_polygon, a, m_clipped, out * CORNER, CORNER);
+                out++;
+            }
+            if((wa >= NEAR_W) != (wb >= NEAR_W))
+            {
+                float t = (NEAR_W - wa) / (wb - wa);
+                for(int k = 0; k < CORNER; k++)
+                {
+                    m_clipped[out * CORNER + k] =
+                        m_polygon[a+k] + t * (m_polygon[b+k] - m_polygon[a+k]);
+                }
+                out++;
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Work out the color of a point on a surface, into m_shade.
+     */
+    private final void shade(float px, float py, float pz,
+                             float nx, float ny, float nz, Surface surf)
+    {
+        Color color = surf.getColor();
+        float diffuse = (float)surf.getDiffuse();
+        float specular = (float)surf.getSpecular();
+
+        float vx = m_eye[0] - px, vy = m_eye[1] - py, vz = m_eye[2] - pz;
+        float length = (float)Math.sqrt(vx*vx + vy*vy + vz*vz);
+        if(length > 0)
+        {
+            vx /= length;
+            vy /= length;
+            vz /= length;
+        }
+
+        float light = AMBIENT;
+        float highlight = 0;
+        for(int i = 0; i < m_numLights; i++)
+        {
+            float lx = m_lights[3*i] - px;
+            float ly = m_lights[3*i+1] - py;
+            float lz = m_lights[3*i+2] - pz;
+            length = (float)Math.sqrt(lx*lx + ly*ly + lz*lz);
+            if(length == 0)
+            {
+                continue;
+            }
+            lx /= length;
+            ly /= length;
+            lz /= length;
+
+            float lambert = nx*lx + ny*ly + nz*lz;
+            if(lambert <= 0)
+            {
+                continue;
+            }
+            light += diffuse * lambert;
+
+            //Blinn's half-way vector.
+            float hx = lx + vx, hy = ly + vy, hz = lz + vz;
+            length = (float)Math.sqrt(hx*hx + hy*hy + hz*hz);
+            float facing = length > 0 ? (nx*hx + ny*hy + nz*hz)/length : 0;
+            if(facing > 0)
+            {
+                highlight += specular * (float)Math.pow(facing, SHININESS);
+            }
+        }
+
+        m_shade[0] = color.getRed()/255.0f * light + highlight;
+        m_shade[1] = color.getGreen()/255.0f * light + highlight;
+        m_shade[2] = color.getBlue()/255.0f * light + highlight;
+    }
+
+    /**
+     * Project a triangle to the screen and put it in the bins of the
+     * tiles its bounding box touches.
+     */
+    private final void addTriangle(float corners[], int a, int b, int c)
+    {
+        if(m_triangles.length < (m_numTriangles + 1) * TRIANGLE)
+        {
+            float triangles[] = new float[m_triangles.length * 2];
+            System.arraycopy(m_triangles, 0, triangles, 0,
+                             m_numTriangles * TRIANGLE);
+            m_triangles = triangles;
+        }
+
+        int at = m_numTriangles * TRIANGLE;
+        int from[] = { a, b, c };
+        float minX = Float.MAX_VALUE, maxX = -Float.MAX_VALUE;
+        float minY = Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+        for(int i = 0; i < 3; i++)
+        {
+            int k = from[i];
+            float w = corners[k+2];
+            float sx = corners[k] / w;
+            float sy = corners[k+1] / w;
+            m_triangles[at] = sx;
+            m_triangles[at+1] = sy;
+            m_triangles[at+2] = 1 / w;
+            m_triangles[at+3] = corners[k+3];
+            m_triangles[at+4] = corners[k+4];
+            m_triangles[at+5] = corners[k+5];
+            at += CORNER;
+
+            minX = Math.min(minX, sx);
+            maxX = Math.max(maxX, sx);
+            minY = Math.min(minY, sy);
+            maxY = Math.max(maxY, sy);
+        }
+
+        //Also throws out NaNs, which fail every comparison.
+        if(!(maxX >= 0 && minX < m_width && maxY >= 0 && minY < m_height))
+        {
+            return;
+        }
+
+        int tileX0 = (int)Math.max(minX, 0) / TILE_SIZE;
+        int tileX1 = (int)Math.min(maxX, m_width - 1) / TILE_SIZE;
+        int tileY0 = (int)Math.max(minY, 0) / TILE_SIZE;
+        int tileY1 = (int)Math.min(maxY, m_height - 1) / TILE_SIZE;
+        for(int ty = tileY0; ty <= tileY1; ty++)
+        {
+            for(int tx = tileX0; tx <= tileX1; tx++)
+            {
+                int tile = ty * m_tilesX + tx;
+                if(m_binSizes[tile] == m_bins[tile].length)
+                {
+                    int bin[] = new int[m_bins[tile].length * 2];
+                    System.arraycopy(m_bins[tile], 0, bin, 0,
+                                     m_binSizes[tile]);
+                    m_bins[tile] = bin;
+                }
+                m_bins[tile][m_binSizes[tile]++] = m_numTriangles;
+            }
+        }
+        m_numTriangles++;
+    }
+
+    /**
+     * A range of tiles to be filled in by the ForkJoinPool, split in
+     * half until it is a single tile.
+     */
+    private class Tiles extends RecursiveAction
+    {
+        private int m_from;
+        private int m_to;
+
+        Tiles(int from, int to)
+        {
+            m_from = from;
+            m_to = to;
+        }
+
+        protected void compute()
+        {
+            if(m_to - m_from <= 1)
+            {
+                fillTile(m_from);
+            }
+            else
+            {
+                int middle = (m_from + m_to) >>> 1;
+                invokeAll(new Tiles(m_from, middle), new Tiles(middle, m_to));
+            }
+        }
+    }
+
+    /**
+     * Clear a tile and draw the triangles in its bin.  Only this tile's
+     * pixels are touched, so tiles can be filled at the same time.
+     */
+    private final void fillTile(int tile)
+    {
+        int x0 = (tile % m_tilesX) * TILE_SIZE;
+        int y0 = (tile / m_tilesX) * TILE_SIZE;
+        int x1 = Math.min(x0 + TILE_SIZE, m_width);
+        int y1 = Math.min(y0 + TILE_SIZE, m_height);
+
+        for(int y = y0; y < y1; y++)
+        {
+            int row = y * m_width;
+            for(int x = x0; x < x1; x++)
+            {
+                m_pixels[row + x] = 0;
+                m_depth[row + x] = 0;
+            }
+        }
+
+        int bin[] = m_bins[tile];
+        for(int i = 0; i < m_binSizes[tile]; i++)
+        {
+            fillTriangle(bin[i] * TRIANGLE, x0, y0, x1, y1);
+        }
+    }
+
+    /**
+     * Draw the pixels of a triangle whose centers are inside it and
+     * inside the rectangle x0..x1-1, y0..y1-1.  1/w and the color are
+     * interpolated linearly across the screen, and a pixel is only
+     * drawn if 1/w is bigger, that is nearer, than what is there.
+     */
+    private final void fillTriangle(int at, int x0, int y0, int x1, int y1)
+    {
+        float t[] = m_triangles;
+        float ax = t[at], ay = t[at+1];
+        float bx = t[at+CORNER], by = t[at+CORNER+1];
+        float cx = t[at+2*CORNER], cy = t[at+2*CORNER+1];
+
+        float area = (bx - ax) * (cy - ay) - (by - ay) * (cx - ax);
+        if(!(area > 1e-6f || area < -1e-6f))
+        {
+            return;
+        }
+        float scale = 1 / area;
+
+        int minX = Math.max(x0, (int)Math.floor(Math.min(ax, Math.min(bx, cx))));
+        int maxX = Math.min(x1 - 1, (int)Math.ceil(Math.max(ax, Math.max(bx, cx))));
+        int minY = Math.max(y0, (int)Math.floor(Math.min(ay, Math.min(by, cy))));
+        int maxY = Math.min(y1 - 1, (int)Math.ceil(Math.max(ay, Math.max(by, cy))));
+        if(minX > maxX || minY > maxY)
+        {
+            return;
+        }
+
+        //Barycentric weights of a and b and how they change per pixel;
+        //c's weight is what's left.
+        float dax = (by - cy) * scale;
+        float dbx = (cy - ay) * scale;
+
+        float iwA = t[at+2], iwB = t[at+CORNER+2], iwC = t[at+2*CORNER+2];
+        float rA = t[at+3], rB = t[at+CORNER+3], rC = t[at+2*CORNER+3];
+        float gA = t[at+4], gB = t[at+CORNER+4], gC = t[at+2*CORNER+4];
+        float bA = t[at+5], bB = t[at+CORNER+5], bC = t[at+2*CORNER+5];
+
+        for(int y = minY; y <= maxY; y++)
+        {
+            float px = minX + 0.5f - cx;
+            float py = y + 0.5f - cy;
+            float wa = ((by - cy) * px + (cx - bx) * py) * scale;
+            float wb = ((cy - ay) * px + (ax - cx) * py) * scale;
+            int row = y * m_width;
+
+            for(int x = minX; x <= maxX; x++, wa += dax, wb += dbx)
+            {
+                float wc = 1 - wa - wb;
+                if(wa < 0 || wb < 0 || wc < 0)
+                {
+                    continue;
+                }
+
+                float iw = wa*iwA + wb*iwB + wc*iwC;
+                if(iw <= m_depth[row + x])
+                {
+                    continue;
+                }
+                m_depth[row + x] = iw;
+                m_pixels[row + x] = 0xff000000 |
+                    (channel(wa*rA + wb*rB + wc*rC) << 16) |
+                    (channel(wa*gA + wb*gB + wc*gC) << 8) |
+                    channel(wa*bA + wb*bB + wc*bC);
+            }
+        }
+    }
+
+    private static int channel(float value)
+    {
+        int c = (int)(value * 255 + 0.5f);
+        return c < 0 ? 0 : (c > 255 ? 255 : c);
+    }
+}